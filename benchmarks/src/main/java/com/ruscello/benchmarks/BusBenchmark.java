@@ -0,0 +1,74 @@
+package com.ruscello.benchmarks;
+
+import com.ruscello.bus.FakeMessage;
+import com.ruscello.bus.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the same message through each bus from 1, 4 and 16 threads with 1, 8 and 64 handlers subscribed.
+ * Throughput and sampled publish times (for p99) are both reported, run with the gc profiler, which
+ * {@link BenchmarkRunner} adds by default, for the allocation rate per publish.
+ * <p>
+ * The message is created once so only allocation by the bus is counted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BusBenchmark {
+
+    @Param({Buses.GUAVA, Buses.MBASSADOR, Buses.MESSAGE_BUS, Buses.DISRUPTOR, Buses.IN_MEMORY, Buses.QUEUED})
+    public String bus;
+
+    @Param({"1", "8", "64"})
+    public int handlers;
+
+    private Buses.Bus target;
+    private Message message;
+
+    @Setup(Level.Trial)
+    public void open() {
+        target = Buses.create(bus, handlers);
+        message = new FakeMessage();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        target.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void publishers01() {
+        target.publish(message);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void publishers04() {
+        target.publish(message);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void publishers16() {
+        target.publish(message);
+    }
+}
@@ -0,0 +1,244 @@
+package com.ruscello.benchmarks;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.EventTranslatorOneArg;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import com.lmax.disruptor.util.DaemonThreadFactory;
+import com.ruscello.bus.FakeMessage;
+import com.ruscello.bus.IHandle;
+import com.ruscello.bus.InMemoryBus;
+import com.ruscello.bus.Message;
+import com.ruscello.bus.QueuedHandler;
+import dorkbox.messageBus.MessageBus;
+import net.engio.mbassy.bus.MBassador;
+import net.engio.mbassy.bus.error.IPublicationErrorHandler;
+import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.listener.Listener;
+import net.engio.mbassy.listener.References;
+
+/**
+ * Builds each bus under test with the same number of handlers subscribed to {@link FakeMessage} so every benchmark
+ * drives the same publish and fan out through each of them.
+ * <p>
+ * Handlers only count what they receive so the numbers are the cost of the bus itself. Guava, MBassador, MessageBus
+ * and InMemoryBus run handlers on the publishing thread. The Disruptor and the queued InMemoryBus hand messages to
+ * their own threads through a bounded queue, so publishers are held back once the handlers fall behind.
+ */
+final class Buses {
+
+    static final String GUAVA = "guava";
+    static final String MBASSADOR = "mbassador";
+    static final String MESSAGE_BUS = "messagebus";
+    static final String DISRUPTOR = "disruptor";
+    static final String IN_MEMORY = "inmemory";
+    static final String QUEUED = "queued";
+
+    private static final int RING_SIZE = 16_384;
+
+    private Buses() {
+        // statics only
+    }
+
+    interface Bus extends AutoCloseable {
+        void publish(Message message);
+
+        @Override
+        void close();
+    }
+
+    static Bus create(String bus, int handlers) {
+        switch (bus) {
+            case GUAVA:
+                return guava(handlers);
+            case MBASSADOR:
+                return mbassador(handlers);
+            case MESSAGE_BUS:
+                return messageBus(handlers);
+            case DISRUPTOR:
+                return disruptor(handlers);
+            case IN_MEMORY:
+                return inMemory(handlers);
+            case QUEUED:
+                return queued(handlers);
+            default:
+                throw new IllegalArgumentException("Unknown bus " + bus);
+        }
+    }
+
+    private static Bus guava(int handlers) {
+        EventBus eventBus = new EventBus("benchmark");
+        for (int i = 0; i < handlers; i++) {
+            eventBus.register(new GuavaHandler());
+        }
+        return new Bus() {
+            @Override
+            public void publish(Message message) {
+                eventBus.post(message);
+            }
+
+            @Override
+            public void close() {
+                // nothing to release
+            }
+        };
+    }
+
+    private static Bus mbassador(int handlers) {
+        MBassador<Message> mbassador = new MBassador<>(new IPublicationErrorHandler.ConsoleLogger());
+        for (int i = 0; i < handlers; i++) {
+            mbassador.subscribe(new MbassadorHandler());
+        }
+        return new Bus() {
+            @Override
+            public void publish(Message message) {
+                mbassador.publish(message);
+            }
+
+            @Override
+            public void close() {
+                mbassador.shutdown();
+            }
+        };
+    }
+
+    private static Bus messageBus(int handlers) {
+        MessageBus messageBus = new MessageBus();
+        for (int i = 0; i < handlers; i++) {
+            messageBus.subscribe(new MessageBusHandler());
+        }
+        return new Bus() {
+            @Override
+            public void publish(Message message) {
+                messageBus.publish(message);
+            }
+
+            @Override
+            public void close() {
+                messageBus.shutdown();
+            }
+        };
+    }
+
+    private static Bus disruptor(int handlers) {
+        Disruptor<MessageEvent> disruptor = new Disruptor<>(MessageEvent::new, RING_SIZE, DaemonThreadFactory.INSTANCE,
+                ProducerType.MULTI, new BlockingWaitStrategy());
+        DisruptorHandler[] eventHandlers = new DisruptorHandler[handlers];
+        for (int i = 0; i < handlers; i++) {
+            eventHandlers[i] = new DisruptorHandler();
+        }
+        disruptor.handleEventsWith(eventHandlers);
+        RingBuffer<MessageEvent> ringBuffer = disruptor.start();
+        return new Bus() {
+            @Override
+            public void publish(Message message) {
+                ringBuffer.publishEvent(MessageEvent.TRANSLATOR, message);
+            }
+
+            @Override
+            public void close() {
+                disruptor.shutdown();
+            }
+        };
+    }
+
+    private static Bus inMemory(int handlers) {
+        InMemoryBus inMemoryBus = inMemoryBus(handlers);
+        return new Bus() {
+            @Override
+            public void publish(Message message) {
+                inMemoryBus.publish(message);
+            }
+
+            @Override
+            public void close() {
+                // nothing to release
+            }
+        };
+    }
+
+    private static Bus queued(int handlers) {
+        QueuedHandler queue = new QueuedHandler(inMemoryBus(handlers), "benchmark", false, null, RING_SIZE);
+        queue.start();
+        return new Bus() {
+            @Override
+            public void publish(Message message) {
+                queue.publish(message);
+            }
+
+            @Override
+            public void close() {
+                queue.stop();
+            }
+        };
+    }
+
+    private static InMemoryBus inMemoryBus(int handlers) {
+        InMemoryBus inMemoryBus = new InMemoryBus("benchmark", false, null);
+        for (int i = 0; i < handlers; i++) {
+            inMemoryBus.subscribe(FakeMessage.class, new InMemoryHandler());
+        }
+        return inMemoryBus;
+    }
+
+    public static final class GuavaHandler {
+        long handled;
+
+        @Subscribe
+        @AllowConcurrentEvents
+        public void handle(FakeMessage message) {
+            handled++;
+        }
+    }
+
+    @Listener(references = References.Strong)
+    public static final class MbassadorHandler {
+        long handled;
+
+        @Handler
+        public void handle(FakeMessage message) {
+            handled++;
+        }
+    }
+
+    public static final class MessageBusHandler {
+        long handled;
+
+        @dorkbox.messageBus.annotations.Handler
+        public void handle(FakeMessage message) {
+            handled++;
+        }
+    }
+
+    static final class InMemoryHandler implements IHandle<FakeMessage> {
+        long handled;
+
+        @Override
+        public void handle(FakeMessage message) {
+            handled++;
+        }
+    }
+
+    static final class MessageEvent {
+        static final EventTranslatorOneArg<MessageEvent, Message> TRANSLATOR =
+                (event, sequence, message) -> event.message = message;
+
+        Message message;
+    }
+
+    static final class DisruptorHandler implements EventHandler<MessageEvent> {
+        long handled;
+
+        @Override
+        public void onEvent(MessageEvent event, long sequence, boolean endOfBatch) {
+            if (event.message instanceof FakeMessage) {
+                handled++;
+            }
+        }
+    }
+}
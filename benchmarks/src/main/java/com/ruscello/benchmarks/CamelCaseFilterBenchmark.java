@@ -0,0 +1,152 @@
+package com.ruscello.benchmarks;
+
+import com.ruscello.CamelCaseFilter;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.KeywordTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits stream names with the char scanning {@link CamelCaseFilter} and with the regex filter it replaced. Names are
+ * read through a reused Reader so the allocation rate is the filter's own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CamelCaseFilterBenchmark {
+
+    public static final String CHAR_SCAN = "charScan";
+    public static final String REGEX = "regex";
+
+    private static final String[] NAMES = {
+            "orderPlaced-42",
+            "customerAccount-1234567",
+            "HTTPRequestLog",
+            "shipmentDispatchedNotification",
+            "stream",
+            "$ce-paymentAuthorised",
+            "inventoryItemV2-9f86d081884c7d65",
+            "userSessionStarted_2018-07-01"
+    };
+
+    @Param({CHAR_SCAN, REGEX})
+    public String filter;
+
+    private final NameReader reader = new NameReader();
+    private Tokenizer tokenizer;
+    private TokenStream stream;
+    private CharTermAttribute term;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tokenizer = new KeywordTokenizer();
+        stream = CHAR_SCAN.equals(filter) ? new CamelCaseFilter(tokenizer) : new RegexCamelCaseFilter(tokenizer);
+        term = stream.getAttribute(CharTermAttribute.class);
+        tokenizer.setReader(reader);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        stream.close();
+    }
+
+    @Benchmark
+    public void split(Blackhole blackhole) throws IOException {
+        reader.set(NAMES[next]);
+        next = next + 1 == NAMES.length ? 0 : next + 1;
+        stream.reset();
+        while (stream.incrementToken()) {
+            blackhole.consume(term.length());
+        }
+        stream.end();
+        stream.close();
+        // close drops the reader so it has to be handed back for the next name
+        tokenizer.setReader(reader);
+    }
+
+    /**
+     * The filter as it was, a regex built and compiled for every token
+     */
+    static final class RegexCamelCaseFilter extends TokenFilter {
+
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+        RegexCamelCaseFilter(TokenStream input) {
+            super(input);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (!input.incrementToken()) {
+                return false;
+            }
+            String split = splitCamelCase(termAtt.toString());
+            termAtt.setEmpty();
+            termAtt.append(split);
+            return true;
+        }
+
+        static String splitCamelCase(String s) {
+            return s.replaceAll(
+                    String.format("%s|%s|%s",
+                            "(?<=[A-Z])(?=[A-Z][a-z])",
+                            "(?<=[^A-Z])(?=[A-Z])",
+                            "(?<=[A-Za-z])(?=[^A-Za-z])"
+                    ),
+                    " "
+            );
+        }
+    }
+
+    /**
+     * A Reader over a String that can be pointed at the next name rather than allocating a StringReader per name
+     */
+    private static final class NameReader extends Reader {
+        private String name = "";
+        private int position;
+
+        void set(String name) {
+            this.name = name;
+            this.position = 0;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position == name.length()) {
+                return -1;
+            }
+            int count = Math.min(length, name.length() - position);
+            name.getChars(position, position + count, buffer, offset);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            // reused
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.ruscello.benchmarks;
+
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.storage.AppendBatchWriter;
+import com.ruscello.storage.PendingAppend;
+import com.ruscello.storage.StorageEngine;
+import com.ruscello.storage.lmdb.LmbdStorageEngine;
+import com.ruscello.storage.rocksdb.RocksdbStorageEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Opens the engines under test the same way so every benchmark runs the same workload against both.
+ * Stores are created under the directory given by the ruscello.benchmark.dir system property.
+ */
+final class Engines {
+
+    static final String ROCKSDB = "rocksdb";
+    static final String LMDB = "lmdb";
+
+    static final int MESSAGE_SIZE = 128;
+
+    // on 64 bit there is no penalty for a huge map so size it for the largest fixture, 10^7 streams of 10 messages
+    private static final long LMDB_MAP_SIZE = 64L * 1024 * 1024 * 1024;
+
+    // appends written per batch when populating a store
+    private static final int POPULATE_BATCH_SIZE = 1_000;
+
+    private static final String POPULATED_MARKER = "populated";
+
+    private Engines() {
+        // statics only
+    }
+
+    static File directory(String name) {
+        String base = System.getProperty("ruscello.benchmark.dir",
+                new File(System.getProperty("java.io.tmpdir"), "ruscello-benchmarks").getPath());
+        return new File(base, name);
+    }
+
+    static StorageEngine open(String engine, File dir) {
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            throw new IllegalStateException("Unable to create " + dir);
+        }
+        switch (engine) {
+            case ROCKSDB: {
+                RocksdbStorageEngine rocksdb = new RocksdbStorageEngine("benchmark", dir.getAbsolutePath());
+                rocksdb.open();
+                return rocksdb;
+            }
+            case LMDB: {
+                LmbdStorageEngine lmdb = new LmbdStorageEngine(dir, LMDB_MAP_SIZE);
+                lmdb.open();
+                return lmdb;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+    }
+
+    /**
+     * Opens a store holding the given number of streams, populating it the first time. Read benchmarks never write
+     * so a populated store is reused across forks and runs rather than rebuilt for every trial.
+     */
+    static StorageEngine openPopulated(String engine, int streams, int messagesPerStream) {
+        File dir = directory(engine + "-" + streams + "x" + messagesPerStream);
+        File marker = new File(dir, POPULATED_MARKER);
+        if (marker.exists()) {
+            return open(engine, dir);
+        }
+
+        delete(dir);
+        StorageEngine store = open(engine, dir);
+        // both engines batch writes, which is far quicker than appending one stream at a time
+        populate((AppendBatchWriter) store, streams, messagesPerStream);
+        try {
+            Files.createFile(marker.toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return store;
+    }
+
+    private static void populate(AppendBatchWriter writer, int streams, int messagesPerStream) {
+        List<byte[]> messages = new ArrayList<>(messagesPerStream);
+        for (int i = 0; i < messagesPerStream; i++) {
+            messages.add(message());
+        }
+        List<PendingAppend> batch = new ArrayList<>(POPULATE_BATCH_SIZE);
+        for (int stream = 0; stream < streams; stream++) {
+            batch.add(PendingAppend.withRandomIds(streamId(stream), (int) ExpectedVersion.NO_STRREAM, messages));
+            if (batch.size() == POPULATE_BATCH_SIZE || stream == streams - 1) {
+                writer.write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    static String streamId(int stream) {
+        return "stream-" + stream;
+    }
+
+    static byte[] message() {
+        byte[] message = new byte[MESSAGE_SIZE];
+        Arrays.fill(message, (byte) 'x');
+        return message;
+    }
+
+    static void close(StorageEngine engine) {
+        if (engine instanceof RocksdbStorageEngine) {
+            ((RocksdbStorageEngine) engine).close();
+        } else if (engine instanceof LmbdStorageEngine) {
+            ((LmbdStorageEngine) engine).close();
+        }
+    }
+
+    static void delete(File dir) {
+        if (!dir.exists()) {
+            return;
+        }
+        try {
+            Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                    Files.delete(directory);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.ruscello.benchmarks;
+
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.core.messages.client.AppendResult;
+import com.ruscello.storage.StorageEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends to a fresh store, cycling through the streams so every stream is created once and then appended to.
+ * With more streams than the version cache holds the expected version check has to go to storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StorageEngineAppendBenchmark {
+
+    @Param({Engines.ROCKSDB, Engines.LMDB})
+    public String engine;
+
+    @Param({"1000", "100000", "10000000"})
+    public int streams;
+
+    // 1 is a single message append
+    @Param({"1", "10", "100"})
+    public int batchSize;
+
+    private File dir;
+    private StorageEngine store;
+    private byte[] message;
+    private List<byte[]> batch;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void open() {
+        dir = Engines.directory(engine + "-append");
+        Engines.delete(dir);
+        store = Engines.open(engine, dir);
+        message = Engines.message();
+        batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(Engines.message());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        Engines.close(store);
+        Engines.delete(dir);
+    }
+
+    @Benchmark
+    public AppendResult append() {
+        // building the name is cheap next to a write and keeps 10^7 names out of the heap
+        String streamId = Engines.streamId(next);
+        next = next + 1 == streams ? 0 : next + 1;
+        if (batchSize == 1) {
+            return store.appendToStream(streamId, (int) ExpectedVersion.ANY, message);
+        }
+        return store.appendToStream(streamId, (int) ExpectedVersion.ANY, batch);
+    }
+}
@@ -0,0 +1,138 @@
+package com.ruscello.benchmarks;
+
+import com.ruscello.core.ReadAllPage;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.StreamVersion;
+import com.ruscello.storage.StorageEngine;
+import com.ruscello.storage.StoreIterator;
+import com.ruscello.storage.StreamKeyCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point gets, stream pages, $all pages and prefix scans against a populated store. Streams and messages are picked at
+ * random so reads are spread over the whole store rather than staying in cache.
+ * <p>
+ * The largest fixture takes a while to build the first time, pass -p streams=1000 for a quick run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StorageEngineReadBenchmark {
+
+    @Param({Engines.ROCKSDB, Engines.LMDB})
+    public String engine;
+
+    @Param({"1000", "100000", "10000000"})
+    public int streams;
+
+    @Param({"10"})
+    public int messagesPerStream;
+
+    @Param({"10"})
+    public int pageSize;
+
+    private StorageEngine store;
+
+    @Setup(Level.Trial)
+    public void open() {
+        store = Engines.openPopulated(engine, streams, messagesPerStream);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        Engines.close(store);
+    }
+
+    /**
+     * Random streams, keys and positions picked up front so building them isn't part of the measurement
+     */
+    @State(Scope.Thread)
+    public static class Sample {
+        private static final int SIZE = 4096;
+
+        final String[] streamIds = new String[SIZE];
+        final byte[][] keys = new byte[SIZE][];
+        final byte[][] prefixes = new byte[SIZE][];
+        final long[] positions = new long[SIZE];
+        private int next;
+
+        @Setup(Level.Iteration)
+        public void pick(StorageEngineReadBenchmark benchmark) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            StreamKeyCodec codec = new StreamKeyCodec();
+            long messages = (long) benchmark.streams * benchmark.messagesPerStream;
+            for (int i = 0; i < SIZE; i++) {
+                streamIds[i] = Engines.streamId(random.nextInt(benchmark.streams));
+                keys[i] = codec.key(streamIds[i], random.nextInt(benchmark.messagesPerStream)).clone();
+                prefixes[i] = codec.hash(streamIds[i]).clone();
+                positions[i] = random.nextLong(messages);
+            }
+        }
+
+        int next() {
+            next = (next + 1) & (SIZE - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public byte[] get(Sample sample) {
+        return store.get(sample.keys[sample.next()]);
+    }
+
+    @Benchmark
+    public ReadStreamPage readStreamForwards(Sample sample) {
+        return store.readStreamForwards(sample.streamIds[sample.next()], StreamVersion.START, pageSize, true);
+    }
+
+    @Benchmark
+    public ReadStreamPage readStreamBackwards(Sample sample) {
+        return store.readStreamBackwards(sample.streamIds[sample.next()], StreamVersion.END, pageSize, true);
+    }
+
+    @Benchmark
+    public ReadAllPage readAllForwards(Sample sample) {
+        return store.readAllForwards(sample.positions[sample.next()], pageSize, true);
+    }
+
+    /**
+     * $all entries only, which is what a subscriber filtering on stream name reads
+     */
+    @Benchmark
+    public ReadAllPage readAllForwardsWithoutPrefetch(Sample sample) {
+        return store.readAllForwards(sample.positions[sample.next()], pageSize, false);
+    }
+
+    @Benchmark
+    public ReadAllPage readAllBackwards(Sample sample) {
+        return store.readAllBackwards(sample.positions[sample.next()], pageSize, true);
+    }
+
+    @Benchmark
+    public void prefixScan(Sample sample, Blackhole blackhole) {
+        try (StoreIterator<byte[], byte[]> it = store.range(sample.prefixes[sample.next()], pageSize)) {
+            while (it.hasNext()) {
+                blackhole.consume(it.next());
+            }
+        }
+    }
+}
@@ -3,39 +3,111 @@ package com.ruscello;
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.ArrayUtil;
 
 import java.io.IOException;
 
+/**
+ * Splits tokens on camel case and letter / non letter boundaries, so "seanCarroll42" becomes "sean", "Carroll" and
+ * "42" at consecutive positions. Runs of capitals stay together apart from the last one when it starts a word, so
+ * "HTTPRequest" becomes "HTTP" and "Request". Only ASCII letters are treated as letters.
+ * <p>
+ * The boundaries are found by scanning the term buffer rather than with a regex and the first part is left in place
+ * by truncating the term, so a token that doesn't need splitting costs one pass over its chars and nothing is
+ * allocated once the copy of the token grows to fit the longest one seen.
+ */
 public class CamelCaseFilter extends TokenFilter {
 
-    private final CharTermAttribute _termAtt;
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+    private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
 
-    protected CamelCaseFilter(TokenStream input) {
+    // the token being split as the term buffer is overwritten by each part
+    private char[] token = new char[32];
+    private int tokenLength;
+    // start of the next part, tokenLength once every part has been emitted
+    private int next;
+    private int startOffset;
+    // offsets can only be split if an earlier filter didn't change the term's length
+    private boolean splitOffsets;
+
+    public CamelCaseFilter(TokenStream input) {
         super(input);
-        this._termAtt = addAttribute(CharTermAttribute.class);
     }
 
     @Override
-    public boolean incrementToken() throws IOException {
-        if (!input.incrementToken())
+    public final boolean incrementToken() throws IOException {
+        if (next < tokenLength) {
+            int end = nextBoundary(token, next, tokenLength);
+            termAtt.copyBuffer(token, next, end - next);
+            posIncAtt.setPositionIncrement(1);
+            if (splitOffsets) {
+                offsetAtt.setOffset(startOffset + next, startOffset + end);
+            }
+            next = end;
+            return true;
+        }
+
+        if (!input.incrementToken()) {
             return false;
-        CharTermAttribute a = this.getAttribute(CharTermAttribute.class);
-        String spliettedString = splitCamelCase(a.toString());
-        _termAtt.setEmpty();
-        _termAtt.append(spliettedString);
+        }
+        char[] buffer = termAtt.buffer();
+        int length = termAtt.length();
+        int end = nextBoundary(buffer, 0, length);
+        if (end == length) {
+            return true;
+        }
+
+        if (token.length < length) {
+            token = new char[ArrayUtil.oversize(length, Character.BYTES)];
+        }
+        System.arraycopy(buffer, 0, token, 0, length);
+        tokenLength = length;
+        next = end;
+        startOffset = offsetAtt.startOffset();
+        splitOffsets = offsetAtt.endOffset() - startOffset == length;
+        // the first part is already at the start of the buffer
+        termAtt.setLength(end);
+        if (splitOffsets) {
+            offsetAtt.setOffset(startOffset, startOffset + end);
+        }
         return true;
+    }
 
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        tokenLength = 0;
+        next = 0;
+    }
+
+    /**
+     * @return index of the first boundary after from, or end if there is none
+     */
+    static int nextBoundary(char[] chars, int from, int end) {
+        for (int i = from + 1; i < end; i++) {
+            char previous = chars[i - 1];
+            char c = chars[i];
+            if (isUpper(c)) {
+                // aB, 1B, -B and the B in ABc
+                if (!isUpper(previous) || (i + 1 < end && isLower(chars[i + 1]))) {
+                    return i;
+                }
+            } else if (!isLower(c) && (isUpper(previous) || isLower(previous))) {
+                // a1, a-, A1, A-
+                return i;
+            }
+        }
+        return end;
     }
 
+    private static boolean isUpper(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
 
-    static String splitCamelCase(String s) {
-        return s.replaceAll(
-                String.format("%s|%s|%s",
-                        "(?<=[A-Z])(?=[A-Z][a-z])",
-                        "(?<=[^A-Z])(?=[A-Z])",
-                        "(?<=[A-Za-z])(?=[^A-Za-z])"
-                ),
-                " "
-        );
+    private static boolean isLower(char c) {
+        return c >= 'a' && c <= 'z';
     }
-}
\ No newline at end of file
+}
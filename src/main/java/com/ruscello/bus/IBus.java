@@ -1,4 +1,7 @@
 package com.ruscello.bus;
 
-public interface IBus {
+public interface IBus extends IPublisher, ISubscriber {
+
+    String getName();
+
 }
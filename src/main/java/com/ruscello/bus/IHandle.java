@@ -1,4 +1,7 @@
 package com.ruscello.bus;
 
-public interface IHandle<R> {
+public interface IHandle<T extends Message> {
+
+    void handle(T message);
+
 }
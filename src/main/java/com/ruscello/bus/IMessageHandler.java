@@ -1,4 +1,19 @@
 package com.ruscello.bus;
 
 public interface IMessageHandler {
+
+    String getHandlerName();
+
+    boolean tryHandle(Message message);
+
+    /**
+     * @return id of the message type the handler subscribed to
+     */
+    int getMsgTypeId();
+
+    /**
+     * @return true if this wraps the given handler subscribed for the given message type
+     */
+    boolean isSame(int msgTypeId, Object handler);
+
 }
@@ -1,4 +1,7 @@
 package com.ruscello.bus;
 
 public interface IPublisher {
+
+    void publish(Message message);
+
 }
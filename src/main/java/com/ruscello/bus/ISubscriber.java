@@ -1,4 +1,12 @@
 package com.ruscello.bus;
 
+/**
+ * Java erases the handler's type argument so the message type is passed explicitly
+ */
 public interface ISubscriber {
+
+    <T extends Message> void subscribe(Class<T> messageType, IHandle<T> handler);
+
+    <T extends Message> void unsubscribe(Class<T> messageType, IHandle<T> handler);
+
 }
@@ -3,13 +3,9 @@ package com.ruscello.bus;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.lang.reflect.ParameterizedType;
 import java.time.Duration;
-import java.time.Period;
 import java.time.temporal.ChronoUnit;
-import java.time.temporal.TemporalAmount;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Synchronously dispatches messages to zero or more subscribers.
@@ -20,6 +16,12 @@ import java.util.List;
  * http://psy-lob-saw.blogspot.com/2012/12/atomiclazyset-is-performance-win-for.html
  * https://vertx.io/docs/vertx-core/java/#_the_event_bus_api
  * https://github.com/bennidi/eventbus-performance/issues/1
+ *
+ * Handlers are kept in an array per message type id, see {@link MessageHierarchy}, holding the handlers of the type
+ * and of every supertype. Publishing indexes straight into the table and walks the array so there are no map lookups,
+ * reflection or iterators on the publish path. Subscribing rebuilds the table which is fine as subscriptions are set
+ * up at startup. Types first seen after that get their slot built, and the table grown, the first time they are
+ * published.
  */
 public class InMemoryBus implements IBus, ISubscriber, IPublisher, IHandle<Message> {
 
@@ -31,11 +33,15 @@ public class InMemoryBus implements IBus, ISubscriber, IPublisher, IHandle<Messa
 
     private static final Logger LOG = LogManager.getLogger(InMemoryBus.class);
 
+    private static final IMessageHandler[] NO_HANDLERS = new IMessageHandler[0];
+
     private String name;
-    //private final List<IMessageHandler>[]_handlers;
-    private final List<IMessageHandler>[] _handlers;
+    // in subscription order, guarded by this
+    private IMessageHandler[] _subscriptions = NO_HANDLERS;
+    // replaced as a whole on subscribe so publishers only need the one volatile read, null slots are built on publish
+    private volatile IMessageHandler[][] _handlers;
     private final boolean _watchSlowMsg;
-    private final Duration _slowMsgThreshold;
+    private final long _slowMsgThresholdNanos;
 
     private InMemoryBus() {
         this("Test") ;
@@ -48,89 +54,130 @@ public class InMemoryBus implements IBus, ISubscriber, IPublisher, IHandle<Messa
     public InMemoryBus(String name, boolean watchSlowMsg, Duration slowMsgThreshold) {
         this.name = name;
         _watchSlowMsg = watchSlowMsg;
-        _slowMsgThreshold = slowMsgThreshold == null ? DEFAULT_SLOW_MESSAGE_THRESHOLD : slowMsgThreshold;
+        _slowMsgThresholdNanos = (slowMsgThreshold == null ? DEFAULT_SLOW_MESSAGE_THRESHOLD : slowMsgThreshold).toNanos();
+        _handlers = new IMessageHandler[MessageHierarchy.maxMsgTypeId() + 1][];
+    }
 
-        //_handlers=new List<IMessageHandler>[MessageHierarchy.MaxMsgTypeId+1];
-//        _handlers = new ArrayList<IMessageHandler>();
-        _handlers = (List<IMessageHandler>[])new List[1];
-        for(int i=0;i < _handlers.length; ++i) {
-            _handlers[i] = new ArrayList<>();
+    @Override
+    public synchronized <T extends Message> void subscribe(Class<T> messageType, IHandle<T> handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler");
+        }
+        int msgTypeId = MessageHierarchy.msgTypeIdOf(messageType);
+        if (indexOf(_subscriptions, msgTypeId, handler) < 0) {
+            IMessageHandler[] subscriptions = Arrays.copyOf(_subscriptions, _subscriptions.length + 1);
+            subscriptions[_subscriptions.length] =
+                    new MessageHandler<>(messageType, handler, handler.getClass().getName());
+            _subscriptions = subscriptions;
+            rebuildHandlers();
         }
     }
 
-    public <T extends Message> void subscribe(IHandle<T> handler)  {
-        // Ensure.NotNull(handler,"handler");
+    @Override
+    public synchronized <T extends Message> void unsubscribe(Class<T> messageType, IHandle<T> handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler");
+        }
+        int msgTypeId = MessageHierarchy.msgTypeIdOf(messageType);
+        int index = indexOf(_subscriptions, msgTypeId, handler);
+        if (index >= 0) {
+            IMessageHandler[] subscriptions = new IMessageHandler[_subscriptions.length - 1];
+            System.arraycopy(_subscriptions, 0, subscriptions, 0, index);
+            System.arraycopy(_subscriptions, index + 1, subscriptions, index, _subscriptions.length - index - 1);
+            _subscriptions = subscriptions.length == 0 ? NO_HANDLERS : subscriptions;
+            rebuildHandlers();
+        }
+    }
 
-        Class<T> clazz = (Class<T>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
-        int[]descendants = MessageHierarchy.DescendantsByType.get(clazz);
-        for(int i=0;i<descendants.length;++i) {
-            List<IMessageHandler> handlers = _handlers[descendants[i]];
-            if (hasHandler(handlers, handler)) {
-                handlers.add(new MessageHandler<>(handler, handler.getClass().getName()));
-            }
-//            if(!handlers.Any(x=>x.IsSame<T>(handler))){
-//                handlers.Add(new MessageHandler<T>(handler, handler.GetType().Name));
-//            }
+    private void rebuildHandlers() {
+        IMessageHandler[][] handlers = new IMessageHandler[MessageHierarchy.maxMsgTypeId() + 1][];
+        for (int msgTypeId = 0; msgTypeId < handlers.length; msgTypeId++) {
+            handlers[msgTypeId] = handlersOf(msgTypeId);
         }
+        _handlers = handlers;
     }
 
-    private static <T> boolean hasHandler(List<IMessageHandler> handlers, IHandle<T> handler) {
-        for (IMessageHandler messageHandler : handlers) {
-            if (messageHandler.equals(handler)) {
-                return true;
-            }
+    /**
+     * Builds the slot of a type that was first seen after the table was last built
+     */
+    private synchronized IMessageHandler[] addHandlers(int msgTypeId) {
+        IMessageHandler[][] handlers = _handlers;
+        if (msgTypeId < handlers.length && handlers[msgTypeId] != null) {
+            return handlers[msgTypeId];
         }
-        return false;
+        handlers = Arrays.copyOf(handlers, Math.max(handlers.length, MessageHierarchy.maxMsgTypeId() + 1));
+        handlers[msgTypeId] = handlersOf(msgTypeId);
+        _handlers = handlers;
+        return handlers[msgTypeId];
     }
 
-    public <T extends Message> void unsubscribe(IHandle<T> handler) {
-        // Ensure.NotNull(handler,"handler");
-
-        // int[]descendants=MessageHierarchy.DescendantsByType[typeof(T)];
-        Class<T> clazz = (Class<T>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
-        int[]descendants = MessageHierarchy.DescendantsByType.get(clazz);
-        for(int i=0;i<descendants.length;++i)  {
-            // var handlers=_handlers[descendants[i]];
-            List<IMessageHandler> handlers = _handlers[descendants[i]];
-//            var messageHandler=handlers.FirstOrDefault(x=>x.IsSame<T>(handler));
-//            if(messageHandler!=null) {
-//                handlers.Remove(messageHandler);
-//            }
-            if (hasHandler(handlers, handler)) {
+    /**
+     * @return handlers subscribed to the type or any of its supertypes, in subscription order
+     */
+    private IMessageHandler[] handlersOf(int msgTypeId) {
+        int[] parents = MessageHierarchy.parentsOf(msgTypeId);
+        IMessageHandler[] handlers = NO_HANDLERS;
+        for (IMessageHandler subscription : _subscriptions) {
+            for (int parent : parents) {
+                if (subscription.getMsgTypeId() == parent) {
+                    handlers = Arrays.copyOf(handlers, handlers.length + 1);
+                    handlers[handlers.length - 1] = subscription;
+                    break;
+                }
+            }
+        }
+        return handlers;
+    }
 
+    private static int indexOf(IMessageHandler[] handlers, int msgTypeId, Object handler) {
+        for (int i = 0; i < handlers.length; i++) {
+            if (handlers[i].isSame(msgTypeId, handler)) {
+                return i;
             }
         }
+        return -1;
     }
 
+    @Override
     public void handle(Message message) {
-        // publish(message);
+        publish(message);
     }
 
-//    public void publish(Message message) {
-//        //if (message == null) throw new ArgumentNullException("message");
-//
-//        var handlers=_handlers[message.MsgTypeId];
-//        for(int i=0,n=handlers.Count;i<n; ++i) {
-//            var handler=handlers[i];
-//            if(_watchSlowMsg) {
-//                var start=DateTime.UtcNow;
-//
-//                handler.TryHandle(message);
-//
-//                var elapsed=Clock.UTDateTime.UtcNow-start;
-//                if(elapsed>_slowMsgThreshold) {
-//                    LOG.trace("SLOW BUS MSG [{0}]: {1} - {2}ms. Handler: {3}.",
-//                            Name, message.GetType().Name, (int) elapsed.TotalMilliseconds, handler.HandlerName);
-//                    if (elapsed > QueuedHandler.VerySlowMsgThreshold && !(message is SystemMessage.SystemInit)){
-//                        Log.Error("---!!! VERY SLOW BUS MSG [{0}]: {1} - {2}ms. Handler: {3}.", Name, message.GetType().Name, (int) elapsed.TotalMilliseconds, handler.HandlerName);
-//                    }
-//                }
-//            } else {
-//                handler.TryHandle(message);
-//            }
-//        }
-//    }
+    @Override
+    public void publish(Message message) {
+        if (message == null) {
+            throw new IllegalArgumentException("message");
+        }
+
+        int msgTypeId = message.getMsgTypeId();
+        IMessageHandler[][] table = _handlers;
+        IMessageHandler[] handlers = msgTypeId < table.length ? table[msgTypeId] : null;
+        if (handlers == null) {
+            handlers = addHandlers(msgTypeId);
+        }
+        for (int i = 0, n = handlers.length; i < n; ++i) {
+            IMessageHandler handler = handlers[i];
+            if (_watchSlowMsg) {
+                long start = System.nanoTime();
+
+                handler.tryHandle(message);
+
+                long elapsed = System.nanoTime() - start;
+                if (elapsed > _slowMsgThresholdNanos) {
+                    LOG.trace("SLOW BUS MSG [{}]: {} - {}ms. Handler: {}.",
+                            name, message.getClass().getSimpleName(), elapsed / 1_000_000, handler.getHandlerName());
+                    if (elapsed > QueuedHandler.VERY_SLOW_MESSAGE_THRESHOLD.toNanos()) {
+                        LOG.error("---!!! VERY SLOW BUS MSG [{}]: {} - {}ms. Handler: {}.",
+                                name, message.getClass().getSimpleName(), elapsed / 1_000_000, handler.getHandlerName());
+                    }
+                }
+            } else {
+                handler.tryHandle(message);
+            }
+        }
+    }
 
+    @Override
     public String getName() {
         return name;
     }
@@ -138,4 +185,4 @@ public class InMemoryBus implements IBus, ISubscriber, IPublisher, IHandle<Messa
     public void setName(String name) {
         this.name = name;
     }
-}
\ No newline at end of file
+}
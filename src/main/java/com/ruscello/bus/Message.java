@@ -1,4 +1,14 @@
 package com.ruscello.bus;
 
+/**
+ * Base class of everything sent over a bus. The type id is looked up once when the message is created so publishing
+ * can index straight into the bus's handler table.
+ */
 public class Message {
+
+    private final int msgTypeId = MessageHierarchy.msgTypeIdOf(getClass());
+
+    public final int getMsgTypeId() {
+        return msgTypeId;
+    }
 }
@@ -5,29 +5,40 @@ import com.google.common.base.Strings;
 public class MessageHandler<T extends Message> implements IMessageHandler {
 
     private final IHandle<T> _handler;
+    private final int msgTypeId;
     private final String handlerName;
 
-    public MessageHandler(IHandle<T> handler, String handlerName) {
+    /**
+     * @param messageType the type the handler subscribed to, the bus only hands it that type and its subtypes
+     */
+    public MessageHandler(Class<T> messageType, IHandle<T> handler, String handlerName) {
         if (handler == null) {
             throw new IllegalArgumentException("handler");
         }
         _handler = handler;
+        this.msgTypeId = MessageHierarchy.msgTypeIdOf(messageType);
         this.handlerName = handlerName == null ? "" : handlerName;
     }
 
-    public boolean TryHandle(Message message) {
-        //var msg = message as T;
-        //if (msg != null) {
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean tryHandle(Message message) {
+        // handlers are only registered against descendants of T so the cast is safe and saves an instanceof check
         if (message != null) {
-            // _handler.Handle(msg);
+            _handler.handle((T) message);
             return true;
         }
         return false;
     }
 
-    public <T2> boolean IsSame(Object handler) {
-        // return ReferenceEquals(_handler, handler) && typeof(T) == typeof(T2);
-        return false;
+    @Override
+    public int getMsgTypeId() {
+        return msgTypeId;
+    }
+
+    @Override
+    public boolean isSame(int msgTypeId, Object handler) {
+        return _handler == handler && this.msgTypeId == msgTypeId;
     }
 
     @Override
@@ -35,6 +46,7 @@ public class MessageHandler<T extends Message> implements IMessageHandler {
         return Strings.isNullOrEmpty(handlerName) ? _handler.toString() : handlerName;
     }
 
+    @Override
     public String getHandlerName() {
         return handlerName;
     }
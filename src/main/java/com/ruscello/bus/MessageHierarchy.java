@@ -1,12 +1,89 @@
 package com.ruscello.bus;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
-public class MessageHierarchy {
+/**
+ * From EventStore's MessageHierarchy
+ * Gives every {@link Message} type a dense id the first time it is seen so buses can keep handlers in arrays indexed
+ * by type id rather than maps keyed by class. Message itself is 0 and other types are numbered in the order they are
+ * first created or subscribed to, so ids can differ from run to run and must not be persisted.
+ * A type's supertypes are registered before it, so the ids of a type and its supertypes up to Message are known as
+ * soon as the type has an id and never change.
+ */
+public final class MessageHierarchy {
+
+    private static final Object LOCK = new Object();
+
+    // ClassValue can compute the same type more than once when threads race, so ids are handed out under LOCK
+    private static final Map<Class<?>, Integer> IdsByType = new HashMap<>();
+    // replaced as a whole when a type is added so readers don't need the lock
+    private static volatile Class<?>[] TypesById = new Class<?>[0];
+    private static volatile int[][] ParentsByTypeId = new int[0][];
+
+    private static final ClassValue<Integer> MsgTypeIdByType = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return register(type.asSubclass(Message.class));
+        }
+    };
 
-    public static final Map<Class<?>, int[]> DescendantsByType;
     static {
-        DescendantsByType = new HashMap<>();
+        register(Message.class);
+    }
+
+    private MessageHierarchy() {
+        // statics only
+    }
+
+    /**
+     * Registers the type, and any of its supertypes that aren't yet, the first time it is asked for
+     */
+    public static int msgTypeIdOf(Class<? extends Message> type) {
+        // ClassValue caches the id on the class so this is only slow the first time for each type
+        return MsgTypeIdByType.get(type);
+    }
+
+    public static Class<? extends Message> typeOf(int msgTypeId) {
+        return TypesById[msgTypeId].asSubclass(Message.class);
+    }
+
+    /**
+     * @return ids of the type and all of its supertypes up to Message, Message first. Must not be modified
+     */
+    public static int[] parentsOf(int msgTypeId) {
+        return ParentsByTypeId[msgTypeId];
+    }
+
+    /**
+     * @return the highest id handed out so far, more can be added whenever a new type is first seen
+     */
+    public static int maxMsgTypeId() {
+        return TypesById.length - 1;
+    }
+
+    private static int register(Class<? extends Message> type) {
+        // the superclass gets its id first, outside the lock, so its parents are there to copy
+        int parentId = type == Message.class ? -1 : msgTypeIdOf(type.getSuperclass().asSubclass(Message.class));
+        synchronized (LOCK) {
+            Integer existing = IdsByType.get(type);
+            if (existing != null) {
+                return existing;
+            }
+            int id = TypesById.length;
+            int[] grandParents = parentId < 0 ? new int[0] : ParentsByTypeId[parentId];
+            int[] parents = Arrays.copyOf(grandParents, grandParents.length + 1);
+            parents[grandParents.length] = id;
+
+            Class<?>[] types = Arrays.copyOf(TypesById, id + 1);
+            types[id] = type;
+            int[][] parentsByTypeId = Arrays.copyOf(ParentsByTypeId, id + 1);
+            parentsByTypeId[id] = parents;
+            ParentsByTypeId = parentsByTypeId;
+            TypesById = types;
+            IdsByType.put(type, id);
+            return id;
+        }
     }
 }
@@ -0,0 +1,179 @@
+package com.ruscello.bus;
+
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.ManyToOneConcurrentArrayQueue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * From EventStore's QueuedHandler
+ * Runs a consumer, usually an {@link InMemoryBus}, on its own thread behind a bounded many producer single consumer
+ * queue so publishers never run handlers themselves. Producers wait when the queue is full rather than growing it.
+ * <p>
+ * When watching slow messages the handling time of every message is recorded in a {@link LatencyHistogram} per
+ * message type and slow and very slow messages are logged. Without watching no timestamps are taken at all.
+ */
+public class QueuedHandler implements IPublisher, IHandle<Message> {
+
+    public static final int DEFAULT_CAPACITY = 16_384;
+    public static final Duration VERY_SLOW_MESSAGE_THRESHOLD = Duration.of(7, ChronoUnit.SECONDS);
+    public static final Duration DEFAULT_STOP_WAIT_TIMEOUT = Duration.of(10, ChronoUnit.SECONDS);
+
+    private static final Logger LOG = LogManager.getLogger(QueuedHandler.class);
+
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FULL_QUEUE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final IHandle<Message> consumer;
+    private final String name;
+    private final boolean watchSlowMsg;
+    private final long slowMsgThresholdNanos;
+    private final long verySlowMsgThresholdNanos = VERY_SLOW_MESSAGE_THRESHOLD.toNanos();
+    private final ManyToOneConcurrentArrayQueue<Message> queue;
+    // created on first use and grown for types first seen after start, only written by the queue thread
+    private volatile LatencyHistogram[] histograms = new LatencyHistogram[MessageHierarchy.maxMsgTypeId() + 1];
+    private final Thread thread;
+
+    private volatile boolean running;
+
+    public QueuedHandler(IHandle<Message> consumer, String name) {
+        this(consumer, name, true, null, DEFAULT_CAPACITY);
+    }
+
+    public QueuedHandler(IHandle<Message> consumer,
+                         String name,
+                         boolean watchSlowMsg,
+                         Duration slowMsgThreshold,
+                         int capacity) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("consumer");
+        }
+        this.consumer = consumer;
+        this.name = name;
+        this.watchSlowMsg = watchSlowMsg;
+        this.slowMsgThresholdNanos = (slowMsgThreshold == null
+                ? InMemoryBus.DEFAULT_SLOW_MESSAGE_THRESHOLD : slowMsgThreshold).toNanos();
+        this.queue = new ManyToOneConcurrentArrayQueue<>(capacity);
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stops taking messages once everything already queued has been handled
+     */
+    public void stop() {
+        stop(DEFAULT_STOP_WAIT_TIMEOUT);
+    }
+
+    public void stop(Duration timeout) {
+        running = false;
+        try {
+            thread.join(timeout.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            LOG.error("Unable to stop thread '{}' within {}ms", name, timeout.toMillis());
+        }
+    }
+
+    @Override
+    public void handle(Message message) {
+        publish(message);
+    }
+
+    @Override
+    public void publish(Message message) {
+        if (message == null) {
+            throw new IllegalArgumentException("message");
+        }
+        while (!queue.offer(message)) {
+            if (!running) {
+                throw new IllegalStateException("Queue " + name + " is not running");
+            }
+            LockSupport.parkNanos(FULL_QUEUE_PARK_NANOS);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * @return handling times of the message type, null if none have been recorded
+     */
+    public LatencyHistogram getHistogram(Class<? extends Message> messageType) {
+        int msgTypeId = MessageHierarchy.msgTypeIdOf(messageType);
+        LatencyHistogram[] histograms = this.histograms;
+        return msgTypeId < histograms.length ? histograms[msgTypeId] : null;
+    }
+
+    private void run() {
+        IdleStrategy idle = new BackoffIdleStrategy(100, 10, 1, MAX_IDLE_NANOS);
+        while (running || !queue.isEmpty()) {
+            Message message = queue.poll();
+            if (message == null) {
+                idle.idle();
+                continue;
+            }
+            idle.reset();
+            if (watchSlowMsg) {
+                handleWatched(message);
+            } else {
+                handleUnwatched(message);
+            }
+        }
+    }
+
+    private void handleUnwatched(Message message) {
+        try {
+            consumer.handle(message);
+        } catch (RuntimeException e) {
+            LOG.error("Error while processing message {} in queued handler '{}'.", message, name, e);
+        }
+    }
+
+    private void handleWatched(Message message) {
+        long start = System.nanoTime();
+        handleUnwatched(message);
+        long elapsed = System.nanoTime() - start;
+
+        int msgTypeId = message.getMsgTypeId();
+        LatencyHistogram[] histograms = this.histograms;
+        if (msgTypeId >= histograms.length) {
+            histograms = Arrays.copyOf(histograms, MessageHierarchy.maxMsgTypeId() + 1);
+            this.histograms = histograms;
+        }
+        LatencyHistogram histogram = histograms[msgTypeId];
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            histograms[msgTypeId] = histogram;
+        }
+        histogram.record(elapsed);
+
+        if (elapsed > slowMsgThresholdNanos) {
+            LOG.trace("SLOW QUEUE MSG [{}]: {} - {}ms. Q: {}/{}.",
+                    name, message.getClass().getSimpleName(), elapsed / 1_000_000, queue.size(), queue.capacity());
+            if (elapsed > verySlowMsgThresholdNanos) {
+                LOG.error("---!!! VERY SLOW QUEUE MSG [{}]: {} - {}ms. Q: {}/{}.",
+                        name, message.getClass().getSimpleName(), elapsed / 1_000_000, queue.size(), queue.capacity());
+            }
+        }
+    }
+}
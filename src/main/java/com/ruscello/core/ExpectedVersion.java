@@ -20,4 +20,23 @@ public class ExpectedVersion {
         // statics only
     }
 
+    /**
+     * Checks an expected version against the current version of a stream
+     * @param expectedVersion the version the writer expects the stream to be at. See constants for special values
+     * @param currentVersion the version of the last message in the stream or {@link #NO_STRREAM} if the stream does not exist
+     * @return true if the append may proceed
+     */
+    public static boolean matches(long expectedVersion, long currentVersion) {
+        if (expectedVersion == ANY) {
+            return true;
+        }
+        if (expectedVersion == NO_STRREAM) {
+            return currentVersion == NO_STRREAM;
+        }
+        if (expectedVersion == STREAM_EXISTS) {
+            return currentVersion != NO_STRREAM;
+        }
+        return expectedVersion == currentVersion;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+package com.ruscello.core;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * From SqlStreamStore
+ * EventStore has EventData
+ * A message to append to a stream. The message id is what makes an append idempotent so producers retrying an
+ * append should send the same ids.
+ */
+public final class NewStreamMessage {
+
+    /**
+     * Longest type in UTF-8 bytes, it is stored with a 2 byte length
+     */
+    public static final int MAX_TYPE_SIZE = 0xFFFF;
+
+    private final UUID messageId;
+    // null for untyped messages
+    private final String type;
+    private final byte[] data;
+
+    public NewStreamMessage(UUID messageId, byte[] data) {
+        this(messageId, null, data);
+    }
+
+    /**
+     * @param type event type the message is indexed by so $all can be read by type, null or empty for none
+     * @throws IllegalArgumentException if the type is longer than {@link #MAX_TYPE_SIZE} bytes
+     */
+    public NewStreamMessage(UUID messageId, String type, byte[] data) {
+        if (messageId == null) {
+            throw new NullPointerException("messageId");
+        }
+        if (data == null) {
+            throw new NullPointerException("data");
+        }
+        // a char is at most 3 UTF-8 bytes so only long types need encoding to check
+        if (type != null && type.length() > MAX_TYPE_SIZE / 3 && type.getBytes(UTF_8).length > MAX_TYPE_SIZE) {
+            throw new IllegalArgumentException("type is longer than " + MAX_TYPE_SIZE + " bytes");
+        }
+        this.messageId = messageId;
+        this.type = type == null || type.isEmpty() ? null : type;
+        this.data = data;
+    }
+
+    /**
+     * Creates a message with a random id for producers that don't need idempotent appends.
+     * Uses ThreadLocalRandom rather than UUID.randomUUID to stay off the shared SecureRandom.
+     */
+    public static NewStreamMessage of(byte[] data) {
+        return of(null, data);
+    }
+
+    public static NewStreamMessage of(String type, byte[] data) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // set the version 4 and IETF variant bits so it still looks like a random UUID
+        long msb = (random.nextLong() & 0xFFFFFFFFFFFF0FFFL) | 0x0000000000004000L;
+        long lsb = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new NewStreamMessage(new UUID(msb, lsb), type, data);
+    }
+
+    public UUID getMessageId() {
+        return messageId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,57 @@
+package com.ruscello.core;
+
+import com.ruscello.ReadDirection;
+
+import java.util.List;
+
+/**
+ * From SqlStreamStore
+ * EventStore has AllEventsSlice
+ * Represents the result of a page read from $all.
+ */
+public final class ReadAllPage {
+
+    private final long fromPosition;
+    private final long nextPosition;
+    private final boolean isEnd;
+    private final ReadDirection readDirection;
+    private final List<StreamMessage> messages;
+
+    public ReadAllPage(long fromPosition,
+                       long nextPosition,
+                       boolean isEnd,
+                       ReadDirection readDirection,
+                       List<StreamMessage> messages) {
+        this.fromPosition = fromPosition;
+        this.nextPosition = nextPosition;
+        this.isEnd = isEnd;
+        this.readDirection = readDirection;
+        this.messages = messages;
+    }
+
+    public long getFromPosition() {
+        return fromPosition;
+    }
+
+    /**
+     * @return the position to read the next page from
+     */
+    public long getNextPosition() {
+        return nextPosition;
+    }
+
+    /**
+     * @return true if there are no more messages to read in the direction of this page
+     */
+    public boolean isEnd() {
+        return isEnd;
+    }
+
+    public ReadDirection getReadDirection() {
+        return readDirection;
+    }
+
+    public List<StreamMessage> getMessages() {
+        return messages;
+    }
+}
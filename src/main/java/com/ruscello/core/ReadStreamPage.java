@@ -0,0 +1,81 @@
+package com.ruscello.core;
+
+import com.ruscello.ReadDirection;
+
+import java.util.List;
+
+/**
+ * From SqlStreamStore
+ * EventStore has StreamEventsSlice
+ * Represents the result of a page read from a single stream.
+ */
+public final class ReadStreamPage {
+
+    private final String streamId;
+    private final PageReadStatus status;
+    private final long fromStreamVersion;
+    private final long nextStreamVersion;
+    private final long lastStreamVersion;
+    private final ReadDirection readDirection;
+    private final boolean isEnd;
+    private final List<StreamMessage> messages;
+
+    public ReadStreamPage(String streamId,
+                          PageReadStatus status,
+                          long fromStreamVersion,
+                          long nextStreamVersion,
+                          long lastStreamVersion,
+                          ReadDirection readDirection,
+                          boolean isEnd,
+                          List<StreamMessage> messages) {
+        this.streamId = streamId;
+        this.status = status;
+        this.fromStreamVersion = fromStreamVersion;
+        this.nextStreamVersion = nextStreamVersion;
+        this.lastStreamVersion = lastStreamVersion;
+        this.readDirection = readDirection;
+        this.isEnd = isEnd;
+        this.messages = messages;
+    }
+
+    public String getStreamId() {
+        return streamId;
+    }
+
+    public PageReadStatus getStatus() {
+        return status;
+    }
+
+    public long getFromStreamVersion() {
+        return fromStreamVersion;
+    }
+
+    /**
+     * @return the version to read the next page from
+     */
+    public long getNextStreamVersion() {
+        return nextStreamVersion;
+    }
+
+    /**
+     * @return the version of the last message in the stream or StreamVersion.END if the stream does not exist
+     */
+    public long getLastStreamVersion() {
+        return lastStreamVersion;
+    }
+
+    public ReadDirection getReadDirection() {
+        return readDirection;
+    }
+
+    /**
+     * @return true if there are no more messages to read in the direction of this page
+     */
+    public boolean isEnd() {
+        return isEnd;
+    }
+
+    public List<StreamMessage> getMessages() {
+        return messages;
+    }
+}
@@ -0,0 +1,76 @@
+package com.ruscello.core;
+
+import java.util.UUID;
+
+/**
+ * A message read from a stream or from $all.
+ * Data is only populated when the page was read with prefetch, otherwise it is null and only the metadata is returned.
+ * The message id and type are always populated for stream pages but only with prefetch for $all pages as they live in
+ * the message record.
+ */
+public final class StreamMessage {
+
+    private final String streamId;
+    private final UUID messageId;
+    // null for untyped messages
+    private final String type;
+    private final long streamVersion;
+    private final long position;
+    private final byte[] data;
+
+    public StreamMessage(String streamId, UUID messageId, long streamVersion, long position, byte[] data) {
+        this(streamId, messageId, null, streamVersion, position, data);
+    }
+
+    public StreamMessage(String streamId, UUID messageId, String type, long streamVersion, long position, byte[] data) {
+        this.streamId = streamId;
+        this.messageId = messageId;
+        this.type = type;
+        this.streamVersion = streamVersion;
+        this.position = position;
+        this.data = data;
+    }
+
+    public String getStreamId() {
+        return streamId;
+    }
+
+    public UUID getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * @return the event type or null if the message is untyped
+     */
+    public String getType() {
+        return type;
+    }
+
+    public long getStreamVersion() {
+        return streamVersion;
+    }
+
+    /**
+     * @return position of the message in $all
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the message data or null if the page was read without prefetch
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public boolean isPrefetched() {
+        return data != null;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamMessage{streamId=" + streamId + ", messageId=" + messageId + ", type=" + type
+                + ", streamVersion=" + streamVersion + ", position=" + position + "}";
+    }
+}
@@ -0,0 +1,20 @@
+package com.ruscello.core;
+
+/**
+ *
+ */
+public class StreamVersion {
+    /**
+     * The first message in a stream
+     */
+    public static final long START = 0;
+
+    /**
+     * The last message in a stream
+     */
+    public static final long END = -1;
+
+    private StreamVersion() {
+        // static constants only
+    }
+}
@@ -10,6 +10,9 @@ public class SystemStreams {
     public static final String SETTINGSS_STREAM = "$settings";
     public static final String STATS_STREAM_PREFIX = "$stats";
     public static final String SCAVENGE_STREAM = "$scavenges";
+    public static final String CATEGORY_STREAM_PREFIX = "$ce-";
+
+    private static final char CATEGORY_SEPARATOR = '-';
 
     private SystemStreams() {
         // statics only
@@ -34,4 +37,16 @@ public class SystemStreams {
         return metastreamId.substring(2);
     }
 
+    /**
+     * The category of a stream is the part of its name before the first dash, so order-123 is in the order category
+     * @return the category or null for streams without one and system streams
+     */
+    public static String categoryOf(String streamId) {
+        if (isSystemStream(streamId)) {
+            return null;
+        }
+        int separator = streamId.indexOf(CATEGORY_SEPARATOR);
+        return separator > 0 ? streamId.substring(0, separator) : null;
+    }
+
 }
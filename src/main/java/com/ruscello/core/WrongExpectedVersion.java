@@ -18,6 +18,17 @@ public class WrongExpectedVersion extends RuntimeException {
         super(message);
     }
 
+    /**
+     *
+     * @param streamId the stream being appended to
+     * @param expectedVersion the version supplied with the append
+     * @param currentVersion the actual version of the stream
+     */
+    public WrongExpectedVersion(String streamId, long expectedVersion, long currentVersion) {
+        this(String.format("Append failed due to wrong expected version. Stream: %s, Expected version: %d, Current version: %d",
+                streamId, expectedVersion, currentVersion));
+    }
+
     /**
      *
      * @param message
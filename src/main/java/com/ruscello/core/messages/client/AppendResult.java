@@ -3,6 +3,48 @@ package com.ruscello.core.messages.client;
 /**
  * Represents the result returned after appending to a stream
  *
+ * From SqlStreamStore
+ * The current version is the version of the last message of the append so the next append to the stream can use it as
+ * its expected version without reading the stream first. The current position is the $all position of that message.
+ * Retried appends return the result of the original append.
  */
-public class AppendResult {
+public final class AppendResult {
+
+    private final long currentVersion;
+    private final long currentPosition;
+
+    public AppendResult(long currentVersion, long currentPosition) {
+        this.currentVersion = currentVersion;
+        this.currentPosition = currentPosition;
+    }
+
+    public long getCurrentVersion() {
+        return currentVersion;
+    }
+
+    public long getCurrentPosition() {
+        return currentPosition;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AppendResult)) {
+            return false;
+        }
+        AppendResult that = (AppendResult) o;
+        return currentVersion == that.currentVersion && currentPosition == that.currentPosition;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(currentVersion) + Long.hashCode(currentPosition);
+    }
+
+    @Override
+    public String toString() {
+        return "AppendResult{currentVersion=" + currentVersion + ", currentPosition=" + currentPosition + "}";
+    }
 }
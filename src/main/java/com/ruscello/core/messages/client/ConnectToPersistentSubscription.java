@@ -1,12 +1,42 @@
 package com.ruscello.core.messages.client;
 
+import java.util.UUID;
+
 public class ConnectToPersistentSubscription {
 
-//    public readonly Guid ConnectionId;
-//    public readonly string SubscriptionId;
-//    public readonly string EventStreamId;
-//    public readonly int AllowedInFlightMessages;
-//    public readonly string From;
+    private final UUID connectionId;
+    private final String subscriptionId;
+    private final String eventStreamId;
+    private final int allowedInFlightMessages;
+    // public readonly string From;
+
+    /**
+     * @param subscriptionId name of the group to join
+     * @param allowedInFlightMessages most messages sent to this consumer and not yet acked
+     */
+    public ConnectToPersistentSubscription(UUID connectionId,
+                                           String subscriptionId,
+                                           String eventStreamId,
+                                           int allowedInFlightMessages) {
+        this.connectionId = connectionId;
+        this.subscriptionId = subscriptionId;
+        this.eventStreamId = eventStreamId;
+        this.allowedInFlightMessages = allowedInFlightMessages;
+    }
+
+    public UUID getConnectionId() {
+        return connectionId;
+    }
+
+    public String getSubscriptionId() {
+        return subscriptionId;
+    }
 
+    public String getEventStreamId() {
+        return eventStreamId;
+    }
 
+    public int getAllowedInFlightMessages() {
+        return allowedInFlightMessages;
+    }
 }
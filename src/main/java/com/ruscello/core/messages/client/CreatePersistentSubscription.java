@@ -2,22 +2,108 @@ package com.ruscello.core.messages.client;
 
 public class CreatePersistentSubscription {
 
-//    public readonly long StartFrom;
-//    public readonly int MessageTimeoutMilliseconds;
-//    public readonly bool RecordStatistics;
-//
-//    public readonly bool ResolveLinkTos;
-//    public readonly int MaxRetryCount;
-//    public readonly int BufferSize;
-//    public readonly int LiveBufferSize;
-//    public readonly int ReadBatchSize;
-//
-//    public readonly string GroupName;
-//    public readonly string EventStreamId;
-//    public int MaxSubscriberCount;
-//    public string NamedConsumerStrategy;
-//    public int MaxCheckPointCount;
-//    public int MinCheckPointCount;
-//    public int CheckPointAfterMilliseconds;
+    private final String groupName;
+    private final String eventStreamId;
+    private final long startFrom;
+    private final int messageTimeoutMilliseconds;
+    // public readonly bool RecordStatistics;
+    //
+    // public readonly bool ResolveLinkTos;
+    private final int maxRetryCount;
+    // public readonly int BufferSize;
+    private final int liveBufferSize;
+    private final int readBatchSize;
+    private final int maxSubscriberCount;
+    private final String namedConsumerStrategy;
+    private final int maxCheckPointCount;
+    private final int minCheckPointCount;
+    private final int checkPointAfterMilliseconds;
 
+    /**
+     * @param eventStreamId stream to subscribe to, $all for every stream
+     * @param startFrom version or position to start from when there is no checkpoint, -1 for messages appended from
+     *                  when the group is created
+     * @param messageTimeoutMilliseconds how long a consumer has to ack a message before it is retried
+     * @param maxRetryCount retries before a message is parked
+     * @param liveBufferSize most messages read ahead of the checkpoint, including those in flight
+     * @param readBatchSize most messages read from the store at once
+     * @param maxSubscriberCount most consumers connected at once, 0 for no limit
+     * @param namedConsumerStrategy RoundRobin or Pinned
+     * @param maxCheckPointCount messages handled after which a checkpoint is always written
+     * @param minCheckPointCount messages handled before a checkpoint is written on time
+     * @param checkPointAfterMilliseconds time after which a checkpoint is written once min messages have been handled
+     */
+    public CreatePersistentSubscription(String groupName,
+                                        String eventStreamId,
+                                        long startFrom,
+                                        int messageTimeoutMilliseconds,
+                                        int maxRetryCount,
+                                        int liveBufferSize,
+                                        int readBatchSize,
+                                        int maxSubscriberCount,
+                                        String namedConsumerStrategy,
+                                        int maxCheckPointCount,
+                                        int minCheckPointCount,
+                                        int checkPointAfterMilliseconds) {
+        this.groupName = groupName;
+        this.eventStreamId = eventStreamId;
+        this.startFrom = startFrom;
+        this.messageTimeoutMilliseconds = messageTimeoutMilliseconds;
+        this.maxRetryCount = maxRetryCount;
+        this.liveBufferSize = liveBufferSize;
+        this.readBatchSize = readBatchSize;
+        this.maxSubscriberCount = maxSubscriberCount;
+        this.namedConsumerStrategy = namedConsumerStrategy;
+        this.maxCheckPointCount = maxCheckPointCount;
+        this.minCheckPointCount = minCheckPointCount;
+        this.checkPointAfterMilliseconds = checkPointAfterMilliseconds;
+    }
+
+    public String getGroupName() {
+        return groupName;
+    }
+
+    public String getEventStreamId() {
+        return eventStreamId;
+    }
+
+    public long getStartFrom() {
+        return startFrom;
+    }
+
+    public int getMessageTimeoutMilliseconds() {
+        return messageTimeoutMilliseconds;
+    }
+
+    public int getMaxRetryCount() {
+        return maxRetryCount;
+    }
+
+    public int getLiveBufferSize() {
+        return liveBufferSize;
+    }
+
+    public int getReadBatchSize() {
+        return readBatchSize;
+    }
+
+    public int getMaxSubscriberCount() {
+        return maxSubscriberCount;
+    }
+
+    public String getNamedConsumerStrategy() {
+        return namedConsumerStrategy;
+    }
+
+    public int getMaxCheckPointCount() {
+        return maxCheckPointCount;
+    }
+
+    public int getMinCheckPointCount() {
+        return minCheckPointCount;
+    }
+
+    public int getCheckPointAfterMilliseconds() {
+        return checkPointAfterMilliseconds;
+    }
 }
@@ -2,7 +2,19 @@ package com.ruscello.core.messages.client;
 
 public class DeletePersistentSubscription {
 
-//    public readonly string GroupName;
-//    public readonly string EventStreamId;
+    private final String groupName;
+    private final String eventStreamId;
 
+    public DeletePersistentSubscription(String groupName, String eventStreamId) {
+        this.groupName = groupName;
+        this.eventStreamId = eventStreamId;
+    }
+
+    public String getGroupName() {
+        return groupName;
+    }
+
+    public String getEventStreamId() {
+        return eventStreamId;
+    }
 }
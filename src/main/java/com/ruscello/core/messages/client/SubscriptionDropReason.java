@@ -0,0 +1,18 @@
+package com.ruscello.core.messages.client;
+
+/**
+ * From EventStore's SubscriptionDropReason and SqlStreamStore's SubscriptionDroppedReason
+ */
+public enum SubscriptionDropReason {
+
+    /** the subscriber closed the subscription */
+    UNSUBSCRIBED,
+    /** the subscriber threw while handling a message */
+    SUBSCRIBER_ERROR,
+    /** reading from the store failed */
+    STORE_ERROR,
+    /** the persistent subscription group was deleted */
+    PERSISTENT_SUBSCRIPTION_DELETED,
+    /** the server is shutting down */
+    SHUTDOWN
+}
@@ -1,8 +1,40 @@
 package com.ruscello.core.messages.client;
 
+import java.util.UUID;
+
 public class SubscriptionDropped {
 
-//    public readonly Guid CorrelationId;
-//    public readonly SubscriptionDropReason Reason;
+    private final UUID correlationId;
+    private final SubscriptionDropReason reason;
+    private final Throwable cause;
+
+    public SubscriptionDropped(UUID correlationId, SubscriptionDropReason reason) {
+        this(correlationId, reason, null);
+    }
+
+    public SubscriptionDropped(UUID correlationId, SubscriptionDropReason reason, Throwable cause) {
+        this.correlationId = correlationId;
+        this.reason = reason;
+        this.cause = cause;
+    }
+
+    public UUID getCorrelationId() {
+        return correlationId;
+    }
+
+    public SubscriptionDropReason getReason() {
+        return reason;
+    }
+
+    /**
+     * @return the error that dropped the subscription, null when it was closed or shut down
+     */
+    public Throwable getCause() {
+        return cause;
+    }
 
+    @Override
+    public String toString() {
+        return "SubscriptionDropped{correlationId=" + correlationId + ", reason=" + reason + "}";
+    }
 }
@@ -1,20 +1,132 @@
 package com.ruscello.core.transport.http.atom;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.WrongExpectedVersion;
+import com.ruscello.core.messages.client.AppendResult;
+import com.ruscello.core.transport.http.server.ContentTypes;
+import com.ruscello.core.transport.http.server.Headers;
+import com.ruscello.write.AppendCallback;
+import com.ruscello.write.WritePipeline;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
 
 @RestController
 public class AtomController {
 
-    public AtomController() {
+    private static final String DEFAULT_COUNT = "20";
+
+    // thread safe and holds the parsers' buffer recyclers so it is shared by every request
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final WritePipeline pipeline;
+    private final LongPollReader reader;
+    private final PageRenderer renderer;
+
+    public AtomController(WritePipeline pipeline, LongPollReader reader, PageRenderer renderer) {
+        this.pipeline = pipeline;
+        this.reader = reader;
+        this.renderer = renderer;
+    }
+
+    // reads at the head of the stream wait up to ES-LongPoll seconds for new messages rather than returning empty.
+    // Full pages behind the head are served compressed from the page cache without being read, see PageRenderer
+    @GetMapping("/streams/{stream}")
+    public DeferredResult<ResponseEntity<byte[]>> readStream(@PathVariable("stream") String stream,
+                                                             @RequestParam(value = "from", defaultValue = "0") long from,
+                                                             @RequestParam(value = "count", defaultValue = DEFAULT_COUNT) int count,
+                                                             @RequestHeader(value = Headers.LONG_POLL, required = false) Integer longPollSeconds,
+                                                             @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                             @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        PageRenderer.Format format = renderer.format(accept, acceptEncoding);
+        ResponseEntity<byte[]> cached = renderer.cachedStreamPage(stream, from, count, format);
+        if (cached != null) {
+            DeferredResult<ResponseEntity<byte[]>> result = new DeferredResult<>();
+            result.setResult(cached);
+            return result;
+        }
+        return reader.readStreamForwards(stream, from, count, longPoll(longPollSeconds),
+                page -> renderer.render(page, from, count, format));
+    }
 
+    // the body is parsed as it is read and the append completes the response from the pipeline, see EventsJsonReader
+    @PostMapping(value = "/streams/{stream}", consumes = ContentTypes.RUSCELLO_EVENTS_JSON)
+    public DeferredResult<ResponseEntity<?>> postEvents(@PathVariable("stream") String stream,
+                                                        @RequestHeader(value = Headers.EXPECTED_VERSION, required = false) Integer expectedVersion,
+                                                        InputStream body) throws IOException {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+        List<NewStreamMessage> messages;
+        try {
+            messages = new EventsJsonReader(jsonFactory).read(body);
+        } catch (JsonProcessingException e) {
+            result.setResult(ResponseEntity.badRequest().body(e.getOriginalMessage()));
+            return result;
+        }
+        if (messages.isEmpty()) {
+            result.setResult(ResponseEntity.badRequest().body("No events to append"));
+            return result;
+        }
+        append(stream, expectedVersion, messages, result);
+        return result;
     }
 
-    @PostMapping("/streams/{stream}")
-    public void postEvents() {
+    // data goes into the append as it was sent, see BinaryEventsCodec
+    @PostMapping(value = "/streams/{stream}", consumes = ContentTypes.RUSCELLO_EVENTS_BINARY)
+    public DeferredResult<ResponseEntity<?>> postBinaryEvents(@PathVariable("stream") String stream,
+                                                              @RequestHeader(value = Headers.EXPECTED_VERSION, required = false) Integer expectedVersion,
+                                                              InputStream body) throws IOException {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+        List<NewStreamMessage> messages;
+        try {
+            messages = BinaryEventsCodec.readEvents(body);
+        } catch (BinaryEventsCodec.FormatException e) {
+            result.setResult(ResponseEntity.badRequest().body(e.getMessage()));
+            return result;
+        }
+        if (messages.isEmpty()) {
+            result.setResult(ResponseEntity.badRequest().body("No events to append"));
+            return result;
+        }
+        append(stream, expectedVersion, messages, result);
+        return result;
+    }
 
+    private void append(String stream,
+                        Integer expectedVersion,
+                        List<NewStreamMessage> messages,
+                        DeferredResult<ResponseEntity<?>> result) {
+        int expected = expectedVersion == null ? (int) ExpectedVersion.ANY : expectedVersion;
+        pipeline.publish(stream, expected, messages, new AppendCallback() {
+            @Override
+            public void completed(AppendResult appendResult) {
+                result.setResult(ResponseEntity.status(HttpStatus.CREATED).body(appendResult));
+            }
+
+            @Override
+            public void failed(RuntimeException cause) {
+                if (cause instanceof WrongExpectedVersion || cause instanceof IllegalArgumentException) {
+                    result.setResult(ResponseEntity.badRequest().body(cause.getMessage()));
+                } else {
+                    result.setErrorResult(cause);
+                }
+            }
+        });
     }
 
     @DeleteMapping("/streams/{stream}")
@@ -33,8 +145,24 @@ public class AtomController {
     }
 
     @GetMapping("/streams/$all/")
-    public void getAll() {
+    public DeferredResult<ResponseEntity<byte[]>> getAll(@RequestParam(value = "from", defaultValue = "0") long from,
+                                                         @RequestParam(value = "count", defaultValue = DEFAULT_COUNT) int count,
+                                                         @RequestHeader(value = Headers.LONG_POLL, required = false) Integer longPollSeconds,
+                                                         @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                         @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        PageRenderer.Format format = renderer.format(accept, acceptEncoding);
+        ResponseEntity<byte[]> cached = renderer.cachedAllPage(from, count, format);
+        if (cached != null) {
+            DeferredResult<ResponseEntity<byte[]>> result = new DeferredResult<>();
+            result.setResult(cached);
+            return result;
+        }
+        return reader.readAllForwards(from, count, longPoll(longPollSeconds),
+                page -> renderer.render(page, from, count, format));
+    }
 
+    private static Duration longPoll(Integer seconds) {
+        return seconds == null ? null : Duration.ofSeconds(seconds);
     }
 
 }
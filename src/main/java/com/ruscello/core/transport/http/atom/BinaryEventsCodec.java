@@ -0,0 +1,198 @@
+package com.ruscello.core.transport.http.atom;
+
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.PageReadStatus;
+import com.ruscello.core.ReadAllPage;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.StreamMessage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Length prefixed binary formats for producers and consumers that don't want to pay for JSON. Everything is big
+ * endian, lengths are in bytes and payloads are copied as they are, data goes into the stored message untouched.
+ * <p>
+ * application/vnd.ruscello.events+binary, an append
+ * <pre>
+ * int count
+ * count times:
+ *   long idMostSigBits, long idLeastSigBits    all zero for a random id
+ *   short typeLength,  UTF-8 type    empty for an untyped message
+ *   int metadataLength, metadata bytes
+ *   int dataLength, data bytes
+ * </pre>
+ * Metadata is part of the format so producers don't have to change when messages get it, until then it is skipped.
+ * <p>
+ * application/vnd.ruscello.page+binary, a forward or backward page of a stream or of $all
+ * <pre>
+ * byte status    0 found, 1 stream not found
+ * long from, long next    versions, or positions for $all
+ * byte end    1 when this is the last page
+ * int count
+ * count times:
+ *   long idMostSigBits, long idLeastSigBits
+ *   long version, long position
+ *   short streamIdLength, UTF-8 stream id
+ *   short typeLength, UTF-8 type    empty for an untyped message
+ *   int dataLength, data bytes
+ * </pre>
+ */
+public final class BinaryEventsCodec {
+
+    // guards against allocating whatever a corrupt length prefix says
+    public static final int MAX_DATA_SIZE = 16 * 1024 * 1024;
+    // types and stream ids have a short length
+    public static final int MAX_SHORT_SIZE = 0xFFFF;
+
+    private static final int WRITE_BUFFER_SIZE = 8192;
+    private static final byte FOUND = 0;
+    private static final byte STREAM_NOT_FOUND = 1;
+    private static final byte[] EMPTY = new byte[0];
+
+    private BinaryEventsCodec() {
+        // statics only
+    }
+
+    /**
+     * Thrown when a body doesn't follow the format or ends early, or a value is too long to be written in it
+     */
+    public static final class FormatException extends IOException {
+
+        private final static long serialVersionUID = 1L;
+
+        FormatException(String message) {
+            super(message);
+        }
+
+        FormatException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    public static List<NewStreamMessage> readEvents(InputStream body) throws IOException {
+        DataInputStream in = new DataInputStream(body);
+        try {
+            int count = in.readInt();
+            if (count < 0) {
+                throw new FormatException("Negative event count " + count);
+            }
+            // the count comes from the client so don't size the list by it
+            List<NewStreamMessage> messages = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                long msb = in.readLong();
+                long lsb = in.readLong();
+                byte[] type = new byte[in.readUnsignedShort()];
+                in.readFully(type);
+                String eventType = type.length == 0 ? null : new String(type, UTF_8);
+                skip(in, length(in.readInt()));
+                byte[] data = new byte[length(in.readInt())];
+                in.readFully(data);
+                messages.add(msb == 0 && lsb == 0
+                        ? NewStreamMessage.of(eventType, data)
+                        : new NewStreamMessage(new UUID(msb, lsb), eventType, data));
+            }
+            return messages;
+        } catch (EOFException e) {
+            throw new FormatException("Body ended before the last event", e);
+        }
+    }
+
+    /**
+     * Writes an append, for producers
+     */
+    public static void writeEvents(List<NewStreamMessage> messages, OutputStream body) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(body, WRITE_BUFFER_SIZE));
+        out.writeInt(messages.size());
+        for (NewStreamMessage message : messages) {
+            out.writeLong(message.getMessageId().getMostSignificantBits());
+            out.writeLong(message.getMessageId().getLeastSignificantBits());
+            writeShortPrefixed(out, "type", message.getType() == null ? EMPTY : message.getType().getBytes(UTF_8));
+            out.writeInt(0);
+            out.writeInt(message.getData().length);
+            out.write(message.getData());
+        }
+        out.flush();
+    }
+
+    public static void writePage(ReadStreamPage page, OutputStream body) throws IOException {
+        writePage(page.getStatus() == PageReadStatus.SUCCESS ? FOUND : STREAM_NOT_FOUND,
+                page.getFromStreamVersion(), page.getNextStreamVersion(), page.isEnd(), page.getMessages(), body);
+    }
+
+    public static void writePage(ReadAllPage page, OutputStream body) throws IOException {
+        writePage(FOUND, page.getFromPosition(), page.getNextPosition(), page.isEnd(), page.getMessages(), body);
+    }
+
+    private static void writePage(byte status,
+                                  long from,
+                                  long next,
+                                  boolean end,
+                                  List<StreamMessage> messages,
+                                  OutputStream body) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(body, WRITE_BUFFER_SIZE));
+        out.writeByte(status);
+        out.writeLong(from);
+        out.writeLong(next);
+        out.writeByte(end ? 1 : 0);
+        out.writeInt(messages.size());
+        // pages of a single stream repeat the same id so only encode it when it changes
+        String streamId = null;
+        byte[] streamIdBytes = null;
+        for (StreamMessage message : messages) {
+            if (!message.getStreamId().equals(streamId)) {
+                streamId = message.getStreamId();
+                streamIdBytes = streamId.getBytes(UTF_8);
+            }
+            byte[] data = message.getData() == null ? new byte[0] : message.getData();
+            out.writeLong(message.getMessageId().getMostSignificantBits());
+            out.writeLong(message.getMessageId().getLeastSignificantBits());
+            out.writeLong(message.getStreamVersion());
+            out.writeLong(message.getPosition());
+            writeShortPrefixed(out, "stream id", streamIdBytes);
+            writeShortPrefixed(out, "type", message.getType() == null ? EMPTY : message.getType().getBytes(UTF_8));
+            out.writeInt(data.length);
+            out.write(data);
+        }
+        out.flush();
+    }
+
+    private static void writeShortPrefixed(DataOutputStream out, String field, byte[] bytes) throws IOException {
+        // writeShort would keep the low 16 bits of the length and the rest of the body would be read as garbage
+        if (bytes.length > MAX_SHORT_SIZE) {
+            throw new FormatException(field + " is " + bytes.length + " bytes, longer than " + MAX_SHORT_SIZE);
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static int length(int length) throws FormatException {
+        if (length < 0 || length > MAX_DATA_SIZE) {
+            throw new FormatException("Invalid length " + length);
+        }
+        return length;
+    }
+
+    private static void skip(DataInputStream in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                // skipBytes returns 0 rather than throwing at the end of the stream
+                in.readByte();
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.ruscello.core.transport.http.atom;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compressed bodies of full forward pages that don't end at the head. The messages of such a page never change once
+ * written, so as long as the body doesn't carry the head either it can be served again without reading, serialising
+ * or compressing it, see {@link PageRenderer}.
+ * <p>
+ * Bounded by bytes in two generations the same way as {@link com.ruscello.storage.StreamVersionCache}, once the young
+ * generation holds half the budget the old one is dropped, and pages found in the old one move back to the young one.
+ * <p>
+ * Thread safe. Lookups are a map get under a lock which is nothing next to a read.
+ */
+final class CompressedPageCache {
+
+    private final long generationBytes;
+
+    private Map<PageKey, byte[]> young = new HashMap<>();
+    private Map<PageKey, byte[]> old = new HashMap<>();
+    private long youngBytes;
+
+    CompressedPageCache(long maxBytes) {
+        this.generationBytes = maxBytes / 2;
+    }
+
+    synchronized byte[] get(PageKey key) {
+        byte[] body = young.get(key);
+        if (body != null) {
+            return body;
+        }
+        body = old.remove(key);
+        if (body != null) {
+            add(key, body);
+        }
+        return body;
+    }
+
+    synchronized void put(PageKey key, byte[] body) {
+        if (body.length > generationBytes || young.containsKey(key)) {
+            return;
+        }
+        add(key, body);
+    }
+
+    /**
+     * Drops every page of the stream, for when a stream is deleted
+     */
+    synchronized void invalidateStream(String streamId) {
+        young.entrySet().removeIf(entry -> {
+            boolean remove = entry.getKey().streamId.equals(streamId);
+            if (remove) {
+                youngBytes -= entry.getValue().length;
+            }
+            return remove;
+        });
+        old.keySet().removeIf(key -> key.streamId.equals(streamId));
+    }
+
+    private void add(PageKey key, byte[] body) {
+        if (youngBytes + body.length > generationBytes) {
+            Map<PageKey, byte[]> dropped = old;
+            dropped.clear();
+            old = young;
+            young = dropped;
+            youngBytes = 0;
+        }
+        young.put(key, body);
+        youngBytes += body.length;
+    }
+
+    /**
+     * A page as requested, the same page in another format or encoding is another entry
+     */
+    static final class PageKey {
+        private final String streamId;
+        private final long from;
+        private final int count;
+        private final boolean binary;
+        private final String encoding;
+
+        PageKey(String streamId, long from, int count, boolean binary, String encoding) {
+            this.streamId = streamId;
+            this.from = from;
+            this.count = count;
+            this.binary = binary;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            PageKey that = (PageKey) o;
+            return from == that.from
+                    && count == that.count
+                    && binary == that.binary
+                    && streamId.equals(that.streamId)
+                    && encoding.equals(that.encoding);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(streamId, from, count, binary, encoding);
+        }
+    }
+}
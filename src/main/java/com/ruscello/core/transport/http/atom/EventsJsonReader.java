@@ -0,0 +1,126 @@
+package com.ruscello.core.transport.http.atom;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.ruscello.core.NewStreamMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads an application/vnd.ruscello.events+json body, EventStore's events format, straight into messages to append.
+ * <pre>
+ * [{"eventId": "fbf4a1a1-b4a3-4dfe-a01f-ec52c34e16e4", "eventType": "event-type", "data": {"a": "1"}}]
+ * </pre>
+ * The body is read a token at a time with the streaming parser and never built into a tree. An object or array
+ * {@code data} is copied token by token into the message as compact JSON, a string {@code data} is taken as its
+ * UTF-8 bytes. Events without an {@code eventId} get a random one. {@code metadata} is skipped as messages don't
+ * have it yet.
+ * <p>
+ * Not thread safe, the copy buffer is reused between events. Readers are cheap so use one per request.
+ */
+public final class EventsJsonReader {
+
+    private static final String EVENT_ID = "eventId";
+    private static final String EVENT_TYPE = "eventType";
+    private static final String DATA = "data";
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private final JsonFactory factory;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+
+    public EventsJsonReader(JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @throws JsonParseException if the body isn't an array of events
+     */
+    public List<NewStreamMessage> read(InputStream body) throws IOException {
+        List<NewStreamMessage> messages = new ArrayList<>();
+        try (JsonParser parser = factory.createParser(body);
+             JsonGenerator generator = factory.createGenerator(buffer)) {
+            // data of consecutive events would otherwise be separated by a space
+            generator.setRootValueSeparator(null);
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "Expected an array of events");
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JsonParseException(parser, "Expected an event object");
+                }
+                messages.add(readEvent(parser, generator));
+            }
+        }
+        return messages;
+    }
+
+    private NewStreamMessage readEvent(JsonParser parser, JsonGenerator generator) throws IOException {
+        UUID eventId = null;
+        String eventType = null;
+        byte[] data = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (EVENT_ID.equals(field)) {
+                eventId = readEventId(parser);
+            } else if (EVENT_TYPE.equals(field)) {
+                eventType = readEventType(parser, value);
+            } else if (DATA.equals(field)) {
+                data = readData(parser, generator, value);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (data == null) {
+            throw new JsonParseException(parser, "Event has no data");
+        }
+        try {
+            return eventId == null ? NewStreamMessage.of(eventType, data) : new NewStreamMessage(eventId, eventType, data);
+        } catch (IllegalArgumentException e) {
+            throw new JsonParseException(parser, e.getMessage(), e);
+        }
+    }
+
+    private static String readEventType(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (value != JsonToken.VALUE_STRING) {
+            throw new JsonParseException(parser, "eventType is not a string");
+        }
+        return parser.getText();
+    }
+
+    private static UUID readEventId(JsonParser parser) throws IOException {
+        try {
+            return UUID.fromString(parser.getValueAsString());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new JsonParseException(parser, "eventId is not a UUID", e);
+        }
+    }
+
+    private byte[] readData(JsonParser parser, JsonGenerator generator, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            return parser.getText().getBytes(UTF_8);
+        }
+        if (value == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        buffer.reset();
+        generator.copyCurrentStructure(parser);
+        generator.flush();
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,251 @@
+package com.ruscello.core.transport.http.atom;
+
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.ReadAllPage;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.SystemStreams;
+import com.ruscello.write.CommittedAppendListener;
+import com.ruscello.write.WritePipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Forward reads that wait at the head of a stream, or of $all, for new messages instead of returning an empty page
+ * straight away. Clients that would otherwise poll every few hundred milliseconds get the next messages as soon as
+ * they are committed.
+ * <p>
+ * A waiting read is parked as a {@link DeferredResult} keyed by stream, there is no thread per waiter. When the
+ * {@link WritePipeline} commits to the stream the waiters are woken and read again on a small reader pool, as the
+ * fan-out thread must not block. Waiters that aren't woken get the empty page once the long poll times out.
+ * <p>
+ * Only appends that go through the pipeline wake waiters, appends made directly against the engine are seen when
+ * the long poll times out.
+ */
+public final class LongPollReader implements CommittedAppendListener, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LongPollReader.class);
+
+    public static final int DEFAULT_READERS = 2;
+    public static final Duration MAX_LONG_POLL = Duration.ofMinutes(5);
+
+    private final WritePipeline pipeline;
+    private final ExecutorService readers;
+    private final Map<String, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+
+    public LongPollReader(WritePipeline pipeline) {
+        this(pipeline, DEFAULT_READERS);
+    }
+
+    public LongPollReader(WritePipeline pipeline, int readers) {
+        this.pipeline = pipeline;
+        AtomicInteger threads = new AtomicInteger();
+        this.readers = Executors.newFixedThreadPool(readers, r -> {
+            Thread thread = new Thread(r, "ruscello-long-poll-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        pipeline.subscribe(this);
+    }
+
+    @Override
+    public void close() {
+        pipeline.unsubscribe(this);
+        readers.shutdown();
+    }
+
+    /**
+     * @param longPoll how long to wait for messages when there are none from fromVersionInclusive, zero or null to
+     *                 return straight away
+     */
+    public DeferredResult<ReadStreamPage> readStreamForwards(String streamId,
+                                                             long fromVersionInclusive,
+                                                             int maxCount,
+                                                             Duration longPoll) {
+        return readStreamForwards(streamId, fromVersionInclusive, maxCount, longPoll, Function.identity());
+    }
+
+    /**
+     * @param render turns the page into the response, on the thread that read it
+     */
+    public <T> DeferredResult<T> readStreamForwards(String streamId,
+                                                    long fromVersionInclusive,
+                                                    int maxCount,
+                                                    Duration longPoll,
+                                                    Function<ReadStreamPage, T> render) {
+        ReadStreamPage page = pipeline.readStreamForwards(streamId, fromVersionInclusive, maxCount, true);
+        if (!page.getMessages().isEmpty() || !isLongPoll(longPoll)) {
+            DeferredResult<T> result = new DeferredResult<>();
+            result.setResult(render.apply(page));
+            return result;
+        }
+        DeferredResult<T> result = new DeferredResult<>(timeoutMillis(longPoll), render.apply(page));
+        Waiter waiter = new Waiter(streamId, fromVersionInclusive, result) {
+            @Override
+            boolean read() {
+                ReadStreamPage next = pipeline.readStreamForwards(streamId, fromVersionInclusive, maxCount, true);
+                return !next.getMessages().isEmpty() && result.setResult(render.apply(next));
+            }
+        };
+        park(waiter);
+        return result;
+    }
+
+    /**
+     * @param longPoll how long to wait for messages when there are none from fromPositionInclusive, zero or null to
+     *                 return straight away
+     */
+    public DeferredResult<ReadAllPage> readAllForwards(long fromPositionInclusive, int maxCount, Duration longPoll) {
+        return readAllForwards(fromPositionInclusive, maxCount, longPoll, Function.identity());
+    }
+
+    /**
+     * @param render turns the page into the response, on the thread that read it
+     */
+    public <T> DeferredResult<T> readAllForwards(long fromPositionInclusive,
+                                                 int maxCount,
+                                                 Duration longPoll,
+                                                 Function<ReadAllPage, T> render) {
+        ReadAllPage page = pipeline.readAllForwards(fromPositionInclusive, maxCount, true);
+        if (!page.getMessages().isEmpty() || !isLongPoll(longPoll)) {
+            DeferredResult<T> result = new DeferredResult<>();
+            result.setResult(render.apply(page));
+            return result;
+        }
+        DeferredResult<T> result = new DeferredResult<>(timeoutMillis(longPoll), render.apply(page));
+        Waiter waiter = new Waiter(SystemStreams.ALL_STREAM, fromPositionInclusive, result) {
+            @Override
+            boolean read() {
+                ReadAllPage next = pipeline.readAllForwards(fromPositionInclusive, maxCount, true);
+                return !next.getMessages().isEmpty() && result.setResult(render.apply(next));
+            }
+        };
+        park(waiter);
+        return result;
+    }
+
+    @Override
+    public void onCommitted(String streamId, long firstVersion, long firstPosition, List<NewStreamMessage> messages) {
+        int last = messages.size() - 1;
+        wake(waiters.get(streamId), firstVersion + last);
+        wake(waiters.get(SystemStreams.ALL_STREAM), firstPosition + last);
+    }
+
+    private void park(Waiter waiter) {
+        waiter.result.onCompletion(() -> remove(waiter));
+        add(waiter);
+        // a commit between the first read and adding the waiter wouldn't have woken it so read once more
+        waiter.wake(this);
+    }
+
+    private void wake(Set<Waiter> waiting, long committedThrough) {
+        if (waiting == null) {
+            return;
+        }
+        for (Waiter waiter : waiting) {
+            if (waiter.awaited <= committedThrough) {
+                waiter.wake(this);
+            }
+        }
+    }
+
+    private void add(Waiter waiter) {
+        waiters.compute(waiter.key, (key, waiting) -> {
+            Set<Waiter> set = waiting == null ? ConcurrentHashMap.newKeySet() : waiting;
+            set.add(waiter);
+            return set;
+        });
+    }
+
+    private void remove(Waiter waiter) {
+        waiters.computeIfPresent(waiter.key, (key, waiting) -> {
+            waiting.remove(waiter);
+            return waiting.isEmpty() ? null : waiting;
+        });
+    }
+
+    private static boolean isLongPoll(Duration longPoll) {
+        return longPoll != null && !longPoll.isNegative() && !longPoll.isZero();
+    }
+
+    private static long timeoutMillis(Duration longPoll) {
+        return (longPoll.compareTo(MAX_LONG_POLL) > 0 ? MAX_LONG_POLL : longPoll).toMillis();
+    }
+
+    /**
+     * A parked read. Reads at most once at a time, a wake while it is reading makes it read again when it's done so a
+     * commit can't be missed.
+     */
+    private abstract static class Waiter {
+        private final String key;
+        // first version, or position for $all, that would fill the page
+        private final long awaited;
+        private final DeferredResult<?> result;
+        private final AtomicBoolean reading = new AtomicBoolean();
+        private final AtomicBoolean wakePending = new AtomicBoolean();
+
+        Waiter(String key, long awaited, DeferredResult<?> result) {
+            this.key = key;
+            this.awaited = awaited;
+            this.result = result;
+        }
+
+        /**
+         * @return true once the result has been set
+         */
+        abstract boolean read();
+
+        void wake(LongPollReader reader) {
+            wakePending.set(true);
+            if (reading.compareAndSet(false, true)) {
+                try {
+                    reader.readers.execute(() -> run(reader));
+                } catch (RejectedExecutionException e) {
+                    // closed, whoever is waiting gets the error rather than the timeout
+                    result.setErrorResult(e);
+                }
+            }
+        }
+
+        private void run(LongPollReader reader) {
+            while (wakePending.getAndSet(false)) {
+                if (result.isSetOrExpired()) {
+                    break;
+                }
+                try {
+                    if (read()) {
+                        break;
+                    }
+                } catch (RuntimeException e) {
+                    LOG.error("Long poll read of {} failed", key, e);
+                    result.setErrorResult(e);
+                    break;
+                }
+            }
+            reading.set(false);
+            if (result.isSetOrExpired()) {
+                reader.remove(this);
+                return;
+            }
+            // woken after the last check of wakePending but before reading was cleared
+            if (wakePending.get()) {
+                wake(reader);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.ruscello.core.transport.http.atom;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ruscello.core.PageReadStatus;
+import com.ruscello.core.ReadAllPage;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.SystemStreams;
+import com.ruscello.core.transport.http.server.CompressionAlgorithms;
+import com.ruscello.core.transport.http.server.ContentTypes;
+import com.ruscello.core.transport.http.server.ResponseCompressor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Turns stream and $all pages into response bodies in the format asked for in Accept, JSON or
+ * application/vnd.ruscello.page+binary, compressed as negotiated from Accept-Encoding once they're over the
+ * compressor's threshold.
+ * <p>
+ * Compressed full pages are kept in a {@link CompressedPageCache} and looked up before the page is read at all, so a
+ * consumer catching up over pages someone else has already read costs a map lookup. Only bodies that can't change
+ * are cached: pages that aren't full may still grow, pages at the end say so until the stream grows, and JSON stream
+ * pages carry the version of the head of the stream at the time they were read. Binary stream pages and $all pages
+ * don't carry the head.
+ */
+public final class PageRenderer {
+
+    public static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+    private static final MediaType PAGE_BINARY = MediaType.parseMediaType(ContentTypes.RUSCELLO_PAGE_BINARY);
+    private static final String VARY = HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING;
+
+    private final ObjectMapper mapper;
+    private final ResponseCompressor compressor;
+    private final CompressedPageCache cache;
+
+    public PageRenderer(ObjectMapper mapper) {
+        this(mapper, new ResponseCompressor(), DEFAULT_CACHE_BYTES);
+    }
+
+    public PageRenderer(ObjectMapper mapper, ResponseCompressor compressor, long cacheBytes) {
+        this.mapper = mapper;
+        this.compressor = compressor;
+        this.cache = new CompressedPageCache(cacheBytes);
+    }
+
+    /**
+     * @param accept Accept header, JSON unless it asks for application/vnd.ruscello.page+binary
+     * @param acceptEncoding Accept-Encoding header
+     */
+    public Format format(String accept, String acceptEncoding) {
+        boolean binary = accept != null && accept.contains(ContentTypes.RUSCELLO_PAGE_BINARY);
+        return new Format(binary, CompressionAlgorithms.negotiate(acceptEncoding));
+    }
+
+    /**
+     * @return the response if the page is cached, otherwise null and the page has to be read
+     */
+    public ResponseEntity<byte[]> cachedStreamPage(String streamId, long fromVersionInclusive, int maxCount, Format format) {
+        return format.binary ? cached(streamId, fromVersionInclusive, maxCount, format) : null;
+    }
+
+    public ResponseEntity<byte[]> cachedAllPage(long fromPositionInclusive, int maxCount, Format format) {
+        return cached(SystemStreams.ALL_STREAM, fromPositionInclusive, maxCount, format);
+    }
+
+    public ResponseEntity<byte[]> render(ReadStreamPage page, long fromVersionInclusive, int maxCount, Format format) {
+        byte[] body = format.binary ? binary(out -> BinaryEventsCodec.writePage(page, out)) : json(page);
+        boolean cacheable = format.binary
+                && page.getStatus() == PageReadStatus.SUCCESS
+                && page.getMessages().size() == maxCount
+                && !page.isEnd();
+        return respond(page.getStreamId(), fromVersionInclusive, maxCount, cacheable, body, format);
+    }
+
+    public ResponseEntity<byte[]> render(ReadAllPage page, long fromPositionInclusive, int maxCount, Format format) {
+        byte[] body = format.binary ? binary(out -> BinaryEventsCodec.writePage(page, out)) : json(page);
+        boolean cacheable = page.getMessages().size() == maxCount && !page.isEnd();
+        return respond(SystemStreams.ALL_STREAM, fromPositionInclusive, maxCount, cacheable, body, format);
+    }
+
+    /**
+     * Drops the cached pages of a deleted stream
+     */
+    public void invalidateStream(String streamId) {
+        cache.invalidateStream(streamId);
+    }
+
+    private ResponseEntity<byte[]> cached(String streamId, long from, int maxCount, Format format) {
+        if (format.encoding == null) {
+            return null;
+        }
+        byte[] body = cache.get(new CompressedPageCache.PageKey(streamId, from, maxCount, format.binary, format.encoding));
+        return body == null ? null : response(body, format, format.encoding);
+    }
+
+    private ResponseEntity<byte[]> respond(String streamId, long from, int maxCount, boolean cacheable, byte[] body, Format format) {
+        if (format.encoding == null || !compressor.shouldCompress(body.length)) {
+            return response(body, format, null);
+        }
+        byte[] compressed = compressor.compress(body, format.encoding);
+        if (cacheable) {
+            cache.put(new CompressedPageCache.PageKey(streamId, from, maxCount, format.binary, format.encoding), compressed);
+        }
+        return response(compressed, format, format.encoding);
+    }
+
+    private static ResponseEntity<byte[]> response(byte[] body, Format format, String encoding) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .contentType(format.binary ? PAGE_BINARY : MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.VARY, VARY);
+        if (encoding != null) {
+            builder.header(HttpHeaders.CONTENT_ENCODING, encoding);
+        }
+        return builder.body(body);
+    }
+
+    private static byte[] binary(PageWriter writer) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writer.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] json(Object page) {
+        try {
+            return mapper.writeValueAsBytes(page);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface PageWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * What the client asked for, from {@link #format}
+     */
+    public static final class Format {
+        private final boolean binary;
+        // null when the body isn't compressed
+        private final String encoding;
+
+        Format(boolean binary, String encoding) {
+            this.binary = binary;
+            this.encoding = encoding;
+        }
+
+        public boolean isBinary() {
+            return binary;
+        }
+
+        public String getEncoding() {
+            return encoding;
+        }
+    }
+}
@@ -5,8 +5,57 @@ public class CompressionAlgorithms {
     public static final String GZIP = "gzip";
     public static final String DEFLATE = "deflate";
 
+    private static final String ANY = "*";
+
     private CompressionAlgorithms() {
         // statics only
     }
 
+    /**
+     * Picks the encoding to send from an Accept-Encoding header, the one with the highest q value preferring gzip
+     * on a tie. Encodings with q=0 are refused.
+     * @return {@link #GZIP}, {@link #DEFLATE} or null to send the body as it is
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        double gzip = 0;
+        double deflate = 0;
+        double any = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            int semicolon = coding.indexOf(';');
+            String name = (semicolon < 0 ? coding : coding.substring(0, semicolon)).trim();
+            double q = semicolon < 0 ? 1 : quality(coding.substring(semicolon + 1));
+            if (GZIP.equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+                gzip = q;
+            } else if (DEFLATE.equalsIgnoreCase(name)) {
+                deflate = q;
+            } else if (ANY.equals(name)) {
+                any = q;
+            }
+        }
+        if (any > 0 && gzip == 0 && !acceptEncoding.toLowerCase().contains(GZIP)) {
+            gzip = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    private static double quality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(trimmed.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
 }
@@ -12,6 +12,9 @@ public class ContentTypes {
 
     public static final String RUSCELLO_EVENTS_JSON = "application/vnd.ruscello.events+json";
     public static final String RUSCELLO_EVENTS_XML = "application/vnd.ruscello.events+xml";
+    // length prefixed, see BinaryEventsCodec
+    public static final String RUSCELLO_EVENTS_BINARY = "application/vnd.ruscello.events+binary";
+    public static final String RUSCELLO_PAGE_BINARY = "application/vnd.ruscello.page+binary";
 
     public static final String RUSCELLO_DESCRIPTION_DOC_JSON = "application/vnd.ruscello.streamdesc+json";
 
@@ -0,0 +1,16 @@
+package com.ruscello.core.transport.http.server;
+
+// Same names as EventStore's SystemHeaders
+public class Headers {
+
+    /** seconds a read at the head of a stream waits for new messages before returning an empty page */
+    public static final String LONG_POLL = "ES-LongPoll";
+
+    /** expected version of the stream being appended to, any version when missing */
+    public static final String EXPECTED_VERSION = "ES-ExpectedVersion";
+
+    private Headers() {
+        // statics only
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.ruscello.core.transport.http.server;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses response bodies with gzip or deflate using pooled {@link Deflater}s. A Deflater holds a few hundred KB
+ * of native memory and is slow to create, so one is taken from the pool per body and reset afterwards rather than
+ * created per response. Bodies under the threshold aren't worth the CPU and are left alone.
+ * <p>
+ * Thread safe.
+ */
+public final class ResponseCompressor {
+
+    public static final int DEFAULT_MIN_SIZE = 1024;
+    public static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+    public static final int DEFAULT_POOL_SIZE = 32;
+
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final byte[] GZIP_HEADER = {
+            (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final int minSize;
+    private final int level;
+    // gzip wraps a raw deflate stream, HTTP's deflate is the zlib format
+    private final BlockingQueue<Deflater> rawDeflaters;
+    private final BlockingQueue<Deflater> zlibDeflaters;
+
+    public ResponseCompressor() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_LEVEL, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param minSize bodies smaller than this many bytes aren't compressed
+     * @param level Deflater compression level
+     * @param poolSize most Deflaters of each kind kept for reuse, any more in use at once are ended after use
+     */
+    public ResponseCompressor(int minSize, int level, int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1");
+        }
+        this.minSize = minSize;
+        this.level = level;
+        this.rawDeflaters = new ArrayBlockingQueue<>(poolSize);
+        this.zlibDeflaters = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    public boolean shouldCompress(int size) {
+        return size >= minSize;
+    }
+
+    /**
+     * @param algorithm {@link CompressionAlgorithms#GZIP} or {@link CompressionAlgorithms#DEFLATE}
+     */
+    public byte[] compress(byte[] body, String algorithm) {
+        if (CompressionAlgorithms.GZIP.equals(algorithm)) {
+            return gzip(body);
+        }
+        if (CompressionAlgorithms.DEFLATE.equals(algorithm)) {
+            Deflater deflater = acquire(zlibDeflaters, false);
+            try {
+                return deflate(deflater, body, 0, 0);
+            } finally {
+                release(zlibDeflaters, deflater);
+            }
+        }
+        throw new IllegalArgumentException("Unsupported compression " + algorithm);
+    }
+
+    private byte[] gzip(byte[] body) {
+        Deflater deflater = acquire(rawDeflaters, true);
+        byte[] out;
+        try {
+            out = deflate(deflater, body, GZIP_HEADER_SIZE, GZIP_TRAILER_SIZE);
+        } finally {
+            release(rawDeflaters, deflater);
+        }
+        System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        int trailer = out.length - GZIP_TRAILER_SIZE;
+        putIntLittleEndian(out, trailer, (int) crc.getValue());
+        putIntLittleEndian(out, trailer + Integer.BYTES, body.length);
+        return out;
+    }
+
+    /**
+     * @return the compressed body with room for a header and trailer around it
+     */
+    private static byte[] deflate(Deflater deflater, byte[] body, int headerSize, int trailerSize) {
+        deflater.setInput(body);
+        deflater.finish();
+        // JSON pages usually compress well past 2x so this is rarely grown
+        byte[] out = new byte[headerSize + Math.max(64, body.length / 2) + trailerSize];
+        int length = headerSize;
+        while (!deflater.finished()) {
+            if (length == out.length - trailerSize) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            length += deflater.deflate(out, length, out.length - trailerSize - length);
+        }
+        return Arrays.copyOf(out, length + trailerSize);
+    }
+
+    private Deflater acquire(BlockingQueue<Deflater> pool, boolean nowrap) {
+        Deflater deflater = pool.poll();
+        return deflater != null ? deflater : new Deflater(level, nowrap);
+    }
+
+    private static void release(BlockingQueue<Deflater> pool, Deflater deflater) {
+        deflater.reset();
+        if (!pool.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private static void putIntLittleEndian(byte[] dest, int offset, int value) {
+        for (int i = 0; i < Integer.BYTES; i++) {
+            dest[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+}
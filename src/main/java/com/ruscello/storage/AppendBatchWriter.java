@@ -0,0 +1,19 @@
+package com.ruscello.storage;
+
+import java.util.List;
+
+/**
+ * Implemented by storage engines that can write a group of appends as a single atomic unit, a WriteBatch for RocksDB
+ * and a write transaction for LMDB, so the cost of a sync is shared by every append in the group.
+ */
+public interface AppendBatchWriter {
+
+    /**
+     * Writes the appends in a single batch. Each append is completed individually; appends that fail their expected
+     * version check are failed with {@link com.ruscello.core.WrongExpectedVersion} and left out of the batch.
+     * Implementations serialize calls so there is a single writer at a time.
+     * @param appends appends to write in order
+     */
+    void write(List<PendingAppend> appends);
+
+}
@@ -0,0 +1,20 @@
+package com.ruscello.storage;
+
+import com.ruscello.core.ReadAllPage;
+
+/**
+ * Implemented by storage engines that link every message of a stream with a category, see
+ * {@link com.ruscello.core.SystemStreams#categoryOf}, into {@link KeySpaces#CATEGORIES} in the same write as the
+ * message. Reading a category is a prefix scan over its links rather than a filtered read of $all.
+ */
+public interface CategoryStore {
+
+    /**
+     * @param category category name without the $ce- prefix
+     * @param fromPositionInclusive $all position to read from
+     * @param prefetch whether to read message ids and data from MAIN, otherwise only the links are read
+     * @return page of the category's messages in $all order, the next position continues the category
+     */
+    ReadAllPage readCategoryForwards(String category, long fromPositionInclusive, int maxCount, boolean prefetch);
+
+}
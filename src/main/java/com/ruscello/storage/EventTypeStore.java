@@ -0,0 +1,20 @@
+package com.ruscello.storage;
+
+import com.ruscello.core.ReadAllPage;
+
+/**
+ * Implemented by storage engines that link every message with a type, see
+ * {@link com.ruscello.core.NewStreamMessage#getType}, into {@link KeySpaces#EVENT_TYPES} in the same write as the
+ * message. Reading $all by type seeks straight through the type's links rather than reading and discarding
+ * messages of every other type.
+ */
+public interface EventTypeStore {
+
+    /**
+     * @param fromPositionInclusive $all position to read from
+     * @param prefetch whether to read message ids and data from MAIN, otherwise only the links are read
+     * @return page of the messages of the type in $all order, the next position continues the type
+     */
+    ReadAllPage readAllForwards(String eventType, long fromPositionInclusive, int maxCount, boolean prefetch);
+
+}
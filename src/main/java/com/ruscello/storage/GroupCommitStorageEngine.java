@@ -0,0 +1,252 @@
+package com.ruscello.storage;
+
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.ReadAllPage;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.messages.client.AppendResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// https://www.percona.com/blog/2006/05/19/group-commit-and-real-fsync/
+// https://github.com/facebook/rocksdb/wiki/WAL-Performance#group-commit
+/**
+ * Sits in front of a storage engine and merges appends from many producers into a single batch per tick so the cost
+ * of syncing is shared across all of them. A single committer thread drains the queue until either the batch is full
+ * or the linger time has elapsed and hands the batch to the engine's {@link AppendBatchWriter}.
+ * Callers block until their append is committed and still receive their own result or
+ * {@link com.ruscello.core.WrongExpectedVersion}.
+ */
+public class GroupCommitStorageEngine implements StorageEngine, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GroupCommitStorageEngine.class);
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 512;
+
+    // appends queue up while the previous batch is syncing so no linger is needed to get batching under load.
+    // Raising this trades latency for larger batches when producers are sparse.
+    public static final Duration DEFAULT_MAX_LINGER = Duration.ZERO;
+
+    // number of full batches that can be queued before producers are blocked
+    private static final int QUEUED_BATCHES = 4;
+
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private final StorageEngine engine;
+    private final AppendBatchWriter writer;
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final BlockingQueue<PendingAppend> queue;
+    private final Thread committer;
+
+    private volatile boolean running;
+
+    public <E extends StorageEngine & AppendBatchWriter> GroupCommitStorageEngine(E engine) {
+        this(engine, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_LINGER);
+    }
+
+    public <E extends StorageEngine & AppendBatchWriter> GroupCommitStorageEngine(E engine,
+                                                                                   int maxBatchSize,
+                                                                                   Duration maxLinger) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        this.engine = engine;
+        this.writer = engine;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerNanos = maxLinger == null ? DEFAULT_MAX_LINGER.toNanos() : maxLinger.toNanos();
+        this.queue = new ArrayBlockingQueue<>(maxBatchSize * QUEUED_BATCHES);
+        this.committer = new Thread(this::run, "ruscello-group-commit");
+        this.committer.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        committer.start();
+    }
+
+    /**
+     * Stops accepting appends and commits whatever is still queued before returning
+     */
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public AppendResult appendToStream(String streamId, int expectedVersion, byte[] message) {
+        return appendToStream(streamId, expectedVersion, Collections.singletonList(message));
+    }
+
+    @Override
+    public AppendResult appendToStream(String streamId, int expectedVersion, List<byte[]> messages) {
+        PendingAppend append = PendingAppend.withRandomIds(streamId, expectedVersion, messages);
+        enqueue(append);
+        return append.join();
+    }
+
+    @Override
+    public AppendResult appendToStream(String streamId, int expectedVersion, NewStreamMessage... messages) {
+        PendingAppend append = new PendingAppend(streamId, expectedVersion, Arrays.asList(messages));
+        enqueue(append);
+        return append.join();
+    }
+
+    private void enqueue(PendingAppend append) {
+        if (!running) {
+            throw new InvalidStoreException("Group commit is not running");
+        }
+        try {
+            queue.put(append);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessorStateException("Interrupted while queueing append to stream " + append.getStreamId(), e);
+        }
+        // closed while we were queueing and the committer may already be gone
+        if (!running && queue.remove(append)) {
+            throw new InvalidStoreException("Group commit is not running");
+        }
+    }
+
+    private void run() {
+        List<PendingAppend> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                PendingAppend first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fill(batch);
+                commit(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            failRemaining(batch);
+        }
+    }
+
+    private void fill(List<PendingAppend> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + maxLingerNanos;
+        while (batch.size() < maxBatchSize) {
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= maxBatchSize || remaining <= 0) {
+                return;
+            }
+            PendingAppend next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void commit(List<PendingAppend> batch) {
+        try {
+            writer.write(batch);
+        } catch (RuntimeException e) {
+            LOG.error("Group commit of {} appends failed", batch.size(), e);
+            for (PendingAppend append : batch) {
+                if (!append.isDone()) {
+                    append.fail(e);
+                }
+            }
+        }
+    }
+
+    private void failRemaining(List<PendingAppend> batch) {
+        queue.drainTo(batch);
+        InvalidStoreException closed = new InvalidStoreException("Group commit has been stopped");
+        for (PendingAppend append : batch) {
+            if (!append.isDone()) {
+                append.fail(closed);
+            }
+        }
+    }
+
+    @Override
+    public void deleteStream(String streamId, int expectedVersion) throws SQLException {
+        engine.deleteStream(streamId, expectedVersion);
+    }
+
+    @Override
+    public void deleteMessage(String streamId, UUID messageId) throws SQLException {
+        engine.deleteMessage(streamId, messageId);
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        return engine.get(key);
+    }
+
+    @Override
+    public StoreIterator<byte[], byte[]> range(byte[] start, byte[] end) {
+        return engine.range(start, end);
+    }
+
+    @Override
+    public StoreIterator<byte[], byte[]> range(byte[] start, int maxCount) {
+        return engine.range(start, maxCount);
+    }
+
+    @Override
+    public StoreIterator<byte[], byte[]> all() {
+        return engine.all();
+    }
+
+    @Override
+    public long approximateNumEntries() {
+        return engine.approximateNumEntries();
+    }
+
+    @Override
+    public StoreIterator<byte[], byte[]> readAll(long fromPositionInclusive) {
+        return engine.readAll(fromPositionInclusive);
+    }
+
+    @Override
+    public long readHeadPosition() {
+        return engine.readHeadPosition();
+    }
+
+    @Override
+    public ReadAllPage readAllForwards(long fromPositionInclusive, int maxCount, boolean prefetch) {
+        return engine.readAllForwards(fromPositionInclusive, maxCount, prefetch);
+    }
+
+    @Override
+    public ReadAllPage readAllBackwards(long fromPositionInclusive, int maxCount, boolean prefetch) {
+        return engine.readAllBackwards(fromPositionInclusive, maxCount, prefetch);
+    }
+
+    @Override
+    public ReadStreamPage readStreamForwards(String streamId, long fromVersionInclusive, int maxCount, boolean prefetch) {
+        return engine.readStreamForwards(streamId, fromVersionInclusive, maxCount, prefetch);
+    }
+
+    @Override
+    public ReadStreamPage readStreamBackwards(String streamId, long fromVersionInclusive, int maxCount, boolean prefetch) {
+        return engine.readStreamBackwards(streamId, fromVersionInclusive, maxCount, prefetch);
+    }
+}
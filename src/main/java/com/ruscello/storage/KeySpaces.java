@@ -36,19 +36,29 @@ public class KeySpaces {
     public static final String TOTAL_ORDERED = "total_ordered";
 
     /**
-     * TODO: should this also includes ngrams?
-     * My initial thought is yes keep them in the same keyspace but with a special prefix/suffix with the values
-     * pointing to the actual stream name key
-     * What about streams that will have the same ngrams? What is the key design? Also what if we delete the stream?
-     * how to find all the keys to delete.
-     * if we just want to support prefix searching then Ngrams would not be necessary
+     * Stream catalogue, a dense id and the name of every stream plus edge n-gram postings of the ids so streams can be
+     * searched by name. See {@link StreamNameIndex}.
+     * TODO: deleting a stream has to clear its postings, the id is kept by hash and the grams come from the name
      */
     public static final String STREAM_NAMES = "stream_names";
 
     public static final String PERSISTENT_SUBSCRIPTIONS = "persistent_subscriptions";
 
+    /**
+     * Links to every message in a stream with a category ($ce-), keyed by hash of the category + position in $all so
+     * a category is read in $all order with a prefix scan. Values are the same as TOTAL_ORDERED's.
+     */
+    public static final String CATEGORIES = "categories";
+
+    /**
+     * Links to every typed message keyed by hash of the event type + position in $all so $all can be read by type
+     * with a prefix scan. Values are the same as TOTAL_ORDERED's.
+     */
+    public static final String EVENT_TYPES = "event_types";
+
     public static final String USERS = "users";
 
-    public static final List<String> ALL_STREAM_NAMES = Arrays.asList(MAIN, TOTAL_ORDERED, STREAM_NAMES, PERSISTENT_SUBSCRIPTIONS);
+    public static final List<String> ALL_STREAM_NAMES = Arrays.asList(MAIN, TOTAL_ORDERED, STREAM_NAMES, PERSISTENT_SUBSCRIPTIONS,
+            CATEGORIES, EVENT_TYPES);
 
 }
@@ -0,0 +1,159 @@
+package com.ruscello.storage;
+
+import com.ruscello.core.NewStreamMessage;
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+
+import java.nio.ByteOrder;
+import java.util.UUID;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Encodes values for the MAIN keyspace as the message's position in $all, the message id and the event type followed by
+ * the message data. All fixed width fields are big endian. Keeping the position in the record means a stream read can
+ * return positions without going to TOTAL_ORDERED, keeping the id lets the writer detect retried appends, and keeping
+ * the type means MAIN has everything EVENT_TYPES is built from.
+ * <pre>
+ *   position (8)  id (16)  type length (2)  type (UTF-8)  data
+ * </pre>
+ * Untyped messages have a type length of 0.
+ */
+public final class MessageRecordCodec {
+
+    public static final int POSITION_OFFSET = 0;
+    public static final int MESSAGE_ID_OFFSET = POSITION_OFFSET + Long.BYTES;
+    public static final int TYPE_LENGTH_OFFSET = MESSAGE_ID_OFFSET + 2 * Long.BYTES;
+    public static final int TYPE_OFFSET = TYPE_LENGTH_OFFSET + Short.BYTES;
+
+    private static final byte[] UNTYPED = new byte[0];
+
+    private MessageRecordCodec() {
+        // statics only
+    }
+
+    /**
+     * @param type event type or null, at most {@link NewStreamMessage#MAX_TYPE_SIZE} bytes once encoded
+     * @return the UTF-8 type to pass to {@link #length} and {@link #encode}
+     */
+    public static byte[] type(String type) {
+        return type == null ? UNTYPED : type.getBytes(UTF_8);
+    }
+
+    public static int length(byte[] type, byte[] data) {
+        return TYPE_OFFSET + type.length + data.length;
+    }
+
+    public static byte[] encode(long position, UUID messageId, byte[] type, byte[] data) {
+        byte[] record = new byte[length(type, data)];
+        putLong(record, POSITION_OFFSET, position);
+        putLong(record, MESSAGE_ID_OFFSET, messageId.getMostSignificantBits());
+        putLong(record, MESSAGE_ID_OFFSET + Long.BYTES, messageId.getLeastSignificantBits());
+        record[TYPE_LENGTH_OFFSET] = (byte) (type.length >>> 8);
+        record[TYPE_LENGTH_OFFSET + 1] = (byte) type.length;
+        System.arraycopy(type, 0, record, TYPE_OFFSET, type.length);
+        System.arraycopy(data, 0, record, TYPE_OFFSET + type.length, data.length);
+        return record;
+    }
+
+    /**
+     * Encodes straight into a buffer that is at least {@link #length} long, e.g. space reserved in LMDB
+     */
+    public static void encode(long position, UUID messageId, byte[] type, byte[] data, MutableDirectBuffer dest) {
+        dest.putLong(POSITION_OFFSET, position, ByteOrder.BIG_ENDIAN);
+        dest.putLong(MESSAGE_ID_OFFSET, messageId.getMostSignificantBits(), ByteOrder.BIG_ENDIAN);
+        dest.putLong(MESSAGE_ID_OFFSET + Long.BYTES, messageId.getLeastSignificantBits(), ByteOrder.BIG_ENDIAN);
+        dest.putShort(TYPE_LENGTH_OFFSET, (short) type.length, ByteOrder.BIG_ENDIAN);
+        dest.putBytes(TYPE_OFFSET, type);
+        dest.putBytes(TYPE_OFFSET + type.length, data);
+    }
+
+    public static long position(byte[] record) {
+        return getLong(record, POSITION_OFFSET);
+    }
+
+    public static long position(DirectBuffer record) {
+        return record.getLong(POSITION_OFFSET, ByteOrder.BIG_ENDIAN);
+    }
+
+    public static long messageIdMostSigBits(byte[] record) {
+        return getLong(record, MESSAGE_ID_OFFSET);
+    }
+
+    public static long messageIdLeastSigBits(byte[] record) {
+        return getLong(record, MESSAGE_ID_OFFSET + Long.BYTES);
+    }
+
+    public static long messageIdMostSigBits(DirectBuffer record) {
+        return record.getLong(MESSAGE_ID_OFFSET, ByteOrder.BIG_ENDIAN);
+    }
+
+    public static long messageIdLeastSigBits(DirectBuffer record) {
+        return record.getLong(MESSAGE_ID_OFFSET + Long.BYTES, ByteOrder.BIG_ENDIAN);
+    }
+
+    public static UUID messageId(byte[] record) {
+        return new UUID(messageIdMostSigBits(record), messageIdLeastSigBits(record));
+    }
+
+    public static UUID messageId(DirectBuffer record) {
+        return new UUID(messageIdMostSigBits(record), messageIdLeastSigBits(record));
+    }
+
+    /**
+     * @return the event type or null for an untyped message
+     */
+    public static String type(byte[] record) {
+        int length = typeLength(record);
+        return length == 0 ? null : new String(record, TYPE_OFFSET, length, UTF_8);
+    }
+
+    public static String type(DirectBuffer record) {
+        int length = typeLength(record);
+        return length == 0 ? null : record.getStringWithoutLengthUtf8(TYPE_OFFSET, length);
+    }
+
+    public static int dataOffset(byte[] record) {
+        return TYPE_OFFSET + typeLength(record);
+    }
+
+    public static int dataOffset(DirectBuffer record) {
+        return TYPE_OFFSET + typeLength(record);
+    }
+
+    public static byte[] data(byte[] record) {
+        int offset = dataOffset(record);
+        byte[] data = new byte[record.length - offset];
+        System.arraycopy(record, offset, data, 0, data.length);
+        return data;
+    }
+
+    public static byte[] data(DirectBuffer record) {
+        int offset = dataOffset(record);
+        byte[] data = new byte[record.capacity() - offset];
+        record.getBytes(offset, data);
+        return data;
+    }
+
+    private static int typeLength(byte[] record) {
+        return (record[TYPE_LENGTH_OFFSET] & 0xFF) << 8 | record[TYPE_LENGTH_OFFSET + 1] & 0xFF;
+    }
+
+    private static int typeLength(DirectBuffer record) {
+        return record.getShort(TYPE_LENGTH_OFFSET, ByteOrder.BIG_ENDIAN) & 0xFFFF;
+    }
+
+    private static void putLong(byte[] dest, int offset, long value) {
+        for (int i = 0; i < Long.BYTES; i++) {
+            dest[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    private static long getLong(byte[] src, int offset) {
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << 8) | (src[offset + i] & 0xFFL);
+        }
+        return value;
+    }
+}
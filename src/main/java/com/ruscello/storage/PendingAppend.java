@@ -0,0 +1,114 @@
+package com.ruscello.storage;
+
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.messages.client.AppendResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * An append to a single stream waiting to be written as part of a batch.
+ * The writer assigns the resulting stream version and position while building the batch and only completes the append once the
+ * whole batch has been committed. Appends that fail their expected version check are failed individually and do not
+ * affect the rest of the batch. Appends that are retries of an earlier append are completed with the original result
+ * without being written.
+ */
+public final class PendingAppend {
+
+    private final String streamId;
+    private final int expectedVersion;
+    private final List<NewStreamMessage> messages;
+    private final CompletableFuture<AppendResult> result = new CompletableFuture<>();
+
+    private long currentVersion;
+    private long currentPosition;
+    private boolean duplicate;
+
+    public PendingAppend(String streamId, int expectedVersion, List<NewStreamMessage> messages) {
+        this.streamId = streamId;
+        this.expectedVersion = expectedVersion;
+        this.messages = messages;
+    }
+
+    /**
+     * Creates an append for messages without ids, each message gets a random id
+     */
+    public static PendingAppend withRandomIds(String streamId, int expectedVersion, List<byte[]> messages) {
+        List<NewStreamMessage> newMessages = new ArrayList<>(messages.size());
+        for (byte[] message : messages) {
+            newMessages.add(NewStreamMessage.of(message));
+        }
+        return new PendingAppend(streamId, expectedVersion, newMessages);
+    }
+
+    public String getStreamId() {
+        return streamId;
+    }
+
+    public int getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    public List<NewStreamMessage> getMessages() {
+        return messages;
+    }
+
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+    /**
+     * Records the result once this append has been added to the batch.
+     * @param currentVersion version of the last message of this append
+     * @param currentPosition $all position of the last message of this append
+     */
+    public void setResult(long currentVersion, long currentPosition) {
+        this.currentVersion = currentVersion;
+        this.currentPosition = currentPosition;
+    }
+
+    /**
+     * Records the result of the original append when this append is a retry and nothing will be written
+     */
+    public void setDuplicateResult(long currentVersion, long currentPosition) {
+        setResult(currentVersion, currentPosition);
+        this.duplicate = true;
+    }
+
+    /**
+     * @return true if this append was a retry that was completed with the original result
+     */
+    public boolean isDuplicate() {
+        return duplicate;
+    }
+
+    /**
+     * Called by the writer after the batch containing this append has been committed
+     */
+    public void complete() {
+        // the result is only built here so a failed append doesn't allocate one
+        result.complete(new AppendResult(currentVersion, currentPosition));
+    }
+
+    public void fail(Throwable cause) {
+        result.completeExceptionally(cause);
+    }
+
+    /**
+     * Blocks until the batch containing this append is committed
+     * @return the current version of the stream and $all position after the append
+     * @throws com.ruscello.core.WrongExpectedVersion if the expected version check failed
+     */
+    public AppendResult join() {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ProcessorStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.ruscello.storage;
+
+import com.ruscello.core.Position;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out monotonically increasing positions in the $all log. Positions are allocated when an append is added to a
+ * batch so a batch that fails to commit leaves a gap, positions are increasing but not guaranteed to be contiguous.
+ */
+public final class PositionAllocator {
+
+    private final AtomicLong next;
+
+    // only moved forward by the writer once a batch is durable so readers never see a position that isn't readable
+    private volatile long headPosition;
+
+    /**
+     * @param headPosition position of the last message in the store or Position.END if the store is empty
+     */
+    public PositionAllocator(long headPosition) {
+        // Position.END is -1 so an empty store starts at Position.START
+        this.next = new AtomicLong(headPosition == Position.END ? Position.START : headPosition + 1);
+        this.headPosition = headPosition;
+    }
+
+    /**
+     * Reserves count consecutive positions
+     * @return the first of the reserved positions
+     */
+    public long allocate(int count) {
+        return next.getAndAdd(count);
+    }
+
+    /**
+     * Called by the writer once every position up to and including the given one has been committed
+     */
+    public void committed(long position) {
+        if (position > headPosition) {
+            headPosition = position;
+        }
+    }
+
+    /**
+     * @return the position of the last committed message or Position.END if the store is empty
+     */
+    public long headPosition() {
+        return headPosition;
+    }
+}
@@ -0,0 +1,90 @@
+package com.ruscello.storage;
+
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+
+import java.nio.ByteOrder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Encodes keys for the TOTAL_ORDERED keyspace as the position in the $all log as a big endian long so that keys sort
+ * in position order and reading $all is a sequential range scan.
+ * <p>
+ * Values are the MAIN key of the message followed by the UTF-8 stream name so a page of $all can be read without
+ * prefetching from TOTAL_ORDERED alone.
+ */
+public final class PositionCodec {
+
+    public static final int POSITION_SIZE = Long.BYTES;
+
+    private PositionCodec() {
+        // statics only
+    }
+
+    public static byte[] encode(long position) {
+        byte[] key = new byte[POSITION_SIZE];
+        encode(position, key, 0);
+        return key;
+    }
+
+    public static void encode(long position, byte[] dest, int offset) {
+        for (int i = 0; i < POSITION_SIZE; i++) {
+            dest[offset + i] = (byte) (position >>> (56 - 8 * i));
+        }
+    }
+
+    public static void encode(long position, MutableDirectBuffer dest, int offset) {
+        dest.putLong(offset, position, ByteOrder.BIG_ENDIAN);
+    }
+
+    public static long decode(byte[] key) {
+        long position = 0;
+        for (int i = 0; i < POSITION_SIZE; i++) {
+            position = (position << 8) | (key[i] & 0xFFL);
+        }
+        return position;
+    }
+
+    public static long decode(DirectBuffer key) {
+        return key.getLong(0, ByteOrder.BIG_ENDIAN);
+    }
+
+    public static int valueLength(byte[] streamName) {
+        return StreamKeyCodec.KEY_SIZE + streamName.length;
+    }
+
+    public static byte[] encodeValue(byte[] mainKey, byte[] streamName) {
+        byte[] value = new byte[valueLength(streamName)];
+        System.arraycopy(mainKey, 0, value, 0, StreamKeyCodec.KEY_SIZE);
+        System.arraycopy(streamName, 0, value, StreamKeyCodec.KEY_SIZE, streamName.length);
+        return value;
+    }
+
+    public static void encodeValue(DirectBuffer mainKey, byte[] streamName, MutableDirectBuffer dest) {
+        dest.putBytes(0, mainKey, 0, StreamKeyCodec.KEY_SIZE);
+        dest.putBytes(StreamKeyCodec.KEY_SIZE, streamName);
+    }
+
+    public static byte[] mainKey(byte[] value) {
+        byte[] key = new byte[StreamKeyCodec.KEY_SIZE];
+        System.arraycopy(value, 0, key, 0, StreamKeyCodec.KEY_SIZE);
+        return key;
+    }
+
+    public static long streamVersion(byte[] value) {
+        return StreamKeyCodec.version(value);
+    }
+
+    public static long streamVersion(DirectBuffer value) {
+        return StreamKeyCodec.version(value);
+    }
+
+    public static String streamId(byte[] value) {
+        return new String(value, StreamKeyCodec.KEY_SIZE, value.length - StreamKeyCodec.KEY_SIZE, UTF_8);
+    }
+
+    public static String streamId(DirectBuffer value) {
+        return value.getStringWithoutLengthUtf8(StreamKeyCodec.KEY_SIZE, value.capacity() - StreamKeyCodec.KEY_SIZE);
+    }
+}
@@ -0,0 +1,168 @@
+package com.ruscello.storage;
+
+import java.util.Arrays;
+
+/**
+ * A roaring bitmap style container for up to 2^16 stream ids that share their high 16 bits, holding the low 16 bits.
+ * Sparse blocks are a sorted array of 2 byte values and switch to a 8KB bitmap once they'd be bigger than one,
+ * over 4096 ids, so a posting never costs more than 2 bytes and a dense gram costs 1 bit per stream.
+ * <pre>
+ *   ARRAY   0x00  low (2, big endian) ...
+ *   BITMAP  0x01  1024 words (8, big endian)
+ * </pre>
+ * Blocks are merged by decoding, adding and encoding again, see {@link #add}.
+ */
+public final class PostingsBlock {
+
+    public static final int BLOCK_SIZE = 1 << 16;
+    public static final int WORDS = BLOCK_SIZE / Long.SIZE;
+
+    static final byte ARRAY = 0;
+    static final byte BITMAP = 1;
+    // an array of more lows than this is bigger than the bitmap
+    static final int MAX_ARRAY_SIZE = 4096;
+
+    private static final int BITMAP_LENGTH = 1 + WORDS * Long.BYTES;
+
+    private PostingsBlock() {
+        // statics only
+    }
+
+    public static int high(int id) {
+        return id >>> 16;
+    }
+
+    public static int low(int id) {
+        return id & 0xFFFF;
+    }
+
+    /**
+     * @param block existing block or null
+     * @param lows sorted lows to add, lows already in the block are ignored
+     * @param count number of lows to add
+     * @return the encoded block with the lows added
+     */
+    public static byte[] add(byte[] block, int[] lows, int count) {
+        if (block != null && block[0] == BITMAP) {
+            byte[] merged = Arrays.copyOf(block, block.length);
+            for (int i = 0; i < count; i++) {
+                int offset = 1 + (lows[i] >>> 6) * Long.BYTES;
+                putLong(merged, offset, getLong(merged, offset) | 1L << lows[i]);
+            }
+            return merged;
+        }
+
+        int existing = block == null ? 0 : (block.length - 1) / 2;
+        int[] merged = new int[existing + count];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < existing || j < count) {
+            int next;
+            if (j == count || (i < existing && arrayLow(block, i) <= lows[j])) {
+                next = arrayLow(block, i++);
+            } else {
+                next = lows[j++];
+            }
+            if (size == 0 || merged[size - 1] != next) {
+                merged[size++] = next;
+            }
+        }
+
+        if (size > MAX_ARRAY_SIZE) {
+            long[] words = new long[WORDS];
+            for (int k = 0; k < size; k++) {
+                words[merged[k] >>> 6] |= 1L << merged[k];
+            }
+            byte[] bitmap = new byte[BITMAP_LENGTH];
+            bitmap[0] = BITMAP;
+            for (int w = 0; w < WORDS; w++) {
+                putLong(bitmap, 1 + w * Long.BYTES, words[w]);
+            }
+            return bitmap;
+        }
+        byte[] array = new byte[1 + size * 2];
+        array[0] = ARRAY;
+        for (int k = 0; k < size; k++) {
+            array[1 + k * 2] = (byte) (merged[k] >>> 8);
+            array[2 + k * 2] = (byte) merged[k];
+        }
+        return array;
+    }
+
+    /**
+     * Decodes a block into a bitmap of its lows
+     * @param words at least {@link #WORDS} long, overwritten
+     */
+    public static void decode(byte[] block, long[] words) {
+        if (block[0] == BITMAP) {
+            for (int i = 0; i < WORDS; i++) {
+                words[i] = getLong(block, 1 + i * Long.BYTES);
+            }
+            return;
+        }
+        Arrays.fill(words, 0, WORDS, 0L);
+        for (int i = 0, size = (block.length - 1) / 2; i < size; i++) {
+            int low = arrayLow(block, i);
+            words[low >>> 6] |= 1L << low;
+        }
+    }
+
+    /**
+     * Intersects a bitmap with a block
+     * @return false if nothing is left in the bitmap
+     */
+    public static boolean and(long[] words, byte[] block) {
+        long any = 0;
+        if (block[0] == BITMAP) {
+            for (int i = 0; i < WORDS; i++) {
+                any |= words[i] &= getLong(block, 1 + i * Long.BYTES);
+            }
+            return any != 0;
+        }
+        // clear everything not in the array a word at a time, the array is sorted so its lows come in word order
+        int size = (block.length - 1) / 2;
+        int next = 0;
+        for (int word = 0; word < WORDS; word++) {
+            long keep = 0;
+            while (next < size && arrayLow(block, next) >>> 6 == word) {
+                keep |= 1L << arrayLow(block, next++);
+            }
+            any |= words[word] &= keep;
+        }
+        return any != 0;
+    }
+
+    /**
+     * @return number of lows in the block
+     */
+    public static int cardinality(byte[] block) {
+        if (block[0] == ARRAY) {
+            return (block.length - 1) / 2;
+        }
+        int cardinality = 0;
+        for (int i = 0; i < WORDS; i++) {
+            cardinality += Long.bitCount(getLong(block, 1 + i * Long.BYTES));
+        }
+        return cardinality;
+    }
+
+    private static int arrayLow(byte[] block, int index) {
+        return (block[1 + index * 2] & 0xFF) << 8 | block[2 + index * 2] & 0xFF;
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = value << 8 | bytes[offset + i] & 0xFF;
+        }
+        return value;
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.ruscello.storage;
 
+import com.ruscello.core.ReadAllPage;
+import com.ruscello.core.ReadStreamPage;
 
 
 // TDOO: this is the wrong bytes. kafka stream was using
@@ -55,61 +57,71 @@ public interface ReadOnlyStorageEngine /*<Bytes, byte[]>*/ {
      */
     long approximateNumEntries();
 
+    /**
+     * Return an iterator over the $all log starting at the given position. This iterator must be closed after use.
+     * Keys are positions encoded with {@link PositionCodec} and values are the MAIN key of the message at that
+     * position followed by the stream name, so reading $all is a sequential scan of a single keyspace.
+     * @param fromPositionInclusive position to start reading from. Use Position.START to start from the beginning
+     * @return An iterator over the $all log in position order
+     * @throws InvalidStateStoreException if the store is not initialized
+     */
+    StoreIterator<byte[], byte[]> readAll(long fromPositionInclusive);
 
+    /**
+     * Reads the head position (the position of the very latest message).
+     * @return the head position or Position.END if the store is empty
+     */
+    long readHeadPosition();
 
 
-//    /**
-//     *
-//     * @param fromPositionInclusive position to start reading from. Use Position.START to start from the beginning
-//     * @param maxCount maximum number of events to read
-//     * @param prefetch Prefetches the message data as part of the page read. This means a single request to the server but a higher payload size.
-//     * @return An @{link ReadAllPage} presenting the result of the read. If all messages read have expired then the message collection MAY be empty.
-//     */
-//    ReadAllPage readAllForwards(long fromPositionInclusive, int maxCount, boolean prefetch) throws SQLException;
-//
-//    /**
-//     *
-//     * @param fromPositionInclusive The position to start reading from. Use Position.END to start from the end.
-//     * @param maxCount maximum number of events to read
-//     * @param prefetch Prefetches the message data as part of the page read. This means a single request to the server but a higher payload size.
-//     * @return An @{link ReadAllPage} presenting the result of the read. If all messages read have expired then the message collection MAY be empty.
-//     */
-//    ReadAllPage readAllBackwards(long fromPositionInclusive, int maxCount, boolean prefetch) throws SQLException;
-//
-//    /**
-//     *
-//     * @param streamId the stream id to read
-//     * @param fromVersionInclusive The version of the stream to start reading from. Use StreamVersion.Start to read from the start.
-//     * @param maxCount maximum number of events to read
-//     * @param prefetch Prefetches the message data as part of the page read. This means a single request to the server but a higher payload size.
-//     * @return An @{link ReadAllPage} presenting the result of the read. If all messages read have expired then the message collection MAY be empty.
-//     */
-//    ReadStreamPage readStreamForwards(
-//            String streamId,
-//            int fromVersionInclusive,
-//            int maxCount,
-//            boolean prefetch) throws SQLException;
-//
-//    /**
-//     *
-//     * @param streamId the stream id to read
-//     * @param fromVersionInclusive The version of the stream to start reading from. Use StreamVersion.End to read from the end
-//     * @param maxCount maximum number of events to read
-//     * @param prefetch Prefetches the message data as part of the page read. This means a single request to the server but a higher payload size.
-//     * @return An @{link ReadAllPage} presenting the result of the read. If all messages read have expired then the message collection MAY be empty.
-//     */
-//    ReadStreamPage readStreamBackwards(String streamId,
-//                                       int fromVersionInclusive,
-//                                       int maxCount,
-//                                       boolean prefetch) throws SQLException;
-//
-//
-//    /**
-//     * Reads the head position (the position of the very latest message).
-//     * @return the head position
-//     */
-//    Long readHeadPosition();
-//
+
+
+    /**
+     *
+     * @param fromPositionInclusive position to start reading from. Use Position.START to start from the beginning
+     * @param maxCount maximum number of events to read
+     * @param prefetch Prefetches the message data as part of the page read. This means a single request to the server but a higher payload size.
+     *                 Without prefetch the page is read from TOTAL_ORDERED alone.
+     * @return An @{link ReadAllPage} presenting the result of the read. If all messages read have expired then the message collection MAY be empty.
+     */
+    ReadAllPage readAllForwards(long fromPositionInclusive, int maxCount, boolean prefetch);
+
+    /**
+     *
+     * @param fromPositionInclusive The position to start reading from. Use Position.END to start from the end.
+     * @param maxCount maximum number of events to read
+     * @param prefetch Prefetches the message data as part of the page read. This means a single request to the server but a higher payload size.
+     *                 Without prefetch the page is read from TOTAL_ORDERED alone.
+     * @return An @{link ReadAllPage} presenting the result of the read. If all messages read have expired then the message collection MAY be empty.
+     */
+    ReadAllPage readAllBackwards(long fromPositionInclusive, int maxCount, boolean prefetch);
+
+    /**
+     *
+     * @param streamId the stream id to read
+     * @param fromVersionInclusive The version of the stream to start reading from. Use StreamVersion.START to read from the start.
+     * @param maxCount maximum number of events to read
+     * @param prefetch Prefetches the message data as part of the page read. This means a single request to the server but a higher payload size.
+     * @return An @{link ReadStreamPage} presenting the result of the read. If all messages read have expired then the message collection MAY be empty.
+     */
+    ReadStreamPage readStreamForwards(String streamId,
+                                      long fromVersionInclusive,
+                                      int maxCount,
+                                      boolean prefetch);
+
+    /**
+     *
+     * @param streamId the stream id to read
+     * @param fromVersionInclusive The version of the stream to start reading from. Use StreamVersion.END to read from the end
+     * @param maxCount maximum number of events to read
+     * @param prefetch Prefetches the message data as part of the page read. This means a single request to the server but a higher payload size.
+     * @return An @{link ReadStreamPage} presenting the result of the read. If all messages read have expired then the message collection MAY be empty.
+     */
+    ReadStreamPage readStreamBackwards(String streamId,
+                                       long fromVersionInclusive,
+                                       int maxCount,
+                                       boolean prefetch);
+
 //    /**
 //     * Gets the stream metadata
 //     * @param streamId The stream ID whose metadata is to be read.
@@ -0,0 +1,400 @@
+package com.ruscello.storage;
+
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.hashing.MurmurHash3;
+import org.agrona.collections.Long2LongHashMap;
+import org.agrona.collections.Long2ObjectHashMap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Detects retried appends by remembering the ids of the most recent messages written to each hot stream.
+ * <p>
+ * Each hot stream has a small ring of its latest message ids along with their versions and positions. A Bloom filter
+ * over every recently written id sits in front of streams that aren't hot, and on the normal path (fresh ids) it
+ * answers "never seen" without touching storage. Only when it might have seen an id does the writer have to check
+ * the tail of the stream in storage.
+ * <p>
+ * The filter only knows the ids written since the writer started, so it can only answer "never seen" for streams it
+ * has already checked against storage. The first append to every other stream is {@link Match#UNKNOWN} and its stored
+ * tail is added to the filter by {@link #matchStored}, so a retry of an append committed before a restart is still
+ * found.
+ * <p>
+ * An append is a duplicate when every one of its ids is found with consecutive versions, in which case the original
+ * result is returned and nothing is written. Appends with more messages than the window can't be fully checked and
+ * are treated as new.
+ * <p>
+ * Windows, checked streams and the filter are bounded with two generations the same way as {@link StreamVersionCache}. Not thread safe,
+ * it is only used by the single writer.
+ */
+public final class RecentMessageIds {
+
+    public static final int DEFAULT_WINDOW_SIZE = 16;
+    public static final int DEFAULT_MAX_STREAMS = 8_192;
+    public static final int DEFAULT_FILTER_CAPACITY = 1 << 20;
+    public static final int DEFAULT_MAX_CHECKED_STREAMS = 65_536;
+
+    // ~1% false positive rate
+    private static final int FILTER_BITS_PER_ID = 10;
+    private static final int FILTER_HASHES = 5;
+    private static final long MISSING_CHECK = Long.MIN_VALUE;
+
+    public enum Match {
+        /** every id was found, the original version and position have been captured */
+        DUPLICATE,
+        /** at least one id has definitely not been written before */
+        NEW,
+        /**
+         * the ids may have been written before the stream's window was created, or the stream hasn't been checked
+         * since the writer started, so the stream must be checked
+         */
+        UNKNOWN
+    }
+
+    private final int windowSize;
+    private final int maxStreams;
+    private final int maxCheckedStreams;
+    private final GenerationalFilter filter;
+
+    private Long2ObjectHashMap<Window> young = new Long2ObjectHashMap<>();
+    private Long2ObjectHashMap<Window> old = new Long2ObjectHashMap<>();
+
+    // streams whose stored tail has been added to the filter since the writer started, key -> check
+    private Long2LongHashMap youngChecked = newCheckedMap();
+    private Long2LongHashMap oldChecked = newCheckedMap();
+
+    // filled from storage by the writer when the answer is UNKNOWN
+    private final Window scratch;
+
+    private long duplicateVersion;
+    private long duplicatePosition;
+
+    public RecentMessageIds() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MAX_STREAMS, DEFAULT_FILTER_CAPACITY);
+    }
+
+    public RecentMessageIds(int windowSize, int maxStreams, int filterCapacity) {
+        this(windowSize, maxStreams, filterCapacity, DEFAULT_MAX_CHECKED_STREAMS);
+    }
+
+    public RecentMessageIds(int windowSize, int maxStreams, int filterCapacity, int maxCheckedStreams) {
+        if (windowSize < 1 || maxStreams < 1 || filterCapacity < 1 || maxCheckedStreams < 1) {
+            throw new IllegalArgumentException(
+                    "windowSize, maxStreams, filterCapacity and maxCheckedStreams must be at least 1");
+        }
+        this.windowSize = windowSize;
+        this.maxStreams = maxStreams;
+        this.maxCheckedStreams = maxCheckedStreams;
+        this.filter = new GenerationalFilter(filterCapacity);
+        this.scratch = new Window(0, windowSize);
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Checks the append against the stream's window and the filter
+     * @param streamHash hash of the stream from {@link StreamKeyCodec#hash(String)}
+     */
+    public Match match(byte[] streamHash, List<NewStreamMessage> messages) {
+        if (messages.isEmpty() || messages.size() > windowSize) {
+            return Match.NEW;
+        }
+        Window window = window(streamHash, false);
+        if (window != null && matches(window, messages)) {
+            return Match.DUPLICATE;
+        }
+        if (!isChecked(streamHash)) {
+            // ids committed before the writer started aren't in the filter
+            return Match.UNKNOWN;
+        }
+        for (NewStreamMessage message : messages) {
+            UUID id = message.getMessageId();
+            if (!filter.mightContain(id.getMostSignificantBits(), id.getLeastSignificantBits())) {
+                return Match.NEW;
+            }
+        }
+        return Match.UNKNOWN;
+    }
+
+    /**
+     * Starts checking the tail of a stream read from storage after {@link Match#UNKNOWN}. The writer adds up to
+     * {@link #getWindowSize()} of the latest messages of the stream with {@link #addStored} and then calls
+     * {@link #matchStored}.
+     */
+    public void beginStored() {
+        scratch.clear();
+    }
+
+    public void addStored(long messageIdMostSigBits, long messageIdLeastSigBits, long version, long position) {
+        scratch.add(messageIdMostSigBits, messageIdLeastSigBits, version, position);
+    }
+
+    /**
+     * Matches the append against the stored tail and adds the tail to the filter so the stream's later appends can be
+     * answered without storage
+     */
+    public boolean matchStored(byte[] streamHash, List<NewStreamMessage> messages) {
+        for (int i = 0; i < scratch.size; i++) {
+            filter.put(scratch.mostSigBits[i], scratch.leastSigBits[i]);
+        }
+        checked(streamHash);
+        return matches(scratch, messages);
+    }
+
+    /**
+     * @return version of the last message of the original append once a duplicate has been matched
+     */
+    public long getDuplicateVersion() {
+        return duplicateVersion;
+    }
+
+    /**
+     * @return position of the last message of the original append once a duplicate has been matched
+     */
+    public long getDuplicatePosition() {
+        return duplicatePosition;
+    }
+
+    /**
+     * Remembers a message added to the batch. The writer only records appends it has matched, so the stream has been
+     * checked.
+     */
+    public void record(byte[] streamHash, UUID messageId, long version, long position) {
+        long msb = messageId.getMostSignificantBits();
+        long lsb = messageId.getLeastSignificantBits();
+        window(streamHash, true).add(msb, lsb, version, position);
+        filter.put(msb, lsb);
+        checked(streamHash);
+    }
+
+    /**
+     * Forgets the stream's window when the batch it was recorded in fails to commit. The filter keeps the ids which
+     * only costs a storage check if they are seen again.
+     */
+    public void invalidate(byte[] streamHash) {
+        long key = key(streamHash);
+        young.remove(key);
+        old.remove(key);
+    }
+
+    public void clear() {
+        young.clear();
+        old.clear();
+        youngChecked.clear();
+        oldChecked.clear();
+        filter.clear();
+    }
+
+    private boolean isChecked(byte[] streamHash) {
+        long key = key(streamHash);
+        long check = check(streamHash);
+        if (check == MISSING_CHECK) {
+            // can't be told apart from a stream that isn't there, it only costs a storage check
+            return false;
+        }
+        if (youngChecked.get(key) == check) {
+            return true;
+        }
+        if (oldChecked.get(key) != check) {
+            return false;
+        }
+        oldChecked.remove(key);
+        putChecked(key, check);
+        return true;
+    }
+
+    private void checked(byte[] streamHash) {
+        long key = key(streamHash);
+        long check = check(streamHash);
+        if (check != MISSING_CHECK && youngChecked.get(key) != check) {
+            putChecked(key, check);
+        }
+    }
+
+    private void putChecked(long key, long check) {
+        if (youngChecked.size() >= maxCheckedStreams) {
+            // streams that age out are checked against storage again
+            Long2LongHashMap dropped = oldChecked;
+            dropped.clear();
+            oldChecked = youngChecked;
+            youngChecked = dropped;
+        }
+        youngChecked.put(key, check);
+    }
+
+    private boolean matches(Window window, List<NewStreamMessage> messages) {
+        long firstVersion = 0;
+        int index = -1;
+        for (int i = 0; i < messages.size(); i++) {
+            UUID id = messages.get(i).getMessageId();
+            index = window.indexOf(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if (index < 0) {
+                return false;
+            }
+            if (i == 0) {
+                firstVersion = window.versions[index];
+            } else if (window.versions[index] != firstVersion + i) {
+                return false;
+            }
+        }
+        duplicateVersion = window.versions[index];
+        duplicatePosition = window.positions[index];
+        return true;
+    }
+
+    private Window window(byte[] streamHash, boolean create) {
+        long key = key(streamHash);
+        long check = check(streamHash);
+        Window window = young.get(key);
+        if (window != null) {
+            if (window.check == check) {
+                return window;
+            }
+            if (!create) {
+                return null;
+            }
+            // another stream shares the first half of the hash, the newest writer wins the slot
+            window = new Window(check, windowSize);
+            young.put(key, window);
+            return window;
+        }
+
+        window = old.get(key);
+        if (window != null && window.check == check) {
+            old.remove(key);
+        } else if (create) {
+            window = new Window(check, windowSize);
+        } else {
+            return null;
+        }
+        if (young.size() >= maxStreams) {
+            Long2ObjectHashMap<Window> dropped = old;
+            dropped.clear();
+            old = young;
+            young = dropped;
+        }
+        young.put(key, window);
+        return window;
+    }
+
+    private static Long2LongHashMap newCheckedMap() {
+        return new Long2LongHashMap(MISSING_CHECK);
+    }
+
+    private static long key(byte[] streamHash) {
+        return MurmurHash3.getLongLittleEndian(streamHash, 0);
+    }
+
+    private static long check(byte[] streamHash) {
+        return MurmurHash3.getLongLittleEndian(streamHash, Long.BYTES);
+    }
+
+    /**
+     * Ring of the latest message ids of a stream. The oldest entry is overwritten once it is full.
+     */
+    private static final class Window {
+        private final long check;
+        private final long[] mostSigBits;
+        private final long[] leastSigBits;
+        private final long[] versions;
+        private final long[] positions;
+        private int size;
+        private int next;
+
+        Window(long check, int capacity) {
+            this.check = check;
+            this.mostSigBits = new long[capacity];
+            this.leastSigBits = new long[capacity];
+            this.versions = new long[capacity];
+            this.positions = new long[capacity];
+        }
+
+        void add(long msb, long lsb, long version, long position) {
+            mostSigBits[next] = msb;
+            leastSigBits[next] = lsb;
+            versions[next] = version;
+            positions[next] = position;
+            next = (next + 1) % mostSigBits.length;
+            if (size < mostSigBits.length) {
+                size++;
+            }
+        }
+
+        int indexOf(long msb, long lsb) {
+            for (int i = 0; i < size; i++) {
+                if (mostSigBits[i] == msb && leastSigBits[i] == lsb) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void clear() {
+            size = 0;
+            next = 0;
+        }
+    }
+
+    /**
+     * Bloom filter over message ids made of two generations so old ids age out rather than filling the filter up.
+     * Ids are hashed with double hashing of the mixed halves of the UUID so there is no allocation per id.
+     */
+    private static final class GenerationalFilter {
+        private final int capacity;
+        private final int mask;
+        private long[] young;
+        private long[] old;
+        private int youngCount;
+
+        GenerationalFilter(int capacity) {
+            this.capacity = capacity;
+            int bits = Integer.highestOneBit(Math.max(64, capacity * FILTER_BITS_PER_ID - 1)) << 1;
+            this.mask = bits - 1;
+            this.young = new long[bits / Long.SIZE];
+            this.old = new long[bits / Long.SIZE];
+        }
+
+        void put(long msb, long lsb) {
+            if (youngCount >= capacity) {
+                long[] dropped = old;
+                Arrays.fill(dropped, 0L);
+                old = young;
+                young = dropped;
+                youngCount = 0;
+            }
+            long h1 = MurmurHash3.fmix64(msb);
+            long h2 = MurmurHash3.fmix64(lsb) | 1;
+            for (int i = 0; i < FILTER_HASHES; i++) {
+                int bit = (int) ((h1 + i * h2) & mask);
+                young[bit >>> 6] |= 1L << bit;
+            }
+            youngCount++;
+        }
+
+        boolean mightContain(long msb, long lsb) {
+            long h1 = MurmurHash3.fmix64(msb);
+            long h2 = MurmurHash3.fmix64(lsb) | 1;
+            return contains(young, h1, h2) || contains(old, h1, h2);
+        }
+
+        private boolean contains(long[] bits, long h1, long h2) {
+            for (int i = 0; i < FILTER_HASHES; i++) {
+                int bit = (int) ((h1 + i * h2) & mask);
+                if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void clear() {
+            Arrays.fill(young, 0L);
+            Arrays.fill(old, 0L);
+            youngCount = 0;
+        }
+    }
+}
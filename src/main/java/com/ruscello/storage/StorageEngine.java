@@ -2,6 +2,9 @@ package com.ruscello.storage;
 
 // Whats the appropriate API abstraction here? Should it match our higher level operations?
 
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.messages.client.AppendResult;
+
 import java.sql.SQLException;
 import java.util.List;
 import java.util.UUID;
@@ -28,15 +31,27 @@ public interface StorageEngine extends ReadOnlyStorageEngine {
 
 
     // TODO: do we perhaps need to separate this into another interface?
-    void appendToStream(String streamId,
+    /**
+     * @return the version and $all position of the last message so the next append can use the version as its
+     * expected version without reading the stream
+     */
+    AppendResult appendToStream(String streamId,
                         int expectedVersion,
                         byte[] message);
 
     // TODO: maybe change to byte[][]
-    void appendToStream(String streamId,
+    AppendResult appendToStream(String streamId,
                         int expectedVersion,
                         List<byte[]> message);
 
+    /**
+     * Appends messages with ids supplied by the producer. Retrying an append with the same ids returns the original
+     * result without writing the messages again, see {@link NewStreamMessage}.
+     */
+    AppendResult appendToStream(String streamId,
+                        int expectedVersion,
+                        NewStreamMessage... messages);
+
 
     // TODO: add metadata methods
 
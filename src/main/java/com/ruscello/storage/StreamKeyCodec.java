@@ -0,0 +1,170 @@
+package com.ruscello.storage;
+
+import com.ruscello.hashing.MurmurHash3;
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+
+import java.nio.ByteOrder;
+
+/**
+ * Encodes keys for the MAIN keyspace as a 16 byte murmur3_128 hash of the stream name followed by the stream version
+ * as a big endian long. Keys are fixed width so they're smaller than hex string keys, the hash can be used as a fixed
+ * length prefix and versions sort numerically within a stream.
+ * <p>
+ * The hash is byte for byte the same as Guava's Hashing.murmur3_128().hashString(streamId, UTF_8).asBytes().
+ * <p>
+ * Encoding reuses buffers owned by the codec so instances are not thread safe. The static helpers can be used from
+ * any thread.
+ */
+public final class StreamKeyCodec {
+
+    public static final int STREAM_HASH_SIZE = 16;
+    public static final int VERSION_SIZE = Long.BYTES;
+    public static final int KEY_SIZE = STREAM_HASH_SIZE + VERSION_SIZE;
+
+    private static final int SEED = 0;
+
+    private final MurmurHash3.LongPair hashPair = new MurmurHash3.LongPair();
+    private final byte[] hash = new byte[STREAM_HASH_SIZE];
+    private final byte[] key = new byte[KEY_SIZE];
+
+    // grown as needed for longer stream names
+    private byte[] utf8 = new byte[256];
+
+    /**
+     * Hashes the stream name into a buffer owned by this codec
+     * @return the 16 byte hash. Overwritten by the next call to hash or key
+     */
+    public byte[] hash(String streamId) {
+        int length = encodeUtf8(streamId);
+        MurmurHash3.murmurhash3_x64_128(utf8, 0, length, SEED, hashPair);
+        putLongLittleEndian(hash, 0, hashPair.val1);
+        putLongLittleEndian(hash, Long.BYTES, hashPair.val2);
+        return hash;
+    }
+
+    /**
+     * Encodes the key for the given stream and version into a buffer owned by this codec
+     * @return the 24 byte key. Overwritten by the next call to key
+     */
+    public byte[] key(String streamId, long version) {
+        return key(hash(streamId), version);
+    }
+
+    /**
+     * Encodes the key for the given stream hash and version into a buffer owned by this codec
+     * @return the 24 byte key. Overwritten by the next call to key
+     */
+    public byte[] key(byte[] streamHash, long version) {
+        encode(streamHash, version, key, 0);
+        return key;
+    }
+
+    public static void encode(byte[] streamHash, long version, byte[] dest, int offset) {
+        System.arraycopy(streamHash, 0, dest, offset, STREAM_HASH_SIZE);
+        putLongBigEndian(dest, offset + STREAM_HASH_SIZE, version);
+    }
+
+    public static void encode(byte[] streamHash, long version, MutableDirectBuffer dest, int offset) {
+        dest.putBytes(offset, streamHash, 0, STREAM_HASH_SIZE);
+        dest.putLong(offset + STREAM_HASH_SIZE, version, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Reads the version straight out of an encoded key without decoding the rest
+     */
+    public static long version(byte[] key) {
+        return getLongBigEndian(key, STREAM_HASH_SIZE);
+    }
+
+    public static long version(DirectBuffer key) {
+        return key.getLong(STREAM_HASH_SIZE, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * @return true if the key is a MAIN key for the stream with the given hash
+     */
+    public static boolean isStreamKey(byte[] key, byte[] streamHash) {
+        return key.length == KEY_SIZE && hasHash(key, streamHash);
+    }
+
+    public static boolean isStreamKey(DirectBuffer key, byte[] streamHash) {
+        if (key.capacity() != KEY_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < STREAM_HASH_SIZE; i++) {
+            if (key.getByte(i) != streamHash[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the key starts with the given stream hash
+     */
+    public static boolean hasHash(byte[] key, byte[] streamHash) {
+        if (key.length < STREAM_HASH_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < STREAM_HASH_SIZE; i++) {
+            if (key[i] != streamHash[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int encodeUtf8(String s) {
+        // worst case is 3 bytes per char as surrogate pairs take 4 bytes for 2 chars
+        int maxLength = s.length() * 3;
+        if (utf8.length < maxLength) {
+            utf8 = new byte[maxLength];
+        }
+        byte[] out = utf8;
+        int position = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out[position++] = (byte) c;
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | (c >> 6));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                out[position++] = (byte) (0xF0 | (codePoint >> 18));
+                out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogates are replaced the same way String.getBytes(UTF_8) does
+                out[position++] = '?';
+            } else {
+                out[position++] = (byte) (0xE0 | (c >> 12));
+                out[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position;
+    }
+
+    private static void putLongLittleEndian(byte[] dest, int offset, long value) {
+        for (int i = 0; i < Long.BYTES; i++) {
+            dest[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static void putLongBigEndian(byte[] dest, int offset, long value) {
+        for (int i = 0; i < Long.BYTES; i++) {
+            dest[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    private static long getLongBigEndian(byte[] src, int offset) {
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << 8) | (src[offset + i] & 0xFFL);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,405 @@
+package com.ruscello.storage;
+
+import org.agrona.collections.IntArrayList;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Key layout and search for the stream catalogue in {@link KeySpaces#STREAM_NAMES}.
+ * <p>
+ * Every stream gets a dense int id when it is created. Its name is tokenised once, split on punctuation and camel case
+ * and lower cased, and every token is indexed by its edge n-grams (prefixes) and reverse edge n-grams (suffixes) so a
+ * query can match the start or the end of a token. Postings are {@link PostingsBlock}s of the ids that share their
+ * high 16 bits, so a gram costs at most 2 bytes per stream rather than a key per stream
+ * <pre>
+ *   'c'                                   -> next stream id (4)
+ *   'h'  stream hash (16)                 -> stream id (4)
+ *   'n'  stream id (4)                    -> stream name (UTF-8)
+ *   'p' | 's'  gram (UTF-8)  0x00  high (2) -> postings block
+ * </pre>
+ * Ids are handed out in increasing order so new postings only ever land in the last block of a gram. Blocks are
+ * merged by the {@link Writer} once per write batch in the same transaction as the appends that created the streams,
+ * as the RocksDB Java API doesn't let us write our own merge operator.
+ * <p>
+ * The blocks of a gram are one contiguous range in high order, grams never contain 0x00 so no gram's range overlaps a
+ * longer gram's. A query turns each of its tokens into a gram range, leapfrogs the ranges to the blocks they all
+ * have, and intersects those as bitmaps, which costs a seek per block rather than a scan of the catalogue.
+ * <p>
+ * Query tokens shorter than {@link #MIN_GRAM} are ignored. Tokens longer than {@link #MAX_GRAM} are looked up by
+ * their first (or last) MAX_GRAM characters and the candidates are checked against the stored name.
+ */
+public final class StreamNameIndex {
+
+    public static final int MIN_GRAM = 2;
+    public static final int MAX_GRAM = 8;
+
+    public static final byte[] COUNTER_KEY = {'c'};
+    private static final byte HASH = 'h';
+    private static final byte CATALOGUE = 'n';
+    private static final byte PREFIX_GRAM = 'p';
+    private static final byte SUFFIX_GRAM = 's';
+    private static final byte GRAM_TERMINATOR = 0;
+    private static final int HASH_SIZE = StreamKeyCodec.STREAM_HASH_SIZE;
+    private static final int HIGH_SIZE = 2;
+
+    private StreamNameIndex() {
+        // statics only
+    }
+
+    /**
+     * A cursor over STREAM_NAMES within a single snapshot
+     */
+    public interface Cursor extends AutoCloseable {
+
+        /**
+         * Positions the cursor on the first key greater than or equal to the given key
+         * @return false if there is no such key
+         */
+        boolean seek(byte[] key);
+
+        /**
+         * @return key the cursor is on, only valid until the cursor moves
+         */
+        byte[] key();
+
+        /**
+         * @return value the cursor is on, only valid until the cursor moves
+         */
+        byte[] value();
+
+        @Override
+        void close();
+    }
+
+    /**
+     * Collects the catalogue entries and postings of the streams created by a write batch. Only used by the single
+     * writer.
+     */
+    public static final class Writer {
+        private final Map<ByteBuffer, IntArrayList> blocks = new HashMap<>();
+        private final List<KeyValue<byte[], byte[]>> entries = new ArrayList<>();
+        private int committedNextId;
+        private int nextId;
+
+        /**
+         * @param counter value of {@link #COUNTER_KEY}, null if there is no catalogue yet
+         */
+        public void recover(byte[] counter) {
+            committedNextId = counter == null ? 0 : getInt(counter, 0);
+            abort();
+        }
+
+        public void add(String streamId, byte[] hash) {
+            if (nextId == Integer.MAX_VALUE) {
+                throw new ProcessorStateException("Stream catalogue has run out of ids");
+            }
+            int id = nextId++;
+            entries.add(KeyValue.pair(catalogueKey(id), streamId.getBytes(UTF_8)));
+            entries.add(KeyValue.pair(hashKey(hash), intBytes(id)));
+            for (byte[] gramPrefix : gramPrefixes(streamId)) {
+                ByteBuffer key = ByteBuffer.wrap(blockKey(gramPrefix, PostingsBlock.high(id)));
+                blocks.computeIfAbsent(key, k -> new IntArrayList()).addInt(PostingsBlock.low(id));
+            }
+        }
+
+        public boolean isEmpty() {
+            return entries.isEmpty();
+        }
+
+        /**
+         * Merges the postings into the blocks already stored and puts everything collected since the last write
+         * @param get reads a stored block, null if there isn't one
+         * @param put writes to the batch or transaction
+         */
+        public void write(Function<byte[], byte[]> get, BiConsumer<byte[], byte[]> put) {
+            for (Map.Entry<ByteBuffer, IntArrayList> block : blocks.entrySet()) {
+                byte[] key = block.getKey().array();
+                // ids are handed out in order so the lows are already sorted
+                IntArrayList lows = block.getValue();
+                put.accept(key, PostingsBlock.add(get.apply(key), lows.toIntArray(), lows.size()));
+            }
+            for (KeyValue<byte[], byte[]> entry : entries) {
+                put.accept(entry.key, entry.value);
+            }
+            put.accept(COUNTER_KEY, intBytes(nextId));
+            blocks.clear();
+            entries.clear();
+        }
+
+        /**
+         * The batch was committed
+         */
+        public void committed() {
+            committedNextId = nextId;
+        }
+
+        /**
+         * The batch wasn't committed so its ids can be handed out again
+         */
+        public void abort() {
+            nextId = committedNextId;
+            blocks.clear();
+            entries.clear();
+        }
+    }
+
+    public static byte[] catalogueKey(int id) {
+        byte[] key = new byte[1 + Integer.BYTES];
+        key[0] = CATALOGUE;
+        putInt(key, 1, id);
+        return key;
+    }
+
+    public static byte[] hashKey(byte[] hash) {
+        byte[] key = new byte[1 + HASH_SIZE];
+        key[0] = HASH;
+        System.arraycopy(hash, 0, key, 1, HASH_SIZE);
+        return key;
+    }
+
+    /**
+     * @return key prefixes of every gram of the stream name, without duplicates
+     */
+    static List<byte[]> gramPrefixes(String streamId) {
+        Set<String> prefixes = new LinkedHashSet<>();
+        Set<String> suffixes = new LinkedHashSet<>();
+        for (String token : tokens(streamId)) {
+            int length = token.length();
+            for (int n = MIN_GRAM; n <= Math.min(length, MAX_GRAM); n++) {
+                // don't cut a surrogate pair in half
+                if (!Character.isHighSurrogate(token.charAt(n - 1))) {
+                    prefixes.add(token.substring(0, n));
+                }
+                if (!Character.isLowSurrogate(token.charAt(length - n))) {
+                    suffixes.add(token.substring(length - n));
+                }
+            }
+        }
+        List<byte[]> keys = new ArrayList<>(prefixes.size() + suffixes.size());
+        for (String gram : prefixes) {
+            keys.add(gramPrefix(PREFIX_GRAM, gram));
+        }
+        for (String gram : suffixes) {
+            keys.add(gramPrefix(SUFFIX_GRAM, gram));
+        }
+        return keys;
+    }
+
+    /**
+     * Splits a stream name into lower cased tokens on anything that isn't a letter or digit and on camel case
+     * boundaries, so "orderPlaced-HTTPRequest42" is [order, placed, http, request42]
+     */
+    public static List<String> tokens(String name) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && !Character.isSurrogate(c)) {
+                if (start >= 0) {
+                    tokens.add(name.substring(start, i).toLowerCase(Locale.ROOT));
+                    start = -1;
+                }
+                continue;
+            }
+            if (start >= 0 && isCamelCaseBoundary(name, i)) {
+                tokens.add(name.substring(start, i).toLowerCase(Locale.ROOT));
+                start = i;
+            }
+            if (start < 0) {
+                start = i;
+            }
+        }
+        if (start >= 0) {
+            tokens.add(name.substring(start).toLowerCase(Locale.ROOT));
+        }
+        return tokens;
+    }
+
+    // aB splits before B, ABc splits before B so acronyms stay together
+    private static boolean isCamelCaseBoundary(String name, int i) {
+        char c = name.charAt(i);
+        if (!Character.isUpperCase(c)) {
+            return false;
+        }
+        char previous = name.charAt(i - 1);
+        if (Character.isLowerCase(previous) || Character.isDigit(previous)) {
+            return true;
+        }
+        return Character.isUpperCase(previous) && i + 1 < name.length() && Character.isLowerCase(name.charAt(i + 1));
+    }
+
+    /**
+     * Finds streams whose name has a token starting with each query token. A query term starting with '*' matches its
+     * first token against the end of a name's tokens instead, so "*Placed order" finds "orderReplaced".
+     * @param maxCount most names returned
+     * @return stream names in the order the streams were created
+     */
+    public static List<String> search(Cursor cursor, String query, int maxCount) {
+        List<byte[]> ranges = new ArrayList<>();
+        List<QueryToken> checks = new ArrayList<>();
+        for (String term : query.trim().split("\\s+")) {
+            boolean suffix = term.startsWith("*");
+            for (String token : tokens(term)) {
+                if (token.length() >= MIN_GRAM) {
+                    ranges.add(gramPrefix(suffix ? SUFFIX_GRAM : PREFIX_GRAM, gram(token, suffix)));
+                    if (token.length() > MAX_GRAM) {
+                        checks.add(new QueryToken(token, suffix));
+                    }
+                }
+                suffix = false;
+            }
+        }
+        if (ranges.isEmpty() || maxCount <= 0) {
+            return Collections.emptyList();
+        }
+
+        List<String> names = new ArrayList<>(Math.min(maxCount, 64));
+        long[] ids = new long[PostingsBlock.WORDS];
+        int target = 0;
+        while (names.size() < maxCount) {
+            // leapfrog until every range has a block for the target high
+            int matched = 0;
+            int last = 0;
+            for (int i = 0; matched < ranges.size(); i = (i + 1) % ranges.size()) {
+                byte[] range = ranges.get(i);
+                if (!cursor.seek(blockKey(range, target)) || !startsWith(cursor.key(), range)) {
+                    return names;
+                }
+                int high = getShort(cursor.key(), range.length);
+                if (high == target) {
+                    matched++;
+                } else {
+                    target = high;
+                    matched = 1;
+                }
+                last = i;
+            }
+
+            // the cursor is on the block of the range that matched last, which can be any of them
+            PostingsBlock.decode(cursor.value(), ids);
+            boolean any = true;
+            for (int i = 0; any && i < ranges.size(); i++) {
+                if (i != last) {
+                    cursor.seek(blockKey(ranges.get(i), target));
+                    any = PostingsBlock.and(ids, cursor.value());
+                }
+            }
+            for (int word = 0; any && word < PostingsBlock.WORDS && names.size() < maxCount; word++) {
+                for (long bits = ids[word]; bits != 0 && names.size() < maxCount; bits &= bits - 1) {
+                    int id = target << 16 | word << 6 | Long.numberOfTrailingZeros(bits);
+                    byte[] catalogueKey = catalogueKey(id);
+                    if (cursor.seek(catalogueKey) && Arrays.equals(cursor.key(), catalogueKey)) {
+                        String name = new String(cursor.value(), UTF_8);
+                        if (checks.isEmpty() || matches(name, checks)) {
+                            names.add(name);
+                        }
+                    }
+                }
+            }
+            if (++target == PostingsBlock.BLOCK_SIZE) {
+                break;
+            }
+        }
+        return names;
+    }
+
+    private static boolean matches(String name, List<QueryToken> checks) {
+        List<String> tokens = tokens(name);
+        for (QueryToken check : checks) {
+            boolean found = false;
+            for (String token : tokens) {
+                if (check.suffix ? token.endsWith(check.token) : token.startsWith(check.token)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String gram(String token, boolean suffix) {
+        int length = token.length();
+        if (length <= MAX_GRAM) {
+            return token;
+        }
+        return suffix ? token.substring(length - MAX_GRAM) : token.substring(0, MAX_GRAM);
+    }
+
+    private static byte[] blockKey(byte[] gramPrefix, int high) {
+        byte[] key = Arrays.copyOf(gramPrefix, gramPrefix.length + HIGH_SIZE);
+        key[gramPrefix.length] = (byte) (high >>> 8);
+        key[gramPrefix.length + 1] = (byte) high;
+        return key;
+    }
+
+    private static byte[] gramPrefix(byte type, String gram) {
+        byte[] utf8 = gram.getBytes(UTF_8);
+        byte[] prefix = new byte[utf8.length + 2];
+        prefix[0] = type;
+        System.arraycopy(utf8, 0, prefix, 1, utf8.length);
+        prefix[prefix.length - 1] = GRAM_TERMINATOR;
+        return prefix;
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 8 | bytes[offset + 1] & 0xFF;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24
+                | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8
+                | bytes[offset + 3] & 0xFF;
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static byte[] intBytes(int value) {
+        byte[] bytes = new byte[Integer.BYTES];
+        putInt(bytes, 0, value);
+        return bytes;
+    }
+
+    private static final class QueryToken {
+        private final String token;
+        private final boolean suffix;
+
+        QueryToken(String token, boolean suffix) {
+            this.token = token;
+            this.suffix = suffix;
+        }
+    }
+}
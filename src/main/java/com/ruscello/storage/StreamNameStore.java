@@ -0,0 +1,18 @@
+package com.ruscello.storage;
+
+import java.util.List;
+
+/**
+ * Implemented by storage engines that keep the stream catalogue in {@link KeySpaces#STREAM_NAMES}. Names are indexed
+ * in the same write as the first append to the stream, see {@link StreamNameIndex} for the layout.
+ */
+public interface StreamNameStore {
+
+    /**
+     * @param query whitespace separated terms, see {@link StreamNameIndex#search}
+     * @param maxCount most names returned
+     * @return names of streams matching every term of the query
+     */
+    List<String> searchStreamNames(String query, int maxCount);
+
+}
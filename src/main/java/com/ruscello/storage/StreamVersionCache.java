@@ -0,0 +1,125 @@
+package com.ruscello.storage;
+
+import com.ruscello.hashing.MurmurHash3;
+import org.agrona.collections.Long2LongHashMap;
+
+/**
+ * Bounded cache of the current version of recently written streams keyed on the stream hash so the expected version
+ * check doesn't have to read the head of the stream from storage on every append.
+ * <p>
+ * Entries live in two generations. Once the young generation is full the old one is dropped and the young one takes
+ * its place, and entries found in the old generation are moved back to the young one. This keeps hot streams cached
+ * with no per entry bookkeeping and bounds the cache to twice the generation size.
+ * <p>
+ * The first half of the 128 bit hash is the map key and the second half is kept alongside it and checked on lookup
+ * so two streams whose hashes share a half can never see each other's version.
+ * <p>
+ * Not thread safe, it is only used by the single writer. Entries must only be added once the versions are committed.
+ */
+public final class StreamVersionCache {
+
+    public static final int DEFAULT_GENERATION_SIZE = 65_536;
+
+    /**
+     * Returned when the cache doesn't know the version of a stream. ExpectedVersion.NO_STRREAM is a valid cached
+     * version so it can't be used.
+     */
+    public static final long MISSING = Long.MIN_VALUE;
+
+    private final int generationSize;
+
+    private Long2LongHashMap youngVersions;
+    private Long2LongHashMap youngChecks;
+    private Long2LongHashMap oldVersions;
+    private Long2LongHashMap oldChecks;
+
+    public StreamVersionCache() {
+        this(DEFAULT_GENERATION_SIZE);
+    }
+
+    public StreamVersionCache(int generationSize) {
+        if (generationSize < 1) {
+            throw new IllegalArgumentException("generationSize must be at least 1");
+        }
+        this.generationSize = generationSize;
+        this.youngVersions = newMap();
+        this.youngChecks = newMap();
+        this.oldVersions = newMap();
+        this.oldChecks = newMap();
+    }
+
+    /**
+     * @param streamHash hash of the stream from {@link StreamKeyCodec#hash(String)}
+     * @return the current version of the stream or {@link #MISSING} if it isn't cached
+     */
+    public long get(byte[] streamHash) {
+        long key = key(streamHash);
+        long check = check(streamHash);
+
+        long version = youngVersions.get(key);
+        if (version != MISSING) {
+            return youngChecks.get(key) == check ? version : MISSING;
+        }
+
+        version = oldVersions.get(key);
+        if (version == MISSING || oldChecks.get(key) != check) {
+            return MISSING;
+        }
+        oldVersions.remove(key);
+        oldChecks.remove(key);
+        putYoung(key, check, version);
+        return version;
+    }
+
+    /**
+     * @param streamHash hash of the stream from {@link StreamKeyCodec#hash(String)}
+     * @param version committed version of the stream, ExpectedVersion.NO_STRREAM if it doesn't exist
+     */
+    public void put(byte[] streamHash, long version) {
+        long key = key(streamHash);
+        long check = check(streamHash);
+        oldVersions.remove(key);
+        oldChecks.remove(key);
+        putYoung(key, check, version);
+    }
+
+    public void clear() {
+        youngVersions.clear();
+        youngChecks.clear();
+        oldVersions.clear();
+        oldChecks.clear();
+    }
+
+    public int size() {
+        return youngVersions.size() + oldVersions.size();
+    }
+
+    private void putYoung(long key, long check, long version) {
+        if (youngVersions.size() >= generationSize && !youngVersions.containsKey(key)) {
+            Long2LongHashMap versions = oldVersions;
+            Long2LongHashMap checks = oldChecks;
+            versions.clear();
+            checks.clear();
+            oldVersions = youngVersions;
+            oldChecks = youngChecks;
+            youngVersions = versions;
+            youngChecks = checks;
+        }
+        youngVersions.put(key, version);
+        youngChecks.put(key, check);
+    }
+
+    private static long key(byte[] streamHash) {
+        return MurmurHash3.getLongLittleEndian(streamHash, 0);
+    }
+
+    private static long check(byte[] streamHash) {
+        long check = MurmurHash3.getLongLittleEndian(streamHash, Long.BYTES);
+        // the maps can't hold their missing value
+        return check == MISSING ? MISSING + 1 : check;
+    }
+
+    private static Long2LongHashMap newMap() {
+        return new Long2LongHashMap(MISSING);
+    }
+}
@@ -0,0 +1,23 @@
+package com.ruscello.storage;
+
+import java.util.List;
+
+/**
+ * Implemented by storage engines that keep persistent subscription settings and checkpoints in the
+ * {@link KeySpaces#PERSISTENT_SUBSCRIPTIONS} keyspace. The keyspace is small, a few entries per subscription group,
+ * so it is read in one go when the subscriptions are loaded.
+ */
+public interface SubscriptionStateStore {
+
+    /**
+     * @return every entry in the keyspace in key order
+     */
+    List<KeyValue<byte[], byte[]>> readSubscriptionStates();
+
+    /**
+     * Writes the entries as a single atomic batch so any number of checkpoints share one write.
+     * @param entries entries to put, an entry with a null value deletes the key
+     */
+    void writeSubscriptionStates(List<KeyValue<byte[], byte[]>> entries);
+
+}
@@ -1,29 +1,61 @@
 package com.ruscello.storage.lmdb;
 
+import com.ruscello.ReadDirection;
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.PageReadStatus;
+import com.ruscello.core.Position;
+import com.ruscello.core.ReadAllPage;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.StreamMessage;
+import com.ruscello.core.StreamVersion;
+import com.ruscello.core.SystemStreams;
+import com.ruscello.core.WrongExpectedVersion;
+import com.ruscello.core.messages.client.AppendResult;
+import com.ruscello.storage.AppendBatchWriter;
+import com.ruscello.storage.CategoryStore;
+import com.ruscello.storage.EventTypeStore;
+import com.ruscello.storage.InvalidStoreException;
 import com.ruscello.storage.KeySpaces;
 import com.ruscello.storage.KeyValue;
+import com.ruscello.storage.MessageRecordCodec;
+import com.ruscello.storage.PendingAppend;
+import com.ruscello.storage.PositionAllocator;
+import com.ruscello.storage.PositionCodec;
+import com.ruscello.storage.ProcessorStateException;
+import com.ruscello.storage.RecentMessageIds;
 import com.ruscello.storage.StorageEngine;
 import com.ruscello.storage.StoreIterator;
+import com.ruscello.storage.StreamKeyCodec;
+import com.ruscello.storage.StreamNameIndex;
+import com.ruscello.storage.StreamNameStore;
+import com.ruscello.storage.StreamVersionCache;
+import com.ruscello.storage.SubscriptionStateStore;
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
 import org.lmdbjava.*;
-import org.rocksdb.RocksDBException;
-import org.rocksdb.RocksIterator;
-import sun.jvm.hotspot.runtime.Bytes;
 
 import java.io.File;
-import java.nio.ByteBuffer;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.UUID;
 
 import static java.nio.ByteBuffer.allocateDirect;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.lmdbjava.DbiFlags.MDB_CREATE;
+import static org.lmdbjava.DirectBufferProxy.PROXY_DB;
 import static org.lmdbjava.Env.create;
 
 
-public class LmbdStorageEngine implements StorageEngine {
+public class LmbdStorageEngine implements StorageEngine, AppendBatchWriter, SubscriptionStateStore, StreamNameStore,
+        CategoryStore, EventTypeStore {
 
     /**
      * LMBD doesn't have the concept of column families or keyspaces so the number of dbs is based on the number
@@ -33,13 +65,37 @@ public class LmbdStorageEngine implements StorageEngine {
      */
     private static final int DBS = KeySpaces.ALL_STREAM_NAMES.size();
     private static final long MAX_SIZE = 10_485_760; // TB 1_099_511_627_776 // one influxdb lib used 100g as default
+    // lmdbjava defaults to a single reader slot, this is LMDB's own default. Open iterators each hold a slot
+    private static final int MAX_READERS = 126;
+    // pages are sized up front but callers asking for huge pages shouldn't allocate for messages that aren't there
+    private static final int INITIAL_PAGE_CAPACITY = 128;
 
 
-    private final Env<ByteBuffer> env;
+    // PROXY_DB hands out Agrona buffers pointing straight at the memory mapped pages so reads don't have to copy
+    private final Env<DirectBuffer> env;
 
     // should we consider having individual dbi variables? Might be worth it so we arent required to always pull the
     // dbi handle out of the map. This is likely a pre-optimization that I should benchmark
-    private Map<String, Dbi<ByteBuffer>> dbHandles;
+    private final Map<String, Dbi<DirectBuffer>> dbHandles = new HashMap<>();
+
+    // only used by the single writer
+    private final StreamKeyCodec writeCodec = new StreamKeyCodec();
+    private final MutableDirectBuffer writeKey = new UnsafeBuffer(allocateDirect(StreamKeyCodec.KEY_SIZE));
+    private final MutableDirectBuffer seekKey = new UnsafeBuffer(allocateDirect(StreamKeyCodec.KEY_SIZE));
+    private final MutableDirectBuffer linkKey = new UnsafeBuffer(allocateDirect(StreamKeyCodec.KEY_SIZE));
+    // hash categories and event types without overwriting the stream hash held by writeCodec
+    private final StreamKeyCodec categoryCodec = new StreamKeyCodec();
+    private final StreamKeyCodec eventTypeCodec = new StreamKeyCodec();
+    private final StreamNameIndex.Writer streamNameWriter = new StreamNameIndex.Writer();
+    private final MutableDirectBuffer positionKey = new UnsafeBuffer(allocateDirect(PositionCodec.POSITION_SIZE));
+    private final StreamVersionCache versionCache = new StreamVersionCache();
+    private final RecentMessageIds recentMessageIds = new RecentMessageIds();
+
+    private PositionAllocator positions;
+
+    // keys have to be off heap for LMDB so each reader thread gets its own buffer rather than allocating one per call
+    private final ThreadLocal<KeyBuffer> keyBuffers;
+    private final ThreadLocal<ReadBuffers> readBuffers = ThreadLocal.withInitial(ReadBuffers::new);
 
     // TODO: pass in RuscolloConfiguration for these
     // - db size
@@ -50,16 +106,21 @@ public class LmbdStorageEngine implements StorageEngine {
     // max key size - I thinking (?) we control all the key sizes, even stream name we can enforce a max of 256 characters (?)
     public LmbdStorageEngine(File path, Long maxSize) {
         // TODO: should we move this to an init method or move to open?
-        env = create()
+        env = create(PROXY_DB)
                 // LMDB also needs to know how large our DB might be. Over-estimating is OK.
-                .setMapSize(MAX_SIZE)
+                .setMapSize(maxSize == null ? MAX_SIZE : maxSize)
                 // LMDB also needs to know how many DBs (Dbi) we want to store in this Env.
                 .setMaxDbs(DBS)
+                .setMaxReaders(MAX_READERS)
                 // Now let's open the Env. The same path can be concurrently opened and
                 // used in different processes, but do not open the same path twice in
                 // the same process at the same time.
-                .open(path);
+                // NOTLS ties read transactions to the txn rather than the thread so iterators can stay open while the
+                // same thread does other reads
+                .open(path, EnvFlags.MDB_NOTLS);
 
+        final int maxKeySize = env.getMaxKeySize();
+        keyBuffers = ThreadLocal.withInitial(() -> new KeyBuffer(maxKeySize));
     }
 
     public void open() {
@@ -67,6 +128,20 @@ public class LmbdStorageEngine implements StorageEngine {
             // TODO: flags should be based on RuscelloConfiguration
             dbHandles.put(dbName, env.openDbi(dbName, MDB_CREATE));
         }
+        positions = new PositionAllocator(readLastPosition());
+        try (Txn<DirectBuffer> txn = env.txnRead()) {
+            streamNameWriter.recover(get(txn, dbHandles.get(KeySpaces.STREAM_NAMES), StreamNameIndex.COUNTER_KEY));
+        }
+    }
+
+    /**
+     * Positions are written in increasing order so the last key in TOTAL_ORDERED is the head of $all
+     */
+    private long readLastPosition() {
+        try (Txn<DirectBuffer> txn = env.txnRead();
+             Cursor<DirectBuffer> cursor = dbHandles.get(KeySpaces.TOTAL_ORDERED).openCursor(txn)) {
+            return cursor.last() ? PositionCodec.decode(cursor.key()) : Position.END;
+        }
     }
 
     public void close() {
@@ -77,24 +152,82 @@ public class LmbdStorageEngine implements StorageEngine {
 //        open = false;
 //        closeOpenIterators();
 
-        for (Dbi<ByteBuffer> db : dbHandles.values()) {
+        for (Dbi<DirectBuffer> db : dbHandles.values()) {
             db.close();
         }
+        // the env is opened by the constructor so a closed engine can't be reopened, create a new one instead
+        env.close();
+    }
 
+    /**
+     * Starts a read only transaction for use with the DirectBuffer API. Buffers returned within the transaction point
+     * at the memory mapped pages and are only valid until the transaction is closed.
+     */
+    public Txn<DirectBuffer> txnRead() {
+        return env.txnRead();
     }
 
-    @Override
-    public byte[] get(byte[] key) {
+    /**
+     * Per thread key buffer sized to LMDB's max key size. The returned view is overwritten by the next call on the
+     * same thread so it should be used before asking for another key.
+     * @param key key bytes to copy into the buffer
+     * @return buffer of exactly key.length bytes
+     */
+    public DirectBuffer keyBuffer(byte[] key) {
+        return keyBuffers.get().wrap(key);
+    }
 
-        Dbi<ByteBuffer> dbi = dbHandles.get(KeySpaces.MAIN);
-        try (Txn<ByteBuffer> txn = env.txnRead()) {
-            // TODO: we need to encapsulate the conversion of String key to ByteBuffer somewhere in an above layer
-            final ByteBuffer bbKey = allocateDirect(env.getMaxKeySize());
-            bbKey.put(key).flip();
-            // return dbi.get(txn, bbKey);
+    /**
+     * Zero copy lookup
+     * @return buffer over the value in the memory mapped page or null if the key doesn't exist. Only valid for
+     * the lifetime of the transaction
+     */
+    public DirectBuffer get(Txn<DirectBuffer> txn, String keySpace, DirectBuffer key) {
+        return dbi(keySpace).get(txn, key);
+    }
+
+    /**
+     * Zero copy iteration over a key range. Keys and values handed out by the iterator are only valid until it moves
+     * to the next entry
+     */
+    public CursorIterator<DirectBuffer> iterate(Txn<DirectBuffer> txn, String keySpace, KeyRange<DirectBuffer> range) {
+        return dbi(keySpace).iterate(txn, range);
+    }
+
+    /**
+     * Writes a value in its own write transaction. The value is copied once, straight into the memory mapped page.
+     */
+    public void put(String keySpace, DirectBuffer key, DirectBuffer value) {
+        Dbi<DirectBuffer> dbi = dbi(keySpace);
+        try (Txn<DirectBuffer> txn = env.txnWrite()) {
+            // PROXY_DB hands back an UnsafeBuffer over the reserved space
+            ((MutableDirectBuffer) dbi.reserve(txn, key, value.capacity())).putBytes(0, value, 0, value.capacity());
+            txn.commit();
+        } catch (LmdbException e) {
+            throw new ProcessorStateException("Error while putting key/value into store " + keySpace, e);
         }
+    }
+
+    private Dbi<DirectBuffer> dbi(String keySpace) {
+        Dbi<DirectBuffer> dbi = dbHandles.get(keySpace);
+        if (dbi == null) {
+            throw new IllegalArgumentException("Unknown key space " + keySpace);
+        }
+        return dbi;
+    }
 
-        return new byte[0];
+    @Override
+    public byte[] get(byte[] key) {
+        try (Txn<DirectBuffer> txn = env.txnRead()) {
+            DirectBuffer value = get(txn, KeySpaces.MAIN, keyBuffer(key));
+            if (value == null) {
+                return null;
+            }
+            // the byte[] API has to copy as the page is only valid while the txn is open
+            byte[] bytes = new byte[value.capacity()];
+            value.getBytes(0, bytes);
+            return bytes;
+        }
     }
 
     // TODO: support different key range types (open / closed)
@@ -104,26 +237,36 @@ public class LmbdStorageEngine implements StorageEngine {
     // TODO: we need to encapsulate the conversion of String key to ByteBuffer somewhere in an above layer
     @Override
     public StoreIterator<byte[], byte[]> range(byte[] start, byte[] end) {
-
-        Dbi<ByteBuffer> dbi = dbHandles.get(KeySpaces.MAIN);
-        try (Txn<ByteBuffer> txn = env.txnRead()) {
-
-            CursorIterator<ByteBuffer> ckr = dbi.iterate(txn, KeyRange.closed(start, end));
-            for (final CursorIterator.KeyVal<ByteBuffer> kv : ckr.iterable()) {
-                System.out.println(UTF_8.decode(kv.key()).toString() + ":" + UTF_8.decode(kv.val()).toString());
-            }
-        } catch (Exception e) {
-            System.out.println(e);
+        Dbi<DirectBuffer> dbi = dbHandles.get(KeySpaces.MAIN);
+        // both ends need to be alive for as long as the iterator so they can't share the per thread key buffer
+        KeyRange<DirectBuffer> range = KeyRange.closed(directKey(start), directKey(end));
+        Txn<DirectBuffer> txn = env.txnRead();
+        try {
+            return new LmdbIterator(KeySpaces.MAIN, txn, dbi.iterate(txn, range));
+        } catch (RuntimeException e) {
+            txn.close();
+            throw e;
         }
-
-
-        return null;
     }
 
     // This is a prefix search with a count
     @Override
     public StoreIterator<byte[], byte[]> range(byte[] start, int maxCount) {
-        return null;
+        Dbi<DirectBuffer> dbi = dbHandles.get(KeySpaces.MAIN);
+        KeyRange<DirectBuffer> range = KeyRange.atLeast(directKey(start));
+        Txn<DirectBuffer> txn = env.txnRead();
+        try {
+            return new LmdbPrefixIterator(KeySpaces.MAIN, txn, dbi.iterate(txn, range), start, maxCount);
+        } catch (RuntimeException e) {
+            txn.close();
+            throw e;
+        }
+    }
+
+    private static DirectBuffer directKey(byte[] key) {
+        UnsafeBuffer buffer = new UnsafeBuffer(allocateDirect(key.length));
+        buffer.putBytes(0, key);
+        return buffer;
     }
 
     // TODO: is this something we would actually need? Initial thought is no as we'll always want a slice however
@@ -131,10 +274,10 @@ public class LmbdStorageEngine implements StorageEngine {
     // TODO: I'm sure we need to at least contrain this to just the user space keys (non-system keys)
     @Override
     public StoreIterator<byte[], byte[]> all() {
-        Dbi<ByteBuffer> dbi = dbHandles.get(KeySpaces.MAIN);
-        try (Txn<ByteBuffer> txn = env.txnRead()) {
+        Dbi<DirectBuffer> dbi = dbHandles.get(KeySpaces.MAIN);
+        try (Txn<DirectBuffer> txn = env.txnRead()) {
 
-            CursorIterator<ByteBuffer> ckr = dbi.iterate(txn);
+            CursorIterator<DirectBuffer> ckr = dbi.iterate(txn);
 
         }
 
@@ -147,6 +290,478 @@ public class LmbdStorageEngine implements StorageEngine {
         return 0;
     }
 
+    /**
+     * The iterator holds a read transaction open until it is closed which stops LMDB from reusing pages freed by
+     * later writes, so iterators should be closed promptly.
+     */
+    @Override
+    public StoreIterator<byte[], byte[]> readAll(long fromPositionInclusive) {
+        Txn<DirectBuffer> txn = env.txnRead();
+        try {
+            // LMDB needs keys off heap
+            MutableDirectBuffer start = new UnsafeBuffer(allocateDirect(PositionCodec.POSITION_SIZE));
+            PositionCodec.encode(fromPositionInclusive, start, 0);
+            CursorIterator<DirectBuffer> iterator = dbHandles.get(KeySpaces.TOTAL_ORDERED)
+                    .iterate(txn, KeyRange.atLeast(start));
+            return new LmdbIterator(KeySpaces.TOTAL_ORDERED, txn, iterator);
+        } catch (RuntimeException e) {
+            txn.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The whole search runs in one read transaction so every seek sees the same snapshot
+     */
+    @Override
+    public List<String> searchStreamNames(String query, int maxCount) {
+        try (StreamNameCursor cursor = new StreamNameCursor(env.txnRead(), dbi(KeySpaces.STREAM_NAMES))) {
+            return StreamNameIndex.search(cursor, query, maxCount);
+        }
+    }
+
+    @Override
+    public List<KeyValue<byte[], byte[]>> readSubscriptionStates() {
+        List<KeyValue<byte[], byte[]>> states = new ArrayList<>();
+        try (Txn<DirectBuffer> txn = env.txnRead();
+             CursorIterator<DirectBuffer> it = dbi(KeySpaces.PERSISTENT_SUBSCRIPTIONS).iterate(txn, KeyRange.all())) {
+            while (it.hasNext()) {
+                CursorIterator.KeyVal<DirectBuffer> kv = it.next();
+                states.add(KeyValue.pair(LmdbIterator.copy(kv.key()), LmdbIterator.copy(kv.val())));
+            }
+        }
+        return states;
+    }
+
+    @Override
+    public synchronized void writeSubscriptionStates(List<KeyValue<byte[], byte[]>> entries) {
+        Dbi<DirectBuffer> subscriptions = dbi(KeySpaces.PERSISTENT_SUBSCRIPTIONS);
+        try (Txn<DirectBuffer> txn = env.txnWrite()) {
+            for (KeyValue<byte[], byte[]> entry : entries) {
+                DirectBuffer key = keyBuffer(entry.key);
+                if (entry.value == null) {
+                    subscriptions.delete(txn, key);
+                } else {
+                    ((MutableDirectBuffer) subscriptions.reserve(txn, key, entry.value.length)).putBytes(0, entry.value);
+                }
+            }
+            txn.commit();
+        } catch (LmdbException e) {
+            throw new ProcessorStateException("Error while writing batch to store " + KeySpaces.PERSISTENT_SUBSCRIPTIONS, e);
+        }
+    }
+
+    @Override
+    public long readHeadPosition() {
+        return positions.headPosition();
+    }
+
+    @Override
+    public AppendResult appendToStream(String streamId, int expectedVersion, byte[] message) {
+        return appendToStream(streamId, expectedVersion, Collections.singletonList(message));
+    }
+
+    @Override
+    public AppendResult appendToStream(String streamId, int expectedVersion, List<byte[]> messages) {
+        PendingAppend append = PendingAppend.withRandomIds(streamId, expectedVersion, messages);
+        write(Collections.singletonList(append));
+        return append.join();
+    }
+
+    @Override
+    public AppendResult appendToStream(String streamId, int expectedVersion, NewStreamMessage... messages) {
+        PendingAppend append = new PendingAppend(streamId, expectedVersion, Arrays.asList(messages));
+        write(Collections.singletonList(append));
+        return append.join();
+    }
+
+    /**
+     * Writes all appends that pass their expected version check in a single write transaction so they share one sync.
+     * LMDB only allows a single write transaction at a time anyway. Each message is written to MAIN and to the $all
+     * log in TOTAL_ORDERED in the same transaction. Retried appends are detected before the expected version check
+     * and are completed with the original result without being written.
+     */
+    @Override
+    public synchronized void write(List<PendingAppend> appends) {
+        Dbi<DirectBuffer> main = dbHandles.get(KeySpaces.MAIN);
+        Dbi<DirectBuffer> totalOrdered = dbHandles.get(KeySpaces.TOTAL_ORDERED);
+        Dbi<DirectBuffer> streamNames = dbHandles.get(KeySpaces.STREAM_NAMES);
+        Dbi<DirectBuffer> categories = dbHandles.get(KeySpaces.CATEGORIES);
+        Dbi<DirectBuffer> eventTypes = dbHandles.get(KeySpaces.EVENT_TYPES);
+        // versions of streams already touched by this batch as the cache only holds committed versions
+        Map<String, Long> heads = new HashMap<>();
+        List<PendingAppend> written = new ArrayList<>(appends.size());
+        long lastPosition = Position.END;
+        boolean committed = false;
+        try (Txn<DirectBuffer> txn = env.txnWrite()) {
+            for (PendingAppend append : appends) {
+                byte[] hash = writeCodec.hash(append.getStreamId());
+                if (isDuplicate(txn, main, hash, append)) {
+                    // the original may be in this transaction so only complete once it is committed
+                    written.add(append);
+                    continue;
+                }
+
+                Long head = heads.get(append.getStreamId());
+                long currentVersion = head == null ? currentVersion(txn, main, hash) : head;
+                if (!ExpectedVersion.matches(append.getExpectedVersion(), currentVersion)) {
+                    append.fail(new WrongExpectedVersion(append.getStreamId(), append.getExpectedVersion(), currentVersion));
+                    continue;
+                }
+
+                byte[] streamName = append.getStreamId().getBytes(UTF_8);
+                if (head == null && currentVersion == ExpectedVersion.NO_STRREAM) {
+                    streamNameWriter.add(append.getStreamId(), hash);
+                }
+                String category = SystemStreams.categoryOf(append.getStreamId());
+                byte[] categoryHash = category == null ? null : categoryCodec.hash(category);
+                long position = positions.allocate(append.getMessages().size());
+                for (NewStreamMessage message : append.getMessages()) {
+                    StreamKeyCodec.encode(hash, ++currentVersion, writeKey, 0);
+                    // reserve lets us copy the message straight into the memory mapped page
+                    byte[] type = MessageRecordCodec.type(message.getType());
+                    MessageRecordCodec.encode(position, message.getMessageId(), type, message.getData(),
+                            (MutableDirectBuffer) main.reserve(txn, writeKey,
+                                    MessageRecordCodec.length(type, message.getData())));
+                    recentMessageIds.record(hash, message.getMessageId(), currentVersion, position);
+                    if (categoryHash != null) {
+                        StreamKeyCodec.encode(categoryHash, position, linkKey, 0);
+                        PositionCodec.encodeValue(writeKey, streamName, (MutableDirectBuffer) categories.reserve(txn,
+                                linkKey, PositionCodec.valueLength(streamName)));
+                    }
+                    if (message.getType() != null) {
+                        StreamKeyCodec.encode(eventTypeCodec.hash(message.getType()), position, linkKey, 0);
+                        PositionCodec.encodeValue(writeKey, streamName, (MutableDirectBuffer) eventTypes.reserve(txn,
+                                linkKey, PositionCodec.valueLength(streamName)));
+                    }
+                    PositionCodec.encode(position++, positionKey, 0);
+                    // positions only ever increase so LMDB can append to the last page rather than search the tree
+                    PositionCodec.encodeValue(writeKey, streamName, (MutableDirectBuffer) totalOrdered.reserve(txn,
+                            positionKey, PositionCodec.valueLength(streamName), PutFlags.MDB_APPEND));
+                }
+                lastPosition = position - 1;
+                heads.put(append.getStreamId(), currentVersion);
+                append.setResult(currentVersion, lastPosition);
+                written.add(append);
+            }
+            if (!streamNameWriter.isEmpty()) {
+                // the catalogue is written in the same transaction as the first appends so the two can't disagree
+                streamNameWriter.write(key -> get(txn, streamNames, key), (key, value) ->
+                        ((MutableDirectBuffer) streamNames.reserve(txn, keyBuffer(key), value.length)).putBytes(0, value));
+            }
+            txn.commit();
+            committed = true;
+            streamNameWriter.committed();
+        } catch (LmdbException e) {
+            throw new ProcessorStateException("Error while writing batch to store " + KeySpaces.MAIN, e);
+        } finally {
+            if (!committed) {
+                streamNameWriter.abort();
+                for (PendingAppend append : written) {
+                    recentMessageIds.invalidate(writeCodec.hash(append.getStreamId()));
+                }
+            }
+        }
+        positions.committed(lastPosition);
+        for (Map.Entry<String, Long> head : heads.entrySet()) {
+            versionCache.put(writeCodec.hash(head.getKey()), head.getValue());
+        }
+
+        for (PendingAppend append : written) {
+            append.complete();
+        }
+    }
+
+    private byte[] get(Txn<DirectBuffer> txn, Dbi<DirectBuffer> dbi, byte[] key) {
+        DirectBuffer value = dbi.get(txn, keyBuffer(key));
+        return value == null ? null : LmdbIterator.copy(value);
+    }
+
+    /**
+     * Checks whether the append is a retry of an earlier one and if so sets the original result on the append.
+     * Storage is only read when the filter can't rule the ids out.
+     */
+    private boolean isDuplicate(Txn<DirectBuffer> txn, Dbi<DirectBuffer> main, byte[] hash, PendingAppend append) {
+        RecentMessageIds.Match match = recentMessageIds.match(hash, append.getMessages());
+        if (match == RecentMessageIds.Match.UNKNOWN) {
+            recentMessageIds.beginStored();
+            StreamKeyCodec.encode(hash, Long.MAX_VALUE, seekKey, 0);
+            try (Cursor<DirectBuffer> cursor = main.openCursor(txn)) {
+                boolean found = cursor.get(seekKey, GetOp.MDB_SET_RANGE) ? cursor.prev() : cursor.last();
+                for (int i = 0; i < recentMessageIds.getWindowSize()
+                        && found
+                        && StreamKeyCodec.isStreamKey(cursor.key(), hash); i++) {
+                    DirectBuffer record = cursor.val();
+                    recentMessageIds.addStored(MessageRecordCodec.messageIdMostSigBits(record),
+                            MessageRecordCodec.messageIdLeastSigBits(record),
+                            StreamKeyCodec.version(cursor.key()),
+                            MessageRecordCodec.position(record));
+                    found = cursor.prev();
+                }
+            }
+            match = recentMessageIds.matchStored(hash, append.getMessages())
+                    ? RecentMessageIds.Match.DUPLICATE
+                    : RecentMessageIds.Match.NEW;
+        }
+        if (match == RecentMessageIds.Match.DUPLICATE) {
+            append.setDuplicateResult(recentMessageIds.getDuplicateVersion(), recentMessageIds.getDuplicatePosition());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Conflicts are resolved against the version cache and storage is only read when the stream isn't cached
+     */
+    private long currentVersion(Txn<DirectBuffer> txn, Dbi<DirectBuffer> main, byte[] hash) {
+        long version = versionCache.get(hash);
+        if (version == StreamVersionCache.MISSING) {
+            // nothing in this batch has touched the stream yet so this is the committed version
+            version = readHeadVersion(txn, main, hash, seekKey);
+            versionCache.put(hash, version);
+        }
+        return version;
+    }
+
+    /**
+     * Positions a cursor on the last key with the stream hash prefix
+     * @return version of the last message in the stream or ExpectedVersion.NO_STRREAM if the stream doesn't exist
+     */
+    private static long readHeadVersion(Txn<DirectBuffer> txn,
+                                        Dbi<DirectBuffer> dbi,
+                                        byte[] hash,
+                                        MutableDirectBuffer seekKey) {
+        StreamKeyCodec.encode(hash, Long.MAX_VALUE, seekKey, 0);
+        try (Cursor<DirectBuffer> cursor = dbi.openCursor(txn)) {
+            // set range lands on the first key of the next stream so step back, or go to the last key if there is none
+            boolean found = cursor.get(seekKey, GetOp.MDB_SET_RANGE) ? cursor.prev() : cursor.last();
+            if (found) {
+                DirectBuffer key = cursor.key();
+                if (StreamKeyCodec.isStreamKey(key, hash)) {
+                    return StreamKeyCodec.version(key);
+                }
+            }
+            return ExpectedVersion.NO_STRREAM;
+        }
+    }
+
+    @Override
+    public ReadStreamPage readStreamForwards(String streamId, long fromVersionInclusive, int maxCount, boolean prefetch) {
+        return readStream(streamId, fromVersionInclusive, maxCount, prefetch, ReadDirection.FORWARD);
+    }
+
+    @Override
+    public ReadStreamPage readStreamBackwards(String streamId, long fromVersionInclusive, int maxCount, boolean prefetch) {
+        return readStream(streamId, fromVersionInclusive, maxCount, prefetch, ReadDirection.BACKWARD);
+    }
+
+    /**
+     * Iterates a key range bounded to the stream and reads one message past the page to find the next version so
+     * the cost of a page doesn't depend on the length of the stream. Without prefetch only the position is read
+     * from the record and nothing is copied out of the memory mapped page.
+     */
+    private ReadStreamPage readStream(String streamId,
+                                      long fromVersionInclusive,
+                                      int maxCount,
+                                      boolean prefetch,
+                                      ReadDirection direction) {
+        validateMaxCount(maxCount);
+        ReadBuffers buffers = readBuffers.get();
+        byte[] hash = buffers.codec.hash(streamId);
+        Dbi<DirectBuffer> main = dbHandles.get(KeySpaces.MAIN);
+        try (Txn<DirectBuffer> txn = env.txnRead()) {
+            long lastVersion = readHeadVersion(txn, main, hash, buffers.start);
+            if (lastVersion == ExpectedVersion.NO_STRREAM) {
+                return new ReadStreamPage(streamId, PageReadStatus.STREAM_NOT_FOUND, fromVersionInclusive,
+                        StreamVersion.END, StreamVersion.END, direction, true, Collections.emptyList());
+            }
+
+            boolean forward = direction == ReadDirection.FORWARD;
+            KeyRange<DirectBuffer> range;
+            if (forward) {
+                StreamKeyCodec.encode(hash, Math.max(fromVersionInclusive, StreamVersion.START), buffers.start, 0);
+                StreamKeyCodec.encode(hash, Long.MAX_VALUE, buffers.end, 0);
+                range = KeyRange.closed(buffers.start, buffers.end);
+            } else {
+                long from = fromVersionInclusive == StreamVersion.END ? Long.MAX_VALUE : fromVersionInclusive;
+                StreamKeyCodec.encode(hash, from, buffers.start, 0);
+                StreamKeyCodec.encode(hash, StreamVersion.START, buffers.end, 0);
+                range = KeyRange.closedBackward(buffers.start, buffers.end);
+            }
+
+            List<StreamMessage> messages = new ArrayList<>(Math.min(maxCount, INITIAL_PAGE_CAPACITY));
+            boolean isEnd = true;
+            long nextVersion = forward ? lastVersion + 1 : StreamVersion.START;
+            try (CursorIterator<DirectBuffer> it = main.iterate(txn, range)) {
+                while (it.hasNext()) {
+                    CursorIterator.KeyVal<DirectBuffer> kv = it.next();
+                    long version = StreamKeyCodec.version(kv.key());
+                    if (messages.size() == maxCount) {
+                        isEnd = false;
+                        nextVersion = version;
+                        break;
+                    }
+                    messages.add(new StreamMessage(streamId,
+                            MessageRecordCodec.messageId(kv.val()),
+                            MessageRecordCodec.type(kv.val()),
+                            version,
+                            MessageRecordCodec.position(kv.val()),
+                            prefetch ? MessageRecordCodec.data(kv.val()) : null));
+                }
+            }
+            return new ReadStreamPage(streamId, PageReadStatus.SUCCESS, fromVersionInclusive, nextVersion,
+                    lastVersion, direction, isEnd, messages);
+        }
+    }
+
+    @Override
+    public ReadAllPage readAllForwards(long fromPositionInclusive, int maxCount, boolean prefetch) {
+        return readAll(fromPositionInclusive, maxCount, prefetch, ReadDirection.FORWARD);
+    }
+
+    @Override
+    public ReadAllPage readAllBackwards(long fromPositionInclusive, int maxCount, boolean prefetch) {
+        return readAll(fromPositionInclusive, maxCount, prefetch, ReadDirection.BACKWARD);
+    }
+
+    /**
+     * Pages through TOTAL_ORDERED. Without prefetch everything comes from the $all entry and MAIN is never touched.
+     */
+    private ReadAllPage readAll(long fromPositionInclusive, int maxCount, boolean prefetch, ReadDirection direction) {
+        validateMaxCount(maxCount);
+        ReadBuffers buffers = readBuffers.get();
+        Dbi<DirectBuffer> main = dbHandles.get(KeySpaces.MAIN);
+        boolean forward = direction == ReadDirection.FORWARD;
+        KeyRange<DirectBuffer> range;
+        if (forward) {
+            PositionCodec.encode(Math.max(fromPositionInclusive, Position.START), buffers.position, 0);
+            range = KeyRange.atLeast(buffers.position);
+        } else if (fromPositionInclusive == Position.END) {
+            range = KeyRange.allBackward();
+        } else {
+            PositionCodec.encode(fromPositionInclusive, buffers.position, 0);
+            range = KeyRange.atLeastBackward(buffers.position);
+        }
+
+        List<StreamMessage> messages = new ArrayList<>(Math.min(maxCount, INITIAL_PAGE_CAPACITY));
+        boolean isEnd = true;
+        long nextPosition = Position.START;
+        try (Txn<DirectBuffer> txn = env.txnRead();
+             CursorIterator<DirectBuffer> it = dbHandles.get(KeySpaces.TOTAL_ORDERED).iterate(txn, range)) {
+            while (it.hasNext()) {
+                CursorIterator.KeyVal<DirectBuffer> kv = it.next();
+                long position = PositionCodec.decode(kv.key());
+                if (messages.size() == maxCount) {
+                    isEnd = false;
+                    nextPosition = position;
+                    break;
+                }
+                messages.add(message(txn, main, kv.val(), position, prefetch, buffers));
+            }
+        }
+        if (isEnd && forward) {
+            nextPosition = messages.isEmpty()
+                    ? Math.max(fromPositionInclusive, Position.START)
+                    : messages.get(messages.size() - 1).getPosition() + 1;
+        }
+        return new ReadAllPage(fromPositionInclusive, nextPosition, isEnd, direction, messages);
+    }
+
+    @Override
+    public ReadAllPage readCategoryForwards(String category, long fromPositionInclusive, int maxCount, boolean prefetch) {
+        return readLinksForwards(KeySpaces.CATEGORIES, category, fromPositionInclusive, maxCount, prefetch);
+    }
+
+    @Override
+    public ReadAllPage readAllForwards(String eventType, long fromPositionInclusive, int maxCount, boolean prefetch) {
+        return readLinksForwards(KeySpaces.EVENT_TYPES, eventType, fromPositionInclusive, maxCount, prefetch);
+    }
+
+    /**
+     * Pages through the links kept under the hash of an indexed value, each one resolved the same way as an entry
+     * of $all
+     */
+    private ReadAllPage readLinksForwards(String keySpace,
+                                          String indexed,
+                                          long fromPositionInclusive,
+                                          int maxCount,
+                                          boolean prefetch) {
+        validateMaxCount(maxCount);
+        ReadBuffers buffers = readBuffers.get();
+        byte[] hash = buffers.codec.hash(indexed);
+        long from = Math.max(fromPositionInclusive, Position.START);
+        StreamKeyCodec.encode(hash, from, buffers.start, 0);
+        StreamKeyCodec.encode(hash, Long.MAX_VALUE, buffers.end, 0);
+        Dbi<DirectBuffer> main = dbHandles.get(KeySpaces.MAIN);
+
+        List<StreamMessage> messages = new ArrayList<>(Math.min(maxCount, INITIAL_PAGE_CAPACITY));
+        boolean isEnd = true;
+        long nextPosition = from;
+        try (Txn<DirectBuffer> txn = env.txnRead();
+             CursorIterator<DirectBuffer> it = dbi(keySpace).iterate(txn, KeyRange.closed(buffers.start, buffers.end))) {
+            while (it.hasNext()) {
+                CursorIterator.KeyVal<DirectBuffer> kv = it.next();
+                long position = StreamKeyCodec.version(kv.key());
+                if (messages.size() == maxCount) {
+                    isEnd = false;
+                    nextPosition = position;
+                    break;
+                }
+                messages.add(message(txn, main, kv.val(), position, prefetch, buffers));
+            }
+        }
+        if (isEnd && !messages.isEmpty()) {
+            nextPosition = messages.get(messages.size() - 1).getPosition() + 1;
+        }
+        return new ReadAllPage(fromPositionInclusive, nextPosition, isEnd, ReadDirection.FORWARD, messages);
+    }
+
+    /**
+     * @param entry TOTAL_ORDERED value, the MAIN key of the message followed by the stream name
+     */
+    private static StreamMessage message(Txn<DirectBuffer> txn,
+                                         Dbi<DirectBuffer> main,
+                                         DirectBuffer entry,
+                                         long position,
+                                         boolean prefetch,
+                                         ReadBuffers buffers) {
+        UUID messageId = null;
+        String type = null;
+        byte[] data = null;
+        if (prefetch) {
+            // the MAIN key is the start of the entry so it can be used in place as the key
+            buffers.mainKey.wrap(entry, 0, StreamKeyCodec.KEY_SIZE);
+            DirectBuffer record = main.get(txn, buffers.mainKey);
+            if (record != null) {
+                messageId = MessageRecordCodec.messageId(record);
+                type = MessageRecordCodec.type(record);
+                data = MessageRecordCodec.data(record);
+            }
+        }
+        return new StreamMessage(PositionCodec.streamId(entry),
+                messageId,
+                type,
+                PositionCodec.streamVersion(entry),
+                position,
+                data);
+    }
+
+    private static void validateMaxCount(int maxCount) {
+        if (maxCount < 1) {
+            throw new IllegalArgumentException("maxCount must be at least 1");
+        }
+    }
+
+    @Override
+    public void deleteStream(String streamId, int expectedVersion) {
+        // TODO: deletes aren't supported yet so this is a no-op
+    }
+
+    @Override
+    public void deleteMessage(String streamId, UUID messageId) {
+        // TODO: deletes aren't supported yet so this is a no-op
+    }
+
 //    // env stats vs individual db stats?
 //    @Override
 //    public long approximateNumEntries() {
@@ -194,69 +809,204 @@ public class LmbdStorageEngine implements StorageEngine {
 //    }
 
 
-//    // do we really need a custom iterator that wraps CursorIterator?
-//    private class LmdbIterator implements StoreIterator<Bytes, byte[]> {
-//        private final String storeName;
-//        private final CursorIterator<ByteBuffer> iter;
-//
-//        private volatile boolean open = true;
-//
-//        LmdbIterator(final String storeName,
-//                        final CursorIterator<ByteBuffer> iter) {
-//            this.iter = iter;
-//            this.storeName = storeName;
-//        }
-//
-//        byte[] peekRawKey() {
-//
-//            return iter.key();
-//        }
-//
-//        private KeyValue<Bytes, byte[]> getKeyValue() {
-//            return new KeyValue<>(new Bytes(iter.key()), iter.value());
-//        }
-//
-//        @Override
-//        public synchronized boolean hasNext() {
-//            if (!open) {
-//                throw new InvalidStateStoreException(String.format("RocksDB store %s has closed", storeName));
-//            }
-//
-//            return iter.hasNext();
-//        }
-//
-//        /**
-//         * @throws NoSuchElementException if no next element exist
-//         */
-//        @Override
-//        public synchronized KeyValue<Bytes, byte[]> next() {
-//            if (!hasNext())
-//                throw new NoSuchElementException();
-//
-//            final KeyValue<Bytes, byte[]> entry = this.getKeyValue();
-//            iter.next();
-//            return entry;
-//        }
-//
-//        @Override
-//        public void remove() {
-//            throw new UnsupportedOperationException("RocksDB iterator does not support remove()");
-//        }
-//
-//        @Override
-//        public synchronized void close() {
-//            openIterators.remove(this);
-//            iter.close();
-//            open = false;
-//        }
-//
-//        @Override
-//        public Bytes peekNextKey() {
-//            if (!hasNext()) {
-//                throw new NoSuchElementException();
-//            }
-//            return new Bytes(iter.key());
-//        }
-//    }
+    /**
+     * Off heap key buffer owned by a single thread. The view is re-wrapped to the length of each key as LMDB uses the
+     * buffer capacity as the key size.
+     */
+    private static final class KeyBuffer {
+        private final UnsafeBuffer buffer;
+        private final UnsafeBuffer view = new UnsafeBuffer(0, 0);
+
+        KeyBuffer(int maxKeySize) {
+            this.buffer = new UnsafeBuffer(allocateDirect(maxKeySize));
+        }
+
+        DirectBuffer wrap(byte[] key) {
+            buffer.putBytes(0, key);
+            view.wrap(buffer, 0, key.length);
+            return view;
+        }
+    }
+
+    private final class StreamNameCursor implements StreamNameIndex.Cursor {
+        private final Txn<DirectBuffer> txn;
+        private final Cursor<DirectBuffer> cursor;
+
+        StreamNameCursor(Txn<DirectBuffer> txn, Dbi<DirectBuffer> streamNames) {
+            this.txn = txn;
+            try {
+                this.cursor = streamNames.openCursor(txn);
+            } catch (RuntimeException e) {
+                txn.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean seek(byte[] key) {
+            return cursor.get(keyBuffer(key), GetOp.MDB_SET_RANGE);
+        }
+
+        @Override
+        public byte[] key() {
+            return LmdbIterator.copy(cursor.key());
+        }
+
+        @Override
+        public byte[] value() {
+            return LmdbIterator.copy(cursor.val());
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+            txn.close();
+        }
+    }
+
+    /**
+     * Off heap buffers used by a single reader thread to build range bounds
+     */
+    private static final class ReadBuffers {
+        private final StreamKeyCodec codec = new StreamKeyCodec();
+        private final MutableDirectBuffer start = new UnsafeBuffer(allocateDirect(StreamKeyCodec.KEY_SIZE));
+        private final MutableDirectBuffer end = new UnsafeBuffer(allocateDirect(StreamKeyCodec.KEY_SIZE));
+        private final MutableDirectBuffer position = new UnsafeBuffer(allocateDirect(PositionCodec.POSITION_SIZE));
+        private final UnsafeBuffer mainKey = new UnsafeBuffer(0, 0);
+    }
+
+    // do we really need a custom iterator that wraps CursorIterator?
+    private static class LmdbIterator implements StoreIterator<byte[], byte[]> {
+        private final String storeName;
+        private final Txn<DirectBuffer> txn;
+        private final CursorIterator<DirectBuffer> iter;
+        // CursorIterator can't peek so the next entry is read ahead and held here
+        private KeyValue<byte[], byte[]> next;
+
+        private volatile boolean open = true;
+
+        LmdbIterator(final String storeName,
+                     final Txn<DirectBuffer> txn,
+                     final CursorIterator<DirectBuffer> iter) {
+            this.storeName = storeName;
+            this.txn = txn;
+            this.iter = iter;
+        }
+
+        private static byte[] copy(DirectBuffer buffer) {
+            byte[] bytes = new byte[buffer.capacity()];
+            buffer.getBytes(0, bytes);
+            return bytes;
+        }
+
+        @Override
+        public synchronized boolean hasNext() {
+            if (!open) {
+                throw new InvalidStoreException(String.format("LMDB store %s has closed", storeName));
+            }
+
+            if (next == null) {
+                next = fetchNext();
+            }
+            return next != null;
+        }
+
+        /**
+         * @throws NoSuchElementException if no next element exist
+         */
+        @Override
+        public synchronized KeyValue<byte[], byte[]> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            KeyValue<byte[], byte[]> entry = next;
+            next = null;
+            return entry;
+        }
+
+        /**
+         * @return the entry under the cursor after moving it on, null once there are no more
+         */
+        KeyValue<byte[], byte[]> fetchNext() {
+            if (!iter.hasNext()) {
+                return null;
+            }
+            // buffers point at the memory mapped page and are only valid until the cursor moves
+            final CursorIterator.KeyVal<DirectBuffer> kv = iter.next();
+            return new KeyValue<>(copy(kv.key()), copy(kv.val()));
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("LMDB iterator does not support remove()");
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!open) {
+                return;
+            }
+            iter.close();
+            txn.close();
+            open = false;
+        }
+
+        /**
+         * @throws NoSuchElementException if no next element exist
+         */
+        @Override
+        public synchronized byte[] peekNextKey() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            return next.key;
+        }
+    }
+
+
+    /**
+     * CursorIterator can't peek so the entry past the prefix is read and dropped
+     */
+    private static final class LmdbPrefixIterator extends LmdbIterator {
+        private final byte[] prefix;
+        private final int maxCount;
+        private int count;
+
+        LmdbPrefixIterator(final String storeName,
+                           final Txn<DirectBuffer> txn,
+                           final CursorIterator<DirectBuffer> iter,
+                           final byte[] prefix,
+                           final int maxCount) {
+            super(storeName, txn, iter);
+            this.prefix = prefix;
+            this.maxCount = maxCount;
+        }
+
+        @Override
+        KeyValue<byte[], byte[]> fetchNext() {
+            if (count >= maxCount) {
+                return null;
+            }
+            KeyValue<byte[], byte[]> entry = super.fetchNext();
+            if (entry == null || !hasPrefix(entry.key, prefix)) {
+                count = maxCount;
+                return null;
+            }
+            count++;
+            return entry;
+        }
+
+        private static boolean hasPrefix(byte[] key, byte[] prefix) {
+            if (key.length < prefix.length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (key[i] != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 
 }
@@ -1,24 +1,48 @@
 package com.ruscello.storage.rocksdb;
 
 import com.google.common.hash.HashCode;
+import com.google.common.primitives.UnsignedBytes;
+import com.ruscello.ReadDirection;
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.PageReadStatus;
+import com.ruscello.core.Position;
+import com.ruscello.core.ReadAllPage;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.StreamMessage;
+import com.ruscello.core.StreamVersion;
+import com.ruscello.core.SystemStreams;
+import com.ruscello.core.WrongExpectedVersion;
+import com.ruscello.core.messages.client.AppendResult;
+import com.ruscello.storage.AppendBatchWriter;
+import com.ruscello.storage.CategoryStore;
+import com.ruscello.storage.EventTypeStore;
+import com.ruscello.storage.InvalidStoreException;
 import com.ruscello.storage.KeySpaces;
 import com.ruscello.storage.KeyValue;
+import com.ruscello.storage.MessageRecordCodec;
+import com.ruscello.storage.PendingAppend;
+import com.ruscello.storage.PositionAllocator;
+import com.ruscello.storage.PositionCodec;
+import com.ruscello.storage.ProcessorStateException;
+import com.ruscello.storage.RecentMessageIds;
 import com.ruscello.storage.StorageEngine;
 import com.ruscello.storage.StoreIterator;
-import org.lmdbjava.Dbi;
+import com.ruscello.storage.StreamKeyCodec;
+import com.ruscello.storage.StreamNameIndex;
+import com.ruscello.storage.StreamNameStore;
+import com.ruscello.storage.StreamVersionCache;
+import com.ruscello.storage.SubscriptionStateStore;
 import org.rocksdb.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import sun.jvm.hotspot.runtime.Bytes;
 
 import java.io.File;
-import java.nio.ByteBuffer;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.util.*;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static org.rocksdb.Env.COMPACTION_POOL;
-import static org.rocksdb.Env.FLUSH_POOL;
 
 // https://github.com/apache/kafka/blob/a1352f8c5a96c8e861c17c8105557428a47f4334/streams/src/main/java/org/apache/kafka/streams/state/internals/RocksDBStore.java
 // https://github.com/Instagram/cassandra/blob/rocks_3.0/src/java/org/apache/cassandra/rocksdb/RocksDBIteratorAdapter.java
@@ -32,13 +56,37 @@ import static org.rocksdb.Env.FLUSH_POOL;
 // Note that the use of array-typed keys is discouraged because they result in incorrect caching behavior.
 // If you intend to work on byte arrays as key, for example, you may want to wrap them with the {@code Bytes} class,
 // i.e. use {@code RocksDBStore<Bytes, ...>} rather than {@code RocksDBStore<byte[], ...>}.
-public class RocksdbStorageEngine implements StorageEngine {
+public class RocksdbStorageEngine implements StorageEngine, AppendBatchWriter, SubscriptionStateStore, StreamNameStore,
+        CategoryStore, EventTypeStore {
 
     private static final Logger logger = LoggerFactory.getLogger(RocksdbStorageEngine.class);
 
     private static final String DB_FILE_DIR = "rocksdb";
 
-    private final Set<StoreIterator> openIterators = Collections.synchronizedSet(new HashSet<>());
+    // TODO: move to RocksdbConfiguration
+    private static final long BLOCK_CACHE_SIZE = 64 * 1024 * 1024L;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final double MEMTABLE_PREFIX_BLOOM_SIZE_RATIO = 0.1;
+    // $all is only ever scanned so fewer, larger blocks mean fewer index entries and block cache lookups per scan
+    private static final long TOTAL_ORDERED_BLOCK_SIZE = 64 * 1024L;
+    // pages are sized up front but callers asking for huge pages shouldn't allocate for messages that aren't there
+    private static final int INITIAL_PAGE_CAPACITY = 128;
+
+    private final Set<StoreIterator<byte[], byte[]>> openIterators = Collections.synchronizedSet(new HashSet<>());
+
+    // only used by the single writer
+    private final StreamKeyCodec writeCodec = new StreamKeyCodec();
+    private final byte[] positionKey = new byte[PositionCodec.POSITION_SIZE];
+    private final StreamVersionCache versionCache = new StreamVersionCache();
+    private final RecentMessageIds recentMessageIds = new RecentMessageIds();
+    private final byte[] linkKey = new byte[StreamKeyCodec.KEY_SIZE];
+    // hash categories and event types without overwriting the stream hash held by writeCodec
+    private final StreamKeyCodec categoryCodec = new StreamKeyCodec();
+    private final StreamKeyCodec eventTypeCodec = new StreamKeyCodec();
+    private final StreamNameIndex.Writer streamNameWriter = new StreamNameIndex.Writer();
+
+    // codecs reuse their buffers so each reader thread gets its own
+    private final ThreadLocal<StreamKeyCodec> readCodecs = ThreadLocal.withInitial(StreamKeyCodec::new);
 
 
     private final String name;
@@ -46,13 +94,16 @@ public class RocksdbStorageEngine implements StorageEngine {
     File dbDir;
     private RocksDB db;
 
-    // the following option objects will be created in the constructor and closed in the close() method
-    // private DBOptions dbOptions
-    // private ColumnFamilyOptions cfOptions
-    private Options options;
+    // the following option objects will be created in open() and closed in the close() method
+    private DBOptions dbOptions;
+    private Cache blockCache;
+    private List<ColumnFamilyOptions> cfOptions;
+    private List<Filter> filters;
+    private ReadOptions totalOrderReadOptions;
     private WriteOptions wOptions;
     private FlushOptions fOptions;
     private Map<String, ColumnFamilyHandle> cfHandles;
+    private PositionAllocator positions;
 
     protected volatile boolean open = false;
 
@@ -97,130 +148,161 @@ public class RocksdbStorageEngine implements StorageEngine {
 //
 //    }
 
-    public void open(final Options options) {
-
-//        From kafka streams. Looks like rocksdb options = DBOptions + ColumnFamilyOptions
-//        final BlockBasedTableConfig tableConfig = new BlockBasedTableConfig();
-//        tableConfig.setBlockCacheSize(BLOCK_CACHE_SIZE);
-//        tableConfig.setBlockSize(BLOCK_SIZE);
-//        options = new Options();
-//        options.setTableFormatConfig(tableConfig);
-//        options.setWriteBufferSize(WRITE_BUFFER_SIZE);
-//        options.setCompressionType(COMPRESSION_TYPE);
-//        options.setCompactionStyle(COMPACTION_STYLE);
-//        options.setMaxWriteBufferNumber(MAX_WRITE_BUFFERS);
-//        options.setCreateIfMissing(true);
-//        options.setErrorIfExists(false);
-//        options.setInfoLogLevel(InfoLogLevel.ERROR_LEVEL);
-//        // this is the recommended way to increase parallelism in RocksDb
-//        // note that the current implementation of setIncreaseParallelism affects the number
-//        // of compaction threads but not flush threads (the latter remains one). Also
-//        // the parallelism value needs to be at least two because of the code in
-//        // https://github.com/facebook/rocksdb/blob/62ad0a9b19f0be4cefa70b6b32876e764b7f3c11/util/options.cc#L580
-//        // subtracts one from the value passed to determine the number of compaction threads
-//        // (this could be a bug in the RocksDB code and their devs have been contacted).
-//        options.setIncreaseParallelism(Math.max(Runtime.getRuntime().availableProcessors(), 2));
-//
-//        if (prepareForBulkload) {
-//            options.prepareForBulkLoad();
-//        }
-//
-//        wOptions = new WriteOptions();
-//        wOptions.setDisableWAL(true);
-//
-//        fOptions = new FlushOptions();
-//        fOptions.setWaitForFlush(true);
-
-        // OptionsUtil
-
-        // Does rocksjava have a DBWithTTL
-
-
-        EnvOptions envOptions = new EnvOptions();
+    // Each key space gets its own column family so it can be tuned for how it is accessed
+    // https://github.com/facebook/rocksdb/wiki/RocksJava-Basics
+    // https://github.com/facebook/rocksdb/wiki/RocksDB-Tuning-Guide#prefix-databases
+    public synchronized void open() {
+        if (open) {
+            return;
+        }
 
+        this.dbDir = new File(parentDir, name);
+        try {
+            Files.createDirectories(dbDir.toPath());
+        } catch (final IOException e) {
+            throw new ProcessorStateException("Error creating directory for store " + name, e);
+        }
 
-        // needs to be disposed of
-        Env env = RocksEnv.getDefault();
+        // TODO: Env / parallelism options should come from RocksdbConfiguration
         // https://github.com/facebook/rocksdb/wiki/RocksDB-Tuning-Guide#parallelism-options
-        // env.setBackgroundThreads(1, FLUSH_POOL);
-        // env.setBackgroundThreads(1, COMPACTION_POOL);
-
-        BlockBasedTableConfig blockBasedTableConfig = new BlockBasedTableConfig();
-        // blockBasedTableConfig.setBlockCache()
-        // blockBasedTableConfig.setBlockCacheSize()
-        // blockBasedTableConfig.setBlockSize()
-
-        // https://github.com/facebook/rocksdb/wiki/RocksDB-Tuning-Guide#prefix-databases
-        // blockBasedTableConfig.setFilter()
-        // blockBasedTableConfig.setIndexType()
-
-
-        DBOptions dbOptions = new DBOptions();
-        // dbOptions.setBaseBackgroundCompactions();
-        // dbOptions.setMaxBackgroundCompactions()
-        // dbOptions.setMaxBackgroundFlushes()
-        // dbOptions.setIncreaseParallelism()
-        // dbOptions.setEnv()
-
-        ReadOptions rOptions = new ReadOptions();
-        // rOptions.setBackgroundPurgeOnIteratorCleanup()
-        // rOptions.setFillCache()
-        // rOptions.setIterateUpperBound()
-        // rOptions.setPrefixSameAsStart()
-        // rOptions.setTailing()
-        // rOptions.setTotalOrderSeek()
-
+        dbOptions = new DBOptions()
+                .setCreateIfMissing(true)
+                .setCreateMissingColumnFamilies(true)
+                .setInfoLogLevel(InfoLogLevel.ERROR_LEVEL)
+                // this is the recommended way to increase parallelism in RocksDb
+                // the parallelism value needs to be at least two
+                .setIncreaseParallelism(Math.max(Runtime.getRuntime().availableProcessors(), 2));
+
+        // block cache is shared by all key spaces so hot key spaces get more of it
+        blockCache = new LRUCache(BLOCK_CACHE_SIZE);
+        cfOptions = new ArrayList<>();
+        filters = new ArrayList<>();
+
+        List<ColumnFamilyDescriptor> cfDescriptors = new ArrayList<>(KeySpaces.ALL_STREAM_NAMES.size() + 1);
+        // rocksdb always requires the default column family to be opened
+        cfDescriptors.add(new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, newColumnFamilyOptions()));
+        for (String keySpace : KeySpaces.ALL_STREAM_NAMES) {
+            cfDescriptors.add(new ColumnFamilyDescriptor(keySpace.getBytes(UTF_8), columnFamilyOptions(keySpace)));
+        }
+        List<ColumnFamilyHandle> handles = new ArrayList<>(cfDescriptors.size());
 
-        WriteOptions wOptions = new WriteOptions();
-        // wOptions.setDisableWAL()
-        // wOptions.setSync()
-        // wOptions.setNoSlowdown()
+        // prefix extractor on MAIN means iterators are only defined within a single stream unless we ask for total order
+        totalOrderReadOptions = new ReadOptions().setTotalOrderSeek(true);
+        wOptions = new WriteOptions();
+        fOptions = new FlushOptions().setWaitForFlush(true);
 
-        FlushOptions fOptions = new FlushOptions();
-        // fOptions.setWaitForFlush()
+        try {
+            db = RocksDB.open(dbOptions, dbDir.getAbsolutePath(), cfDescriptors, handles);
+        } catch (final RocksDBException e) {
+            throw new ProcessorStateException("Error opening store " + name + " at location " + dbDir, e);
+        }
 
-        ColumnFamilyOptions cfOptions = new ColumnFamilyOptions();
-        // cfOptions.setCompressionType()
-        // cfOptions.setCompactionStyle()
-        // cfOptions.setMaxWriteBufferNumber()
+        cfHandles = new HashMap<>();
+        for (int i = 0; i < handles.size(); i++) {
+            cfHandles.put(new String(cfDescriptors.get(i).getName(), UTF_8), handles.get(i));
+        }
+        positions = new PositionAllocator(readLastPosition());
+        versionCache.clear();
+        recentMessageIds.clear();
+        streamNameWriter.recover(get(cfHandles.get(KeySpaces.STREAM_NAMES), StreamNameIndex.COUNTER_KEY));
+        open = true;
+    }
 
-//        this.dbDir = new File(new File(context.stateDir(), parentDir), this.name);
+    /**
+     * Positions are written in increasing order so the last key in TOTAL_ORDERED is the head of $all
+     */
+    private long readLastPosition() {
+        try (RocksIterator it = db.newIterator(cfHandles.get(KeySpaces.TOTAL_ORDERED))) {
+            it.seekToLast();
+            return it.isValid() ? PositionCodec.decode(it.key()) : Position.END;
+        }
+    }
 
-        List<ColumnFamilyDescriptor> cfDescriptors = new ArrayList<>(KeySpaces.ALL_STREAM_NAMES.size());
-        for (String dbName : KeySpaces.ALL_STREAM_NAMES) {
-            cfDescriptors.add(new ColumnFamilyDescriptor(dbName.getBytes(UTF_8)));
+    /**
+     * Builds column family options for a key space based on how it is accessed
+     */
+    private ColumnFamilyOptions columnFamilyOptions(String keySpace) {
+        ColumnFamilyOptions options = newColumnFamilyOptions();
+        BlockBasedTableConfig tableConfig = new BlockBasedTableConfig()
+                .setBlockCache(blockCache)
+                .setCacheIndexAndFilterBlocks(true)
+                .setPinL0FilterAndIndexBlocksInCache(true);
+
+        if (KeySpaces.MAIN.equals(keySpace)
+                || KeySpaces.CATEGORIES.equals(keySpace)
+                || KeySpaces.EVENT_TYPES.equals(keySpace)) {
+            // reads are always within a single stream (or category or event type) so filter on the hash prefix. Point
+            // gets still benefit from the whole key being in the filter as well
+            Filter bloomFilter = newBloomFilter();
+            tableConfig.setFilter(bloomFilter);
+            options.useFixedLengthPrefixExtractor(StreamKeyCodec.STREAM_HASH_SIZE)
+                    .setMemtablePrefixBloomSizeRatio(MEMTABLE_PREFIX_BLOOM_SIZE_RATIO);
+        } else if (KeySpaces.TOTAL_ORDERED.equals(keySpace)) {
+            // keys are positions written in increasing order and only ever range scanned, so a bloom filter is wasted
+            // memory. Sequential keys produce non overlapping files which level compaction can move down without
+            // rewriting when it prefers the files with the least overlap
+            tableConfig.setBlockSize(TOTAL_ORDERED_BLOCK_SIZE);
+            options.setCompactionStyle(CompactionStyle.LEVEL)
+                    .setCompactionPriority(CompactionPriority.MinOverlappingRatio)
+                    .setLevelCompactionDynamicLevelBytes(true);
+        } else if (KeySpaces.STREAM_NAMES.equals(keySpace)) {
+            // postings are only ever reached by seeks which a whole key bloom filter can't help with
+        } else {
+            // mostly point lookups
+            tableConfig.setFilter(newBloomFilter());
         }
-        List<ColumnFamilyHandle> cfHandles = new ArrayList<>();
 
-//        https://github.com/facebook/rocksdb/wiki/RocksJava-Basics
+        options.setTableFormatConfig(tableConfig);
+        return options;
+    }
 
-//        Files.createDirectories(dir.getParentFile().toPath());
-//        return RocksDB.open(options, dir.getAbsolutePath());
+    private ColumnFamilyOptions newColumnFamilyOptions() {
+        ColumnFamilyOptions options = new ColumnFamilyOptions();
+        cfOptions.add(options);
+        return options;
+    }
 
-//        db = RocksDB.open(options, dbDir, cfDescriptors, cfHandles);
+    private Filter newBloomFilter() {
+        // full filters rather than the block based ones
+        Filter filter = new BloomFilter(BLOOM_BITS_PER_KEY, false);
+        filters.add(filter);
+        return filter;
     }
 
-    public void close() {
+    public synchronized void close() {
         if (!open) {
             return;
         }
 
         open = false;
-        //closeOpenIterators();
-        options.close();
-        wOptions.close();
-        fOptions.close();
+        closeOpenIterators();
 
         for (ColumnFamilyHandle cfHandle : cfHandles.values()) {
             cfHandle.close();
         }
-
         db.close();
 
-        options = null;
+        for (ColumnFamilyOptions options : cfOptions) {
+            options.close();
+        }
+        for (Filter filter : filters) {
+            filter.close();
+        }
+        blockCache.close();
+        dbOptions.close();
+        totalOrderReadOptions.close();
+        wOptions.close();
+        fOptions.close();
+
+        dbOptions = null;
+        blockCache = null;
+        cfOptions = null;
+        filters = null;
+        totalOrderReadOptions = null;
         wOptions = null;
         fOptions = null;
         cfHandles = null;
+        positions = null;
         db = null;
     }
 
@@ -230,28 +312,15 @@ public class RocksdbStorageEngine implements StorageEngine {
         return value < 0;
     }
 
-//    private void validateStoreOpen() {
-//        if (!open) {
-//            throw new InvalidStateStoreException("Store " + this.name + " is currently closed");
-//        }
-//    }
-//
-//    @Override
-//    public boolean isOpen() {
-//        return open;
-//    }
-
-//    @Override
-//    public synchronized KeyValueIterator<Bytes, byte[]> all() {
-//        validateStoreOpen();
-//        // query rocksdb
-//        final RocksIterator innerIter = db.newIterator();
-//        innerIter.seekToFirst();
-//        final RocksDbIterator rocksDbIterator = new RocksDbIterator(name, innerIter);
-//        openIterators.add(rocksDbIterator);
-//        return rocksDbIterator;
-//    }
+    private void validateStoreOpen() {
+        if (!open) {
+            throw new InvalidStoreException("Store " + this.name + " is currently closed");
+        }
+    }
 
+    public boolean isOpen() {
+        return open;
+    }
 
 //    public synchronized KeyValue<Bytes, byte[]> first() {
 //        validateStoreOpen();
@@ -275,62 +344,39 @@ public class RocksdbStorageEngine implements StorageEngine {
 //        return pair;
 //    }
 
-//    /**
-//     * Return an approximate count of key-value mappings in this store.
-//     *
-//     * <code>RocksDB</code> cannot return an exact entry count without doing a
-//     * full scan, so this method relies on the <code>rocksdb.estimate-num-keys</code>
-//     * property to get an approximate count. The returned size also includes
-//     * a count of dirty keys in the store's in-memory cache, which may lead to some
-//     * double-counting of entries and inflate the estimate.
-//     *
-//     * @return an approximate count of key-value mappings in the store.
-//     */
-//    @Override
-//    public long approximateNumEntries() {
-//        validateStoreOpen();
-//        final long value;
-//        try {
-//            value = this.db.getLongProperty("rocksdb.estimate-num-keys");
-//        } catch (final RocksDBException e) {
-//            throw new ProcessorStateException("Error fetching property from store " + this.name, e);
-//        }
-//        if (isOverflowing(value)) {
-//            return Long.MAX_VALUE;
-//        }
-//        return value;
-//    }
-
-//    @Override
-//    public synchronized void flush() {
-//        if (db == null) {
-//            return;
-//        }
-//        // flush RocksDB
-//        flushInternal();
-//    }
-
+    public synchronized void flush() {
+        if (db == null) {
+            return;
+        }
+        // flush RocksDB
+        flushInternal();
+    }
 
-//    /**
-//     * @throws ProcessorStateException if flushing failed because of any internal store exceptions
-//     */
-//    private void flushInternal() {
-//        try {
-//            db.flush(fOptions);
-//        } catch (final RocksDBException e) {
-//            throw new ProcessorStateException("Error while executing flush from store " + this.name, e);
-//        }
-//    }
+    /**
+     * @throws ProcessorStateException if flushing failed because of any internal store exceptions
+     */
+    private void flushInternal() {
+        try {
+            for (ColumnFamilyHandle cfHandle : cfHandles.values()) {
+                db.flush(fOptions, cfHandle);
+            }
+        } catch (final RocksDBException e) {
+            throw new ProcessorStateException("Error while executing flush from store " + this.name, e);
+        }
+    }
 
-//    private void closeOpenIterators() {
-//        final HashSet<KeyValueIterator> iterators;
-//        synchronized (openIterators) {
-//            iterators = new HashSet<>(openIterators);
-//        }
-//        for (final KeyValueIterator iterator : iterators) {
-//            iterator.close();
-//        }
-//    }
+    private void closeOpenIterators() {
+        final HashSet<StoreIterator<byte[], byte[]>> iterators;
+        synchronized (openIterators) {
+            iterators = new HashSet<>(openIterators);
+        }
+        if (iterators.size() != 0) {
+            logger.warn("Closing {} open iterators for store {}", iterators.size(), name);
+        }
+        for (final StoreIterator<byte[], byte[]> iterator : iterators) {
+            iterator.close();
+        }
+    }
 
 
 //    /**
@@ -376,6 +422,418 @@ public class RocksdbStorageEngine implements StorageEngine {
 
     }
 
+    @Override
+    public AppendResult appendToStream(String streamId, int expectedVersion, byte[] message) {
+        return appendToStream(streamId, expectedVersion, Collections.singletonList(message));
+    }
+
+    @Override
+    public AppendResult appendToStream(String streamId, int expectedVersion, List<byte[]> messages) {
+        PendingAppend append = PendingAppend.withRandomIds(streamId, expectedVersion, messages);
+        write(Collections.singletonList(append));
+        return append.join();
+    }
+
+    @Override
+    public AppendResult appendToStream(String streamId, int expectedVersion, NewStreamMessage... messages) {
+        PendingAppend append = new PendingAppend(streamId, expectedVersion, Arrays.asList(messages));
+        write(Collections.singletonList(append));
+        return append.join();
+    }
+
+    /**
+     * Writes all appends that pass their expected version check in a single WriteBatch so they share one WAL sync.
+     * Each message is written to MAIN and to the $all log in TOTAL_ORDERED in the same batch so both are
+     * committed atomically. Retried appends are detected before the expected version check and are completed with
+     * the original result without being written.
+     */
+    @Override
+    public synchronized void write(List<PendingAppend> appends) {
+        validateStoreOpen();
+        ColumnFamilyHandle main = cfHandles.get(KeySpaces.MAIN);
+        ColumnFamilyHandle totalOrdered = cfHandles.get(KeySpaces.TOTAL_ORDERED);
+        ColumnFamilyHandle streamNames = cfHandles.get(KeySpaces.STREAM_NAMES);
+        ColumnFamilyHandle categories = cfHandles.get(KeySpaces.CATEGORIES);
+        ColumnFamilyHandle eventTypes = cfHandles.get(KeySpaces.EVENT_TYPES);
+        // versions of streams already touched by this batch as they aren't visible to reads until the batch is written
+        Map<String, Long> heads = new HashMap<>();
+        List<PendingAppend> written = new ArrayList<>(appends.size());
+        long lastPosition = Position.END;
+        boolean committed = false;
+        try (WriteBatch batch = new WriteBatch()) {
+            for (PendingAppend append : appends) {
+                byte[] hash = writeCodec.hash(append.getStreamId());
+                if (isDuplicate(main, hash, append)) {
+                    // the original may be in this batch so only complete once the batch is committed
+                    written.add(append);
+                    continue;
+                }
+
+                Long head = heads.get(append.getStreamId());
+                long currentVersion = head == null ? currentVersion(main, hash) : head;
+                if (!ExpectedVersion.matches(append.getExpectedVersion(), currentVersion)) {
+                    append.fail(new WrongExpectedVersion(append.getStreamId(), append.getExpectedVersion(), currentVersion));
+                    continue;
+                }
+
+                byte[] streamName = append.getStreamId().getBytes(UTF_8);
+                if (head == null && currentVersion == ExpectedVersion.NO_STRREAM) {
+                    streamNameWriter.add(append.getStreamId(), hash);
+                }
+                String category = SystemStreams.categoryOf(append.getStreamId());
+                byte[] categoryHash = category == null ? null : categoryCodec.hash(category);
+                long position = positions.allocate(append.getMessages().size());
+                for (NewStreamMessage message : append.getMessages()) {
+                    // the batch copies keys and values so the buffers can be reused
+                    byte[] key = writeCodec.key(hash, ++currentVersion);
+                    batch.put(main, key, MessageRecordCodec.encode(position, message.getMessageId(),
+                            MessageRecordCodec.type(message.getType()), message.getData()));
+                    recentMessageIds.record(hash, message.getMessageId(), currentVersion, position);
+                    byte[] entry = PositionCodec.encodeValue(key, streamName);
+                    if (categoryHash != null) {
+                        StreamKeyCodec.encode(categoryHash, position, linkKey, 0);
+                        batch.put(categories, linkKey, entry);
+                    }
+                    if (message.getType() != null) {
+                        StreamKeyCodec.encode(eventTypeCodec.hash(message.getType()), position, linkKey, 0);
+                        batch.put(eventTypes, linkKey, entry);
+                    }
+                    PositionCodec.encode(position++, positionKey, 0);
+                    batch.put(totalOrdered, positionKey, entry);
+                }
+                lastPosition = position - 1;
+                heads.put(append.getStreamId(), currentVersion);
+                append.setResult(currentVersion, lastPosition);
+                written.add(append);
+            }
+            if (!streamNameWriter.isEmpty()) {
+                // the catalogue is written in the same batch as the first appends so the two can't disagree. Blocks are
+                // read from the db as only this writer changes them and each one is only written once per batch
+                streamNameWriter.write(key -> get(streamNames, key), (key, value) -> put(batch, streamNames, key, value));
+            }
+            db.write(wOptions, batch);
+            committed = true;
+            streamNameWriter.committed();
+        } catch (RocksDBException e) {
+            throw new ProcessorStateException("Error while writing batch to store " + name, e);
+        } finally {
+            if (!committed) {
+                streamNameWriter.abort();
+                for (PendingAppend append : written) {
+                    recentMessageIds.invalidate(writeCodec.hash(append.getStreamId()));
+                }
+            }
+        }
+        positions.committed(lastPosition);
+        for (Map.Entry<String, Long> head : heads.entrySet()) {
+            versionCache.put(writeCodec.hash(head.getKey()), head.getValue());
+        }
+
+        for (PendingAppend append : written) {
+            append.complete();
+        }
+    }
+
+    private byte[] get(ColumnFamilyHandle columnFamily, byte[] key) {
+        try {
+            return db.get(columnFamily, key);
+        } catch (RocksDBException e) {
+            throw new ProcessorStateException("Error while getting value for key from store " + name, e);
+        }
+    }
+
+    private void put(WriteBatch batch, ColumnFamilyHandle columnFamily, byte[] key, byte[] value) {
+        try {
+            batch.put(columnFamily, key, value);
+        } catch (RocksDBException e) {
+            throw new ProcessorStateException("Error while writing batch to store " + name, e);
+        }
+    }
+
+    /**
+     * Checks whether the append is a retry of an earlier one and if so sets the original result on the append.
+     * Storage is only read when the filter can't rule the ids out.
+     */
+    private boolean isDuplicate(ColumnFamilyHandle main, byte[] hash, PendingAppend append) {
+        RecentMessageIds.Match match = recentMessageIds.match(hash, append.getMessages());
+        if (match == RecentMessageIds.Match.UNKNOWN) {
+            recentMessageIds.beginStored();
+            try (RocksIterator it = db.newIterator(main)) {
+                it.seekForPrev(writeCodec.key(hash, Long.MAX_VALUE));
+                for (int i = 0; i < recentMessageIds.getWindowSize()
+                        && it.isValid()
+                        && StreamKeyCodec.isStreamKey(it.key(), hash); i++) {
+                    byte[] record = it.value();
+                    recentMessageIds.addStored(MessageRecordCodec.messageIdMostSigBits(record),
+                            MessageRecordCodec.messageIdLeastSigBits(record),
+                            StreamKeyCodec.version(it.key()),
+                            MessageRecordCodec.position(record));
+                    it.prev();
+                }
+            }
+            match = recentMessageIds.matchStored(hash, append.getMessages())
+                    ? RecentMessageIds.Match.DUPLICATE
+                    : RecentMessageIds.Match.NEW;
+        }
+        if (match == RecentMessageIds.Match.DUPLICATE) {
+            append.setDuplicateResult(recentMessageIds.getDuplicateVersion(), recentMessageIds.getDuplicatePosition());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Conflicts are resolved against the version cache and storage is only read when the stream isn't cached
+     */
+    private long currentVersion(ColumnFamilyHandle main, byte[] hash) {
+        long version = versionCache.get(hash);
+        if (version == StreamVersionCache.MISSING) {
+            // nothing in this batch has touched the stream yet so this is the committed version
+            version = readHeadVersion(main, writeCodec, hash);
+            versionCache.put(hash, version);
+        }
+        return version;
+    }
+
+    /**
+     * Seeks to the last key with the stream hash prefix
+     * @return version of the last message in the stream or ExpectedVersion.NO_STRREAM if the stream doesn't exist
+     */
+    private long readHeadVersion(ColumnFamilyHandle main, StreamKeyCodec codec, byte[] hash) {
+        try (RocksIterator it = db.newIterator(main)) {
+            return readHeadVersion(it, codec, hash);
+        }
+    }
+
+    private static long readHeadVersion(RocksIterator it, StreamKeyCodec codec, byte[] hash) {
+        it.seekForPrev(codec.key(hash, Long.MAX_VALUE));
+        if (it.isValid()) {
+            byte[] key = it.key();
+            if (StreamKeyCodec.isStreamKey(key, hash)) {
+                return StreamKeyCodec.version(key);
+            }
+        }
+        return ExpectedVersion.NO_STRREAM;
+    }
+
+    @Override
+    public ReadStreamPage readStreamForwards(String streamId, long fromVersionInclusive, int maxCount, boolean prefetch) {
+        return readStream(streamId, fromVersionInclusive, maxCount, prefetch, ReadDirection.FORWARD);
+    }
+
+    @Override
+    public ReadStreamPage readStreamBackwards(String streamId, long fromVersionInclusive, int maxCount, boolean prefetch) {
+        return readStream(streamId, fromVersionInclusive, maxCount, prefetch, ReadDirection.BACKWARD);
+    }
+
+    /**
+     * Seeks straight to the first version of the page and reads one message past the page to find the next version
+     * so the cost of a page doesn't depend on the length of the stream
+     */
+    private ReadStreamPage readStream(String streamId,
+                                      long fromVersionInclusive,
+                                      int maxCount,
+                                      boolean prefetch,
+                                      ReadDirection direction) {
+        validateStoreOpen();
+        validateMaxCount(maxCount);
+        StreamKeyCodec codec = readCodecs.get();
+        byte[] hash = codec.hash(streamId);
+        try (RocksIterator it = db.newIterator(cfHandles.get(KeySpaces.MAIN))) {
+            long lastVersion = readHeadVersion(it, codec, hash);
+            if (lastVersion == ExpectedVersion.NO_STRREAM) {
+                return new ReadStreamPage(streamId, PageReadStatus.STREAM_NOT_FOUND, fromVersionInclusive,
+                        StreamVersion.END, StreamVersion.END, direction, true, Collections.emptyList());
+            }
+
+            boolean forward = direction == ReadDirection.FORWARD;
+            if (forward) {
+                it.seek(codec.key(hash, Math.max(fromVersionInclusive, StreamVersion.START)));
+            } else if (fromVersionInclusive != StreamVersion.END) {
+                // otherwise the iterator is already on the last message from reading the head version
+                it.seekForPrev(codec.key(hash, fromVersionInclusive));
+            }
+
+            List<StreamMessage> messages = new ArrayList<>(Math.min(maxCount, INITIAL_PAGE_CAPACITY));
+            while (messages.size() < maxCount && it.isValid() && StreamKeyCodec.isStreamKey(it.key(), hash)) {
+                byte[] record = it.value();
+                messages.add(new StreamMessage(streamId,
+                        MessageRecordCodec.messageId(record),
+                        MessageRecordCodec.type(record),
+                        StreamKeyCodec.version(it.key()),
+                        MessageRecordCodec.position(record),
+                        prefetch ? MessageRecordCodec.data(record) : null));
+                if (forward) {
+                    it.next();
+                } else {
+                    it.prev();
+                }
+            }
+
+            boolean isEnd = !(it.isValid() && StreamKeyCodec.isStreamKey(it.key(), hash));
+            long nextVersion;
+            if (!isEnd) {
+                nextVersion = StreamKeyCodec.version(it.key());
+            } else {
+                nextVersion = forward ? lastVersion + 1 : StreamVersion.START;
+            }
+            return new ReadStreamPage(streamId, PageReadStatus.SUCCESS, fromVersionInclusive, nextVersion,
+                    lastVersion, direction, isEnd, messages);
+        }
+    }
+
+    @Override
+    public ReadAllPage readAllForwards(long fromPositionInclusive, int maxCount, boolean prefetch) {
+        return readAll(fromPositionInclusive, maxCount, prefetch, ReadDirection.FORWARD);
+    }
+
+    @Override
+    public ReadAllPage readAllBackwards(long fromPositionInclusive, int maxCount, boolean prefetch) {
+        return readAll(fromPositionInclusive, maxCount, prefetch, ReadDirection.BACKWARD);
+    }
+
+    /**
+     * Pages through TOTAL_ORDERED. Without prefetch everything comes from the $all entry and MAIN is never touched.
+     */
+    private ReadAllPage readAll(long fromPositionInclusive, int maxCount, boolean prefetch, ReadDirection direction) {
+        validateStoreOpen();
+        validateMaxCount(maxCount);
+        ColumnFamilyHandle main = cfHandles.get(KeySpaces.MAIN);
+        boolean forward = direction == ReadDirection.FORWARD;
+        try (RocksIterator it = db.newIterator(cfHandles.get(KeySpaces.TOTAL_ORDERED))) {
+            if (forward) {
+                it.seek(PositionCodec.encode(Math.max(fromPositionInclusive, Position.START)));
+            } else if (fromPositionInclusive == Position.END) {
+                it.seekToLast();
+            } else {
+                it.seekForPrev(PositionCodec.encode(fromPositionInclusive));
+            }
+
+            List<StreamMessage> messages = new ArrayList<>(Math.min(maxCount, INITIAL_PAGE_CAPACITY));
+            while (messages.size() < maxCount && it.isValid()) {
+                messages.add(message(main, it.value(), PositionCodec.decode(it.key()), prefetch));
+                if (forward) {
+                    it.next();
+                } else {
+                    it.prev();
+                }
+            }
+
+            boolean isEnd = !it.isValid();
+            long nextPosition;
+            if (!isEnd) {
+                nextPosition = PositionCodec.decode(it.key());
+            } else if (forward) {
+                nextPosition = messages.isEmpty()
+                        ? Math.max(fromPositionInclusive, Position.START)
+                        : messages.get(messages.size() - 1).getPosition() + 1;
+            } else {
+                nextPosition = Position.START;
+            }
+            return new ReadAllPage(fromPositionInclusive, nextPosition, isEnd, direction, messages);
+        } catch (RocksDBException e) {
+            throw new ProcessorStateException("Error while reading $all from store " + name, e);
+        }
+    }
+
+    @Override
+    public ReadAllPage readCategoryForwards(String category, long fromPositionInclusive, int maxCount, boolean prefetch) {
+        return readLinksForwards(KeySpaces.CATEGORIES, category, fromPositionInclusive, maxCount, prefetch);
+    }
+
+    @Override
+    public ReadAllPage readAllForwards(String eventType, long fromPositionInclusive, int maxCount, boolean prefetch) {
+        return readLinksForwards(KeySpaces.EVENT_TYPES, eventType, fromPositionInclusive, maxCount, prefetch);
+    }
+
+    /**
+     * Pages through the links kept under the hash of an indexed value, each one resolved the same way as an entry
+     * of $all. The links of one value share the hash prefix so the prefix extractor keeps the seek to their files.
+     */
+    private ReadAllPage readLinksForwards(String keySpace,
+                                          String indexed,
+                                          long fromPositionInclusive,
+                                          int maxCount,
+                                          boolean prefetch) {
+        validateStoreOpen();
+        validateMaxCount(maxCount);
+        StreamKeyCodec codec = readCodecs.get();
+        byte[] hash = codec.hash(indexed);
+        long from = Math.max(fromPositionInclusive, Position.START);
+        ColumnFamilyHandle main = cfHandles.get(KeySpaces.MAIN);
+        try (RocksIterator it = db.newIterator(cfHandles.get(keySpace))) {
+            it.seek(codec.key(hash, from));
+            List<StreamMessage> messages = new ArrayList<>(Math.min(maxCount, INITIAL_PAGE_CAPACITY));
+            while (messages.size() < maxCount && it.isValid() && StreamKeyCodec.isStreamKey(it.key(), hash)) {
+                messages.add(message(main, it.value(), StreamKeyCodec.version(it.key()), prefetch));
+                it.next();
+            }
+
+            boolean isEnd = !it.isValid() || !StreamKeyCodec.isStreamKey(it.key(), hash);
+            long nextPosition;
+            if (!isEnd) {
+                nextPosition = StreamKeyCodec.version(it.key());
+            } else {
+                nextPosition = messages.isEmpty() ? from : messages.get(messages.size() - 1).getPosition() + 1;
+            }
+            return new ReadAllPage(fromPositionInclusive, nextPosition, isEnd, ReadDirection.FORWARD, messages);
+        } catch (RocksDBException e) {
+            throw new ProcessorStateException("Error while reading " + keySpace + " from store " + name, e);
+        }
+    }
+
+    /**
+     * @param entry TOTAL_ORDERED value, the MAIN key of the message followed by the stream name
+     */
+    private StreamMessage message(ColumnFamilyHandle main, byte[] entry, long position, boolean prefetch)
+            throws RocksDBException {
+        UUID messageId = null;
+        String type = null;
+        byte[] data = null;
+        if (prefetch) {
+            byte[] record = db.get(main, PositionCodec.mainKey(entry));
+            if (record != null) {
+                messageId = MessageRecordCodec.messageId(record);
+                type = MessageRecordCodec.type(record);
+                data = MessageRecordCodec.data(record);
+            }
+        }
+        return new StreamMessage(PositionCodec.streamId(entry),
+                messageId,
+                type,
+                PositionCodec.streamVersion(entry),
+                position,
+                data);
+    }
+
+    private static void validateMaxCount(int maxCount) {
+        if (maxCount < 1) {
+            throw new IllegalArgumentException("maxCount must be at least 1");
+        }
+    }
+
+    private static boolean hasPrefix(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void deleteStream(String streamId, int expectedVersion) {
+        // TODO: deletes aren't supported yet so this is a no-op
+    }
+
+    @Override
+    public void deleteMessage(String streamId, UUID messageId) {
+        // TODO: deletes aren't supported yet so this is a no-op
+    }
+
     // for scavenging
     public void deleteStreamEvent(String hashedName) {
 
@@ -383,118 +841,263 @@ public class RocksdbStorageEngine implements StorageEngine {
 
     @Override
     public byte[] get(byte[] key) {
-        return new byte[0];
+        validateStoreOpen();
+        try {
+            return db.get(cfHandles.get(KeySpaces.MAIN), key);
+        } catch (final RocksDBException e) {
+            throw new ProcessorStateException("Error while getting value for key from store " + this.name, e);
+        }
+    }
+
+    @Override
+    public synchronized StoreIterator<byte[], byte[]> range(byte[] start, byte[] end) {
+        validateStoreOpen();
+        final RocksIterator innerIter = db.newIterator(cfHandles.get(KeySpaces.MAIN), totalOrderReadOptions);
+        final RocksDbRangeIterator rocksDbIterator = new RocksDbRangeIterator(name, innerIter, start, end);
+        openIterators.add(rocksDbIterator);
+        return rocksDbIterator;
     }
 
+    // This is a prefix search with a count
     @Override
-    public StoreIterator<byte[], byte[]> range(byte[] start, byte[] end) {
-        return null;
+    public synchronized StoreIterator<byte[], byte[]> range(byte[] start, int maxCount) {
+        validateStoreOpen();
+        final RocksIterator innerIter = db.newIterator(cfHandles.get(KeySpaces.MAIN), totalOrderReadOptions);
+        final RocksDbPrefixIterator rocksDbIterator = new RocksDbPrefixIterator(name, innerIter, start, maxCount);
+        openIterators.add(rocksDbIterator);
+        return rocksDbIterator;
     }
 
     @Override
-    public StoreIterator<byte[], byte[]> range(byte[] start, int maxCount) {
-        return null;
+    public synchronized StoreIterator<byte[], byte[]> all() {
+        validateStoreOpen();
+        // query rocksdb
+        final RocksIterator innerIter = db.newIterator(cfHandles.get(KeySpaces.MAIN), totalOrderReadOptions);
+        innerIter.seekToFirst();
+        final RocksDbIterator rocksDbIterator = new RocksDbIterator(name, innerIter);
+        openIterators.add(rocksDbIterator);
+        return rocksDbIterator;
     }
 
     @Override
-    public StoreIterator<byte[], byte[]> all() {
-        return null;
+    public StoreIterator<byte[], byte[]> readAll(long fromPositionInclusive) {
+        validateStoreOpen();
+        final RocksIterator innerIter = db.newIterator(cfHandles.get(KeySpaces.TOTAL_ORDERED), totalOrderReadOptions);
+        innerIter.seek(PositionCodec.encode(fromPositionInclusive));
+        final RocksDbIterator rocksDbIterator = new RocksDbIterator(name, innerIter);
+        openIterators.add(rocksDbIterator);
+        return rocksDbIterator;
     }
 
+    /**
+     * The iterator reads from an implicit snapshot taken when it is created so every seek sees the same catalogue
+     */
+    @Override
+    public List<String> searchStreamNames(String query, int maxCount) {
+        validateStoreOpen();
+        try (RocksIterator it = db.newIterator(cfHandles.get(KeySpaces.STREAM_NAMES))) {
+            return StreamNameIndex.search(new StreamNameIndex.Cursor() {
+                @Override
+                public boolean seek(byte[] key) {
+                    it.seek(key);
+                    return it.isValid();
+                }
+
+                @Override
+                public byte[] key() {
+                    return it.key();
+                }
+
+                @Override
+                public byte[] value() {
+                    return it.value();
+                }
+
+                @Override
+                public void close() {
+                    // closed with the iterator
+                }
+            }, query, maxCount);
+        }
+    }
+
+    @Override
+    public List<KeyValue<byte[], byte[]>> readSubscriptionStates() {
+        validateStoreOpen();
+        List<KeyValue<byte[], byte[]>> states = new ArrayList<>();
+        try (RocksIterator it = db.newIterator(cfHandles.get(KeySpaces.PERSISTENT_SUBSCRIPTIONS))) {
+            for (it.seekToFirst(); it.isValid(); it.next()) {
+                states.add(KeyValue.pair(it.key(), it.value()));
+            }
+        }
+        return states;
+    }
+
+    @Override
+    public synchronized void writeSubscriptionStates(List<KeyValue<byte[], byte[]>> entries) {
+        validateStoreOpen();
+        ColumnFamilyHandle subscriptions = cfHandles.get(KeySpaces.PERSISTENT_SUBSCRIPTIONS);
+        try (WriteBatch batch = new WriteBatch()) {
+            for (KeyValue<byte[], byte[]> entry : entries) {
+                if (entry.value == null) {
+                    batch.delete(subscriptions, entry.key);
+                } else {
+                    batch.put(subscriptions, entry.key, entry.value);
+                }
+            }
+            db.write(wOptions, batch);
+        } catch (RocksDBException e) {
+            throw new ProcessorStateException("Error while writing subscription state to store " + name, e);
+        }
+    }
+
+    @Override
+    public long readHeadPosition() {
+        validateStoreOpen();
+        return positions.headPosition();
+    }
+
+    /**
+     * Return an approximate count of key-value mappings in this store.
+     *
+     * <code>RocksDB</code> cannot return an exact entry count without doing a
+     * full scan, so this method relies on the <code>rocksdb.estimate-num-keys</code>
+     * property to get an approximate count.
+     *
+     * @return an approximate count of key-value mappings in the store.
+     */
     @Override
     public long approximateNumEntries() {
-        return 0;
+        validateStoreOpen();
+        final long value;
+        try {
+            value = this.db.getLongProperty(cfHandles.get(KeySpaces.MAIN), "rocksdb.estimate-num-keys");
+        } catch (final RocksDBException e) {
+            throw new ProcessorStateException("Error fetching property from store " + this.name, e);
+        }
+        if (isOverflowing(value)) {
+            return Long.MAX_VALUE;
+        }
+        return value;
     }
 
 
     // do we really need a custom iterator that wraps RocksIterator?
-//    private class RocksDbIterator implements StoreIterator<Bytes, byte[]> {
-//        private final String storeName;
-//        private final RocksIterator iter;
-//
-//        private volatile boolean open = true;
-//
-//        RocksDbIterator(final String storeName,
-//                        final RocksIterator iter) {
-//            this.iter = iter;
-//            this.storeName = storeName;
-//        }
-//
-//        byte[] peekRawKey() {
-//            return iter.key();
-//        }
-//
-//        private KeyValue<Bytes, byte[]> getKeyValue() {
-//            return new KeyValue<>(new Bytes(iter.key()), iter.value());
-//        }
-//
-//        @Override
-//        public synchronized boolean hasNext() {
-//            if (!open) {
-//                throw new InvalidStateStoreException(String.format("RocksDB store %s has closed", storeName));
-//            }
-//
-//            return iter.isValid();
-//        }
-//
-//        /**
-//         * @throws NoSuchElementException if no next element exist
-//         */
-//        @Override
-//        public synchronized KeyValue<Bytes, byte[]> next() {
-//            if (!hasNext())
-//                throw new NoSuchElementException();
-//
-//            final KeyValue<Bytes, byte[]> entry = this.getKeyValue();
-//            iter.next();
-//            return entry;
-//        }
-//
-//        @Override
-//        public void remove() {
-//            throw new UnsupportedOperationException("RocksDB iterator does not support remove()");
-//        }
-//
-//        @Override
-//        public synchronized void close() {
-//            openIterators.remove(this);
-//            iter.close();
-//            open = false;
-//        }
-//
-//        @Override
-//        public Bytes peekNextKey() {
-//            if (!hasNext()) {
-//                throw new NoSuchElementException();
-//            }
-//            return new Bytes(iter.key());
-//        }
-//    }
-//
-//    private class RocksDBRangeIterator extends RocksDbIterator {
-//        // RocksDB's JNI interface does not expose getters/setters that allow the
-//        // comparator to be pluggable, and the default is lexicographic, so it's
-//        // safe to just force lexicographic comparator here for now.
-//        private final Comparator<byte[]> comparator = Bytes.BYTES_LEXICO_COMPARATOR;
-//        private final byte[] rawToKey;
-//
-//        RocksDBRangeIterator(final String storeName,
-//                             final RocksIterator iter,
-//                             final Bytes from,
-//                             final Bytes to) {
-//            super(storeName, iter);
-//            iter.seek(from.get());
-//            this.rawToKey = to.get();
-//            if (this.rawToKey == null) {
-//                throw new NullPointerException("RocksDBRangeIterator: RawToKey is null for key " + to);
-//            }
-//        }
-//
-//        @Override
-//        public synchronized boolean hasNext() {
-//            return super.hasNext() && comparator.compare(super.peekRawKey(), this.rawToKey) <= 0;
-//        }
-//    }
+    private class RocksDbIterator implements StoreIterator<byte[], byte[]> {
+        private final String storeName;
+        private final RocksIterator iter;
+
+        private volatile boolean open = true;
+
+        RocksDbIterator(final String storeName,
+                        final RocksIterator iter) {
+            this.iter = iter;
+            this.storeName = storeName;
+        }
+
+        byte[] peekRawKey() {
+            return iter.key();
+        }
+
+        private KeyValue<byte[], byte[]> getKeyValue() {
+            return new KeyValue<>(iter.key(), iter.value());
+        }
+
+        @Override
+        public synchronized boolean hasNext() {
+            if (!open) {
+                throw new InvalidStoreException(String.format("RocksDB store %s has closed", storeName));
+            }
+
+            return iter.isValid();
+        }
+
+        /**
+         * @throws NoSuchElementException if no next element exist
+         */
+        @Override
+        public synchronized KeyValue<byte[], byte[]> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            final KeyValue<byte[], byte[]> entry = this.getKeyValue();
+            iter.next();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("RocksDB iterator does not support remove()");
+        }
+
+        @Override
+        public synchronized void close() {
+            openIterators.remove(this);
+            iter.close();
+            open = false;
+        }
+
+        @Override
+        public byte[] peekNextKey() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return iter.key();
+        }
+    }
+
+    private class RocksDbRangeIterator extends RocksDbIterator {
+        // RocksDB's JNI interface does not expose getters/setters that allow the
+        // comparator to be pluggable, and the default is lexicographic, so it's
+        // safe to just force lexicographic comparator here for now.
+        private final java.util.Comparator<byte[]> comparator = UnsignedBytes.lexicographicalComparator();
+        private final byte[] rawToKey;
+
+        RocksDbRangeIterator(final String storeName,
+                             final RocksIterator iter,
+                             final byte[] from,
+                             final byte[] to) {
+            super(storeName, iter);
+            iter.seek(from);
+            this.rawToKey = to;
+            if (this.rawToKey == null) {
+                throw new NullPointerException("RocksDbRangeIterator: RawToKey is null for key " + Arrays.toString(to));
+            }
+        }
+
+        @Override
+        public synchronized boolean hasNext() {
+            return super.hasNext() && comparator.compare(super.peekRawKey(), this.rawToKey) <= 0;
+        }
+    }
+
+    private class RocksDbPrefixIterator extends RocksDbIterator {
+        private final byte[] prefix;
+        private final int maxCount;
+        private int count;
+
+        RocksDbPrefixIterator(final String storeName,
+                              final RocksIterator iter,
+                              final byte[] prefix,
+                              final int maxCount) {
+            super(storeName, iter);
+            iter.seek(prefix);
+            this.prefix = prefix;
+            this.maxCount = maxCount;
+        }
+
+        @Override
+        public synchronized boolean hasNext() {
+            return count < maxCount && super.hasNext() && hasPrefix(super.peekRawKey(), prefix);
+        }
+
+        @Override
+        public synchronized KeyValue<byte[], byte[]> next() {
+            final KeyValue<byte[], byte[]> entry = super.next();
+            count++;
+            return entry;
+        }
+    }
 
 
 
@@ -0,0 +1,229 @@
+package com.ruscello.subscriptions;
+
+import com.ruscello.core.ReadAllPage;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.StreamMessage;
+import com.ruscello.core.messages.client.SubscriptionDropReason;
+import com.ruscello.core.messages.client.SubscriptionDropped;
+import com.ruscello.storage.StorageEngine;
+
+import java.util.List;
+import java.util.UUID;
+
+// https://eventstore.org/docs/dotnet-api/catch-up-subscriptions/index.html
+// https://github.com/SQLStreamStore/SQLStreamStore/blob/master/src/SqlStreamStore/Subscriptions/AllStreamSubscription.cs
+/**
+ * A subscription to $all or to a single stream that pages through the store until it reaches the end and then reads
+ * from the {@link LiveTail} instead.
+ * <p>
+ * Before the last page is read the store's head position is taken. Everything at or before it is in that page and
+ * everything after it goes through the tail, so once the tail is known to still hold every message after the head
+ * the subscription switches over without a gap. Messages already delivered from the page are skipped in the tail by
+ * position ($all) or version (stream) so nothing is delivered twice. If the subscriber falls so far behind that the
+ * tail overwrites messages it hasn't read it goes back to paging from where it got to.
+ * <p>
+ * Driven by a single dispatcher thread, {@link #close()} can be called from any thread.
+ */
+public final class CatchUpSubscription implements AutoCloseable {
+
+    private final UUID subscriptionId = UUID.randomUUID();
+    private final String streamId;
+    private final SubscriptionHandler handler;
+    private final StorageEngine store;
+    private final LiveTail tail;
+    private final int pageSize;
+
+    // next message to deliver, the position for $all subscriptions and the version for stream subscriptions
+    private long nextPosition;
+    private long nextVersion;
+
+    // next tail sequence to read once live
+    private long cursor;
+
+    private volatile boolean live;
+    private volatile boolean closed;
+    private volatile long fellBehindCount;
+
+    CatchUpSubscription(String streamId,
+                        long from,
+                        SubscriptionHandler handler,
+                        StorageEngine store,
+                        LiveTail tail,
+                        int pageSize) {
+        this.streamId = streamId;
+        this.handler = handler;
+        this.store = store;
+        this.tail = tail;
+        this.pageSize = pageSize;
+        if (streamId == null) {
+            this.nextPosition = from;
+        } else {
+            this.nextVersion = from;
+        }
+    }
+
+    public UUID getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    /**
+     * @return the subscribed stream or null for $all
+     */
+    public String getStreamId() {
+        return streamId;
+    }
+
+    public boolean isAll() {
+        return streamId == null;
+    }
+
+    /**
+     * @return true while reading from the live tail rather than the store
+     */
+    public boolean isLive() {
+        return live;
+    }
+
+    /**
+     * @return number of times the subscription fell behind the live tail and went back to paging
+     */
+    public long getFellBehindCount() {
+        return fellBehindCount;
+    }
+
+    /**
+     * Stops the subscription. The handler is told it has been dropped by the dispatcher thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Delivers up to a page of messages
+     * @return the number of messages delivered or handed over, 0 if there was nothing to do
+     */
+    int poll() {
+        return live ? pollLive() : pollStore();
+    }
+
+    private int pollStore() {
+        // anything committed at or before the head is in the page read after it
+        long headPosition = store.readHeadPosition();
+        List<StreamMessage> messages;
+        boolean isEnd;
+        if (isAll()) {
+            ReadAllPage page = store.readAllForwards(nextPosition, pageSize, true);
+            messages = page.getMessages();
+            isEnd = page.isEnd();
+        } else {
+            ReadStreamPage page = store.readStreamForwards(streamId, nextVersion, pageSize, true);
+            messages = page.getMessages();
+            isEnd = page.isEnd();
+        }
+        int delivered = 0;
+        for (StreamMessage message : messages) {
+            if (closed) {
+                return delivered;
+            }
+            deliver(message);
+            delivered++;
+        }
+        if (isEnd && goLive(Math.max(headPosition, nextPosition - 1))) {
+            try {
+                handler.onCaughtUp(this);
+            } catch (RuntimeException e) {
+                throw new SubscriberException(e);
+            }
+            return delivered + 1;
+        }
+        return delivered;
+    }
+
+    /**
+     * @param readThrough every message at or before this position has been delivered or is not wanted
+     */
+    private boolean goLive(long readThrough) {
+        long head = tail.head();
+        long oldest = tail.oldest(head);
+        // positions increase with sequence so if nothing after readThrough has been evicted by now it is all still
+        // in the tail at or after oldest, or hasn't reached the tail yet
+        if (tail.evictedPosition() > readThrough) {
+            return false;
+        }
+        cursor = oldest;
+        live = true;
+        return true;
+    }
+
+    private int pollLive() {
+        long head = tail.head();
+        int delivered = 0;
+        while (cursor < head && delivered < pageSize && !closed) {
+            StreamMessage message = tail.get(cursor);
+            if (message == null) {
+                fellBehind();
+                return delivered;
+            }
+            cursor++;
+            if (isAll()) {
+                if (message.getPosition() >= nextPosition) {
+                    deliver(message);
+                    delivered++;
+                }
+            } else if (streamId.equals(message.getStreamId()) && message.getStreamVersion() >= nextVersion) {
+                deliver(message);
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+
+    private void fellBehind() {
+        live = false;
+        fellBehindCount++;
+    }
+
+    private void deliver(StreamMessage message) {
+        try {
+            handler.onMessage(this, message);
+        } catch (RuntimeException e) {
+            throw new SubscriberException(e);
+        }
+        if (isAll()) {
+            nextPosition = message.getPosition() + 1;
+        } else {
+            nextVersion = message.getStreamVersion() + 1;
+        }
+    }
+
+    void drop(SubscriptionDropReason reason, Throwable cause) {
+        live = false;
+        closed = true;
+        handler.onDropped(this, new SubscriptionDropped(subscriptionId, reason, cause));
+    }
+
+    @Override
+    public String toString() {
+        return "CatchUpSubscription{subscriptionId=" + subscriptionId
+                + ", stream=" + (isAll() ? "$all" : streamId)
+                + ", next=" + (isAll() ? nextPosition : nextVersion)
+                + ", live=" + live + "}";
+    }
+
+    /**
+     * Wraps anything thrown by the handler so it isn't mistaken for a failure to read the store
+     */
+    static final class SubscriberException extends RuntimeException {
+
+        private final static long serialVersionUID = 1L;
+
+        SubscriberException(RuntimeException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.ruscello.subscriptions;
+
+import com.ruscello.core.Position;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.StreamVersion;
+import com.ruscello.core.messages.client.SubscriptionDropReason;
+import com.ruscello.storage.InvalidStoreException;
+import com.ruscello.write.WritePipeline;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs catch-up subscriptions to $all and to single streams for any number of subscribers on a few dispatcher
+ * threads. Subscribers read history from the store a page at a time and then share a single {@link LiveTail} fed by
+ * the {@link WritePipeline}, so caught up subscribers don't read the store at all.
+ * <p>
+ * Every append has to go through the pipeline for subscribers to see it live, appends made directly against the
+ * engine are only seen by subscribers that are still paging.
+ */
+public class CatchUpSubscriptionService implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CatchUpSubscriptionService.class);
+
+    public static final int DEFAULT_TAIL_CAPACITY = 65_536;
+    public static final int DEFAULT_PAGE_SIZE = 512;
+    public static final int DEFAULT_DISPATCHERS = 2;
+
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final WritePipeline pipeline;
+    private final LiveTail tail;
+    private final int pageSize;
+    private final Dispatcher[] dispatchers;
+    private final AtomicInteger nextDispatcher = new AtomicInteger();
+
+    private volatile boolean running;
+
+    public CatchUpSubscriptionService(WritePipeline pipeline) {
+        this(pipeline, DEFAULT_TAIL_CAPACITY, DEFAULT_PAGE_SIZE, DEFAULT_DISPATCHERS);
+    }
+
+    /**
+     * @param tailCapacity number of recent messages kept for live subscribers, must be a power of 2. Subscribers
+     *                     more than this many messages behind go back to reading the store
+     * @param pageSize most messages read from the store or delivered from the tail in one go per subscriber
+     * @param dispatchers number of threads subscribers are spread over
+     */
+    public CatchUpSubscriptionService(WritePipeline pipeline, int tailCapacity, int pageSize, int dispatchers) {
+        if (pageSize < 1 || dispatchers < 1) {
+            throw new IllegalArgumentException("pageSize and dispatchers must be at least 1");
+        }
+        this.pipeline = pipeline;
+        this.tail = new LiveTail(tailCapacity);
+        this.pageSize = pageSize;
+        this.dispatchers = new Dispatcher[dispatchers];
+        for (int i = 0; i < dispatchers; i++) {
+            this.dispatchers[i] = new Dispatcher("ruscello-subscriptions-" + i);
+        }
+    }
+
+    /**
+     * Starts following the pipeline. Must be started before anything is appended that live subscribers should see.
+     */
+    public void start() {
+        running = true;
+        pipeline.subscribe(tail);
+        for (Dispatcher dispatcher : dispatchers) {
+            dispatcher.thread.start();
+        }
+    }
+
+    /**
+     * Stops the dispatchers and drops every open subscription
+     */
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Dispatcher dispatcher : dispatchers) {
+            try {
+                dispatcher.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        pipeline.unsubscribe(tail);
+        for (Dispatcher dispatcher : dispatchers) {
+            for (CatchUpSubscription subscription : dispatcher.subscriptions) {
+                drop(subscription, SubscriptionDropReason.SHUTDOWN, null);
+            }
+        }
+    }
+
+    /**
+     * @param fromPositionInclusive first position to deliver, Position.START for everything or Position.END for only
+     *                              messages appended from now on
+     */
+    public CatchUpSubscription subscribeToAll(long fromPositionInclusive, SubscriptionHandler handler) {
+        long from = fromPositionInclusive == Position.END
+                ? pipeline.readHeadPosition() + 1
+                : Math.max(fromPositionInclusive, Position.START);
+        return add(new CatchUpSubscription(null, from, handler, pipeline, tail, pageSize));
+    }
+
+    /**
+     * @param fromVersionInclusive first version to deliver, StreamVersion.START for everything or StreamVersion.END
+     *                             for only messages appended from now on. The stream doesn't need to exist yet
+     */
+    public CatchUpSubscription subscribeToStream(String streamId, long fromVersionInclusive, SubscriptionHandler handler) {
+        if (streamId == null) {
+            throw new IllegalArgumentException("streamId");
+        }
+        long from;
+        if (fromVersionInclusive == StreamVersion.END) {
+            ReadStreamPage last = pipeline.readStreamBackwards(streamId, StreamVersion.END, 1, false);
+            // a missing stream has a last version of END so starts at START
+            from = last.getLastStreamVersion() + 1;
+        } else {
+            from = Math.max(fromVersionInclusive, StreamVersion.START);
+        }
+        return add(new CatchUpSubscription(streamId, from, handler, pipeline, tail, pageSize));
+    }
+
+    private CatchUpSubscription add(CatchUpSubscription subscription) {
+        if (!running) {
+            throw new InvalidStoreException("Subscription service is not running");
+        }
+        int index = Math.floorMod(nextDispatcher.getAndIncrement(), dispatchers.length);
+        dispatchers[index].add(subscription);
+        return subscription;
+    }
+
+    private static void drop(CatchUpSubscription subscription, SubscriptionDropReason reason, Throwable cause) {
+        try {
+            subscription.drop(reason, cause);
+        } catch (RuntimeException e) {
+            LOG.error("Drop handler of {} failed", subscription, e);
+        }
+    }
+
+    /**
+     * Polls its subscriptions round robin, a page each, and idles when none of them had anything to do. Subscriptions
+     * are kept in an array that is copied on change so the loop is a plain array walk.
+     */
+    private final class Dispatcher {
+        private final Thread thread;
+        private volatile CatchUpSubscription[] subscriptions = new CatchUpSubscription[0];
+
+        Dispatcher(String name) {
+            this.thread = new Thread(this::run, name);
+            this.thread.setDaemon(true);
+        }
+
+        synchronized void add(CatchUpSubscription subscription) {
+            CatchUpSubscription[] current = subscriptions;
+            CatchUpSubscription[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = subscription;
+            subscriptions = updated;
+        }
+
+        synchronized void remove(CatchUpSubscription subscription) {
+            CatchUpSubscription[] current = subscriptions;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == subscription) {
+                    CatchUpSubscription[] updated = new CatchUpSubscription[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    subscriptions = updated;
+                    return;
+                }
+            }
+        }
+
+        private void run() {
+            IdleStrategy idle = new BackoffIdleStrategy(100, 10, 1, MAX_IDLE_NANOS);
+            while (running) {
+                int work = 0;
+                for (CatchUpSubscription subscription : subscriptions) {
+                    work += poll(subscription);
+                }
+                idle.idle(work);
+            }
+        }
+
+        private int poll(CatchUpSubscription subscription) {
+            if (subscription.isClosed()) {
+                remove(subscription);
+                drop(subscription, SubscriptionDropReason.UNSUBSCRIBED, null);
+                return 1;
+            }
+            try {
+                return subscription.poll();
+            } catch (CatchUpSubscription.SubscriberException e) {
+                remove(subscription);
+                drop(subscription, SubscriptionDropReason.SUBSCRIBER_ERROR, e.getCause());
+            } catch (RuntimeException e) {
+                LOG.error("Reading {} from the store failed", subscription, e);
+                remove(subscription);
+                drop(subscription, SubscriptionDropReason.STORE_ERROR, e);
+            }
+            return 1;
+        }
+    }
+}
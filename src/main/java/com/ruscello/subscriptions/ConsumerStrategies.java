@@ -0,0 +1,71 @@
+package com.ruscello.subscriptions;
+
+import com.ruscello.core.StreamMessage;
+import com.ruscello.hashing.MurmurHash3;
+
+/**
+ * From EventStore's SystemConsumerStrategies. Picks which consumer of a group a message is pushed to.
+ */
+final class ConsumerStrategies {
+
+    static final String ROUND_ROBIN = "RoundRobin";
+    static final String PINNED = "Pinned";
+
+    private ConsumerStrategies() {
+        // statics only
+    }
+
+    interface ConsumerStrategy {
+        /**
+         * @return the consumer to push the message to or null if it has to wait for one to have room
+         */
+        PersistentSubscriptionConnection choose(PersistentSubscriptionConnection[] connections, StreamMessage message);
+    }
+
+    static ConsumerStrategy named(String name) {
+        if (name == null || ROUND_ROBIN.equals(name)) {
+            return new RoundRobin();
+        }
+        if (PINNED.equals(name)) {
+            return new Pinned();
+        }
+        throw new IllegalArgumentException("Unknown consumer strategy " + name);
+    }
+
+    /**
+     * Each message goes to the next consumer with room after the one that got the last message
+     */
+    static final class RoundRobin implements ConsumerStrategy {
+        private int next;
+
+        @Override
+        public PersistentSubscriptionConnection choose(PersistentSubscriptionConnection[] connections,
+                                                       StreamMessage message) {
+            for (int i = 0; i < connections.length; i++) {
+                int index = (next + i) % connections.length;
+                if (connections[index].hasCapacity()) {
+                    next = index + 1;
+                    return connections[index];
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Every message of a stream goes to the same consumer, chosen by the hash of the stream name, so consumers see
+     * a stream's messages in order. Messages wait while that consumer is full.
+     */
+    static final class Pinned implements ConsumerStrategy {
+        @Override
+        public PersistentSubscriptionConnection choose(PersistentSubscriptionConnection[] connections,
+                                                       StreamMessage message) {
+            if (connections.length == 0) {
+                return null;
+            }
+            int hash = (int) MurmurHash3.fmix64(message.getStreamId().hashCode());
+            PersistentSubscriptionConnection connection = connections[Math.floorMod(hash, connections.length)];
+            return connection.hasCapacity() ? connection : null;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.ruscello.subscriptions;
+
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.Position;
+import com.ruscello.core.StreamMessage;
+import com.ruscello.write.CommittedAppendListener;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ring of the most recently committed messages in $all order, written by the fan-out thread of the
+ * {@link com.ruscello.write.WritePipeline} and read by any number of subscriptions without locking.
+ * <p>
+ * Messages are numbered by a sequence that counts every message added. The writer never waits for readers, it
+ * overwrites the oldest message once the ring is full, and a reader that finds the message it wanted has been
+ * overwritten has fallen behind and has to go back to reading the store.
+ */
+final class LiveTail implements CommittedAppendListener {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<StreamMessage> messages;
+
+    // sequence of the next message to be added, set after the message is in place
+    private final AtomicLong head = new AtomicLong();
+
+    // position of the newest message that has been overwritten
+    private volatile long evictedPosition = Position.END;
+
+    LiveTail(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of 2");
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.messages = new AtomicReferenceArray<>(capacity);
+    }
+
+    @Override
+    public void onCommitted(String streamId, long firstVersion, long firstPosition, List<NewStreamMessage> appended) {
+        // single writer so head can be read and moved without a CAS
+        long sequence = head.get();
+        for (int i = 0; i < appended.size(); i++) {
+            NewStreamMessage message = appended.get(i);
+            int index = (int) (sequence & mask);
+            if (sequence >= capacity) {
+                evictedPosition = messages.get(index).getPosition();
+            }
+            messages.set(index, new StreamMessage(streamId,
+                    message.getMessageId(),
+                    message.getType(),
+                    firstVersion + i,
+                    firstPosition + i,
+                    message.getData()));
+            head.lazySet(++sequence);
+        }
+    }
+
+    /**
+     * @return sequence of the next message to be added, every sequence below it has been added
+     */
+    long head() {
+        return head.get();
+    }
+
+    /**
+     * @return the oldest sequence that can still be read given a head read earlier
+     */
+    long oldest(long head) {
+        return Math.max(0, head - capacity + 1);
+    }
+
+    /**
+     * @return position of the newest message that has been overwritten, Position.END if none have been
+     */
+    long evictedPosition() {
+        return evictedPosition;
+    }
+
+    /**
+     * @param sequence a sequence below {@link #head()}
+     * @return the message or null if it has been, or might be being, overwritten
+     */
+    StreamMessage get(long sequence) {
+        StreamMessage message = messages.get((int) (sequence & mask));
+        // the slot is only overwritten once head has reached sequence + capacity, checking after the read means a
+        // message that was replaced while we read it is never returned
+        if (head.get() - sequence >= capacity) {
+            return null;
+        }
+        return message;
+    }
+}
@@ -0,0 +1,16 @@
+package com.ruscello.subscriptions;
+
+/**
+ * From EventStore's PersistentSubscriptionNakEventAction. What to do with a message a consumer couldn't handle.
+ */
+public enum NakAction {
+
+    /** park the message straight away, it can be replayed later */
+    PARK,
+    /** send the message again, counts towards the max retry count */
+    RETRY,
+    /** treat the message as handled */
+    SKIP,
+    /** retry the message and disconnect the consumer */
+    STOP
+}
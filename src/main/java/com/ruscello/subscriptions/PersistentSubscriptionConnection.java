@@ -0,0 +1,81 @@
+package com.ruscello.subscriptions;
+
+import com.ruscello.core.StreamMessage;
+
+import java.util.UUID;
+
+/**
+ * A consumer connected to a persistent subscription group. Acks and nacks can be sent from any thread, they are
+ * queued and applied by the dispatcher.
+ */
+public final class PersistentSubscriptionConnection implements AutoCloseable {
+
+    private final UUID connectionId;
+    private final PersistentSubscriptionGroup group;
+    private final PersistentSubscriptionHandler handler;
+    private final int allowedInFlightMessages;
+
+    // only touched by the dispatcher
+    int inFlight;
+
+    private volatile boolean closed;
+
+    PersistentSubscriptionConnection(UUID connectionId,
+                                     PersistentSubscriptionGroup group,
+                                     PersistentSubscriptionHandler handler,
+                                     int allowedInFlightMessages) {
+        this.connectionId = connectionId;
+        this.group = group;
+        this.handler = handler;
+        this.allowedInFlightMessages = allowedInFlightMessages;
+    }
+
+    public UUID getConnectionId() {
+        return connectionId;
+    }
+
+    public String getGroupName() {
+        return group.getGroupName();
+    }
+
+    public String getStreamId() {
+        return group.getStreamId();
+    }
+
+    public void ack(StreamMessage message) {
+        group.acknowledge(this, message, null);
+    }
+
+    public void nack(NakAction action, StreamMessage message) {
+        if (action == null) {
+            throw new IllegalArgumentException("action");
+        }
+        group.acknowledge(this, message, action);
+    }
+
+    /**
+     * Disconnects the consumer. Messages it hasn't acked are sent to the other consumers.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    PersistentSubscriptionHandler handler() {
+        return handler;
+    }
+
+    boolean hasCapacity() {
+        return !closed && inFlight < allowedInFlightMessages;
+    }
+
+    @Override
+    public String toString() {
+        return "PersistentSubscriptionConnection{connectionId=" + connectionId + ", group=" + group.getGroupName()
+                + ", stream=" + group.getStreamId() + "}";
+    }
+}
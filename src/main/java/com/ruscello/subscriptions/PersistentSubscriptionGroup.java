@@ -0,0 +1,547 @@
+package com.ruscello.subscriptions;
+
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.PageReadStatus;
+import com.ruscello.core.Position;
+import com.ruscello.core.ReadAllPage;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.StreamMessage;
+import com.ruscello.core.StreamVersion;
+import com.ruscello.core.SystemStreams;
+import com.ruscello.core.messages.client.ConnectToPersistentSubscription;
+import com.ruscello.core.messages.client.CreatePersistentSubscription;
+import com.ruscello.core.messages.client.SubscriptionDropReason;
+import com.ruscello.core.messages.client.SubscriptionDropped;
+import com.ruscello.storage.KeyValue;
+import com.ruscello.storage.StorageEngine;
+import org.agrona.collections.Long2LongHashMap;
+import org.agrona.concurrent.ManyToOneConcurrentLinkedQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A persistent subscription group: one position in a stream, or in $all, shared by competing consumers.
+ * <p>
+ * Messages read from the store go into a window of slots indexed by a group sequence, sequence & mask, with the
+ * state, retry count and ack deadline of each slot kept in primitive arrays. The window runs from the oldest message
+ * that hasn't been handled to the newest read, so reading stops once it holds live buffer size messages. Acks look
+ * the slot up by the message's version (or position for $all) in a primitive map. When the oldest messages are
+ * handled the window moves on and the checkpoint becomes the last of them.
+ * <p>
+ * Messages that aren't acked in time or are nacked are retried, and after max retry count they are parked in the
+ * group's parked stream where they can be replayed from.
+ * <p>
+ * Everything except {@link #connect} and {@link #acknowledge} runs on the service's dispatcher thread.
+ */
+final class PersistentSubscriptionGroup {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PersistentSubscriptionGroup.class);
+
+    private static final byte EMPTY = 0;
+    private static final byte READY = 1;
+    private static final byte IN_FLIGHT = 2;
+    private static final byte DONE = 3;
+
+    private static final long NO_HEAD = Long.MIN_VALUE;
+    private static final long TIMEOUT_CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final PersistentSubscriptionConnection[] NONE = new PersistentSubscriptionConnection[0];
+
+    private final CreatePersistentSubscription settings;
+    private final String groupKey;
+    private final String parkedStreamId;
+    private final boolean all;
+    private final StorageEngine store;
+    private final ConsumerStrategies.ConsumerStrategy strategy;
+    private final long messageTimeoutNanos;
+    private final long checkPointAfterNanos;
+
+    // the window, indexed by sequence & mask
+    private final int capacity;
+    private final int mask;
+    private final StreamMessage[] messages;
+    private final byte[] states;
+    private final int[] retryCounts;
+    private final long[] deadlines;
+    private final boolean[] replayed;
+    private final PersistentSubscriptionConnection[] deliveredTo;
+
+    // oldest message not yet handled, next message never pushed and next free slot
+    private long low;
+    private long pushed;
+    private long high;
+
+    // sequences of messages to push again, a ring as each sequence is in it at most once
+    private final long[] retries;
+    private long retryHead;
+    private long retryTail;
+
+    // event number (version, or position for $all) to sequence of every message that has been pushed
+    private final Long2LongHashMap sequences = new Long2LongHashMap(-1);
+
+    // next version or position to read, and the head position when the last read came back short
+    private long nextEventNumber;
+    private long emptyReadHead = NO_HEAD;
+
+    // next version of the parked stream to replay, and the last to replay
+    private long nextParkedVersion;
+    private long replayThrough = StreamVersion.END;
+    private long persistedParkedVersion;
+
+    private long checkpoint;
+    private long persistedCheckpoint;
+    private long pendingCheckpoint = NO_HEAD;
+    private long pendingParkedVersion = NO_HEAD;
+    private int handledSinceCheckpoint;
+    private long lastCheckpointNanos;
+    private long nextTimeoutCheckNanos;
+
+    private final ManyToOneConcurrentLinkedQueue<Acknowledgement> acknowledgements = new ManyToOneConcurrentLinkedQueue<>();
+    private volatile PersistentSubscriptionConnection[] connections = NONE;
+    private volatile boolean replayRequested;
+    private volatile boolean deleted;
+
+    /**
+     * @param checkpoint last version or position handled, or -1 to start from the settings' start from
+     * @param parkedVersion next version of the parked stream to replay
+     */
+    PersistentSubscriptionGroup(CreatePersistentSubscription settings,
+                                StorageEngine store,
+                                long checkpoint,
+                                long parkedVersion,
+                                long nowNanos) {
+        this.settings = settings;
+        this.groupKey = PersistentSubscriptionState.groupKey(settings.getEventStreamId(), settings.getGroupName());
+        this.parkedStreamId = PersistentSubscriptionState.parkedStreamId(groupKey);
+        this.all = SystemStreams.ALL_STREAM.equals(settings.getEventStreamId());
+        this.store = store;
+        this.strategy = ConsumerStrategies.named(settings.getNamedConsumerStrategy());
+        this.messageTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(settings.getMessageTimeoutMilliseconds());
+        this.checkPointAfterNanos = TimeUnit.MILLISECONDS.toNanos(settings.getCheckPointAfterMilliseconds());
+
+        this.capacity = Integer.highestOneBit(Math.max(1, settings.getLiveBufferSize() - 1)) << 1;
+        this.mask = capacity - 1;
+        this.messages = new StreamMessage[capacity];
+        this.states = new byte[capacity];
+        this.retryCounts = new int[capacity];
+        this.deadlines = new long[capacity];
+        this.replayed = new boolean[capacity];
+        this.deliveredTo = new PersistentSubscriptionConnection[capacity];
+        this.retries = new long[capacity];
+
+        this.checkpoint = checkpoint;
+        this.persistedCheckpoint = checkpoint;
+        this.nextEventNumber = checkpoint >= 0 ? checkpoint + 1 : startFrom(settings.getStartFrom());
+        this.nextParkedVersion = parkedVersion;
+        this.persistedParkedVersion = parkedVersion;
+        this.lastCheckpointNanos = nowNanos;
+    }
+
+    private long startFrom(long startFrom) {
+        if (startFrom >= 0) {
+            return startFrom;
+        }
+        if (all) {
+            return store.readHeadPosition() + 1;
+        }
+        // a missing stream has a last version of END so starts at START
+        return store.readStreamBackwards(settings.getEventStreamId(), StreamVersion.END, 1, false)
+                .getLastStreamVersion() + 1;
+    }
+
+    String getGroupName() {
+        return settings.getGroupName();
+    }
+
+    String getStreamId() {
+        return settings.getEventStreamId();
+    }
+
+    String getGroupKey() {
+        return groupKey;
+    }
+
+    String getParkedStreamId() {
+        return parkedStreamId;
+    }
+
+    CreatePersistentSubscription getSettings() {
+        return settings;
+    }
+
+    long getCheckpoint() {
+        return checkpoint;
+    }
+
+    boolean isDeleted() {
+        return deleted;
+    }
+
+    void delete() {
+        deleted = true;
+    }
+
+    synchronized PersistentSubscriptionConnection connect(ConnectToPersistentSubscription connect,
+                                                          PersistentSubscriptionHandler handler) {
+        if (deleted) {
+            throw new IllegalStateException("Persistent subscription " + groupKey + " has been deleted");
+        }
+        PersistentSubscriptionConnection[] current = connections;
+        if (settings.getMaxSubscriberCount() > 0 && current.length >= settings.getMaxSubscriberCount()) {
+            throw new IllegalStateException("Persistent subscription " + groupKey + " already has "
+                    + current.length + " subscribers");
+        }
+        PersistentSubscriptionConnection connection = new PersistentSubscriptionConnection(connect.getConnectionId(),
+                this, handler, connect.getAllowedInFlightMessages());
+        PersistentSubscriptionConnection[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = connection;
+        connections = updated;
+        return connection;
+    }
+
+    private synchronized void remove(PersistentSubscriptionConnection connection) {
+        PersistentSubscriptionConnection[] current = connections;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == connection) {
+                PersistentSubscriptionConnection[] updated = new PersistentSubscriptionConnection[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                connections = updated;
+                return;
+            }
+        }
+    }
+
+    void acknowledge(PersistentSubscriptionConnection connection, StreamMessage message, NakAction action) {
+        acknowledgements.offer(new Acknowledgement(connection, eventNumber(message), action));
+    }
+
+    /**
+     * Replays everything parked so far, in parked order, ahead of new messages
+     */
+    void replayParkedMessages() {
+        replayRequested = true;
+    }
+
+    /**
+     * @return the amount of work done, 0 if there was nothing to do
+     */
+    int poll(long nowNanos) {
+        int work = applyAcknowledgements();
+        work += removeClosedConnections();
+        if (nowNanos - nextTimeoutCheckNanos >= 0) {
+            work += retryTimedOut(nowNanos);
+            nextTimeoutCheckNanos = nowNanos + TIMEOUT_CHECK_INTERVAL_NANOS;
+        }
+        if (replayRequested) {
+            replayRequested = false;
+            replayThrough = store.readStreamBackwards(parkedStreamId, StreamVersion.END, 1, false)
+                    .getLastStreamVersion();
+        }
+        work += nextParkedVersion <= replayThrough ? readParked() : read();
+        work += push(nowNanos);
+        return work;
+    }
+
+    /**
+     * Drops every consumer, used when the group is deleted or the service stops
+     */
+    void dropAll(SubscriptionDropReason reason) {
+        for (PersistentSubscriptionConnection connection : connections) {
+            connection.close();
+            remove(connection);
+            drop(connection, reason, null);
+        }
+    }
+
+    /**
+     * Adds the group's checkpoint to the batch if it is due, and how far parked messages have been replayed if that
+     * has moved
+     * @param force write the checkpoint even if the thresholds haven't been reached
+     * @return true if anything was added
+     */
+    boolean collectCheckpoint(long nowNanos, boolean force, List<KeyValue<byte[], byte[]>> entries) {
+        pendingCheckpoint = NO_HEAD;
+        pendingParkedVersion = NO_HEAD;
+        if (checkpoint != persistedCheckpoint) {
+            boolean due = force
+                    || handledSinceCheckpoint >= settings.getMaxCheckPointCount()
+                    || (handledSinceCheckpoint >= settings.getMinCheckPointCount()
+                        && nowNanos - lastCheckpointNanos >= checkPointAfterNanos);
+            if (due) {
+                pendingCheckpoint = checkpoint;
+                entries.add(PersistentSubscriptionState.longEntry(PersistentSubscriptionState.CHECKPOINT, groupKey,
+                        checkpoint));
+            }
+        }
+        if (nextParkedVersion != persistedParkedVersion) {
+            pendingParkedVersion = nextParkedVersion;
+            entries.add(PersistentSubscriptionState.longEntry(PersistentSubscriptionState.PARKED, groupKey,
+                    nextParkedVersion));
+        }
+        return pendingCheckpoint != NO_HEAD || pendingParkedVersion != NO_HEAD;
+    }
+
+    /**
+     * Called once the batch from {@link #collectCheckpoint} has been written
+     */
+    void checkpointWritten(long nowNanos) {
+        if (pendingCheckpoint != NO_HEAD) {
+            persistedCheckpoint = pendingCheckpoint;
+            handledSinceCheckpoint = 0;
+            lastCheckpointNanos = nowNanos;
+        }
+        if (pendingParkedVersion != NO_HEAD) {
+            persistedParkedVersion = pendingParkedVersion;
+        }
+    }
+
+    private int applyAcknowledgements() {
+        int applied = 0;
+        Acknowledgement acknowledgement;
+        while ((acknowledgement = acknowledgements.poll()) != null) {
+            applied++;
+            long sequence = sequences.get(acknowledgement.eventNumber);
+            if (sequence == -1 || states[index(sequence)] != IN_FLIGHT) {
+                // already handled or retried after timing out
+                continue;
+            }
+            NakAction action = acknowledgement.action;
+            if (action == null || action == NakAction.SKIP) {
+                handled(sequence);
+            } else if (action == NakAction.PARK) {
+                park(sequence);
+            } else {
+                retry(sequence, true);
+                if (action == NakAction.STOP) {
+                    acknowledgement.connection.close();
+                }
+            }
+        }
+        return applied;
+    }
+
+    private int removeClosedConnections() {
+        int removed = 0;
+        for (PersistentSubscriptionConnection connection : connections) {
+            if (!connection.isClosed()) {
+                continue;
+            }
+            for (long sequence = low; sequence < pushed; sequence++) {
+                int index = index(sequence);
+                if (states[index] == IN_FLIGHT && deliveredTo[index] == connection) {
+                    // not the message's fault so it doesn't count as a retry
+                    retry(sequence, false);
+                }
+            }
+            remove(connection);
+            drop(connection, SubscriptionDropReason.UNSUBSCRIBED, null);
+            removed++;
+        }
+        return removed;
+    }
+
+    private int retryTimedOut(long nowNanos) {
+        int retried = 0;
+        for (long sequence = low; sequence < pushed; sequence++) {
+            int index = index(sequence);
+            if (states[index] == IN_FLIGHT && nowNanos - deadlines[index] >= 0) {
+                retry(sequence, true);
+                retried++;
+            }
+        }
+        return retried;
+    }
+
+    private int read() {
+        int room = capacity - (int) (high - low);
+        if (room == 0) {
+            return 0;
+        }
+        // nothing has been committed since the last read came back short
+        long head = store.readHeadPosition();
+        if (head == emptyReadHead) {
+            return 0;
+        }
+        int count = Math.min(room, settings.getReadBatchSize());
+        List<StreamMessage> page;
+        if (all) {
+            ReadAllPage allPage = store.readAllForwards(nextEventNumber, count, true);
+            page = allPage.getMessages();
+            nextEventNumber = allPage.getNextPosition();
+        } else {
+            ReadStreamPage streamPage = store.readStreamForwards(settings.getEventStreamId(), nextEventNumber, count, true);
+            page = streamPage.getMessages();
+            if (streamPage.getStatus() == PageReadStatus.SUCCESS) {
+                nextEventNumber = streamPage.getNextStreamVersion();
+            }
+        }
+        emptyReadHead = page.size() < count ? head : NO_HEAD;
+        int added = 0;
+        for (StreamMessage message : page) {
+            // parked streams are in $all and would otherwise be read back by the group that parked them
+            if (all && SystemStreams.isSystemStream(message.getStreamId())) {
+                continue;
+            }
+            add(message, false);
+            added++;
+        }
+        return added;
+    }
+
+    private int readParked() {
+        int room = capacity - (int) (high - low);
+        if (room == 0) {
+            return 0;
+        }
+        int count = (int) Math.min(Math.min(room, settings.getReadBatchSize()), replayThrough - nextParkedVersion + 1);
+        ReadStreamPage page = store.readStreamForwards(parkedStreamId, nextParkedVersion, count, true);
+        for (StreamMessage parked : page.getMessages()) {
+            add(PersistentSubscriptionState.decodeParked(parked.getData()), true);
+        }
+        nextParkedVersion = page.getStatus() == PageReadStatus.SUCCESS && !page.getMessages().isEmpty()
+                ? page.getNextStreamVersion()
+                : replayThrough + 1;
+        return Math.max(1, page.getMessages().size());
+    }
+
+    private void add(StreamMessage message, boolean isReplay) {
+        int index = index(high);
+        messages[index] = message;
+        states[index] = READY;
+        retryCounts[index] = 0;
+        replayed[index] = isReplay;
+        high++;
+    }
+
+    private int push(long nowNanos) {
+        PersistentSubscriptionConnection[] current = connections;
+        if (current.length == 0) {
+            return 0;
+        }
+        int pushedCount = 0;
+        while (retryHead != retryTail) {
+            long sequence = retries[(int) (retryHead & mask)];
+            if (states[index(sequence)] == READY) {
+                PersistentSubscriptionConnection connection = strategy.choose(current, messages[index(sequence)]);
+                if (connection == null) {
+                    return pushedCount;
+                }
+                deliver(sequence, connection, nowNanos);
+                pushedCount++;
+            }
+            retryHead++;
+        }
+        while (pushed < high) {
+            PersistentSubscriptionConnection connection = strategy.choose(current, messages[index(pushed)]);
+            if (connection == null) {
+                break;
+            }
+            deliver(pushed++, connection, nowNanos);
+            pushedCount++;
+        }
+        return pushedCount;
+    }
+
+    private void deliver(long sequence, PersistentSubscriptionConnection connection, long nowNanos) {
+        int index = index(sequence);
+        StreamMessage message = messages[index];
+        states[index] = IN_FLIGHT;
+        deadlines[index] = nowNanos + messageTimeoutNanos;
+        deliveredTo[index] = connection;
+        connection.inFlight++;
+        sequences.put(eventNumber(message), sequence);
+        try {
+            connection.handler().onMessage(connection, message, retryCounts[index]);
+        } catch (RuntimeException e) {
+            LOG.error("Consumer {} failed handling a message, disconnecting it", connection, e);
+            connection.close();
+        }
+    }
+
+    private void retry(long sequence, boolean countRetry) {
+        int index = index(sequence);
+        release(index);
+        if (countRetry && ++retryCounts[index] > settings.getMaxRetryCount()) {
+            park(sequence);
+            return;
+        }
+        states[index] = READY;
+        retries[(int) (retryTail++ & mask)] = sequence;
+    }
+
+    private void park(long sequence) {
+        int index = index(sequence);
+        release(index);
+        StreamMessage message = messages[index];
+        try {
+            // a random id as the same message can be parked again after it has been replayed
+            store.appendToStream(parkedStreamId, (int) ExpectedVersion.ANY,
+                    NewStreamMessage.of(PersistentSubscriptionState.encodeParked(message)));
+        } catch (RuntimeException e) {
+            LOG.error("Unable to park message {} of {}, retrying it", message, groupKey, e);
+            states[index] = READY;
+            retries[(int) (retryTail++ & mask)] = sequence;
+            return;
+        }
+        handled(sequence);
+    }
+
+    private void handled(long sequence) {
+        int index = index(sequence);
+        release(index);
+        states[index] = DONE;
+        while (low < pushed && states[index(low)] == DONE) {
+            int oldest = index(low);
+            if (!replayed[oldest]) {
+                checkpoint = eventNumber(messages[oldest]);
+                handledSinceCheckpoint++;
+            }
+            messages[oldest] = null;
+            states[oldest] = EMPTY;
+            low++;
+        }
+    }
+
+    private void release(int index) {
+        PersistentSubscriptionConnection connection = deliveredTo[index];
+        if (connection != null) {
+            connection.inFlight--;
+            deliveredTo[index] = null;
+            sequences.remove(eventNumber(messages[index]));
+        }
+    }
+
+    private void drop(PersistentSubscriptionConnection connection, SubscriptionDropReason reason, Throwable cause) {
+        try {
+            connection.handler().onDropped(connection, new SubscriptionDropped(connection.getConnectionId(), reason, cause));
+        } catch (RuntimeException e) {
+            LOG.error("Drop handler of {} failed", connection, e);
+        }
+    }
+
+    private long eventNumber(StreamMessage message) {
+        return all ? message.getPosition() : message.getStreamVersion();
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence & mask);
+    }
+
+    private static final class Acknowledgement {
+        private final PersistentSubscriptionConnection connection;
+        private final long eventNumber;
+        // null for an ack
+        private final NakAction action;
+
+        Acknowledgement(PersistentSubscriptionConnection connection, long eventNumber, NakAction action) {
+            this.connection = connection;
+            this.eventNumber = eventNumber;
+            this.action = action;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.ruscello.subscriptions;
+
+import com.ruscello.core.StreamMessage;
+import com.ruscello.core.messages.client.SubscriptionDropped;
+
+/**
+ * Receives the messages pushed to one consumer of a persistent subscription group. Called on the service's
+ * dispatcher thread so it must not block, handle the message elsewhere and ack or nack it from any thread.
+ */
+public interface PersistentSubscriptionHandler {
+
+    /**
+     * @param retryCount number of times the message has been sent before
+     */
+    void onMessage(PersistentSubscriptionConnection connection, StreamMessage message, int retryCount);
+
+    /**
+     * Called once when the consumer is disconnected, messages it hasn't acked are sent to other consumers
+     */
+    default void onDropped(PersistentSubscriptionConnection connection, SubscriptionDropped dropped) {
+    }
+}
@@ -0,0 +1,258 @@
+package com.ruscello.subscriptions;
+
+import com.ruscello.core.messages.client.ConnectToPersistentSubscription;
+import com.ruscello.core.messages.client.CreatePersistentSubscription;
+import com.ruscello.core.messages.client.DeletePersistentSubscription;
+import com.ruscello.core.messages.client.SubscriptionDropReason;
+import com.ruscello.storage.InvalidStoreException;
+import com.ruscello.storage.KeyValue;
+import com.ruscello.storage.StorageEngine;
+import com.ruscello.storage.SubscriptionStateStore;
+import org.agrona.collections.Object2LongHashMap;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs persistent subscription groups on a single dispatcher thread. Unlike catch-up subscriptions the position of a
+ * group is kept on the server, in the PERSISTENT_SUBSCRIPTIONS keyspace, along with its settings and how far its
+ * parked messages have been replayed.
+ * <p>
+ * Checkpoints aren't written per ack. Each round the dispatcher collects the groups whose checkpoint is due, by max
+ * checkpoint count or by min checkpoint count once checkpoint after has passed, and writes them in one batch. A group
+ * that restarts can therefore see up to max checkpoint count messages again.
+ */
+public class PersistentSubscriptionService implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PersistentSubscriptionService.class);
+
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final PersistentSubscriptionGroup[] NONE = new PersistentSubscriptionGroup[0];
+
+    private final StorageEngine store;
+    private final SubscriptionStateStore states;
+    private final Map<String, PersistentSubscriptionGroup> groupsByKey = new ConcurrentHashMap<>();
+    private final Thread dispatcher;
+
+    // held while writing state so a checkpoint can't be written after its group has been deleted
+    private final Object stateLock = new Object();
+
+    // reused by the dispatcher for each round's checkpoints
+    private final List<KeyValue<byte[], byte[]>> checkpointBatch = new ArrayList<>();
+
+    private volatile PersistentSubscriptionGroup[] groups = NONE;
+    private volatile boolean running;
+
+    public PersistentSubscriptionService(StorageEngine store, SubscriptionStateStore states) {
+        this.store = store;
+        this.states = states;
+        this.dispatcher = new Thread(this::run, "ruscello-persistent-subscriptions");
+        this.dispatcher.setDaemon(true);
+    }
+
+    /**
+     * Loads the groups kept in the store and starts delivering to them
+     */
+    public void start() {
+        List<CreatePersistentSubscription> settings = new ArrayList<>();
+        Object2LongHashMap<String> checkpoints = new Object2LongHashMap<>(-1);
+        Object2LongHashMap<String> parkedVersions = new Object2LongHashMap<>(0);
+        for (KeyValue<byte[], byte[]> entry : states.readSubscriptionStates()) {
+            String groupKey = PersistentSubscriptionState.groupKey(entry.key);
+            switch (PersistentSubscriptionState.type(entry.key)) {
+                case PersistentSubscriptionState.SETTINGS:
+                    settings.add(PersistentSubscriptionState.decodeSettings(entry.value));
+                    break;
+                case PersistentSubscriptionState.CHECKPOINT:
+                    checkpoints.put(groupKey, PersistentSubscriptionState.longValue(entry.value));
+                    break;
+                case PersistentSubscriptionState.PARKED:
+                    parkedVersions.put(groupKey, PersistentSubscriptionState.longValue(entry.value));
+                    break;
+                default:
+                    LOG.warn("Ignoring unknown persistent subscription entry for {}", groupKey);
+            }
+        }
+        long now = System.nanoTime();
+        for (CreatePersistentSubscription create : settings) {
+            String groupKey = PersistentSubscriptionState.groupKey(create.getEventStreamId(), create.getGroupName());
+            add(new PersistentSubscriptionGroup(create, store, checkpoints.getValue(groupKey),
+                    parkedVersions.getValue(groupKey), now));
+        }
+        LOG.info("Loaded {} persistent subscription groups", settings.size());
+
+        running = true;
+        dispatcher.start();
+    }
+
+    /**
+     * Stops the dispatcher, writes every group's checkpoint and drops every consumer
+     */
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeCheckpoints(System.nanoTime(), true);
+        for (PersistentSubscriptionGroup group : groups) {
+            group.dropAll(SubscriptionDropReason.SHUTDOWN);
+        }
+    }
+
+    public void createSubscription(CreatePersistentSubscription create) {
+        if (create.getGroupName() == null || create.getEventStreamId() == null) {
+            throw new IllegalArgumentException("groupName and eventStreamId are required");
+        }
+        if (create.getMinCheckPointCount() > create.getMaxCheckPointCount()) {
+            throw new IllegalArgumentException("minCheckPointCount can't be more than maxCheckPointCount");
+        }
+        checkRunning();
+        String groupKey = PersistentSubscriptionState.groupKey(create.getEventStreamId(), create.getGroupName());
+        synchronized (stateLock) {
+            if (groupsByKey.containsKey(groupKey)) {
+                throw new IllegalStateException("Persistent subscription " + groupKey + " already exists");
+            }
+            PersistentSubscriptionGroup group = new PersistentSubscriptionGroup(create, store, -1, 0, System.nanoTime());
+            states.writeSubscriptionStates(Collections.singletonList(KeyValue.pair(
+                    PersistentSubscriptionState.key(PersistentSubscriptionState.SETTINGS, groupKey),
+                    PersistentSubscriptionState.encodeSettings(create))));
+            add(group);
+        }
+    }
+
+    /**
+     * Deletes the group's settings and checkpoint. Its consumers are dropped with
+     * {@link SubscriptionDropReason#PERSISTENT_SUBSCRIPTION_DELETED}, the parked stream is left as it is.
+     */
+    public void deleteSubscription(DeletePersistentSubscription delete) {
+        checkRunning();
+        String groupKey = PersistentSubscriptionState.groupKey(delete.getEventStreamId(), delete.getGroupName());
+        synchronized (stateLock) {
+            PersistentSubscriptionGroup group = groupsByKey.remove(groupKey);
+            if (group == null) {
+                throw new IllegalArgumentException("Persistent subscription " + groupKey + " does not exist");
+            }
+            group.delete();
+            states.writeSubscriptionStates(PersistentSubscriptionState.deletes(groupKey));
+        }
+    }
+
+    public PersistentSubscriptionConnection connect(ConnectToPersistentSubscription connect,
+                                                    PersistentSubscriptionHandler handler) {
+        if (connect.getAllowedInFlightMessages() < 1) {
+            throw new IllegalArgumentException("allowedInFlightMessages must be at least 1");
+        }
+        checkRunning();
+        return group(connect.getEventStreamId(), connect.getSubscriptionId()).connect(connect, handler);
+    }
+
+    /**
+     * Delivers the messages parked so far again, ahead of any new messages
+     */
+    public void replayParkedMessages(String streamId, String groupName) {
+        checkRunning();
+        group(streamId, groupName).replayParkedMessages();
+    }
+
+    private PersistentSubscriptionGroup group(String streamId, String groupName) {
+        String groupKey = PersistentSubscriptionState.groupKey(streamId, groupName);
+        PersistentSubscriptionGroup group = groupsByKey.get(groupKey);
+        if (group == null) {
+            throw new IllegalArgumentException("Persistent subscription " + groupKey + " does not exist");
+        }
+        return group;
+    }
+
+    private void checkRunning() {
+        if (!running) {
+            throw new InvalidStoreException("Persistent subscription service is not running");
+        }
+    }
+
+    private synchronized void add(PersistentSubscriptionGroup group) {
+        groupsByKey.put(group.getGroupKey(), group);
+        PersistentSubscriptionGroup[] current = groups;
+        PersistentSubscriptionGroup[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = group;
+        groups = updated;
+    }
+
+    private synchronized void remove(PersistentSubscriptionGroup group) {
+        PersistentSubscriptionGroup[] current = groups;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == group) {
+                PersistentSubscriptionGroup[] updated = new PersistentSubscriptionGroup[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                groups = updated;
+                return;
+            }
+        }
+    }
+
+    private void run() {
+        IdleStrategy idle = new BackoffIdleStrategy(100, 10, 1, MAX_IDLE_NANOS);
+        while (running) {
+            long now = System.nanoTime();
+            int work = 0;
+            for (PersistentSubscriptionGroup group : groups) {
+                if (group.isDeleted()) {
+                    remove(group);
+                    group.dropAll(SubscriptionDropReason.PERSISTENT_SUBSCRIPTION_DELETED);
+                    work++;
+                    continue;
+                }
+                try {
+                    work += group.poll(now);
+                } catch (RuntimeException e) {
+                    // the group picks up where it was on the next round
+                    LOG.error("Polling persistent subscription {} failed", group.getGroupKey(), e);
+                }
+            }
+            writeCheckpoints(now, false);
+            idle.idle(work);
+        }
+    }
+
+    private void writeCheckpoints(long now, boolean force) {
+        List<KeyValue<byte[], byte[]>> entries = checkpointBatch;
+        entries.clear();
+        synchronized (stateLock) {
+            PersistentSubscriptionGroup[] current = groups;
+            for (PersistentSubscriptionGroup group : current) {
+                if (!group.isDeleted()) {
+                    group.collectCheckpoint(now, force, entries);
+                }
+            }
+            if (entries.isEmpty()) {
+                return;
+            }
+            try {
+                states.writeSubscriptionStates(entries);
+            } catch (RuntimeException e) {
+                LOG.error("Writing {} persistent subscription checkpoints failed", entries.size(), e);
+                return;
+            }
+            for (PersistentSubscriptionGroup group : current) {
+                if (!group.isDeleted()) {
+                    group.checkpointWritten(now);
+                }
+            }
+        }
+    }
+}
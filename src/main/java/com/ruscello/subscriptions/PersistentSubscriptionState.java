@@ -0,0 +1,170 @@
+package com.ruscello.subscriptions;
+
+import com.ruscello.core.StreamMessage;
+import com.ruscello.core.messages.client.CreatePersistentSubscription;
+import com.ruscello.storage.KeyValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Encodes the entries kept for each group in the PERSISTENT_SUBSCRIPTIONS keyspace. Keys are a type byte followed by
+ * the group's key, stream::group as EventStore names its checkpoint streams, so every entry of a group has the same
+ * suffix.
+ * <ul>
+ *     <li>settings, the group's {@link CreatePersistentSubscription}</li>
+ *     <li>checkpoint, the version or position of the last message handled with everything before it handled</li>
+ *     <li>parked, the version of the group's parked stream that has been replayed through</li>
+ * </ul>
+ */
+final class PersistentSubscriptionState {
+
+    static final byte SETTINGS = 's';
+    static final byte CHECKPOINT = 'c';
+    static final byte PARKED = 'p';
+
+    private static final byte SETTINGS_FORMAT = 1;
+
+    // position, version, message id and stream name length
+    private static final int PARKED_HEADER_SIZE = 4 * Long.BYTES + 2 * Integer.BYTES;
+
+    private PersistentSubscriptionState() {
+        // statics only
+    }
+
+    static String groupKey(String streamId, String groupName) {
+        return streamId + "::" + groupName;
+    }
+
+    static String parkedStreamId(String groupKey) {
+        return "$persistentsubscription-" + groupKey + "-parked";
+    }
+
+    static byte[] key(byte type, String groupKey) {
+        byte[] name = groupKey.getBytes(UTF_8);
+        byte[] key = new byte[name.length + 1];
+        key[0] = type;
+        System.arraycopy(name, 0, key, 1, name.length);
+        return key;
+    }
+
+    static byte type(byte[] key) {
+        return key[0];
+    }
+
+    static String groupKey(byte[] key) {
+        return new String(key, 1, key.length - 1, UTF_8);
+    }
+
+    static KeyValue<byte[], byte[]> longEntry(byte type, String groupKey, long value) {
+        return KeyValue.pair(key(type, groupKey), ByteBuffer.allocate(Long.BYTES).putLong(0, value).array());
+    }
+
+    static long longValue(byte[] value) {
+        return ByteBuffer.wrap(value).getLong(0);
+    }
+
+    /**
+     * @return entries deleting everything kept for the group
+     */
+    static List<KeyValue<byte[], byte[]>> deletes(String groupKey) {
+        return Arrays.asList(KeyValue.pair(key(SETTINGS, groupKey), null),
+                KeyValue.pair(key(CHECKPOINT, groupKey), null),
+                KeyValue.pair(key(PARKED, groupKey), null));
+    }
+
+    /**
+     * Parked messages are written to the parked stream with the original stream, version, position and type in front
+     * of the data so they can be replayed as the original message. The type isn't the parked message's own type so
+     * parked copies don't show up in reads by type.
+     */
+    static byte[] encodeParked(StreamMessage message) {
+        byte[] streamId = message.getStreamId().getBytes(UTF_8);
+        byte[] type = message.getType() == null ? new byte[0] : message.getType().getBytes(UTF_8);
+        byte[] data = message.getData() == null ? new byte[0] : message.getData();
+        return ByteBuffer.allocate(PARKED_HEADER_SIZE + streamId.length + type.length + data.length)
+                .putLong(message.getPosition())
+                .putLong(message.getStreamVersion())
+                .putLong(message.getMessageId().getMostSignificantBits())
+                .putLong(message.getMessageId().getLeastSignificantBits())
+                .putInt(streamId.length)
+                .put(streamId)
+                .putInt(type.length)
+                .put(type)
+                .put(data)
+                .array();
+    }
+
+    static StreamMessage decodeParked(byte[] parked) {
+        ByteBuffer buffer = ByteBuffer.wrap(parked);
+        long position = buffer.getLong();
+        long version = buffer.getLong();
+        UUID messageId = new UUID(buffer.getLong(), buffer.getLong());
+        byte[] streamId = new byte[buffer.getInt()];
+        buffer.get(streamId);
+        byte[] type = new byte[buffer.getInt()];
+        buffer.get(type);
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return new StreamMessage(new String(streamId, UTF_8), messageId, type.length == 0 ? null : new String(type, UTF_8),
+                version, position, data);
+    }
+
+    static byte[] encodeSettings(CreatePersistentSubscription settings) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(SETTINGS_FORMAT);
+            out.writeUTF(settings.getGroupName());
+            out.writeUTF(settings.getEventStreamId());
+            out.writeLong(settings.getStartFrom());
+            out.writeInt(settings.getMessageTimeoutMilliseconds());
+            out.writeInt(settings.getMaxRetryCount());
+            out.writeInt(settings.getLiveBufferSize());
+            out.writeInt(settings.getReadBatchSize());
+            out.writeInt(settings.getMaxSubscriberCount());
+            out.writeUTF(settings.getNamedConsumerStrategy() == null
+                    ? ConsumerStrategies.ROUND_ROBIN
+                    : settings.getNamedConsumerStrategy());
+            out.writeInt(settings.getMaxCheckPointCount());
+            out.writeInt(settings.getMinCheckPointCount());
+            out.writeInt(settings.getCheckPointAfterMilliseconds());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static CreatePersistentSubscription decodeSettings(byte[] value) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(value))) {
+            byte format = in.readByte();
+            if (format != SETTINGS_FORMAT) {
+                throw new IllegalStateException("Unknown persistent subscription settings format " + format
+                        + " " + Arrays.toString(value));
+            }
+            return new CreatePersistentSubscription(in.readUTF(),
+                    in.readUTF(),
+                    in.readLong(),
+                    in.readInt(),
+                    in.readInt(),
+                    in.readInt(),
+                    in.readInt(),
+                    in.readInt(),
+                    in.readUTF(),
+                    in.readInt(),
+                    in.readInt(),
+                    in.readInt());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.ruscello.subscriptions;
+
+import com.ruscello.core.StreamMessage;
+import com.ruscello.core.messages.client.SubscriptionDropped;
+
+/**
+ * Receives the messages of a {@link CatchUpSubscription}. Called on one of the service's dispatcher threads, never
+ * concurrently for the same subscription. A handler that blocks holds up the other subscriptions on its dispatcher
+ * but never the writers.
+ */
+public interface SubscriptionHandler {
+
+    /**
+     * Called for every message in order, exactly once, whether it was read from the store or from the live tail.
+     * Throwing drops the subscription.
+     */
+    void onMessage(CatchUpSubscription subscription, StreamMessage message);
+
+    /**
+     * Called each time the subscription has read everything in the store and moves to live messages
+     */
+    default void onCaughtUp(CatchUpSubscription subscription) {
+    }
+
+    /**
+     * Called once when the subscription stops, no messages follow it
+     */
+    default void onDropped(CatchUpSubscription subscription, SubscriptionDropped dropped) {
+    }
+}
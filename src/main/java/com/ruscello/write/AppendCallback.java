@@ -0,0 +1,19 @@
+package com.ruscello.write;
+
+import com.ruscello.core.messages.client.AppendResult;
+
+/**
+ * Completion of an append published to the {@link WritePipeline}. Called on a pipeline thread so implementations must
+ * not block.
+ */
+public interface AppendCallback {
+
+    void completed(AppendResult result);
+
+    /**
+     * @param cause {@link com.ruscello.core.WrongExpectedVersion} when the expected version check failed,
+     *              IllegalArgumentException when the append is invalid, otherwise the storage failure
+     */
+    void failed(RuntimeException cause);
+
+}
@@ -0,0 +1,51 @@
+package com.ruscello.write;
+
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.messages.client.AppendResult;
+import com.ruscello.storage.PendingAppend;
+
+import java.util.List;
+
+/**
+ * Preallocated ring buffer slot for an append. Producers fill in the request, each stage fills in its part and the
+ * last stage clears the slot so it doesn't hold on to messages until it is reused.
+ * Fields are only touched by one stage at a time, the ring's sequences order the handoff between stages.
+ */
+final class AppendEvent {
+
+    static final long UNPREDICTED = Long.MIN_VALUE;
+
+    // set by the producer, only one of data and messages is set
+    String streamId;
+    int expectedVersion;
+    List<byte[]> data;
+    List<NewStreamMessage> messages;
+    AppendCallback callback;
+
+    // set by the decode stage
+    PendingAppend append;
+
+    // set by the expected version stage, the version the append should end at if the stage's view was right
+    long predictedVersion = UNPREDICTED;
+
+    // set by the storage stage
+    AppendResult result;
+
+    boolean failed;
+
+    void fail(RuntimeException cause) {
+        failed = true;
+        callback.failed(cause);
+    }
+
+    void clear() {
+        streamId = null;
+        data = null;
+        messages = null;
+        callback = null;
+        append = null;
+        predictedVersion = UNPREDICTED;
+        result = null;
+        failed = false;
+    }
+}
@@ -0,0 +1,35 @@
+package com.ruscello.write;
+
+import com.lmax.disruptor.ExceptionHandler;
+import com.ruscello.storage.ProcessorStateException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handles anything a stage lets escape. The append is failed so its producer hears about it and later stages skip it
+ * rather than writing an append that was never checked, and the stage carries on with the next slot.
+ */
+final class AppendExceptionHandler implements ExceptionHandler<AppendEvent> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AppendExceptionHandler.class);
+
+    @Override
+    public void handleEventException(Throwable ex, long sequence, AppendEvent event) {
+        LOG.error("Append at sequence {} to stream {} failed", sequence, event == null ? null : event.streamId, ex);
+        // an append that already has a result was completed, the exception came after it
+        if (event == null || event.failed || event.result != null || event.callback == null) {
+            return;
+        }
+        event.fail(ex instanceof RuntimeException ? (RuntimeException) ex : new ProcessorStateException(ex));
+    }
+
+    @Override
+    public void handleOnStartException(Throwable ex) {
+        LOG.error("Write pipeline stage failed to start", ex);
+    }
+
+    @Override
+    public void handleOnShutdownException(Throwable ex) {
+        LOG.error("Write pipeline stage failed to shut down", ex);
+    }
+}
@@ -0,0 +1,21 @@
+package com.ruscello.write;
+
+import com.ruscello.core.NewStreamMessage;
+
+import java.util.List;
+
+/**
+ * Receives every append once it has been committed, in commit order, from the last stage of the {@link WritePipeline}.
+ * Retried appends that weren't written again are not delivered. Called on the fan-out thread so implementations must
+ * not block, a slow listener holds up every producer once the ring is full.
+ */
+public interface CommittedAppendListener {
+
+    /**
+     * @param firstVersion version of the first message, the rest follow in order
+     * @param firstPosition $all position of the first message, the rest follow in order
+     * @param messages the messages as they were appended. Only valid for the duration of the call
+     */
+    void onCommitted(String streamId, long firstVersion, long firstPosition, List<NewStreamMessage> messages);
+
+}
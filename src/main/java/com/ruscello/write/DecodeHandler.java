@@ -0,0 +1,46 @@
+package com.ruscello.write;
+
+import com.lmax.disruptor.EventHandler;
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.storage.PendingAppend;
+
+import java.util.List;
+
+/**
+ * First stage. Validates the request and turns it into the {@link PendingAppend} the storage engine writes, giving
+ * messages without ids a random id. Nothing here depends on other appends so producers never wait on it.
+ */
+final class DecodeHandler implements EventHandler<AppendEvent> {
+
+    @Override
+    public void onEvent(AppendEvent event, long sequence, boolean endOfBatch) {
+        try {
+            validate(event);
+            event.append = event.messages != null
+                    ? new PendingAppend(event.streamId, event.expectedVersion, event.messages)
+                    : PendingAppend.withRandomIds(event.streamId, event.expectedVersion, event.data);
+        } catch (IllegalArgumentException e) {
+            event.fail(e);
+        }
+    }
+
+    private static void validate(AppendEvent event) {
+        if (event.streamId == null || event.streamId.isEmpty()) {
+            throw new IllegalArgumentException("streamId must not be empty");
+        }
+        if (event.expectedVersion < ExpectedVersion.STREAM_EXISTS || event.expectedVersion == ExpectedVersion.INVALID) {
+            throw new IllegalArgumentException("Invalid expected version " + event.expectedVersion
+                    + " for stream " + event.streamId);
+        }
+        List<?> messages = event.messages != null ? event.messages : event.data;
+        if (messages == null || messages.isEmpty()) {
+            throw new IllegalArgumentException("An append to stream " + event.streamId + " needs at least one message");
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i) == null) {
+                throw new IllegalArgumentException("Message " + i + " of the append to stream " + event.streamId
+                        + " is null");
+            }
+        }
+    }
+}
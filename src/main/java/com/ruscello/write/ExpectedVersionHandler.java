@@ -0,0 +1,112 @@
+package com.ruscello.write;
+
+import com.lmax.disruptor.EventHandler;
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.Position;
+import com.ruscello.core.StreamMessage;
+import com.ruscello.core.StreamVersion;
+import com.ruscello.core.WrongExpectedVersion;
+import com.ruscello.storage.PendingAppend;
+import com.ruscello.storage.ReadOnlyStorageEngine;
+import com.ruscello.storage.RecentMessageIds;
+import com.ruscello.storage.StreamKeyCodec;
+import com.ruscello.storage.StreamVersionCache;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Second stage. Checks expected versions against the head of each stream including appends still on their way to
+ * storage, so conflicts are rejected before they reach the storage stage and don't take up room in its batch.
+ * <p>
+ * The storage engine stays the authority. Appends that pass are written with the expected version the producer gave
+ * and the engine checks it again against what is actually committed. This stage predicts the version each append will
+ * end at and when the storage stage sees a different outcome, because a commit failed or a retry wasn't recognised
+ * here, the view is thrown away. Until everything checked against the old view has been committed appends are passed
+ * through unchecked.
+ * <p>
+ * Retries are recognised the same way the engines do it so they aren't rejected for a stale expected version and are
+ * passed on for the engine to complete with the original result.
+ */
+final class ExpectedVersionHandler implements EventHandler<AppendEvent> {
+
+    private final ReadOnlyStorageEngine engine;
+    private final StorageCommitHandler storage;
+    private final StreamKeyCodec codec = new StreamKeyCodec();
+    private final StreamVersionCache heads;
+    private final RecentMessageIds recentMessageIds = new RecentMessageIds();
+
+    // appends up to this sequence were passed through unchecked and may not be committed yet
+    private long uncheckedUntil = -1;
+
+    /**
+     * @param ringSize streams with appends in flight must not be evicted from the cache as storage doesn't have their
+     *                 head yet, so a generation holds at least one stream per slot
+     */
+    ExpectedVersionHandler(ReadOnlyStorageEngine engine, StorageCommitHandler storage, int ringSize) {
+        this.engine = engine;
+        this.storage = storage;
+        this.heads = new StreamVersionCache(Math.max(StreamVersionCache.DEFAULT_GENERATION_SIZE, ringSize));
+    }
+
+    @Override
+    public void onEvent(AppendEvent event, long sequence, boolean endOfBatch) {
+        if (event.failed) {
+            return;
+        }
+        if (storage.takeStaleVersions()) {
+            heads.clear();
+            recentMessageIds.clear();
+            uncheckedUntil = sequence - 1;
+        }
+        if (storage.committedSequence() < uncheckedUntil) {
+            // storage is still catching up with appends nobody checked so it can't be used to fill the view
+            uncheckedUntil = sequence;
+            return;
+        }
+
+        PendingAppend append = event.append;
+        byte[] hash = codec.hash(append.getStreamId());
+        if (isDuplicate(hash, append)) {
+            event.predictedVersion = recentMessageIds.getDuplicateVersion();
+            return;
+        }
+
+        long currentVersion = heads.get(hash);
+        if (currentVersion == StreamVersionCache.MISSING) {
+            // nothing in flight for the stream so storage has its head
+            currentVersion = engine.readStreamBackwards(append.getStreamId(), StreamVersion.END, 1, false)
+                    .getLastStreamVersion();
+            heads.put(hash, currentVersion);
+        }
+        if (!ExpectedVersion.matches(append.getExpectedVersion(), currentVersion)) {
+            event.fail(new WrongExpectedVersion(append.getStreamId(), append.getExpectedVersion(), currentVersion));
+            return;
+        }
+
+        List<NewStreamMessage> messages = append.getMessages();
+        for (int i = 0; i < messages.size(); i++) {
+            // positions are only known once the storage stage allocates them and aren't needed here
+            recentMessageIds.record(hash, messages.get(i).getMessageId(), currentVersion + 1 + i, Position.END);
+        }
+        event.predictedVersion = currentVersion + messages.size();
+        heads.put(hash, event.predictedVersion);
+    }
+
+    private boolean isDuplicate(byte[] hash, PendingAppend append) {
+        RecentMessageIds.Match match = recentMessageIds.match(hash, append.getMessages());
+        if (match == RecentMessageIds.Match.UNKNOWN) {
+            recentMessageIds.beginStored();
+            List<StreamMessage> stored = engine.readStreamBackwards(append.getStreamId(), StreamVersion.END,
+                    recentMessageIds.getWindowSize(), false).getMessages();
+            for (StreamMessage message : stored) {
+                UUID id = message.getMessageId();
+                recentMessageIds.addStored(id.getMostSignificantBits(), id.getLeastSignificantBits(),
+                        message.getStreamVersion(), message.getPosition());
+            }
+            return recentMessageIds.matchStored(hash, append.getMessages());
+        }
+        return match == RecentMessageIds.Match.DUPLICATE;
+    }
+}
@@ -0,0 +1,71 @@
+package com.ruscello.write;
+
+import com.lmax.disruptor.EventHandler;
+import com.ruscello.core.messages.client.AppendResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Last stage. Hands committed appends to the listeners and clears the slot. Listeners are kept in an array that is
+ * copied on change so delivery is a plain array walk.
+ */
+final class FanOutHandler implements EventHandler<AppendEvent> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FanOutHandler.class);
+
+    private static final CommittedAppendListener[] NONE = new CommittedAppendListener[0];
+
+    private volatile CommittedAppendListener[] listeners = NONE;
+
+    synchronized void subscribe(CommittedAppendListener listener) {
+        CommittedAppendListener[] current = listeners;
+        CommittedAppendListener[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+    synchronized void unsubscribe(CommittedAppendListener listener) {
+        CommittedAppendListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                CommittedAppendListener[] updated = new CommittedAppendListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onEvent(AppendEvent event, long sequence, boolean endOfBatch) {
+        try {
+            if (!event.failed && !event.append.isDuplicate()) {
+                deliver(event);
+            }
+        } finally {
+            event.clear();
+        }
+    }
+
+    private void deliver(AppendEvent event) {
+        CommittedAppendListener[] current = listeners;
+        if (current.length == 0) {
+            return;
+        }
+        AppendResult result = event.result;
+        int count = event.append.getMessages().size();
+        long firstVersion = result.getCurrentVersion() - count + 1;
+        long firstPosition = result.getCurrentPosition() - count + 1;
+        for (CommittedAppendListener listener : current) {
+            try {
+                listener.onCommitted(event.append.getStreamId(), firstVersion, firstPosition, event.append.getMessages());
+            } catch (RuntimeException e) {
+                // one broken listener mustn't stop the others or the pipeline
+                LOG.error("Listener {} failed on append to stream {}", listener, event.append.getStreamId(), e);
+            }
+        }
+    }
+}
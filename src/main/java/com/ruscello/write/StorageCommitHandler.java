@@ -0,0 +1,109 @@
+package com.ruscello.write;
+
+import com.lmax.disruptor.EventHandler;
+import com.ruscello.storage.AppendBatchWriter;
+import com.ruscello.storage.PendingAppend;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Third stage and the only thread that writes to storage. Appends are collected until the end of the batch the ring
+ * hands over, so the batch grows with the backlog, and are then written as a single WriteBatch or write transaction.
+ * Producers are completed once their batch is committed.
+ */
+final class StorageCommitHandler implements EventHandler<AppendEvent> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StorageCommitHandler.class);
+
+    private final AppendBatchWriter writer;
+    private final int maxBatchSize;
+    private final List<AppendEvent> events;
+    private final List<PendingAppend> batch;
+
+    // read by the expected version stage
+    private final AtomicBoolean staleVersions = new AtomicBoolean();
+    private final AtomicLong committedSequence = new AtomicLong(-1);
+
+    StorageCommitHandler(AppendBatchWriter writer, int maxBatchSize) {
+        this.writer = writer;
+        this.maxBatchSize = maxBatchSize;
+        this.events = new ArrayList<>(maxBatchSize);
+        this.batch = new ArrayList<>(maxBatchSize);
+    }
+
+    @Override
+    public void onEvent(AppendEvent event, long sequence, boolean endOfBatch) {
+        if (!event.failed) {
+            events.add(event);
+            batch.add(event.append);
+        }
+        if (endOfBatch || batch.size() >= maxBatchSize) {
+            commit();
+            committedSequence.lazySet(sequence);
+        }
+    }
+
+    /**
+     * @return sequence of the last slot that has been through this stage
+     */
+    long committedSequence() {
+        return committedSequence.get();
+    }
+
+    /**
+     * @return true once after an append ended somewhere other than the expected version stage predicted
+     */
+    boolean takeStaleVersions() {
+        // plain read first so the common case doesn't need a CAS
+        return staleVersions.get() && staleVersions.getAndSet(false);
+    }
+
+    private void commit() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            writer.write(batch);
+        } catch (RuntimeException e) {
+            LOG.error("Commit of {} appends failed", batch.size(), e);
+            for (PendingAppend append : batch) {
+                if (!append.isDone()) {
+                    append.fail(e);
+                }
+            }
+        }
+        for (int i = 0; i < events.size(); i++) {
+            try {
+                complete(events.get(i));
+            } catch (RuntimeException e) {
+                // a callback threw, the rest of the batch still has to complete and the batch mustn't be written again
+                LOG.error("Completing append to stream {} failed", events.get(i).streamId, e);
+            }
+        }
+        events.clear();
+        batch.clear();
+    }
+
+    private void complete(AppendEvent event) {
+        try {
+            // already done so this doesn't block
+            event.result = event.append.join();
+        } catch (RuntimeException e) {
+            if (event.predictedVersion != AppendEvent.UNPREDICTED) {
+                staleVersions.set(true);
+            }
+            event.fail(e);
+            return;
+        }
+        if (event.predictedVersion != AppendEvent.UNPREDICTED
+                && event.predictedVersion != event.result.getCurrentVersion()) {
+            staleVersions.set(true);
+        }
+        event.callback.completed(event.result);
+    }
+}
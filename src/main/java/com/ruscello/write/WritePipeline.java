@@ -0,0 +1,296 @@
+package com.ruscello.write;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.EventTranslator;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import com.lmax.disruptor.util.DaemonThreadFactory;
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.ReadAllPage;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.messages.client.AppendResult;
+import com.ruscello.storage.AppendBatchWriter;
+import com.ruscello.storage.InvalidStoreException;
+import com.ruscello.storage.ProcessorStateException;
+import com.ruscello.storage.StorageEngine;
+import com.ruscello.storage.StoreIterator;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+// https://lmax-exchange.github.io/disruptor/files/Disruptor-1.0.pdf
+// http://mechanitis.blogspot.com/2011/07/dissecting-disruptor-wiring-up.html
+/**
+ * Write path built on the LMAX Disruptor. Appends go through four stages, each on its own thread, over preallocated
+ * ring buffer slots
+ * <ol>
+ *     <li>decode and validate</li>
+ *     <li>expected version check</li>
+ *     <li>storage commit, batched on the ring's end of batch, the only thread that writes to the engine</li>
+ *     <li>fan out of committed appends to {@link CommittedAppendListener}s</li>
+ * </ol>
+ * Producers publish through a per thread {@link EventTranslator} so publishing doesn't allocate. The asynchronous
+ * {@link #publish} completes an {@link AppendCallback} on the storage thread, the {@link StorageEngine} methods block
+ * until the append is committed.
+ */
+public class WritePipeline implements StorageEngine, AutoCloseable {
+
+    public static final int DEFAULT_RING_SIZE = 1024;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 512;
+
+    private final StorageEngine engine;
+    private final Disruptor<AppendEvent> disruptor;
+    private final FanOutHandler fanOut = new FanOutHandler();
+    private final ThreadLocal<AppendTranslator> translators = ThreadLocal.withInitial(AppendTranslator::new);
+
+    // producers between the running check and publishing, close waits for them so nothing is published after shutdown
+    private final LongAdder publishing = new LongAdder();
+
+    private volatile boolean running;
+
+    public <E extends StorageEngine & AppendBatchWriter> WritePipeline(E engine) {
+        this(engine, DEFAULT_RING_SIZE, DEFAULT_MAX_BATCH_SIZE, new BlockingWaitStrategy());
+    }
+
+    /**
+     * @param ringSize number of slots, must be a power of 2. Producers wait once this many appends are in flight
+     * @param maxBatchSize most appends written in one commit when the backlog is larger
+     * @param waitStrategy how stage threads wait for work. Blocking is the cheapest on CPU, busy spin the lowest latency
+     */
+    public <E extends StorageEngine & AppendBatchWriter> WritePipeline(E engine,
+                                                                      int ringSize,
+                                                                      int maxBatchSize,
+                                                                      WaitStrategy waitStrategy) {
+        if (Integer.bitCount(ringSize) != 1) {
+            throw new IllegalArgumentException("ringSize must be a power of 2");
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        this.engine = engine;
+        this.disruptor = new Disruptor<>(AppendEvent::new, ringSize, DaemonThreadFactory.INSTANCE,
+                ProducerType.MULTI, waitStrategy);
+
+        StorageCommitHandler storage = new StorageCommitHandler(engine, maxBatchSize);
+        // handlers complete or fail their own appends, anything escaping fails the append and mustn't stop the stage
+        disruptor.setDefaultExceptionHandler(new AppendExceptionHandler());
+        disruptor.handleEventsWith(new DecodeHandler())
+                .then(new ExpectedVersionHandler(engine, storage, ringSize))
+                .then(storage)
+                .then(fanOut);
+    }
+
+    public void start() {
+        running = true;
+        disruptor.start();
+    }
+
+    /**
+     * Stops accepting appends and waits for everything already published to go through every stage
+     */
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        while (publishing.sum() != 0) {
+            Thread.yield();
+        }
+        disruptor.shutdown();
+    }
+
+    public void subscribe(CommittedAppendListener listener) {
+        fanOut.subscribe(listener);
+    }
+
+    public void unsubscribe(CommittedAppendListener listener) {
+        fanOut.unsubscribe(listener);
+    }
+
+    /**
+     * Publishes an append without waiting for it. Blocks only while the ring is full.
+     */
+    public void publish(String streamId, int expectedVersion, List<NewStreamMessage> messages, AppendCallback callback) {
+        publish(streamId, expectedVersion, null, messages, callback);
+    }
+
+    /**
+     * Publishes an append of messages without ids, each message gets a random id
+     */
+    public void publishData(String streamId, int expectedVersion, List<byte[]> data, AppendCallback callback) {
+        publish(streamId, expectedVersion, data, null, callback);
+    }
+
+    private void publish(String streamId,
+                         int expectedVersion,
+                         List<byte[]> data,
+                         List<NewStreamMessage> messages,
+                         AppendCallback callback) {
+        if (callback == null) {
+            throw new NullPointerException("callback");
+        }
+        publishing.increment();
+        try {
+            if (!running) {
+                throw new InvalidStoreException("Write pipeline is not running");
+            }
+            AppendTranslator translator = translators.get();
+            translator.set(streamId, expectedVersion, data, messages, callback);
+            try {
+                disruptor.getRingBuffer().publishEvent(translator);
+            } finally {
+                translator.set(null, 0, null, null, null);
+            }
+        } finally {
+            publishing.decrement();
+        }
+    }
+
+    @Override
+    public AppendResult appendToStream(String streamId, int expectedVersion, byte[] message) {
+        return appendToStream(streamId, expectedVersion, Collections.singletonList(message));
+    }
+
+    @Override
+    public AppendResult appendToStream(String streamId, int expectedVersion, List<byte[]> messages) {
+        BlockingCallback callback = new BlockingCallback();
+        publishData(streamId, expectedVersion, messages, callback);
+        return callback.await();
+    }
+
+    @Override
+    public AppendResult appendToStream(String streamId, int expectedVersion, NewStreamMessage... messages) {
+        BlockingCallback callback = new BlockingCallback();
+        publish(streamId, expectedVersion, Arrays.asList(messages), callback);
+        return callback.await();
+    }
+
+    @Override
+    public void deleteStream(String streamId, int expectedVersion) throws SQLException {
+        engine.deleteStream(streamId, expectedVersion);
+    }
+
+    @Override
+    public void deleteMessage(String streamId, UUID messageId) throws SQLException {
+        engine.deleteMessage(streamId, messageId);
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        return engine.get(key);
+    }
+
+    @Override
+    public StoreIterator<byte[], byte[]> range(byte[] start, byte[] end) {
+        return engine.range(start, end);
+    }
+
+    @Override
+    public StoreIterator<byte[], byte[]> range(byte[] start, int maxCount) {
+        return engine.range(start, maxCount);
+    }
+
+    @Override
+    public StoreIterator<byte[], byte[]> all() {
+        return engine.all();
+    }
+
+    @Override
+    public long approximateNumEntries() {
+        return engine.approximateNumEntries();
+    }
+
+    @Override
+    public StoreIterator<byte[], byte[]> readAll(long fromPositionInclusive) {
+        return engine.readAll(fromPositionInclusive);
+    }
+
+    @Override
+    public long readHeadPosition() {
+        return engine.readHeadPosition();
+    }
+
+    @Override
+    public ReadAllPage readAllForwards(long fromPositionInclusive, int maxCount, boolean prefetch) {
+        return engine.readAllForwards(fromPositionInclusive, maxCount, prefetch);
+    }
+
+    @Override
+    public ReadAllPage readAllBackwards(long fromPositionInclusive, int maxCount, boolean prefetch) {
+        return engine.readAllBackwards(fromPositionInclusive, maxCount, prefetch);
+    }
+
+    @Override
+    public ReadStreamPage readStreamForwards(String streamId, long fromVersionInclusive, int maxCount, boolean prefetch) {
+        return engine.readStreamForwards(streamId, fromVersionInclusive, maxCount, prefetch);
+    }
+
+    @Override
+    public ReadStreamPage readStreamBackwards(String streamId, long fromVersionInclusive, int maxCount, boolean prefetch) {
+        return engine.readStreamBackwards(streamId, fromVersionInclusive, maxCount, prefetch);
+    }
+
+    /**
+     * Copies a request into a slot. One per producer thread and reused for every publish.
+     */
+    private static final class AppendTranslator implements EventTranslator<AppendEvent> {
+        private String streamId;
+        private int expectedVersion;
+        private List<byte[]> data;
+        private List<NewStreamMessage> messages;
+        private AppendCallback callback;
+
+        void set(String streamId,
+                 int expectedVersion,
+                 List<byte[]> data,
+                 List<NewStreamMessage> messages,
+                 AppendCallback callback) {
+            this.streamId = streamId;
+            this.expectedVersion = expectedVersion;
+            this.data = data;
+            this.messages = messages;
+            this.callback = callback;
+        }
+
+        @Override
+        public void translateTo(AppendEvent event, long sequence) {
+            event.streamId = streamId;
+            event.expectedVersion = expectedVersion;
+            event.data = data;
+            event.messages = messages;
+            event.callback = callback;
+        }
+    }
+
+    private static final class BlockingCallback extends CompletableFuture<AppendResult> implements AppendCallback {
+
+        @Override
+        public void completed(AppendResult result) {
+            complete(result);
+        }
+
+        @Override
+        public void failed(RuntimeException cause) {
+            completeExceptionally(cause);
+        }
+
+        AppendResult await() {
+            try {
+                return join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new ProcessorStateException(e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.ruscello;
+
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.PageReadStatus;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.StreamMessage;
+import com.ruscello.core.transport.http.atom.BinaryEventsCodec;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryEventsCodecTest {
+
+    @Test
+    public void eventsRoundTrip() throws Exception {
+        List<NewStreamMessage> sent = Arrays.asList(
+                new NewStreamMessage(UUID.randomUUID(), "order-placed", "first".getBytes(UTF_8)),
+                new NewStreamMessage(UUID.randomUUID(), new byte[0]));
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        BinaryEventsCodec.writeEvents(sent, body);
+
+        List<NewStreamMessage> read = BinaryEventsCodec.readEvents(new ByteArrayInputStream(body.toByteArray()));
+
+        assertEquals(2, read.size());
+        for (int i = 0; i < sent.size(); i++) {
+            assertEquals(sent.get(i).getMessageId(), read.get(i).getMessageId());
+            assertEquals(sent.get(i).getType(), read.get(i).getType());
+            assertArrayEquals(sent.get(i).getData(), read.get(i).getData());
+        }
+    }
+
+    @Test
+    public void typeIsReadMetadataIsSkippedAndZeroIdsAreRandom() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(1);
+        out.writeLong(0);
+        out.writeLong(0);
+        byte[] type = "order-placed".getBytes(UTF_8);
+        out.writeShort(type.length);
+        out.write(type);
+        byte[] metadata = "{\"user\":1}".getBytes(UTF_8);
+        out.writeInt(metadata.length);
+        out.write(metadata);
+        byte[] data = {1, 2, 3};
+        out.writeInt(data.length);
+        out.write(data);
+
+        List<NewStreamMessage> read = BinaryEventsCodec.readEvents(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertEquals(1, read.size());
+        assertNotEquals(new UUID(0, 0), read.get(0).getMessageId());
+        assertEquals("order-placed", read.get(0).getType());
+        assertArrayEquals(data, read.get(0).getData());
+
+        byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 1);
+        assertThrows(BinaryEventsCodec.FormatException.class,
+                () -> BinaryEventsCodec.readEvents(new ByteArrayInputStream(truncated)));
+    }
+
+    @Test
+    public void pageIsWrittenWithEveryMessage() throws Exception {
+        UUID id = UUID.randomUUID();
+        StreamMessage message = new StreamMessage("orders", id, "order-placed", 4, 90, "data".getBytes(UTF_8));
+        ReadStreamPage page = new ReadStreamPage("orders", PageReadStatus.SUCCESS, 4, 5, 4,
+                ReadDirection.FORWARD, true, Collections.singletonList(message));
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        BinaryEventsCodec.writePage(page, body);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body.toByteArray()));
+        assertEquals(0, in.readByte());
+        assertEquals(4, in.readLong());
+        assertEquals(5, in.readLong());
+        assertEquals(1, in.readByte());
+        assertEquals(1, in.readInt());
+        assertEquals(id, new UUID(in.readLong(), in.readLong()));
+        assertEquals(4, in.readLong());
+        assertEquals(90, in.readLong());
+        byte[] streamId = new byte[in.readUnsignedShort()];
+        in.readFully(streamId);
+        assertEquals("orders", new String(streamId, UTF_8));
+        byte[] type = new byte[in.readUnsignedShort()];
+        in.readFully(type);
+        assertEquals("order-placed", new String(type, UTF_8));
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        assertEquals("data", new String(data, UTF_8));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void lengthsTooLongForTheirPrefixAreRejected() {
+        char[] name = new char[BinaryEventsCodec.MAX_SHORT_SIZE + 1];
+        Arrays.fill(name, 'a');
+        StreamMessage message = new StreamMessage(new String(name), UUID.randomUUID(), 0, 0, new byte[0]);
+        ReadStreamPage page = new ReadStreamPage(message.getStreamId(), PageReadStatus.SUCCESS, 0, 1, 0,
+                ReadDirection.FORWARD, true, Collections.singletonList(message));
+        assertThrows(BinaryEventsCodec.FormatException.class,
+                () -> BinaryEventsCodec.writePage(page, new ByteArrayOutputStream()));
+    }
+}
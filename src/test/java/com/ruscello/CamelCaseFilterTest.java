@@ -0,0 +1,70 @@
+package com.ruscello;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CamelCaseFilterTest {
+
+    @Test
+    public void partsAreSeparateTokensWithTheirOwnOffsets() throws IOException {
+        Tokenizer tokenizer = new WhitespaceTokenizer();
+        tokenizer.setReader(new StringReader("seanCarroll42 HTTPRequest plain"));
+        try (TokenStream stream = new CamelCaseFilter(tokenizer)) {
+            CharTermAttribute term = stream.getAttribute(CharTermAttribute.class);
+            OffsetAttribute offset = stream.getAttribute(OffsetAttribute.class);
+            PositionIncrementAttribute posInc = stream.getAttribute(PositionIncrementAttribute.class);
+            List<String> tokens = new ArrayList<>();
+            stream.reset();
+            while (stream.incrementToken()) {
+                assertEquals(1, posInc.getPositionIncrement());
+                tokens.add(term + "@" + offset.startOffset() + "-" + offset.endOffset());
+            }
+            stream.end();
+
+            assertEquals(Arrays.asList("sean@0-4", "Carroll@4-11", "42@11-13", "HTTP@14-18", "Request@18-25",
+                    "plain@26-31"), tokens);
+        }
+    }
+
+    @Test
+    public void splitsWhereTheRegexDid() throws IOException {
+        for (String name : Arrays.asList("orderPlaced", "order-Placed_42", "ABc", "aB1cD", "URLs", "x", "42abc",
+                "seanCARROLL", "a--b", "ÄöÜ")) {
+            assertEquals(regexSplit(name), split(name), name);
+        }
+    }
+
+    private static List<String> split(String text) throws IOException {
+        Tokenizer tokenizer = new WhitespaceTokenizer();
+        tokenizer.setReader(new StringReader(text));
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream stream = new CamelCaseFilter(tokenizer)) {
+            CharTermAttribute term = stream.getAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens.add(term.toString());
+            }
+            stream.end();
+        }
+        return tokens;
+    }
+
+    // the filter used to put spaces in the term where this split
+    private static List<String> regexSplit(String text) {
+        return Arrays.asList(text.replaceAll(
+                "(?<=[A-Z])(?=[A-Z][a-z])|(?<=[^A-Z])(?=[A-Z])|(?<=[A-Za-z])(?=[^A-Za-z])", " ").split(" "));
+    }
+}
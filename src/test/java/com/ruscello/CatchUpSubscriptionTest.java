@@ -0,0 +1,201 @@
+package com.ruscello;
+
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.core.Position;
+import com.ruscello.core.StreamMessage;
+import com.ruscello.core.StreamVersion;
+import com.ruscello.core.messages.client.SubscriptionDropReason;
+import com.ruscello.core.messages.client.SubscriptionDropped;
+import com.ruscello.storage.lmdb.LmbdStorageEngine;
+import com.ruscello.subscriptions.CatchUpSubscription;
+import com.ruscello.subscriptions.CatchUpSubscriptionService;
+import com.ruscello.subscriptions.SubscriptionHandler;
+import com.ruscello.write.WritePipeline;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junitpioneer.jupiter.TempDirectory;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(TempDirectory.class)
+public class CatchUpSubscriptionTest {
+
+    @Test
+    public void allSubscriptionMovesFromHistoryToLiveWithoutGapsOrDuplicates(@TempDirectory.TempDir Path tmpDir) throws Exception {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        WritePipeline pipeline = new WritePipeline(engine);
+        pipeline.start();
+        CatchUpSubscriptionService service = new CatchUpSubscriptionService(pipeline, 1024, 16, 1);
+        service.start();
+
+        for (int i = 0; i < 100; i++) {
+            pipeline.appendToStream("stream-" + (i % 3), (int) ExpectedVersion.ANY, ("history-" + i).getBytes(UTF_8));
+        }
+        RecordingHandler handler = new RecordingHandler();
+        CatchUpSubscription subscription = service.subscribeToAll(Position.START, handler);
+        // appended while the subscription is still paging through history
+        for (int i = 0; i < 100; i++) {
+            pipeline.appendToStream("stream-" + (i % 3), (int) ExpectedVersion.ANY, ("live-" + i).getBytes(UTF_8));
+        }
+        waitFor(() -> handler.messages.size() == 200);
+        waitFor(subscription::isLive);
+        pipeline.appendToStream("stream-0", (int) ExpectedVersion.ANY, "after".getBytes(UTF_8));
+        waitFor(() -> handler.messages.size() == 201);
+
+        for (int i = 1; i < handler.messages.size(); i++) {
+            assertTrue(handler.messages.get(i).getPosition() > handler.messages.get(i - 1).getPosition());
+        }
+        assertEquals("history-0", new String(handler.messages.get(0).getData(), UTF_8));
+        assertEquals("after", new String(handler.messages.get(200).getData(), UTF_8));
+        assertTrue(handler.caughtUp.get() >= 1);
+
+        subscription.close();
+        waitFor(() -> handler.dropped != null);
+        assertEquals(SubscriptionDropReason.UNSUBSCRIBED, handler.dropped.getReason());
+
+        service.close();
+        pipeline.close();
+        engine.close();
+    }
+
+    @Test
+    public void streamSubscriptionOnlySeesItsStream(@TempDirectory.TempDir Path tmpDir) throws Exception {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        WritePipeline pipeline = new WritePipeline(engine);
+        pipeline.start();
+        CatchUpSubscriptionService service = new CatchUpSubscriptionService(pipeline, 1024, 8, 2);
+        service.start();
+
+        for (int i = 0; i < 20; i++) {
+            pipeline.appendToStream("stream-" + (i % 2), (int) ExpectedVersion.ANY, ("message-" + i).getBytes(UTF_8));
+        }
+        RecordingHandler fromStart = new RecordingHandler();
+        RecordingHandler fromEnd = new RecordingHandler();
+        service.subscribeToStream("stream-1", StreamVersion.START, fromStart);
+        CatchUpSubscription live = service.subscribeToStream("stream-1", StreamVersion.END, fromEnd);
+        waitFor(live::isLive);
+        for (int i = 20; i < 40; i++) {
+            pipeline.appendToStream("stream-" + (i % 2), (int) ExpectedVersion.ANY, ("message-" + i).getBytes(UTF_8));
+        }
+        waitFor(() -> fromStart.messages.size() == 20 && fromEnd.messages.size() == 10);
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals("stream-1", fromStart.messages.get(i).getStreamId());
+            assertEquals(i, fromStart.messages.get(i).getStreamVersion());
+        }
+        assertEquals(10, fromEnd.messages.get(0).getStreamVersion());
+
+        service.close();
+        assertEquals(SubscriptionDropReason.SHUTDOWN, fromStart.dropped.getReason());
+        pipeline.close();
+        engine.close();
+    }
+
+    @Test
+    public void slowSubscriberFallsBackToPagingWithoutHoldingUpWriters(@TempDirectory.TempDir Path tmpDir) throws Exception {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        WritePipeline pipeline = new WritePipeline(engine);
+        pipeline.start();
+        CatchUpSubscriptionService service = new CatchUpSubscriptionService(pipeline, 16, 8, 1);
+        service.start();
+
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingHandler handler = new RecordingHandler() {
+            @Override
+            public void onMessage(CatchUpSubscription subscription, StreamMessage message) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onMessage(subscription, message);
+            }
+        };
+        CatchUpSubscription subscription = service.subscribeToAll(Position.START, handler);
+        waitFor(subscription::isLive);
+
+        // the handler is stuck on the first message while the tail wraps several times
+        for (int i = 0; i < 100; i++) {
+            pipeline.appendToStream("stream-" + i, (int) ExpectedVersion.NO_STRREAM, ("message-" + i).getBytes(UTF_8));
+        }
+        release.countDown();
+        waitFor(() -> handler.messages.size() == 100);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("stream-" + i, handler.messages.get(i).getStreamId());
+        }
+        assertTrue(subscription.getFellBehindCount() >= 1);
+        waitFor(subscription::isLive);
+
+        service.close();
+        pipeline.close();
+        engine.close();
+    }
+
+    @Test
+    public void failingSubscriberIsDropped(@TempDirectory.TempDir Path tmpDir) throws Exception {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        WritePipeline pipeline = new WritePipeline(engine);
+        pipeline.start();
+        CatchUpSubscriptionService service = new CatchUpSubscriptionService(pipeline);
+        service.start();
+
+        pipeline.appendToStream("stream-sean", (int) ExpectedVersion.ANY, "boom".getBytes(UTF_8));
+        RecordingHandler handler = new RecordingHandler() {
+            @Override
+            public void onMessage(CatchUpSubscription subscription, StreamMessage message) {
+                throw new IllegalStateException("boom");
+            }
+        };
+        service.subscribeToAll(Position.START, handler);
+        waitFor(() -> handler.dropped != null);
+        assertEquals(SubscriptionDropReason.SUBSCRIBER_ERROR, handler.dropped.getReason());
+        assertTrue(handler.dropped.getCause() instanceof IllegalStateException);
+
+        service.close();
+        pipeline.close();
+        engine.close();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    private static class RecordingHandler implements SubscriptionHandler {
+        final List<StreamMessage> messages = new CopyOnWriteArrayList<>();
+        final AtomicInteger caughtUp = new AtomicInteger();
+        volatile SubscriptionDropped dropped;
+
+        @Override
+        public void onMessage(CatchUpSubscription subscription, StreamMessage message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void onCaughtUp(CatchUpSubscription subscription) {
+            caughtUp.incrementAndGet();
+        }
+
+        @Override
+        public void onDropped(CatchUpSubscription subscription, SubscriptionDropped dropped) {
+            this.dropped = dropped;
+        }
+    }
+}
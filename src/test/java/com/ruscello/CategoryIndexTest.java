@@ -0,0 +1,75 @@
+package com.ruscello;
+
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.core.ReadAllPage;
+import com.ruscello.core.StreamMessage;
+import com.ruscello.core.SystemStreams;
+import com.ruscello.storage.CategoryStore;
+import com.ruscello.storage.StorageEngine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junitpioneer.jupiter.TempDirectory;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(TempDirectory.class)
+public class CategoryIndexTest {
+
+    @Test
+    public void categoryIsTheNameBeforeTheFirstDash() {
+        assertEquals("order", SystemStreams.categoryOf("order-123"));
+        assertEquals("order", SystemStreams.categoryOf("order-123-456"));
+        assertNull(SystemStreams.categoryOf("orders"));
+        assertNull(SystemStreams.categoryOf("-123"));
+        assertNull(SystemStreams.categoryOf("$ce-order"));
+    }
+
+    @Test
+    public void categoryReads(@TempDirectory.TempDir Path tmpDir) {
+        Engines.forEach(tmpDir, CategoryIndexTest::assertCategoryReads);
+    }
+
+    private static <E extends StorageEngine & CategoryStore> void assertCategoryReads(E engine) {
+        engine.appendToStream("order-1", (int) ExpectedVersion.NO_STRREAM,
+                Arrays.asList("o1-0".getBytes(UTF_8), "o1-1".getBytes(UTF_8)));
+        engine.appendToStream("customer-1", (int) ExpectedVersion.NO_STRREAM, "c1-0".getBytes(UTF_8));
+        engine.appendToStream("orders", (int) ExpectedVersion.NO_STRREAM, "orders-0".getBytes(UTF_8));
+        engine.appendToStream("order-2", (int) ExpectedVersion.NO_STRREAM, "o2-0".getBytes(UTF_8));
+        engine.appendToStream("order-1", 1, "o1-2".getBytes(UTF_8));
+
+        ReadAllPage first = engine.readCategoryForwards("order", 0, 3, true);
+        assertEquals(Arrays.asList("o1-0", "o1-1", "o2-0"), data(first.getMessages()));
+        assertEquals(Arrays.asList(0L, 1L, 4L),
+                first.getMessages().stream().map(StreamMessage::getPosition).collect(Collectors.toList()));
+        assertEquals("order-2", first.getMessages().get(2).getStreamId());
+        assertEquals(0, first.getMessages().get(2).getStreamVersion());
+        assertFalse(first.isEnd());
+        assertEquals(5, first.getNextPosition());
+
+        ReadAllPage second = engine.readCategoryForwards("order", first.getNextPosition(), 3, true);
+        assertEquals(Arrays.asList("o1-2"), data(second.getMessages()));
+        assertEquals(2, second.getMessages().get(0).getStreamVersion());
+        assertTrue(second.isEnd());
+        assertEquals(6, second.getNextPosition());
+
+        // without prefetch only the links are read
+        ReadAllPage links = engine.readCategoryForwards("customer", 0, 10, false);
+        assertEquals(1, links.getMessages().size());
+        assertEquals("customer-1", links.getMessages().get(0).getStreamId());
+        assertNull(links.getMessages().get(0).getData());
+
+        ReadAllPage none = engine.readCategoryForwards("shipment", 0, 10, true);
+        assertTrue(none.getMessages().isEmpty());
+        assertTrue(none.isEnd());
+    }
+
+    private static List<String> data(List<StreamMessage> messages) {
+        return messages.stream().map(m -> new String(m.getData(), UTF_8)).collect(Collectors.toList());
+    }
+}
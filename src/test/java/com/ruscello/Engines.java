@@ -0,0 +1,66 @@
+package com.ruscello;
+
+import com.ruscello.storage.CategoryStore;
+import com.ruscello.storage.EventTypeStore;
+import com.ruscello.storage.StorageEngine;
+import com.ruscello.storage.StreamNameStore;
+import com.ruscello.storage.lmdb.LmbdStorageEngine;
+import com.ruscello.storage.rocksdb.RocksdbStorageEngine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Runs the same checks against each storage engine, each opened in its own directory and closed afterwards
+ */
+final class Engines {
+
+    /**
+     * Implemented with a method reference to a generic method bounded by just the stores the check uses,
+     * e.g. {@code <E extends StorageEngine & CategoryStore> void check(E engine)}
+     */
+    interface EngineTest {
+        <E extends StorageEngine & CategoryStore & EventTypeStore & StreamNameStore> void run(E engine);
+    }
+
+    private Engines() {
+    }
+
+    static void forEach(Path tmpDir, EngineTest test) {
+        LmbdStorageEngine lmdb = new LmbdStorageEngine(directory(tmpDir, "lmdb").toFile(), null);
+        lmdb.open();
+        try {
+            run("lmdb", test, lmdb);
+        } finally {
+            lmdb.close();
+        }
+
+        RocksdbStorageEngine rocksdb = new RocksdbStorageEngine("test",
+                directory(tmpDir, "rocksdb").toFile().getAbsolutePath());
+        rocksdb.open();
+        try {
+            run("rocksdb", test, rocksdb);
+        } finally {
+            rocksdb.close();
+        }
+    }
+
+    private static <E extends StorageEngine & CategoryStore & EventTypeStore & StreamNameStore> void run(
+            String name, EngineTest test, E engine) {
+        try {
+            test.run(engine);
+        } catch (AssertionError e) {
+            throw new AssertionError(name + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static Path directory(Path tmpDir, String name) {
+        try {
+            return Files.createDirectories(tmpDir.resolve(name));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.ruscello;
+
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.ReadAllPage;
+import com.ruscello.core.StreamMessage;
+import com.ruscello.storage.EventTypeStore;
+import com.ruscello.storage.StorageEngine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junitpioneer.jupiter.TempDirectory;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(TempDirectory.class)
+public class EventTypeIndexTest {
+
+    @Test
+    public void typeReads(@TempDirectory.TempDir Path tmpDir) {
+        Engines.forEach(tmpDir, EventTypeIndexTest::assertTypeReads);
+    }
+
+    private static <E extends StorageEngine & EventTypeStore> void assertTypeReads(E engine) {
+        engine.appendToStream("order-1", (int) ExpectedVersion.NO_STRREAM,
+                NewStreamMessage.of("order-placed", "placed-1".getBytes(UTF_8)),
+                NewStreamMessage.of("order-shipped", "shipped-1".getBytes(UTF_8)),
+                NewStreamMessage.of("untyped".getBytes(UTF_8)));
+        engine.appendToStream("order-2", (int) ExpectedVersion.NO_STRREAM,
+                NewStreamMessage.of("order-placed", "placed-2".getBytes(UTF_8)));
+        engine.appendToStream("order-3", (int) ExpectedVersion.NO_STRREAM,
+                NewStreamMessage.of("order-placed", "placed-3".getBytes(UTF_8)));
+
+        ReadAllPage first = engine.readAllForwards("order-placed", 0, 2, true);
+        assertEquals(Arrays.asList("placed-1", "placed-2"), data(first.getMessages()));
+        assertEquals(Arrays.asList(0L, 3L),
+                first.getMessages().stream().map(StreamMessage::getPosition).collect(Collectors.toList()));
+        assertEquals("order-2", first.getMessages().get(1).getStreamId());
+        assertEquals("order-placed", first.getMessages().get(1).getType());
+        assertFalse(first.isEnd());
+        assertEquals(4, first.getNextPosition());
+
+        ReadAllPage second = engine.readAllForwards("order-placed", first.getNextPosition(), 2, true);
+        assertEquals(Arrays.asList("placed-3"), data(second.getMessages()));
+        assertTrue(second.isEnd());
+        assertEquals(5, second.getNextPosition());
+
+        ReadAllPage shipped = engine.readAllForwards("order-shipped", 0, 10, false);
+        assertEquals(1, shipped.getMessages().size());
+        assertEquals(1, shipped.getMessages().get(0).getStreamVersion());
+        assertNull(shipped.getMessages().get(0).getData());
+
+        assertTrue(engine.readAllForwards("order-cancelled", 0, 10, true).getMessages().isEmpty());
+
+        // the type is kept in the message so every read returns it
+        List<StreamMessage> stream = engine.readStreamForwards("order-1", 0, 10, false).getMessages();
+        assertEquals(Arrays.asList("order-placed", "order-shipped", null),
+                stream.stream().map(StreamMessage::getType).collect(Collectors.toList()));
+        assertEquals(Arrays.asList("order-placed", "order-shipped", null, "order-placed", "order-placed"),
+                engine.readAllForwards(0, 10, true).getMessages().stream()
+                        .map(StreamMessage::getType).collect(Collectors.toList()));
+    }
+
+    private static List<String> data(List<StreamMessage> messages) {
+        return messages.stream().map(m -> new String(m.getData(), UTF_8)).collect(Collectors.toList());
+    }
+}
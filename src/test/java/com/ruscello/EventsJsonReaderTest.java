@@ -0,0 +1,58 @@
+package com.ruscello;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.transport.http.atom.EventsJsonReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventsJsonReaderTest {
+
+    private final JsonFactory factory = new JsonFactory();
+
+    @Test
+    public void readsEventsWithRawData() throws Exception {
+        UUID id = UUID.randomUUID();
+        String body = "[{\"eventId\": \"" + id + "\", \"eventType\": \"created\", \"data\": {\"a\": [1, 2], \"b\": {\"c\": null}}},"
+                + " {\"metadata\": {\"ignored\": true}, \"data\": \"plain text\"},"
+                + " {\"data\": [true, \"x\"], \"unknown\": [{\"deep\": 1}]}]";
+
+        List<NewStreamMessage> messages = new EventsJsonReader(factory).read(stream(body));
+
+        assertEquals(3, messages.size());
+        assertEquals(id, messages.get(0).getMessageId());
+        assertEquals("created", messages.get(0).getType());
+        assertNull(messages.get(1).getType());
+        assertEquals("{\"a\":[1,2],\"b\":{\"c\":null}}", new String(messages.get(0).getData(), UTF_8));
+        assertEquals("plain text", new String(messages.get(1).getData(), UTF_8));
+        assertEquals("[true,\"x\"]", new String(messages.get(2).getData(), UTF_8));
+        assertNotEquals(messages.get(1).getMessageId(), messages.get(2).getMessageId());
+    }
+
+    @Test
+    public void rejectsBodiesThatAreNotEvents() {
+        EventsJsonReader reader = new EventsJsonReader(factory);
+        assertThrows(JsonParseException.class, () -> reader.read(stream("{\"data\": {}}")));
+        assertThrows(JsonParseException.class, () -> reader.read(stream("[{\"eventType\": \"no-data\"}]")));
+        assertThrows(JsonParseException.class, () -> reader.read(stream("[{\"eventId\": \"nope\", \"data\": {}}]")));
+        assertThrows(JsonParseException.class, () -> reader.read(stream("[{\"data\": {\"a\": ")));
+        assertThrows(JsonParseException.class, () -> reader.read(stream("[{\"eventType\": 1, \"data\": {}}]")));
+        // 2 UTF-8 bytes a char
+        char[] longType = new char[NewStreamMessage.MAX_TYPE_SIZE / 2 + 1];
+        Arrays.fill(longType, '\u00e9');
+        assertThrows(JsonParseException.class,
+                () -> reader.read(stream("[{\"eventType\": \"" + new String(longType) + "\", \"data\": {}}]")));
+    }
+
+    private static ByteArrayInputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(UTF_8));
+    }
+}
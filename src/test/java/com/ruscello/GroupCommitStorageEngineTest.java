@@ -0,0 +1,95 @@
+package com.ruscello;
+
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.core.WrongExpectedVersion;
+import com.ruscello.storage.GroupCommitStorageEngine;
+import com.ruscello.storage.lmdb.LmbdStorageEngine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junitpioneer.jupiter.TempDirectory;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(TempDirectory.class)
+public class GroupCommitStorageEngineTest {
+
+    @Test
+    public void concurrentAppendsAreAllCommitted(@TempDirectory.TempDir Path tmpDir) throws Exception {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        GroupCommitStorageEngine groupCommit = new GroupCommitStorageEngine(engine, 64, Duration.of(1, ChronoUnit.MILLIS));
+        groupCommit.start();
+
+        int producers = 8;
+        int appendsPerProducer = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final String streamId = "stream-" + p;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < appendsPerProducer; i++) {
+                    groupCommit.appendToStream(streamId, i - 1, ("message-" + i).getBytes(UTF_8));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // every stream is now at version appendsPerProducer - 1 so only that expected version is accepted
+        assertThrows(WrongExpectedVersion.class, () -> groupCommit.appendToStream("stream-0", 0, "late".getBytes(UTF_8)));
+        groupCommit.appendToStream("stream-0", appendsPerProducer - 1, "next".getBytes(UTF_8));
+
+        groupCommit.close();
+        engine.close();
+    }
+
+    @Test
+    public void onlyOneCreatorWinsWithinABatch(@TempDirectory.TempDir Path tmpDir) throws Exception {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        GroupCommitStorageEngine groupCommit = new GroupCommitStorageEngine(engine, 64, Duration.of(5, ChronoUnit.MILLIS));
+        groupCommit.start();
+
+        int creators = 16;
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger conflicts = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(creators);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < creators; i++) {
+            futures.add(executor.submit(() -> {
+                try {
+                    groupCommit.appendToStream("stream-sean", (int) ExpectedVersion.NO_STRREAM,
+                            Arrays.asList("first".getBytes(UTF_8), "second".getBytes(UTF_8)));
+                    created.incrementAndGet();
+                } catch (WrongExpectedVersion e) {
+                    conflicts.incrementAndGet();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(1, created.get());
+        assertEquals(creators - 1, conflicts.get());
+
+        groupCommit.close();
+        engine.close();
+    }
+}
@@ -0,0 +1,92 @@
+package com.ruscello;
+
+import com.ruscello.bus.AnotherFakeMessage;
+import com.ruscello.bus.FakeMessage;
+import com.ruscello.bus.IHandle;
+import com.ruscello.bus.InMemoryBus;
+import com.ruscello.bus.Message;
+import com.ruscello.bus.MessageHierarchy;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryBusTest {
+
+    public static class DerivedFakeMessage extends FakeMessage {
+    }
+
+    @Test
+    public void everyMessageTypeHasADenseId() {
+        assertEquals(0, new Message().getMsgTypeId());
+        assertNotEquals(new FakeMessage().getMsgTypeId(), new AnotherFakeMessage().getMsgTypeId());
+        assertEquals(new FakeMessage().getMsgTypeId(), new FakeMessage().getMsgTypeId());
+
+        int derived = new DerivedFakeMessage().getMsgTypeId();
+        assertTrue(derived <= MessageHierarchy.maxMsgTypeId());
+        assertSame(DerivedFakeMessage.class, MessageHierarchy.typeOf(derived));
+        assertArrayEquals(new int[] {0, new FakeMessage().getMsgTypeId(), derived},
+                MessageHierarchy.parentsOf(derived));
+    }
+
+    @Test
+    public void typesFirstSeenAfterSubscribingAreDispatched() {
+        InMemoryBus bus = InMemoryBus.createTest();
+        List<String> handled = new ArrayList<>();
+        IHandle<FakeMessage> fakes = message -> handled.add(message.getClass().getSimpleName());
+        bus.subscribe(FakeMessage.class, fakes);
+
+        // local classes get their ids here, after the bus built its table
+        class LateFakeMessage extends FakeMessage {
+        }
+        class LateMessage extends Message {
+        }
+        Message late = new LateFakeMessage();
+        assertSame(LateFakeMessage.class, MessageHierarchy.typeOf(late.getMsgTypeId()));
+        bus.publish(late);
+        bus.publish(new LateMessage());
+
+        List<String> expected = new ArrayList<>();
+        expected.add("LateFakeMessage");
+        assertEquals(expected, handled);
+    }
+
+    @Test
+    public void handlersReceiveTheirTypeAndSubtypes() {
+        InMemoryBus bus = InMemoryBus.createTest();
+        List<String> handled = new ArrayList<>();
+        IHandle<Message> all = message -> handled.add("all:" + message.getClass().getSimpleName());
+        IHandle<FakeMessage> fakes = message -> handled.add("fake:" + message.getClass().getSimpleName());
+        bus.subscribe(Message.class, all);
+        bus.subscribe(FakeMessage.class, fakes);
+        // subscribing twice doesn't deliver twice
+        bus.subscribe(FakeMessage.class, fakes);
+
+        bus.publish(new FakeMessage());
+        bus.publish(new DerivedFakeMessage());
+        bus.publish(new AnotherFakeMessage());
+
+        List<String> expected = new ArrayList<>();
+        expected.add("all:FakeMessage");
+        expected.add("fake:FakeMessage");
+        expected.add("all:DerivedFakeMessage");
+        expected.add("fake:DerivedFakeMessage");
+        expected.add("all:AnotherFakeMessage");
+        assertEquals(expected, handled);
+    }
+
+    @Test
+    public void unsubscribedHandlersAreNotCalled() {
+        InMemoryBus bus = InMemoryBus.createTest();
+        List<Message> handled = new ArrayList<>();
+        IHandle<FakeMessage> fakes = handled::add;
+        bus.subscribe(FakeMessage.class, fakes);
+        bus.unsubscribe(FakeMessage.class, fakes);
+
+        bus.publish(new FakeMessage());
+        bus.publish(new DerivedFakeMessage());
+        assertTrue(handled.isEmpty());
+    }
+}
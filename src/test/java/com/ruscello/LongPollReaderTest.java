@@ -0,0 +1,95 @@
+package com.ruscello;
+
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.core.ReadAllPage;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.transport.http.atom.LongPollReader;
+import com.ruscello.storage.lmdb.LmbdStorageEngine;
+import com.ruscello.write.WritePipeline;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junitpioneer.jupiter.TempDirectory;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(TempDirectory.class)
+public class LongPollReaderTest {
+
+    private static final Duration LONG_POLL = Duration.ofSeconds(30);
+
+    @Test
+    public void readAtHeadOfStreamWaitsForTheNextAppend(@TempDirectory.TempDir Path tmpDir) throws Exception {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        WritePipeline pipeline = new WritePipeline(engine);
+        pipeline.start();
+        LongPollReader reader = new LongPollReader(pipeline, 1);
+        reader.start();
+
+        pipeline.appendToStream("orders", (int) ExpectedVersion.ANY, "first".getBytes(UTF_8));
+        DeferredResult<ReadStreamPage> available = reader.readStreamForwards("orders", 0, 10, LONG_POLL);
+        assertTrue(available.hasResult());
+        assertEquals(1, ((ReadStreamPage) available.getResult()).getMessages().size());
+
+        DeferredResult<ReadStreamPage> noLongPoll = reader.readStreamForwards("orders", 1, 10, null);
+        assertTrue(noLongPoll.hasResult());
+        assertTrue(((ReadStreamPage) noLongPoll.getResult()).getMessages().isEmpty());
+
+        DeferredResult<ReadStreamPage> waiting = reader.readStreamForwards("orders", 1, 10, LONG_POLL);
+        // appends to other streams don't fill the page
+        pipeline.appendToStream("invoices", (int) ExpectedVersion.ANY, "other".getBytes(UTF_8));
+        Thread.sleep(50);
+        assertFalse(waiting.hasResult());
+
+        pipeline.appendToStream("orders", (int) ExpectedVersion.ANY, "second".getBytes(UTF_8));
+        waitFor(waiting::hasResult);
+        ReadStreamPage page = (ReadStreamPage) waiting.getResult();
+        assertEquals(1, page.getMessages().size());
+        assertEquals("second", new String(page.getMessages().get(0).getData(), UTF_8));
+
+        reader.close();
+        pipeline.close();
+        engine.close();
+    }
+
+    @Test
+    public void readAtHeadOfAllIsWokenByAnyStream(@TempDirectory.TempDir Path tmpDir) throws Exception {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        WritePipeline pipeline = new WritePipeline(engine);
+        pipeline.start();
+        LongPollReader reader = new LongPollReader(pipeline, 1);
+        reader.start();
+
+        pipeline.appendToStream("orders", (int) ExpectedVersion.ANY, "first".getBytes(UTF_8));
+        long from = pipeline.readHeadPosition() + 1;
+        DeferredResult<ReadAllPage> waiting = reader.readAllForwards(from, 10, LONG_POLL);
+        Thread.sleep(50);
+        assertFalse(waiting.hasResult());
+
+        pipeline.appendToStream("invoices", (int) ExpectedVersion.ANY, "second".getBytes(UTF_8));
+        waitFor(waiting::hasResult);
+        ReadAllPage page = (ReadAllPage) waiting.getResult();
+        assertEquals(1, page.getMessages().size());
+        assertEquals("invoices", page.getMessages().get(0).getStreamId());
+
+        reader.close();
+        pipeline.close();
+        engine.close();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
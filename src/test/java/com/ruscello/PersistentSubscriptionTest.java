@@ -0,0 +1,229 @@
+package com.ruscello;
+
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.Position;
+import com.ruscello.core.StreamMessage;
+import com.ruscello.core.SystemStreams;
+import com.ruscello.core.messages.client.ConnectToPersistentSubscription;
+import com.ruscello.core.messages.client.CreatePersistentSubscription;
+import com.ruscello.core.messages.client.DeletePersistentSubscription;
+import com.ruscello.core.messages.client.SubscriptionDropReason;
+import com.ruscello.core.messages.client.SubscriptionDropped;
+import com.ruscello.storage.lmdb.LmbdStorageEngine;
+import com.ruscello.subscriptions.NakAction;
+import com.ruscello.subscriptions.PersistentSubscriptionConnection;
+import com.ruscello.subscriptions.PersistentSubscriptionHandler;
+import com.ruscello.subscriptions.PersistentSubscriptionService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junitpioneer.jupiter.TempDirectory;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(TempDirectory.class)
+public class PersistentSubscriptionTest {
+
+    @Test
+    public void roundRobinSharesMessagesAndResumesFromCheckpoint(@TempDirectory.TempDir Path tmpDir) throws Exception {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        PersistentSubscriptionService service = new PersistentSubscriptionService(engine, engine);
+        service.start();
+        service.createSubscription(settings("orders", "billing", "RoundRobin", 30_000, 10));
+
+        for (int i = 0; i < 50; i++) {
+            engine.appendToStream("orders", (int) ExpectedVersion.ANY, ("order-" + i).getBytes(UTF_8));
+        }
+        AckingHandler first = new AckingHandler();
+        AckingHandler second = new AckingHandler();
+        service.connect(connect("orders", "billing", 5), first);
+        service.connect(connect("orders", "billing", 5), second);
+        waitFor(() -> first.messages.size() + second.messages.size() == 50);
+
+        assertFalse(first.messages.isEmpty());
+        assertFalse(second.messages.isEmpty());
+        Set<Long> versions = new HashSet<>();
+        first.messages.forEach(m -> versions.add(m.getStreamVersion()));
+        second.messages.forEach(m -> versions.add(m.getStreamVersion()));
+        assertEquals(50, versions.size());
+
+        // acks are applied by the dispatcher so wait for them before the checkpoint is written on close
+        Thread.sleep(100);
+        service.close();
+        assertEquals(SubscriptionDropReason.SHUTDOWN, first.dropped.getReason());
+
+        for (int i = 50; i < 60; i++) {
+            engine.appendToStream("orders", (int) ExpectedVersion.ANY, ("order-" + i).getBytes(UTF_8));
+        }
+        PersistentSubscriptionService restarted = new PersistentSubscriptionService(engine, engine);
+        restarted.start();
+        AckingHandler resumed = new AckingHandler();
+        restarted.connect(connect("orders", "billing", 10), resumed);
+        waitFor(() -> resumed.messages.size() == 10);
+        assertEquals("order-50", new String(resumed.messages.get(0).getData(), UTF_8));
+
+        restarted.deleteSubscription(new DeletePersistentSubscription("billing", "orders"));
+        waitFor(() -> resumed.dropped != null);
+        assertEquals(SubscriptionDropReason.PERSISTENT_SUBSCRIPTION_DELETED, resumed.dropped.getReason());
+        assertThrows(IllegalArgumentException.class,
+                () -> restarted.connect(connect("orders", "billing", 10), new AckingHandler()));
+
+        restarted.close();
+        engine.close();
+    }
+
+    @Test
+    public void nakedMessagesAreRetriedThenParkedAndReplayed(@TempDirectory.TempDir Path tmpDir) throws Exception {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        PersistentSubscriptionService service = new PersistentSubscriptionService(engine, engine);
+        service.start();
+        service.createSubscription(settings("payments", "audit", "RoundRobin", 30_000, 2));
+
+        engine.appendToStream("payments", (int) ExpectedVersion.ANY, "ok-0".getBytes(UTF_8));
+        engine.appendToStream("payments", (int) ExpectedVersion.ANY,
+                NewStreamMessage.of("payment-failed", "poison".getBytes(UTF_8)));
+        engine.appendToStream("payments", (int) ExpectedVersion.ANY, "ok-1".getBytes(UTF_8));
+
+        List<Integer> poisonRetries = new CopyOnWriteArrayList<>();
+        List<String> acked = new CopyOnWriteArrayList<>();
+        List<String> ackedTypes = new CopyOnWriteArrayList<>();
+        service.connect(connect("payments", "audit", 10), new PersistentSubscriptionHandler() {
+            @Override
+            public void onMessage(PersistentSubscriptionConnection connection, StreamMessage message, int retryCount) {
+                String data = new String(message.getData(), UTF_8);
+                if (data.equals("poison") && poisonRetries.size() < 3) {
+                    poisonRetries.add(retryCount);
+                    connection.nack(NakAction.RETRY, message);
+                } else {
+                    ackedTypes.add(String.valueOf(message.getType()));
+                    acked.add(data);
+                    connection.ack(message);
+                }
+            }
+        });
+        waitFor(() -> acked.size() == 2 && poisonRetries.size() == 3);
+        assertEquals(0, (int) poisonRetries.get(0));
+        assertEquals(2, (int) poisonRetries.get(2));
+        waitFor(() -> engine.readStreamForwards("$persistentsubscription-payments::audit-parked", 0, 10, true)
+                .getMessages().size() == 1);
+
+        service.replayParkedMessages("payments", "audit");
+        waitFor(() -> acked.size() == 3);
+        assertEquals("poison", acked.get(2));
+        // replayed as the original message
+        assertEquals(Arrays.asList("null", "null", "payment-failed"), ackedTypes);
+
+        service.close();
+        engine.close();
+    }
+
+    @Test
+    public void pinnedSendsEachStreamToOneConsumer(@TempDirectory.TempDir Path tmpDir) throws Exception {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        PersistentSubscriptionService service = new PersistentSubscriptionService(engine, engine);
+        service.start();
+        service.createSubscription(settings(SystemStreams.ALL_STREAM, "projections", "Pinned", 30_000, 10));
+
+        for (int i = 0; i < 80; i++) {
+            engine.appendToStream("account-" + (i % 8), (int) ExpectedVersion.ANY, ("event-" + i).getBytes(UTF_8));
+        }
+        AckingHandler first = new AckingHandler();
+        AckingHandler second = new AckingHandler();
+        // enough in flight that a busy consumer never has its streams held back
+        service.connect(connect(SystemStreams.ALL_STREAM, "projections", 100), first);
+        service.connect(connect(SystemStreams.ALL_STREAM, "projections", 100), second);
+        waitFor(() -> first.messages.size() + second.messages.size() == 80);
+
+        Map<String, AckingHandler> owners = new HashMap<>();
+        for (AckingHandler handler : new AckingHandler[] {first, second}) {
+            for (StreamMessage message : handler.messages) {
+                AckingHandler owner = owners.putIfAbsent(message.getStreamId(), handler);
+                assertTrue(owner == null || owner == handler, message.getStreamId() + " went to both consumers");
+            }
+        }
+        for (int i = 1; i < first.messages.size(); i++) {
+            assertTrue(first.messages.get(i).getPosition() > first.messages.get(i - 1).getPosition());
+        }
+
+        service.close();
+        engine.close();
+    }
+
+    @Test
+    public void unackedMessagesAreRedeliveredAfterTimeout(@TempDirectory.TempDir Path tmpDir) throws Exception {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        PersistentSubscriptionService service = new PersistentSubscriptionService(engine, engine);
+        service.start();
+        service.createSubscription(settings("emails", "sender", "RoundRobin", 200, 10));
+        engine.appendToStream("emails", (int) ExpectedVersion.ANY, "welcome".getBytes(UTF_8));
+
+        List<Integer> retryCounts = new CopyOnWriteArrayList<>();
+        service.connect(connect("emails", "sender", 1), (connection, message, retryCount) -> {
+            retryCounts.add(retryCount);
+            // the first delivery is never acked
+            if (retryCount > 0) {
+                connection.ack(message);
+            }
+        });
+        waitFor(() -> retryCounts.size() == 2);
+        assertEquals(0, (int) retryCounts.get(0));
+        assertEquals(1, (int) retryCounts.get(1));
+
+        service.close();
+        engine.close();
+    }
+
+    private static CreatePersistentSubscription settings(String streamId,
+                                                         String groupName,
+                                                         String strategy,
+                                                         int messageTimeoutMillis,
+                                                         int maxRetryCount) {
+        return new CreatePersistentSubscription(groupName, streamId, Position.START, messageTimeoutMillis,
+                maxRetryCount, 64, 16, 0, strategy, 20, 5, 50);
+    }
+
+    private static ConnectToPersistentSubscription connect(String streamId, String groupName, int allowedInFlight) {
+        return new ConnectToPersistentSubscription(UUID.randomUUID(), groupName, streamId, allowedInFlight);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    private static class AckingHandler implements PersistentSubscriptionHandler {
+        final List<StreamMessage> messages = new CopyOnWriteArrayList<>();
+        volatile SubscriptionDropped dropped;
+
+        @Override
+        public void onMessage(PersistentSubscriptionConnection connection, StreamMessage message, int retryCount) {
+            messages.add(message);
+            connection.ack(message);
+        }
+
+        @Override
+        public void onDropped(PersistentSubscriptionConnection connection, SubscriptionDropped dropped) {
+            this.dropped = dropped;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.ruscello;
+
+import com.ruscello.bus.AnotherFakeMessage;
+import com.ruscello.bus.FakeMessage;
+import com.ruscello.bus.InMemoryBus;
+import com.ruscello.bus.LatencyHistogram;
+import com.ruscello.bus.Message;
+import com.ruscello.bus.QueuedHandler;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueuedHandlerTest {
+
+    @Test
+    public void messagesAreHandledInOrderOnTheQueueThread() {
+        InMemoryBus bus = InMemoryBus.createTest();
+        List<Message> handled = new CopyOnWriteArrayList<>();
+        List<String> threads = new CopyOnWriteArrayList<>();
+        bus.subscribe(Message.class, message -> {
+            handled.add(message);
+            threads.add(Thread.currentThread().getName());
+        });
+        QueuedHandler queue = new QueuedHandler(bus, "test-queue");
+        queue.start();
+
+        Message first = new FakeMessage();
+        Message second = new AnotherFakeMessage();
+        Message third = new FakeMessage();
+        queue.publish(first);
+        queue.publish(second);
+        queue.publish(third);
+        queue.stop();
+
+        assertEquals(3, handled.size());
+        assertSame(first, handled.get(0));
+        assertSame(second, handled.get(1));
+        assertSame(third, handled.get(2));
+        assertTrue(threads.stream().allMatch("test-queue"::equals));
+    }
+
+    @Test
+    public void handlingTimesAreOnlyRecordedWhenWatching() {
+        QueuedHandler watched = new QueuedHandler(message -> { }, "watched", true, null, 16);
+        QueuedHandler unwatched = new QueuedHandler(message -> { }, "unwatched", false, null, 16);
+        watched.start();
+        unwatched.start();
+        for (int i = 0; i < 10; i++) {
+            watched.publish(new FakeMessage());
+            unwatched.publish(new FakeMessage());
+        }
+        watched.publish(new AnotherFakeMessage());
+        watched.stop();
+        unwatched.stop();
+
+        LatencyHistogram fakes = watched.getHistogram(FakeMessage.class);
+        assertEquals(10, fakes.getTotalCount());
+        assertTrue(fakes.getValueAtPercentile(99) <= fakes.getMaxValue());
+        assertEquals(1, watched.getHistogram(AnotherFakeMessage.class).getTotalCount());
+        assertNull(unwatched.getHistogram(FakeMessage.class));
+    }
+
+    @Test
+    public void publishersWaitWhenTheQueueIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Message> handled = new CopyOnWriteArrayList<>();
+        QueuedHandler queue = new QueuedHandler(message -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            handled.add(message);
+        }, "bounded", false, null, 4);
+        queue.start();
+
+        Thread publisher = new Thread(() -> {
+            for (int i = 0; i < 20; i++) {
+                queue.publish(new FakeMessage());
+            }
+        });
+        publisher.start();
+        publisher.join(200);
+        assertTrue(publisher.isAlive());
+        assertTrue(queue.getQueueSize() <= 4);
+
+        release.countDown();
+        publisher.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(publisher.isAlive());
+        queue.stop();
+        assertEquals(20, handled.size());
+    }
+}
@@ -0,0 +1,123 @@
+package com.ruscello;
+
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.storage.RecentMessageIds;
+import com.ruscello.storage.StreamKeyCodec;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecentMessageIdsTest {
+
+    private final StreamKeyCodec codec = new StreamKeyCodec();
+
+    @Test
+    public void duplicateFoundInWindow() {
+        RecentMessageIds ids = new RecentMessageIds(4, 8, 1024);
+        List<NewStreamMessage> messages = Arrays.asList(message(), message());
+        record(ids, "stream-sean", messages, 0, 10);
+
+        assertEquals(RecentMessageIds.Match.DUPLICATE, ids.match(codec.hash("stream-sean"), messages));
+        assertEquals(1, ids.getDuplicateVersion());
+        assertEquals(11, ids.getDuplicatePosition());
+
+        assertEquals(RecentMessageIds.Match.DUPLICATE,
+                ids.match(codec.hash("stream-sean"), messages.subList(1, 2)));
+        assertEquals(RecentMessageIds.Match.NEW,
+                ids.match(codec.hash("stream-sean"), Collections.singletonList(message())));
+    }
+
+    @Test
+    public void idsOutOfOrderAreNotADuplicate() {
+        RecentMessageIds ids = new RecentMessageIds(4, 8, 1024);
+        NewStreamMessage first = message();
+        NewStreamMessage second = message();
+        record(ids, "stream-sean", Arrays.asList(first, second), 0, 0);
+
+        // both ids are known so only storage could tell, and it will say no
+        assertEquals(RecentMessageIds.Match.UNKNOWN,
+                ids.match(codec.hash("stream-sean"), Arrays.asList(second, first)));
+    }
+
+    @Test
+    public void evictedIdsAreCheckedAgainstStorage() {
+        RecentMessageIds ids = new RecentMessageIds(2, 8, 1024);
+        List<NewStreamMessage> messages = Arrays.asList(message(), message(), message());
+        record(ids, "stream-sean", messages, 0, 0);
+
+        // the first id has been overwritten in the ring but the filter still knows it
+        List<NewStreamMessage> retry = messages.subList(0, 1);
+        assertEquals(RecentMessageIds.Match.UNKNOWN, ids.match(codec.hash("stream-sean"), retry));
+
+        ids.beginStored();
+        UUID id = messages.get(0).getMessageId();
+        ids.addStored(id.getMostSignificantBits(), id.getLeastSignificantBits(), 0, 0);
+        assertTrue(ids.matchStored(codec.hash("stream-sean"), retry));
+        assertEquals(0, ids.getDuplicateVersion());
+
+        ids.beginStored();
+        assertFalse(ids.matchStored(codec.hash("stream-sean"), retry));
+    }
+
+    @Test
+    public void invalidatedWindowIsForgotten() {
+        RecentMessageIds ids = new RecentMessageIds(4, 8, 1024);
+        List<NewStreamMessage> messages = Collections.singletonList(message());
+        record(ids, "stream-sean", messages, 0, 0);
+
+        ids.invalidate(codec.hash("stream-sean"));
+        assertEquals(RecentMessageIds.Match.UNKNOWN, ids.match(codec.hash("stream-sean"), messages));
+
+        // after a restart the ids may have been committed before it
+        ids.clear();
+        assertEquals(RecentMessageIds.Match.UNKNOWN, ids.match(codec.hash("stream-sean"), messages));
+    }
+
+    @Test
+    public void streamsAreCheckedAgainstStorageOnceSinceStart() {
+        RecentMessageIds ids = new RecentMessageIds(4, 8, 1024);
+        List<NewStreamMessage> committed = Collections.singletonList(message());
+        List<NewStreamMessage> fresh = Collections.singletonList(message());
+        assertEquals(RecentMessageIds.Match.UNKNOWN, ids.match(codec.hash("stream-sean"), fresh));
+
+        // the stored tail is added to the filter
+        ids.beginStored();
+        UUID id = committed.get(0).getMessageId();
+        ids.addStored(id.getMostSignificantBits(), id.getLeastSignificantBits(), 0, 0);
+        assertFalse(ids.matchStored(codec.hash("stream-sean"), fresh));
+
+        assertEquals(RecentMessageIds.Match.NEW, ids.match(codec.hash("stream-sean"), fresh));
+        assertEquals(RecentMessageIds.Match.UNKNOWN, ids.match(codec.hash("stream-sean"), committed));
+        assertEquals(RecentMessageIds.Match.UNKNOWN, ids.match(codec.hash("stream-other"), fresh));
+    }
+
+    @Test
+    public void agedOutStreamsAreCheckedAgain() {
+        RecentMessageIds ids = new RecentMessageIds(4, 8, 1024, 1);
+        List<NewStreamMessage> messages = Collections.singletonList(message());
+        for (String stream : Arrays.asList("stream-a", "stream-b", "stream-c")) {
+            ids.beginStored();
+            ids.matchStored(codec.hash(stream), messages);
+        }
+        assertEquals(RecentMessageIds.Match.NEW, ids.match(codec.hash("stream-c"), messages));
+        assertEquals(RecentMessageIds.Match.NEW, ids.match(codec.hash("stream-b"), messages));
+        assertEquals(RecentMessageIds.Match.UNKNOWN, ids.match(codec.hash("stream-a"), messages));
+    }
+
+    private void record(RecentMessageIds ids, String streamId, List<NewStreamMessage> messages,
+                        long firstVersion, long firstPosition) {
+        for (int i = 0; i < messages.size(); i++) {
+            ids.record(codec.hash(streamId), messages.get(i).getMessageId(), firstVersion + i, firstPosition + i);
+        }
+    }
+
+    private static NewStreamMessage message() {
+        return NewStreamMessage.of("message".getBytes(UTF_8));
+    }
+}
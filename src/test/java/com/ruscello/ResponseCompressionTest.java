@@ -0,0 +1,161 @@
+package com.ruscello;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.core.PageReadStatus;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.StreamMessage;
+import com.ruscello.core.transport.http.atom.PageRenderer;
+import com.ruscello.core.transport.http.server.CompressionAlgorithms;
+import com.ruscello.core.transport.http.server.ContentTypes;
+import com.ruscello.core.transport.http.server.ResponseCompressor;
+import com.ruscello.storage.lmdb.LmbdStorageEngine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junitpioneer.jupiter.TempDirectory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(TempDirectory.class)
+public class ResponseCompressionTest {
+
+    @Test
+    public void negotiatesEncoding() {
+        assertNull(CompressionAlgorithms.negotiate(null));
+        assertNull(CompressionAlgorithms.negotiate("identity"));
+        assertEquals(CompressionAlgorithms.GZIP, CompressionAlgorithms.negotiate("gzip, deflate, br"));
+        assertEquals(CompressionAlgorithms.DEFLATE, CompressionAlgorithms.negotiate("deflate"));
+        assertEquals(CompressionAlgorithms.DEFLATE, CompressionAlgorithms.negotiate("gzip;q=0.5, deflate"));
+        assertEquals(CompressionAlgorithms.DEFLATE, CompressionAlgorithms.negotiate("gzip;q=0, deflate;q=0.1"));
+        assertEquals(CompressionAlgorithms.GZIP, CompressionAlgorithms.negotiate("*"));
+        assertNull(CompressionAlgorithms.negotiate("gzip;q=0"));
+    }
+
+    @Test
+    public void compressedBodiesInflateBackWithPooledDeflaters() throws Exception {
+        ResponseCompressor compressor = new ResponseCompressor(16, ResponseCompressor.DEFAULT_LEVEL, 1);
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 2000; i++) {
+            json.append("{\"id\":").append(i).append(",\"type\":\"order-placed\"},");
+        }
+        byte[] body = json.append("{}]").toString().getBytes(UTF_8);
+
+        // run twice so the second time round uses deflaters that have been reset
+        for (int i = 0; i < 2; i++) {
+            byte[] gzip = compressor.compress(body, CompressionAlgorithms.GZIP);
+            assertTrue(gzip.length < body.length / 4);
+            assertArrayEquals(body, readAll(new GZIPInputStream(new ByteArrayInputStream(gzip))));
+
+            byte[] deflate = compressor.compress(body, CompressionAlgorithms.DEFLATE);
+            assertArrayEquals(body, readAll(new InflaterInputStream(new ByteArrayInputStream(deflate))));
+        }
+        assertFalse(compressor.shouldCompress(15));
+        assertArrayEquals(new byte[0], readAll(new GZIPInputStream(new ByteArrayInputStream(
+                compressor.compress(new byte[0], CompressionAlgorithms.GZIP)))));
+    }
+
+    @Test
+    public void fullPagesAreServedFromTheCache() throws Exception {
+        PageRenderer renderer = new PageRenderer(new ObjectMapper(), new ResponseCompressor(0, 1, 4), 1024 * 1024);
+        PageRenderer.Format gzip = renderer.format(null, "gzip");
+        PageRenderer.Format binaryGzip = renderer.format(ContentTypes.RUSCELLO_PAGE_BINARY, "gzip");
+        PageRenderer.Format plain = renderer.format(null, null);
+
+        ResponseEntity<byte[]> full = renderer.render(page(0, 10, false), 0, 10, binaryGzip);
+        assertEquals(CompressionAlgorithms.GZIP, full.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+
+        ResponseEntity<byte[]> cached = renderer.cachedStreamPage("orders", 0, 10, binaryGzip);
+        assertNotNull(cached);
+        assertArrayEquals(full.getBody(), cached.getBody());
+        assertNull(renderer.cachedStreamPage("orders", 0, 10, plain));
+
+        // JSON stream pages carry the head version
+        ResponseEntity<byte[]> json = renderer.render(page(0, 10, false), 0, 10, gzip);
+        String body = new String(readAll(new GZIPInputStream(new ByteArrayInputStream(json.getBody()))), UTF_8);
+        assertTrue(body.contains("\"lastStreamVersion\":9"));
+        assertNull(renderer.cachedStreamPage("orders", 0, 10, gzip));
+
+        // the head of the stream can still grow
+        renderer.render(page(10, 5, true), 10, 10, binaryGzip);
+        assertNull(renderer.cachedStreamPage("orders", 10, 10, binaryGzip));
+        // and a full page at the head says it is the end until it grows
+        renderer.render(page(20, 10, true), 20, 10, binaryGzip);
+        assertNull(renderer.cachedStreamPage("orders", 20, 10, binaryGzip));
+
+        renderer.invalidateStream("orders");
+        assertNull(renderer.cachedStreamPage("orders", 0, 10, binaryGzip));
+    }
+
+    @Test
+    public void pagesReadAgainAfterAnAppendAreCurrent(@TempDirectory.TempDir Path tmpDir) throws Exception {
+        PageRenderer renderer = new PageRenderer(new ObjectMapper(), new ResponseCompressor(0, 1, 4), 1024 * 1024);
+        PageRenderer.Format binaryGzip = renderer.format(ContentTypes.RUSCELLO_PAGE_BINARY, "gzip");
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        try {
+            engine.appendToStream("orders", (int) ExpectedVersion.NO_STRREAM,
+                    Arrays.asList("0".getBytes(UTF_8), "1".getBytes(UTF_8)));
+            ResponseEntity<byte[]> head = renderer.render(
+                    engine.readStreamForwards("orders", 0, 2, true), 0, 2, binaryGzip);
+            assertTrue(isEnd(head));
+            assertNull(renderer.cachedStreamPage("orders", 0, 2, binaryGzip));
+
+            engine.appendToStream("orders", 1, Arrays.asList("2".getBytes(UTF_8), "3".getBytes(UTF_8)));
+            ResponseEntity<byte[]> behind = renderer.render(
+                    engine.readStreamForwards("orders", 0, 2, true), 0, 2, binaryGzip);
+            assertFalse(isEnd(behind));
+
+            engine.appendToStream("orders", 3, "4".getBytes(UTF_8));
+            ResponseEntity<byte[]> cached = renderer.cachedStreamPage("orders", 0, 2, binaryGzip);
+            assertNotNull(cached);
+            assertArrayEquals(behind.getBody(), cached.getBody());
+            assertFalse(isEnd(cached));
+        } finally {
+            engine.close();
+        }
+    }
+
+    // status, from and next come before the end flag, see BinaryEventsCodec
+    private static boolean isEnd(ResponseEntity<byte[]> response) throws IOException {
+        DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(response.getBody())));
+        in.readByte();
+        in.readLong();
+        in.readLong();
+        return in.readByte() == 1;
+    }
+
+    private static ReadStreamPage page(long from, int count, boolean end) {
+        List<StreamMessage> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            messages.add(new StreamMessage("orders", UUID.randomUUID(), from + i, from + i, ("data-" + i).getBytes(UTF_8)));
+        }
+        return new ReadStreamPage("orders", PageReadStatus.SUCCESS, from, from + count, from + count - 1,
+                ReadDirection.FORWARD, end, messages);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
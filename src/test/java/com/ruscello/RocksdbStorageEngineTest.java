@@ -0,0 +1,271 @@
+package com.ruscello;
+
+import com.google.common.hash.Hashing;
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.PageReadStatus;
+import com.ruscello.core.Position;
+import com.ruscello.core.ReadAllPage;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.StreamMessage;
+import com.ruscello.core.StreamVersion;
+import com.ruscello.core.WrongExpectedVersion;
+import com.ruscello.core.messages.client.AppendResult;
+import com.ruscello.storage.KeyValue;
+import com.ruscello.storage.MessageRecordCodec;
+import com.ruscello.storage.PositionCodec;
+import com.ruscello.storage.StoreIterator;
+import com.ruscello.storage.rocksdb.RocksdbStorageEngine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junitpioneer.jupiter.TempDirectory;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(TempDirectory.class)
+public class RocksdbStorageEngineTest {
+
+    @Test
+    public void appendAndRead(@TempDirectory.TempDir Path tmpDir) {
+        RocksdbStorageEngine engine = new RocksdbStorageEngine("test", tmpDir.toFile().getAbsolutePath());
+        engine.open();
+
+        engine.appendToStream("stream-sean", (int) ExpectedVersion.NO_STRREAM,
+                Arrays.asList("first".getBytes(UTF_8), "second".getBytes(UTF_8)));
+        engine.appendToStream("stream-suzanne", (int) ExpectedVersion.ANY, "first".getBytes(UTF_8));
+        engine.appendToStream("stream-sean", 1, "third".getBytes(UTF_8));
+
+        byte[] prefix = Hashing.murmur3_128().hashString("stream-sean", UTF_8).asBytes();
+        int count = 0;
+        try (StoreIterator<byte[], byte[]> it = engine.range(prefix, 10)) {
+            while (it.hasNext()) {
+                KeyValue<byte[], byte[]> kv = it.next();
+                assertNotNull(engine.get(kv.key));
+                count++;
+            }
+        }
+        assertEquals(3, count);
+
+        try (StoreIterator<byte[], byte[]> it = engine.range(prefix, 2)) {
+            it.next();
+            it.next();
+            assertFalse(it.hasNext());
+        }
+
+        count = 0;
+        try (StoreIterator<byte[], byte[]> it = engine.all()) {
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+        }
+        assertEquals(4, count);
+        assertTrue(engine.approximateNumEntries() >= 0);
+
+        engine.close();
+    }
+
+    @Test
+    public void expectedVersionSurvivesReopen(@TempDirectory.TempDir Path tmpDir) {
+        RocksdbStorageEngine engine = new RocksdbStorageEngine("test", tmpDir.toFile().getAbsolutePath());
+        engine.open();
+        engine.appendToStream("stream-sean", (int) ExpectedVersion.NO_STRREAM,
+                Arrays.asList("first".getBytes(UTF_8), "second".getBytes(UTF_8)));
+        engine.flush();
+        engine.close();
+
+        engine.open();
+        assertThrows(WrongExpectedVersion.class,
+                () -> engine.appendToStream("stream-sean", (int) ExpectedVersion.NO_STRREAM, "again".getBytes(UTF_8)));
+        engine.appendToStream("stream-sean", 1, "third".getBytes(UTF_8));
+        engine.close();
+    }
+
+    @Test
+    public void appendsAreWrittenToAllInPositionOrder(@TempDirectory.TempDir Path tmpDir) {
+        RocksdbStorageEngine engine = new RocksdbStorageEngine("test", tmpDir.toFile().getAbsolutePath());
+        engine.open();
+        assertEquals(Position.END, engine.readHeadPosition());
+
+        engine.appendToStream("stream-sean", (int) ExpectedVersion.NO_STRREAM,
+                Arrays.asList("sean1".getBytes(UTF_8), "sean2".getBytes(UTF_8)));
+        engine.appendToStream("stream-suzanne", (int) ExpectedVersion.NO_STRREAM, "suzanne1".getBytes(UTF_8));
+        engine.appendToStream("stream-sean", 1, "sean3".getBytes(UTF_8));
+        assertEquals(3, engine.readHeadPosition());
+
+        String[] expected = {"sean1", "sean2", "suzanne1", "sean3"};
+        try (StoreIterator<byte[], byte[]> it = engine.readAll(Position.START)) {
+            for (int i = 0; i < expected.length; i++) {
+                KeyValue<byte[], byte[]> kv = it.next();
+                assertEquals(i, PositionCodec.decode(kv.key));
+                assertEquals("stream-" + expected[i].substring(0, expected[i].length() - 1), PositionCodec.streamId(kv.value));
+                assertArrayEquals(expected[i].getBytes(UTF_8),
+                        MessageRecordCodec.data(engine.get(PositionCodec.mainKey(kv.value))));
+            }
+            assertFalse(it.hasNext());
+        }
+
+        try (StoreIterator<byte[], byte[]> it = engine.readAll(2)) {
+            assertEquals(2, PositionCodec.decode(it.next().key));
+        }
+        engine.close();
+
+        // position allocator recovers from the last key in TOTAL_ORDERED
+        RocksdbStorageEngine reopened = new RocksdbStorageEngine("test", tmpDir.toFile().getAbsolutePath());
+        reopened.open();
+        assertEquals(3, reopened.readHeadPosition());
+        reopened.appendToStream("stream-suzanne", 0, "suzanne2".getBytes(UTF_8));
+        assertEquals(4, reopened.readHeadPosition());
+        reopened.close();
+    }
+
+    @Test
+    public void readPages(@TempDirectory.TempDir Path tmpDir) {
+        RocksdbStorageEngine engine = new RocksdbStorageEngine("test", tmpDir.toFile().getAbsolutePath());
+        engine.open();
+        for (int i = 0; i < 5; i++) {
+            engine.appendToStream("stream-sean", i - 1, ("sean" + i).getBytes(UTF_8));
+            engine.appendToStream("stream-suzanne", i - 1, ("suzanne" + i).getBytes(UTF_8));
+        }
+
+        ReadStreamPage page = engine.readStreamForwards("stream-sean", StreamVersion.START, 2, true);
+        assertEquals(PageReadStatus.SUCCESS, page.getStatus());
+        assertEquals(Arrays.asList(0L, 1L), versions(page.getMessages()));
+        assertArrayEquals("sean1".getBytes(UTF_8), page.getMessages().get(1).getData());
+        assertEquals(2, page.getMessages().get(1).getPosition());
+        assertEquals(2, page.getNextStreamVersion());
+        assertEquals(4, page.getLastStreamVersion());
+        assertFalse(page.isEnd());
+
+        page = engine.readStreamForwards("stream-sean", page.getNextStreamVersion(), 3, false);
+        assertEquals(Arrays.asList(2L, 3L, 4L), versions(page.getMessages()));
+        assertNull(page.getMessages().get(0).getData());
+        assertEquals(5, page.getNextStreamVersion());
+        assertTrue(page.isEnd());
+
+        page = engine.readStreamBackwards("stream-suzanne", StreamVersion.END, 3, true);
+        assertEquals(Arrays.asList(4L, 3L, 2L), versions(page.getMessages()));
+        assertArrayEquals("suzanne4".getBytes(UTF_8), page.getMessages().get(0).getData());
+        assertEquals(1, page.getNextStreamVersion());
+        assertFalse(page.isEnd());
+
+        page = engine.readStreamBackwards("stream-suzanne", page.getNextStreamVersion(), 3, false);
+        assertEquals(Arrays.asList(1L, 0L), versions(page.getMessages()));
+        assertTrue(page.isEnd());
+
+        page = engine.readStreamForwards("stream-nobody", StreamVersion.START, 3, true);
+        assertEquals(PageReadStatus.STREAM_NOT_FOUND, page.getStatus());
+        assertTrue(page.getMessages().isEmpty());
+
+        ReadAllPage allPage = engine.readAllForwards(Position.START, 4, false);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L), positions(allPage.getMessages()));
+        assertEquals("stream-suzanne", allPage.getMessages().get(1).getStreamId());
+        assertEquals(1, allPage.getMessages().get(2).getStreamVersion());
+        assertNull(allPage.getMessages().get(0).getData());
+        assertEquals(4, allPage.getNextPosition());
+        assertFalse(allPage.isEnd());
+
+        allPage = engine.readAllForwards(8, 4, true);
+        assertEquals(Arrays.asList(8L, 9L), positions(allPage.getMessages()));
+        assertArrayEquals("suzanne4".getBytes(UTF_8), allPage.getMessages().get(1).getData());
+        assertEquals(10, allPage.getNextPosition());
+        assertTrue(allPage.isEnd());
+
+        allPage = engine.readAllBackwards(Position.END, 3, true);
+        assertEquals(Arrays.asList(9L, 8L, 7L), positions(allPage.getMessages()));
+        assertArrayEquals("sean4".getBytes(UTF_8), allPage.getMessages().get(1).getData());
+        assertEquals(6, allPage.getNextPosition());
+        assertFalse(allPage.isEnd());
+
+        allPage = engine.readAllBackwards(1, 3, false);
+        assertEquals(Arrays.asList(1L, 0L), positions(allPage.getMessages()));
+        assertTrue(allPage.isEnd());
+
+        engine.close();
+    }
+
+    private static List<Long> versions(List<StreamMessage> messages) {
+        return messages.stream().map(StreamMessage::getStreamVersion).collect(Collectors.toList());
+    }
+
+    @Test
+    public void appendReturnsVersionAndPosition(@TempDirectory.TempDir Path tmpDir) {
+        RocksdbStorageEngine engine = new RocksdbStorageEngine("test", tmpDir.toFile().getAbsolutePath());
+        engine.open();
+
+        AppendResult result = engine.appendToStream("stream-sean", (int) ExpectedVersion.NO_STRREAM,
+                Arrays.asList("first".getBytes(UTF_8), "second".getBytes(UTF_8)));
+        assertEquals(new AppendResult(1, 1), result);
+
+        result = engine.appendToStream("stream-suzanne", (int) ExpectedVersion.ANY, "first".getBytes(UTF_8));
+        assertEquals(new AppendResult(0, 2), result);
+
+        // the version can be used as the next expected version without reading the stream
+        result = engine.appendToStream("stream-sean", (int) engine.appendToStream("stream-sean", 1,
+                "third".getBytes(UTF_8)).getCurrentVersion(), "fourth".getBytes(UTF_8));
+        assertEquals(new AppendResult(3, 4), result);
+        assertEquals(result.getCurrentPosition(), engine.readHeadPosition());
+
+        engine.close();
+    }
+
+    @Test
+    public void retriedAppendIsNotWrittenAgain(@TempDirectory.TempDir Path tmpDir) {
+        RocksdbStorageEngine engine = new RocksdbStorageEngine("test", tmpDir.toFile().getAbsolutePath());
+        engine.open();
+
+        NewStreamMessage first = NewStreamMessage.of("first".getBytes(UTF_8));
+        NewStreamMessage second = NewStreamMessage.of("second".getBytes(UTF_8));
+        AppendResult result = engine.appendToStream("stream-sean", (int) ExpectedVersion.NO_STRREAM, first, second);
+        long head = engine.readHeadPosition();
+
+        // same ids with the now stale expected version completes with the original result without writing
+        assertEquals(result, engine.appendToStream("stream-sean", (int) ExpectedVersion.NO_STRREAM, first, second));
+        assertEquals(result, engine.appendToStream("stream-sean", (int) ExpectedVersion.ANY, second));
+        assertEquals(head, engine.readHeadPosition());
+
+        ReadStreamPage page = engine.readStreamForwards("stream-sean", StreamVersion.START, 10, true);
+        assertEquals(2, page.getMessages().size());
+        assertEquals(first.getMessageId(), page.getMessages().get(0).getMessageId());
+        assertEquals(second.getMessageId(), page.getMessages().get(1).getMessageId());
+
+        // ids out of order aren't the original append so go through the expected version check
+        assertThrows(WrongExpectedVersion.class,
+                () -> engine.appendToStream("stream-sean", (int) ExpectedVersion.NO_STRREAM, second, first));
+        engine.appendToStream("stream-sean", 1, NewStreamMessage.of("third".getBytes(UTF_8)), first);
+        assertEquals(head + 2, engine.readHeadPosition());
+
+        engine.close();
+    }
+
+    @Test
+    public void retriedAppendIsNotWrittenAgainAfterReopen(@TempDirectory.TempDir Path tmpDir) {
+        RocksdbStorageEngine engine = new RocksdbStorageEngine("test", tmpDir.toFile().getAbsolutePath());
+        engine.open();
+        NewStreamMessage first = NewStreamMessage.of("first".getBytes(UTF_8));
+        NewStreamMessage second = NewStreamMessage.of("second".getBytes(UTF_8));
+        AppendResult result = engine.appendToStream("stream-sean", (int) ExpectedVersion.ANY, first, second);
+        long head = engine.readHeadPosition();
+        engine.flush();
+        engine.close();
+
+        engine.open();
+
+        // the retry timed out before the restart, nothing written since the restart knows its ids
+        assertEquals(result, engine.appendToStream("stream-sean", (int) ExpectedVersion.ANY, first, second));
+        assertEquals(result, engine.appendToStream("stream-sean", (int) ExpectedVersion.NO_STRREAM, first, second));
+        assertEquals(head, engine.readHeadPosition());
+        assertEquals(2, engine.readStreamForwards("stream-sean", StreamVersion.START, 10, false).getMessages().size());
+        engine.close();
+    }
+
+    private static List<Long> positions(List<StreamMessage> messages) {
+        return messages.stream().map(StreamMessage::getPosition).collect(Collectors.toList());
+    }
+}
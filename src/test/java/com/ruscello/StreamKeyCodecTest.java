@@ -0,0 +1,52 @@
+package com.ruscello;
+
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.UnsignedBytes;
+import com.ruscello.storage.StreamKeyCodec;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamKeyCodecTest {
+
+    @Test
+    public void hashMatchesGuava() {
+        StreamKeyCodec codec = new StreamKeyCodec();
+        for (String streamId : Arrays.asList("", "stream-sean", "stream-événement", "stream-😀",
+                new String(new char[300]).replace('\0', 'x'))) {
+            assertArrayEquals(Hashing.murmur3_128().hashString(streamId, UTF_8).asBytes(), codec.hash(streamId), streamId);
+        }
+    }
+
+    @Test
+    public void versionsSortNumerically() {
+        StreamKeyCodec codec = new StreamKeyCodec();
+        byte[] two = codec.key("stream-sean", 2).clone();
+        byte[] ten = codec.key("stream-sean", 10).clone();
+        byte[] large = codec.key("stream-sean", Integer.MAX_VALUE + 1L).clone();
+
+        assertEquals(StreamKeyCodec.KEY_SIZE, two.length);
+        assertTrue(UnsignedBytes.lexicographicalComparator().compare(two, ten) < 0);
+        assertTrue(UnsignedBytes.lexicographicalComparator().compare(ten, large) < 0);
+    }
+
+    @Test
+    public void decodeVersionFromKey() {
+        StreamKeyCodec codec = new StreamKeyCodec();
+        byte[] hash = codec.hash("stream-sean").clone();
+        byte[] key = codec.key(hash, 42);
+
+        assertEquals(42, StreamKeyCodec.version(key));
+        assertTrue(StreamKeyCodec.isStreamKey(key, hash));
+        assertFalse(StreamKeyCodec.isStreamKey(key, codec.hash("stream-suzanne")));
+
+        UnsafeBuffer buffer = new UnsafeBuffer(new byte[StreamKeyCodec.KEY_SIZE]);
+        StreamKeyCodec.encode(hash, 42, buffer, 0);
+        assertEquals(42, StreamKeyCodec.version(buffer));
+        assertTrue(StreamKeyCodec.isStreamKey(buffer, hash));
+    }
+}
@@ -0,0 +1,186 @@
+package com.ruscello;
+
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.storage.PostingsBlock;
+import com.ruscello.storage.StorageEngine;
+import com.ruscello.storage.StreamNameIndex;
+import com.ruscello.storage.StreamNameStore;
+import com.ruscello.storage.rocksdb.RocksdbStorageEngine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junitpioneer.jupiter.TempDirectory;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(TempDirectory.class)
+public class StreamNameIndexTest {
+
+    private static final List<String> STREAMS = Arrays.asList(
+            "orderPlaced-42",
+            "orderReplaced-43",
+            "customerAccount-7",
+            "HTTPRequestLog",
+            "shipmentDispatchedNotification");
+
+    @Test
+    public void namesAreSplitOnCamelCaseAndPunctuation() {
+        assertEquals(Arrays.asList("order", "placed", "http", "request42"),
+                StreamNameIndex.tokens("orderPlaced-HTTPRequest42"));
+        assertEquals(Arrays.asList("a", "b"), StreamNameIndex.tokens("__a..b__"));
+    }
+
+    @Test
+    public void search(@TempDirectory.TempDir Path tmpDir) {
+        Engines.forEach(tmpDir, StreamNameIndexTest::assertSearches);
+    }
+
+
+    @Test
+    public void idsCarryOnAfterReopen(@TempDirectory.TempDir Path tmpDir) {
+        RocksdbStorageEngine engine = new RocksdbStorageEngine("test", tmpDir.toFile().getAbsolutePath());
+        engine.open();
+        engine.appendToStream("orderPlaced-1", (int) ExpectedVersion.NO_STRREAM, "first".getBytes(UTF_8));
+        engine.flush();
+        engine.close();
+
+        engine.open();
+        try {
+            engine.appendToStream("orderPlaced-2", (int) ExpectedVersion.NO_STRREAM, "first".getBytes(UTF_8));
+            assertEquals(Arrays.asList("orderPlaced-1", "orderPlaced-2"), engine.searchStreamNames("order", 10));
+        } finally {
+            engine.close();
+        }
+    }
+
+    @Test
+    public void blocksSwitchToBitmapsWhenDense() {
+        int[] evens = new int[3000];
+        int[] odds = new int[3000];
+        for (int i = 0; i < evens.length; i++) {
+            evens[i] = i * 2;
+            odds[i] = i * 2 + 1;
+        }
+        byte[] array = PostingsBlock.add(null, evens, evens.length);
+        assertEquals(1 + evens.length * 2, array.length);
+        // adding what's already there changes nothing
+        assertArrayEquals(array, PostingsBlock.add(array, evens, 10));
+
+        byte[] bitmap = PostingsBlock.add(array, odds, odds.length);
+        assertEquals(1 + PostingsBlock.WORDS * Long.BYTES, bitmap.length);
+        assertEquals(6000, PostingsBlock.cardinality(bitmap));
+        byte[] bigger = PostingsBlock.add(bitmap, new int[]{65535}, 1);
+        assertEquals(6001, PostingsBlock.cardinality(bigger));
+
+        long[] words = new long[PostingsBlock.WORDS];
+        PostingsBlock.decode(bigger, words);
+        assertTrue(PostingsBlock.and(words, array));
+        assertEquals(evens.length, Arrays.stream(words).map(Long::bitCount).sum());
+        assertFalse(PostingsBlock.and(words, PostingsBlock.add(null, odds, odds.length)));
+    }
+
+    @Test
+    public void everyTermIsIntersectedAcrossBlocks() {
+        TreeMap<byte[], byte[]> store = new TreeMap<>(StreamNameIndexTest::compareUnsigned);
+        StreamNameIndex.Writer writer = new StreamNameIndex.Writer();
+        writer.recover(null);
+        writer.add("alpha-gamma-0", hash(0));
+        // names too short to have grams fill the rest of the first block
+        for (int id = 1; id < PostingsBlock.BLOCK_SIZE; id++) {
+            writer.add("x", hash(id));
+        }
+        writer.add("alpha-gamma-1", hash(PostingsBlock.BLOCK_SIZE));
+        writer.add("alpha-beta-1", hash(PostingsBlock.BLOCK_SIZE + 1));
+        writer.write(store::get, store::put);
+        writer.committed();
+
+        // beta has no block 0 so the leapfrog ends on alpha's block 1, beta still has to be intersected
+        assertEquals(Arrays.asList("alpha-beta-1"), StreamNameIndex.search(new MapCursor(store), "alpha beta", 10));
+        assertEquals(Arrays.asList("alpha-beta-1"), StreamNameIndex.search(new MapCursor(store), "beta alpha", 10));
+        assertEquals(Arrays.asList("alpha-gamma-0", "alpha-gamma-1"),
+                StreamNameIndex.search(new MapCursor(store), "gamma alpha", 10));
+    }
+
+    private static <E extends StorageEngine & StreamNameStore> void assertSearches(E engine) {
+        for (String stream : STREAMS) {
+            engine.appendToStream(stream, (int) ExpectedVersion.NO_STRREAM, "first".getBytes(UTF_8));
+            // only the first append indexes the stream
+            engine.appendToStream(stream, (int) ExpectedVersion.ANY, "second".getBytes(UTF_8));
+        }
+
+        assertEquals(set("orderPlaced-42", "orderReplaced-43"), set(engine.searchStreamNames("ord", 10)));
+        assertEquals(set("orderPlaced-42"), set(engine.searchStreamNames("order pla", 10)));
+        assertEquals(set("orderPlaced-42", "orderReplaced-43"), set(engine.searchStreamNames("*laced", 10)));
+        assertEquals(set("HTTPRequestLog"), set(engine.searchStreamNames("httpReq", 10)));
+        // longer than the longest gram so the candidates are checked against the names
+        assertEquals(set("shipmentDispatchedNotification"), set(engine.searchStreamNames("notification", 10)));
+        assertTrue(engine.searchStreamNames("notificationz", 10).isEmpty());
+        assertTrue(engine.searchStreamNames("order customer", 10).isEmpty());
+        assertTrue(engine.searchStreamNames("o", 10).isEmpty());
+        assertEquals(1, engine.searchStreamNames("order", 1).size());
+    }
+
+    private static Set<String> set(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    private static Set<String> set(List<String> names) {
+        return new HashSet<>(names);
+    }
+
+    private static byte[] hash(int id) {
+        byte[] hash = new byte[16];
+        hash[0] = (byte) (id >>> 24);
+        hash[1] = (byte) (id >>> 16);
+        hash[2] = (byte) (id >>> 8);
+        hash[3] = (byte) id;
+        return hash;
+    }
+
+    private static int compareUnsigned(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static final class MapCursor implements StreamNameIndex.Cursor {
+        private final TreeMap<byte[], byte[]> store;
+        private Map.Entry<byte[], byte[]> entry;
+
+        MapCursor(TreeMap<byte[], byte[]> store) {
+            this.store = store;
+        }
+
+        @Override
+        public boolean seek(byte[] key) {
+            entry = store.ceilingEntry(key);
+            return entry != null;
+        }
+
+        @Override
+        public byte[] key() {
+            return entry.getKey();
+        }
+
+        @Override
+        public byte[] value() {
+            return entry.getValue();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
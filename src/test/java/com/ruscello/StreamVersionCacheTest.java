@@ -0,0 +1,54 @@
+package com.ruscello;
+
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.storage.StreamKeyCodec;
+import com.ruscello.storage.StreamVersionCache;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamVersionCacheTest {
+
+    private final StreamKeyCodec codec = new StreamKeyCodec();
+
+    @Test
+    public void missingUntilPut() {
+        StreamVersionCache cache = new StreamVersionCache(4);
+        assertEquals(StreamVersionCache.MISSING, cache.get(codec.hash("stream-sean")));
+
+        cache.put(codec.hash("stream-sean"), ExpectedVersion.NO_STRREAM);
+        assertEquals(ExpectedVersion.NO_STRREAM, cache.get(codec.hash("stream-sean")));
+
+        cache.put(codec.hash("stream-sean"), 3);
+        assertEquals(3, cache.get(codec.hash("stream-sean")));
+    }
+
+    @Test
+    public void secondHalfOfHashMustMatch() {
+        StreamVersionCache cache = new StreamVersionCache(4);
+        byte[] hash = codec.hash("stream-sean").clone();
+        cache.put(hash, 7);
+
+        hash[15] ^= 1;
+        assertEquals(StreamVersionCache.MISSING, cache.get(hash));
+    }
+
+    @Test
+    public void boundedToTwoGenerations() {
+        StreamVersionCache cache = new StreamVersionCache(2);
+        cache.put(codec.hash("stream-0"), 0);
+        cache.put(codec.hash("stream-1"), 1);
+        // young is full so stream-0 and stream-1 become the old generation
+        cache.put(codec.hash("stream-2"), 2);
+        // a hit in the old generation moves the stream back to the young one
+        assertEquals(0, cache.get(codec.hash("stream-0")));
+        // young is full again so stream-1 is dropped with the old generation
+        cache.put(codec.hash("stream-3"), 3);
+
+        assertEquals(StreamVersionCache.MISSING, cache.get(codec.hash("stream-1")));
+        assertEquals(0, cache.get(codec.hash("stream-0")));
+        assertEquals(2, cache.get(codec.hash("stream-2")));
+        assertEquals(3, cache.get(codec.hash("stream-3")));
+        assertTrue(cache.size() <= 4);
+    }
+}
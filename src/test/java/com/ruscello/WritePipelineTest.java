@@ -0,0 +1,187 @@
+package com.ruscello;
+
+import com.ruscello.core.ExpectedVersion;
+import com.ruscello.core.NewStreamMessage;
+import com.ruscello.core.PageReadStatus;
+import com.ruscello.core.ReadStreamPage;
+import com.ruscello.core.WrongExpectedVersion;
+import com.ruscello.core.messages.client.AppendResult;
+import com.ruscello.storage.ProcessorStateException;
+import com.ruscello.storage.lmdb.LmbdStorageEngine;
+import com.ruscello.storage.rocksdb.RocksdbStorageEngine;
+import com.ruscello.write.WritePipeline;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junitpioneer.jupiter.TempDirectory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(TempDirectory.class)
+public class WritePipelineTest {
+
+    @Test
+    public void concurrentAppendsAreCommittedInOrder(@TempDirectory.TempDir Path tmpDir) throws Exception {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        WritePipeline pipeline = new WritePipeline(engine);
+        List<String> committed = Collections.synchronizedList(new ArrayList<>());
+        pipeline.subscribe((streamId, firstVersion, firstPosition, messages) ->
+                committed.add(streamId + "@" + firstVersion));
+        pipeline.start();
+
+        int producers = 8;
+        int appendsPerProducer = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final String streamId = "stream-" + p;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < appendsPerProducer; i++) {
+                    AppendResult result = pipeline.appendToStream(streamId, i - 1, ("message-" + i).getBytes(UTF_8));
+                    assertEquals(i, result.getCurrentVersion());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertThrows(WrongExpectedVersion.class, () -> pipeline.appendToStream("stream-0", 0, "late".getBytes(UTF_8)));
+        AppendResult next = pipeline.appendToStream("stream-0", appendsPerProducer - 1, "next".getBytes(UTF_8));
+        assertEquals(producers * appendsPerProducer, next.getCurrentPosition());
+
+        pipeline.close();
+        assertEquals(producers * appendsPerProducer + 1, committed.size());
+        for (int p = 0; p < producers; p++) {
+            int version = 0;
+            for (String append : committed) {
+                if (append.startsWith("stream-" + p + "@")) {
+                    assertEquals("stream-" + p + "@" + version++, append);
+                }
+            }
+        }
+        engine.close();
+    }
+
+    @Test
+    public void onlyOneCreatorWins(@TempDirectory.TempDir Path tmpDir) throws Exception {
+        RocksdbStorageEngine engine = new RocksdbStorageEngine("test", tmpDir.toFile().getAbsolutePath());
+        engine.open();
+        WritePipeline pipeline = new WritePipeline(engine);
+        pipeline.start();
+
+        int creators = 16;
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger conflicts = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(creators);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < creators; i++) {
+            futures.add(executor.submit(() -> {
+                try {
+                    pipeline.appendToStream("stream-sean", (int) ExpectedVersion.NO_STRREAM,
+                            Arrays.asList("first".getBytes(UTF_8), "second".getBytes(UTF_8)));
+                    created.incrementAndGet();
+                } catch (WrongExpectedVersion e) {
+                    conflicts.incrementAndGet();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(1, created.get());
+        assertEquals(creators - 1, conflicts.get());
+        assertEquals(1, engine.readHeadPosition());
+
+        pipeline.close();
+        engine.close();
+    }
+
+    @Test
+    public void retriesCompleteWithTheOriginalResult(@TempDirectory.TempDir Path tmpDir) {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        WritePipeline pipeline = new WritePipeline(engine);
+        AtomicInteger delivered = new AtomicInteger();
+        pipeline.subscribe((streamId, firstVersion, firstPosition, messages) -> delivered.incrementAndGet());
+        pipeline.start();
+
+        NewStreamMessage first = NewStreamMessage.of("first".getBytes(UTF_8));
+        NewStreamMessage second = NewStreamMessage.of("second".getBytes(UTF_8));
+        AppendResult result = pipeline.appendToStream("stream-sean", (int) ExpectedVersion.NO_STRREAM, first, second);
+        assertEquals(result, pipeline.appendToStream("stream-sean", (int) ExpectedVersion.NO_STRREAM, first, second));
+
+        // the pipeline's view of the stream is still right after the retry
+        AppendResult third = pipeline.appendToStream("stream-sean", 1, NewStreamMessage.of("third".getBytes(UTF_8)));
+        assertEquals(new AppendResult(2, 2), third);
+
+        pipeline.close();
+        assertEquals(2, delivered.get());
+        engine.close();
+    }
+
+    @Test
+    public void invalidAppendsAreRejected(@TempDirectory.TempDir Path tmpDir) {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null);
+        engine.open();
+        WritePipeline pipeline = new WritePipeline(engine);
+        pipeline.start();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> pipeline.appendToStream("", (int) ExpectedVersion.ANY, "first".getBytes(UTF_8)));
+        assertThrows(IllegalArgumentException.class,
+                () -> pipeline.appendToStream("stream-sean", (int) ExpectedVersion.ANY));
+        assertThrows(IllegalArgumentException.class,
+                () -> pipeline.appendToStream("stream-sean", (int) ExpectedVersion.INVALID, "first".getBytes(UTF_8)));
+        assertEquals(new AppendResult(0, 0),
+                pipeline.appendToStream("stream-sean", (int) ExpectedVersion.ANY, "first".getBytes(UTF_8)));
+
+        pipeline.close();
+        engine.close();
+    }
+
+    @Test
+    public void appendsAreFailedWhenAStageThrows(@TempDirectory.TempDir Path tmpDir) {
+        LmbdStorageEngine engine = new LmbdStorageEngine(tmpDir.toFile(), null) {
+            @Override
+            public ReadStreamPage readStreamBackwards(String streamId, long fromVersionInclusive, int maxCount,
+                                                      boolean prefetch) {
+                if (streamId.equals("stream-broken")) {
+                    throw new ProcessorStateException("read failed");
+                }
+                return super.readStreamBackwards(streamId, fromVersionInclusive, maxCount, prefetch);
+            }
+        };
+        engine.open();
+        WritePipeline pipeline = new WritePipeline(engine);
+        pipeline.start();
+
+        // the expected version check can't read the head so the append fails rather than going on to storage
+        ProcessorStateException e = assertThrows(ProcessorStateException.class,
+                () -> pipeline.appendToStream("stream-broken", (int) ExpectedVersion.ANY, "first".getBytes(UTF_8)));
+        assertEquals("read failed", e.getMessage());
+        assertEquals(PageReadStatus.STREAM_NOT_FOUND,
+                engine.readStreamForwards("stream-broken", 0, 10, false).getStatus());
+
+        assertEquals(new AppendResult(0, 0),
+                pipeline.appendToStream("stream-sean", (int) ExpectedVersion.ANY, "first".getBytes(UTF_8)));
+
+        pipeline.close();
+        engine.close();
+    }
+}